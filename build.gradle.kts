@@ -6,7 +6,24 @@ group = "io.github.heathensoft"
 version = "1.0-SNAPSHOT"
 
 repositories {
-    //mavenCentral()
+    mavenCentral { // benchmarks only
+        content {
+            includeGroup("org.openjdk.jmh")
+            includeGroup("net.sf.jopt-simple")
+            includeGroup("org.apache.commons")
+        }
+    }
+}
+
+// jdk.incubator.vector kernels. Not part of build (incubator warnings): gradle vectorJar
+val vector: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+    runtimeClasspath += sourceSets.main.get().output + sourceSets.main.get().runtimeClasspath
+}
+
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += vector.output + sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+    runtimeClasspath += vector.output + sourceSets.main.get().output + sourceSets.main.get().runtimeClasspath
 }
 
 dependencies {
@@ -15,5 +32,58 @@ dependencies {
     runtimeOnly(files("libs/natives/lwjgl-glfw-natives-windows.jar"))
     runtimeOnly(files("libs/natives/lwjgl-opengl-natives-windows.jar"))
     runtimeOnly(files("libs/natives/lwjgl-stb-natives-windows.jar"))
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
 }
 
+
+listOf(vector.compileJavaTaskName, jmh.compileJavaTaskName).forEach { name ->
+    tasks.named<JavaCompile>(name) {
+        options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector"))
+    }
+}
+
+// run with -Dcanvas.vector=true and --add-modules jdk.incubator.vector, next to the main jar
+tasks.register<Jar>("vectorJar") {
+    group = "build"
+    description = "Packages the Vector API kernels"
+    archiveClassifier.set("vector")
+    from(vector.output)
+}
+
+// not part of build: gradle jmh (needs maven central)
+tasks.register<JavaExec>("jmh") {
+    group = "verification"
+    description = "Runs the JMH benchmarks"
+    classpath = jmh.runtimeClasspath
+    jvmArgs("--add-modules", "jdk.incubator.vector")
+    mainClass.set("org.openjdk.jmh.Main")
+    args(project.findProperty("jmh.args")?.toString()?.split(" ") ?: emptyList<String>())
+}
+
+// Tests are plain main classes (no test framework in the offline build). A test fails by throwing.
+val selfTests = listOf(
+    "io.github.heathensoft.canvas.ReadbackRingTest",
+    "io.github.heathensoft.canvas.SourceWatcherTest",
+    "io.github.heathensoft.canvas.TilePoolTest",
+    "io.github.heathensoft.canvas.cpu.HorizonMapTest",
+    "io.github.heathensoft.canvas.io.AtlasPackerTest",
+    "io.github.heathensoft.canvas.io.CanvasFileTest",
+    "io.github.heathensoft.canvas.io.DeltaCodecTest",
+    "io.github.heathensoft.canvas.io.HistoryFileTest",
+    "io.github.heathensoft.canvas.io.PackedMapsTest",
+    "io.github.heathensoft.canvas.io.PngEncoderTest",
+)
+
+tasks.test {
+    failOnNoDiscoveredTests.set(false)
+}
+
+selfTests.forEach { test ->
+    val task = tasks.register<JavaExec>("run" + test.substringAfterLast('.')) {
+        group = "verification"
+        classpath = sourceSets.test.get().runtimeClasspath
+        mainClass.set(test)
+    }
+    tasks.check { dependsOn(task) }
+}
@@ -0,0 +1,55 @@
+package io.github.heathensoft.canvas.cpu;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scalar vs. Vector API normal mapping. Single thread, whole texture.
+ * gradle jmh -Pjmh.args="NormalMappingBenchmark"
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class NormalMappingBenchmark {
+
+    @Param({"256", "1024"})
+    public int size;
+
+    private CpuProject project;
+    private PipelineSettings settings;
+
+    @Setup
+    public void setup() {
+        if (!NormalMappingPass.VECTOR_API) {
+            throw new IllegalStateException("jdk.incubator.vector not present");
+        } project = new CpuProject("benchmark",size,size);
+        settings = new PipelineSettings();
+        Random rnd = new Random(size);
+        for (int i = 0; i < size * size; i++) {
+            project.depth().put(i,(byte) rnd.nextInt(256));
+            project.colorSource().put(i * 4 + 3,(byte) (rnd.nextInt(8) == 0 ? 0 : 0xFF));
+        }
+    }
+
+    @Benchmark
+    public Object scalar() {
+        NormalMappingPass.processScalar(project,settings,0,0,size,size);
+        return project.normals();
+    }
+
+    @Benchmark
+    public Object vector() {
+        NormalMappingVector.process(project,settings,0,0,size,size);
+        return project.normals();
+    }
+}
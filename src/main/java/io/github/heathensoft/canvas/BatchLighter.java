@@ -0,0 +1,353 @@
+package io.github.heathensoft.canvas;
+
+import io.github.heathensoft.canvas.cpu.CpuPipeline;
+import io.github.heathensoft.canvas.cpu.CpuProject;
+import io.github.heathensoft.canvas.cpu.PipelineSettings;
+import io.github.heathensoft.canvas.io.PackedMaps;
+import io.github.heathensoft.canvas.io.PngEncoder;
+import io.github.heathensoft.canvas.io.PngExporter;
+import io.github.heathensoft.canvas.io.ProjectImporter;
+import org.tinylog.Logger;
+
+import javax.imageio.ImageIO;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Headless batch processing. No window, no OpenGL: The sprites are decoded with ImageIO,
+ * rendered by the CpuPipeline and written with the PngEncoder.
+ *
+ * Files are grouped by the PngExporter suffixes: "name.png" (or "name_color.png") is the color source,
+ * "name_details.png", "name_volume.png", "name_specular.png" and "name_emissive.png" are optional channels,
+ * "name_material.png" an optional packed material map (PackedMaps).
+ * For every sprite the depth, normals, occlusion, shadows and preview maps are written. Packed (-p):
+ * surface (depth, specular, emissive, occlusion), octahedral normals, shadows and preview.
+ * Sprites are processed in parallel on a work-stealing pool. The passes of each sprite fork into the same pool,
+ * so small and large sprites keep every worker busy.
+ * Sprites whose outputs are all newer than their inputs are skipped (resume). Outputs are written to temp files
+ * and moved into place, so an interrupted run never leaves an output that looks up to date.
+ *
+ * usage: BatchLighter input_directory [-o output_directory] [-r] [-f] [-p] [-t threads] [-s shadow_mode]
+ *   -r  recursive (the directory structure is kept in the output directory)
+ *   -p  packed outputs
+ *   -f  force. Process sprites that are up to date
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class BatchLighter {
+    
+    private static final String EXTENSION = ".png";
+    private static final String[] INPUT_SUFFIXES = {
+            PngExporter.details_suffix, PngExporter.volume_suffix,
+            PngExporter.specular_suffix, PngExporter.emissive_suffix };
+    private static final String[] OUTPUT_SUFFIXES = {
+            PngExporter.depth_suffix, PngExporter.normals_suffix, PngExporter.occlusion_suffix,
+            PngExporter.shadows_suffix, PngExporter.preview_suffix };
+    private static final String[] PACKED_OUTPUT_SUFFIXES = {
+            PngExporter.surface_suffix, PngExporter.octahedral_suffix,
+            PngExporter.shadows_suffix, PngExporter.preview_suffix };
+    
+    /**
+     * @param material packed material map or null
+     * @param channels indexed by ENUM.Channel id. null: default (or from the material map)
+     */
+    public record Sprite(String name, Path color, Path material, Path[] channels, Path output_directory) {
+    
+        public Path output(String suffix) {
+            return output_directory.resolve(name + suffix + EXTENSION);
+        }
+    
+        /** All outputs exist and none are older than the newest input */
+        public boolean upToDate(String[] output_suffixes) throws IOException {
+            FileTime newest_input = Files.getLastModifiedTime(color);
+            List<Path> inputs = new ArrayList<>(Arrays.asList(channels));
+            inputs.add(material);
+            for (Path path : inputs) {
+                if (path != null) {
+                    FileTime time = Files.getLastModifiedTime(path);
+                    if (time.compareTo(newest_input) > 0) newest_input = time;
+                }
+            } for (String suffix : output_suffixes) {
+                Path output = output(suffix);
+                if (!Files.isRegularFile(output)) return false;
+                if (Files.getLastModifiedTime(output).compareTo(newest_input) < 0) return false;
+            } return true;
+        }
+    }
+    
+    public record Result(int processed, int skipped, int failed, long time_ms) {
+        public float spritesPerSecond() {
+            return time_ms == 0 ? 0 : processed * 1000f / time_ms;
+        }
+    }
+    
+    private final ForkJoinPool pool;
+    private final PngEncoder encoder;
+    private final PipelineSettings settings;
+    private CpuPipeline.ShadowMode shadow_mode = CpuPipeline.ShadowMode.SWEEP;
+    private boolean force;
+    private boolean packed;
+    
+    public BatchLighter(ForkJoinPool pool) {
+        this.pool = pool;
+        this.encoder = new PngEncoder(pool,PngEncoder.Preset.FAST);
+        this.settings = new PipelineSettings();
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Path input = null;
+        Path output = null;
+        boolean recursive = false;
+        boolean force = false;
+        boolean packed = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        CpuPipeline.ShadowMode shadow_mode = CpuPipeline.ShadowMode.SWEEP;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-o" -> output = Path.of(args[++i]);
+                case "-r" -> recursive = true;
+                case "-f" -> force = true;
+                case "-p" -> packed = true;
+                case "-t" -> threads = Math.max(1,Integer.parseInt(args[++i]));
+                case "-s" -> shadow_mode = CpuPipeline.ShadowMode.valueOf(args[++i].toUpperCase());
+                default -> input = Path.of(args[i]);
+            }
+        } if (input == null || !Files.isDirectory(input)) {
+            System.out.println("usage: BatchLighter input_directory [-o output_directory] [-r] [-f] [-p] [-t threads] [-s shadow_mode]");
+            System.exit(1);
+        } List<Sprite> sprites = collect(input,output == null ? input : output,recursive);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            BatchLighter lighter = new BatchLighter(pool);
+            lighter.setForce(force);
+            lighter.setPacked(packed);
+            lighter.setShadowMode(shadow_mode);
+            Result result = lighter.process(sprites);
+            if (result.failed > 0) System.exit(2);
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * Groups the png files of the directory into sprites.
+     * Files with an output suffix are ignored. Channels without a color source are skipped (logged).
+     */
+    public static List<Sprite> collect(Path input, Path output, boolean recursive) throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = recursive ? Files.walk(input) : Files.list(input)) {
+            files = stream.filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().toLowerCase().endsWith(EXTENSION))
+                    .sorted().toList();
+        } Map<Path,Path> colors = new LinkedHashMap<>(); // key: directory/name
+        Map<Path,Path> materials = new HashMap<>();
+        Map<Path,Path[]> channels = new HashMap<>();
+        outer:
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            name = name.substring(0,name.length() - EXTENSION.length());
+            for (String suffix : OUTPUT_SUFFIXES) {
+                if (name.endsWith(suffix)) continue outer;
+            } for (String suffix : PACKED_OUTPUT_SUFFIXES) {
+                if (name.endsWith(suffix)) continue outer;
+            } if (name.endsWith(PngExporter.material_suffix)) {
+                String key = name.substring(0,name.length() - PngExporter.material_suffix.length());
+                materials.put(file.resolveSibling(key),file);
+                continue;
+            } for (ENUM.Channel channel : ENUM.Channel.ALL) {
+                String suffix = INPUT_SUFFIXES[channel.id];
+                if (name.endsWith(suffix)) {
+                    Path key = file.resolveSibling(name.substring(0,name.length() - suffix.length()));
+                    channels.computeIfAbsent(key,k -> new Path[ENUM.Channel.SIZE])[channel.id] = file;
+                    continue outer;
+                }
+            } if (name.endsWith(PngExporter.color_suffix)) {
+                name = name.substring(0,name.length() - PngExporter.color_suffix.length());
+            } colors.putIfAbsent(file.resolveSibling(name),file);
+        } List<Sprite> sprites = new ArrayList<>(colors.size());
+        for (Map.Entry<Path,Path> entry : colors.entrySet()) {
+            Path key = entry.getKey();
+            Path directory = output.resolve(input.relativize(key.getParent()));
+            Path[] sprite_channels = channels.remove(key);
+            if (sprite_channels == null) sprite_channels = new Path[ENUM.Channel.SIZE];
+            Path material = materials.remove(key);
+            sprites.add(new Sprite(key.getFileName().toString(),entry.getValue(),material,sprite_channels,directory));
+        } Set<Path> orphans = new TreeSet<>(channels.keySet());
+        orphans.addAll(materials.keySet());
+        for (Path key : orphans) {
+            Logger.warn("no color source for: {}",key);
+        } return sprites;
+    }
+    
+    /** Blocks until every sprite is processed */
+    public Result process(List<Sprite> sprites) {
+        AtomicInteger processed = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        int report_interval = Math.max(1,sprites.size() / 20);
+        long start = System.currentTimeMillis();
+        List<Callable<Void>> tasks = new ArrayList<>(sprites.size());
+        for (Sprite sprite : sprites) {
+            tasks.add(() -> {
+                try {
+                    if (!force && sprite.upToDate(packed ? PACKED_OUTPUT_SUFFIXES : OUTPUT_SUFFIXES)) {
+                        skipped.incrementAndGet();
+                    } else {
+                        process(sprite);
+                        processed.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    Logger.error(e,"unable to process: {}",sprite.color);
+                    failed.incrementAndGet();
+                } int done = processed.get() + skipped.get() + failed.get();
+                if (done % report_interval == 0) {
+                    long time = Math.max(1,System.currentTimeMillis() - start);
+                    Logger.info("{} / {} sprites ({} sprites/sec)",done,sprites.size(),
+                    String.format("%.1f",processed.get() * 1000f / time));
+                } return null;
+            });
+        } pool.invokeAll(tasks);
+        Result result = new Result(processed.get(),skipped.get(),failed.get(),System.currentTimeMillis() - start);
+        Logger.info("processed: {}, up to date: {}, failed: {}, {} ms ({} sprites/sec)",
+        result.processed,result.skipped,result.failed,result.time_ms,String.format("%.1f",result.spritesPerSecond()));
+        return result;
+    }
+    
+    /** Renders and writes every output of the sprite. Any thread */
+    public void process(Sprite sprite) throws IOException {
+        ProjectImporter.Header header = ProjectImporter.readHeader(sprite.color);
+        int width = header.width();
+        int height = header.height();
+        List<Path> inputs = new ArrayList<>(Arrays.asList(sprite.channels));
+        inputs.add(sprite.material);
+        for (Path path : inputs) {
+            if (path != null) {
+                ProjectImporter.Header channel = ProjectImporter.readHeader(path);
+                if (channel.width() != width || channel.height() != height) {
+                    throw new IOException(ENUM.ImportStatus.SIZES_NOT_MATCHING.description + ": " + path);
+                }
+            }
+        } CpuProject project = new CpuProject(sprite.name,width,height);
+        Pixels color = decode(sprite.color,width,height);
+        project.setColorSource(color.data,color.channels);
+        if (sprite.material != null) {
+            Pixels material = decode(sprite.material,width,height);
+            if (material.channels != 4) throw new IOException("material map is not RGBA: " + sprite.material);
+            for (ENUM.Channel channel : ENUM.Channel.ALL) {
+                byte[] texels = PackedMaps.component(material.data,width * height,4,channel.id);
+                project.setChannel(channel,ByteBuffer.wrap(texels),1);
+            }
+        } else if (sprite.channels[ENUM.Channel.DETAILS.id] == null) {
+            project.setChannel(ENUM.Channel.DETAILS,color.data,color.channels);
+        }
+        for (ENUM.Channel channel : ENUM.Channel.ALL) {
+            Path path = sprite.channels[channel.id];
+            if (path != null) {
+                Pixels pixels = decode(path,width,height);
+                project.setChannel(channel,pixels.data,pixels.channels);
+            }
+        } CpuPipeline pipeline = new CpuPipeline(pool);
+        pipeline.setShadowMode(shadow_mode);
+        pipeline.settings().set(settings);
+        pipeline.process(project);
+        Files.createDirectories(sprite.output_directory);
+        int texels = width * height;
+        if (packed) {
+            ByteBuffer surface = PackedMaps.interleave(texels,project.depth(),
+            project.backBuffer(ENUM.Channel.SPECULAR),project.backBuffer(ENUM.Channel.EMISSIVE),project.occlusion());
+            write(sprite.output(PngExporter.surface_suffix),surface,width,height,4);
+            write(sprite.output(PngExporter.octahedral_suffix),PackedMaps.encodeOctahedral(project.normals(),texels),width,height,2);
+        } else {
+            write(sprite.output(PngExporter.depth_suffix),project.depth(),width,height,1);
+            write(sprite.output(PngExporter.normals_suffix),project.normals(),width,height,3);
+            write(sprite.output(PngExporter.occlusion_suffix),project.occlusion(),width,height,1);
+        } write(sprite.output(PngExporter.shadows_suffix),project.shadow(),width,height,1);
+        write(sprite.output(PngExporter.preview_suffix),project.preview(),width,height,4);
+    }
+    
+    /** Applied to every sprite processed after the call */
+    public PipelineSettings settings() {
+        return settings;
+    }
+    
+    public void setShadowMode(CpuPipeline.ShadowMode mode) {
+        this.shadow_mode = mode;
+    }
+    
+    /** @param force process sprites that are up to date */
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+    
+    /** @param packed write packed outputs (PackedMaps) */
+    public void setPacked(boolean packed) {
+        this.packed = packed;
+    }
+    
+    private void write(Path file, ByteBuffer pixels, int width, int height, int channels) throws IOException {
+        Path temp = Files.createTempFile(file.getParent(),file.getFileName().toString(),".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+            encoder.encode(out,pixels,width,height,channels,true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        } Files.move(temp,file,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    private record Pixels(int channels, ByteBuffer data) { }
+    
+    /**
+     * Rows bottom up (texture space), 1 byte per channel.
+     * Grey images keep their samples (no color space conversion), others are converted to sRGB.
+     */
+    private static Pixels decode(Path file, int width, int height) throws IOException {
+        BufferedImage image = ImageIO.read(file.toFile());
+        if (image == null) throw new IOException("unable to decode: " + file);
+        if (image.getWidth() != width || image.getHeight() != height) {
+            throw new IOException(ENUM.ImportStatus.SIZES_NOT_MATCHING.description + ": " + file);
+        } ColorModel model = image.getColorModel();
+        boolean grey = model.getColorSpace().getType() == ColorSpace.TYPE_GRAY;
+        int channels = (grey ? 1 : 3) + (model.hasAlpha() ? 1 : 0);
+        ByteBuffer data = ByteBuffer.allocateDirect(width * height * channels);
+        Raster raster = image.getRaster();
+        int[] row = new int[width * (grey ? channels : 1)];
+        for (int y = 0; y < height; y++) {
+            int offset = (height - 1 - y) * width * channels;
+            if (grey) {
+                raster.getPixels(0,y,width,1,row);
+                for (int i = 0; i < row.length; i++) {
+                    int max = (1 << model.getComponentSize(i % channels)) - 1;
+                    data.put(offset + i,(byte) ((row[i] * 255 + max / 2) / max));
+                }
+            } else {
+                image.getRGB(0,y,width,1,row,0,width);
+                for (int x = 0; x < width; x++) {
+                    int argb = row[x];
+                    int i = offset + x * channels;
+                    data.put(i,(byte) (argb >> 16));
+                    data.put(i + 1,(byte) (argb >> 8));
+                    data.put(i + 2,(byte) argb);
+                    if (channels == 4) data.put(i + 3,(byte) (argb >> 24));
+                }
+            }
+        } return new Pixels(channels,data);
+    }
+}
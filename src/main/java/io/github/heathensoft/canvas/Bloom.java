@@ -0,0 +1,147 @@
+package io.github.heathensoft.canvas;
+
+import io.github.heathensoft.jlib.common.Disposable;
+import io.github.heathensoft.jlib.lwjgl.graphics.Framebuffer;
+import io.github.heathensoft.jlib.lwjgl.graphics.Texture;
+import io.github.heathensoft.jlib.lwjgl.graphics.TextureFormat;
+import io.github.heathensoft.jlib.lwjgl.utils.MathLib;
+import org.joml.Vector2f;
+import org.lwjgl.system.MemoryStack;
+
+import java.nio.IntBuffer;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL14.*;
+
+/**
+ * Bloom mip pyramid. Level 0 is full res (the thresholded / emissive preview).
+ * Every level below is half the size of the one above (13-tap downsample).
+ * The levels are then added back up with a 3x3 tent, and level 0 is added to the preview.
+ * The cost is ~1.33 full res passes, independent of the bloom radius.
+ * Allocated by the project only while bloom is enabled.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class Bloom implements Disposable {
+    
+    public static final int MAX_LEVELS = 6;
+    public static final int MIN_LEVEL_SIZE = 4;
+    
+    private final Framebuffer[] levels;
+    
+    public Bloom(int width, int height) throws Exception {
+        int count = levels(width,height);
+        levels = new Framebuffer[count];
+        for (int i = 0; i < count; i++) {
+            Framebuffer framebuffer = new Framebuffer(width,height);
+            Framebuffer.bind(framebuffer);
+            Texture texture = Texture.generate2D(width,height);
+            texture.bindToActiveSlot();
+            texture.allocate(i == 0 ? TextureFormat.RGB8_UNSIGNED_NORMALIZED :
+                    TextureFormat.RGB16_UNSIGNED_NORMALIZED,false);
+            texture.filter(GL_LINEAR,GL_LINEAR);
+            texture.clampToEdge();
+            Framebuffer.attachColor(texture,0,true);
+            Framebuffer.drawBuffer(0);
+            Framebuffer.checkStatus();
+            levels[i] = framebuffer;
+            width = Math.max(1,width / 2);
+            height = Math.max(1,height / 2);
+        }
+    }
+    
+    /**
+     * @return number of levels (including the full res level) for a texture of the given size
+     */
+    public static int levels(int width, int height) {
+        int count = 1;
+        while (count < MAX_LEVELS && Math.min(width,height) / 2 >= MIN_LEVEL_SIZE) {
+            width /= 2;
+            height /= 2;
+            count++;
+        } return count;
+    }
+    
+    /**
+     * Expects the texture space vao bound and blending disabled.
+     * Leaves the preview buffer bound for drawing.
+     */
+    public void render(Project project, float threshold, float intensity) {
+        Texture tex_preview = project.previewBuffer().texture(0);
+        Texture tex_emissive = project.frontBuffer().texture(ENUM.Channel.EMISSIVE.id);
+        Vector2f texel_size = MathLib.vec2();
+        
+        // threshold / emissive
+        
+        Framebuffer.bindDraw(levels[0]);
+        Framebuffer.viewport();
+        Shaders.bloomPrefilterProgram.use();
+        try (MemoryStack stack = MemoryStack.stackPush()){
+            IntBuffer buffer = stack.mallocInt(2);
+            buffer.put(0).put(1).flip();
+            Shaders.bloomPrefilterProgram.setUniform1iv(Shaders.U_SAMPLER_ARRAY,buffer);
+        }
+        Shaders.bloomPrefilterProgram.setUniform1f(Shaders.U_BLOOM_THRESHOLD,threshold);
+        tex_preview.bindToSlot(0);
+        tex_emissive.bindToSlot(1);
+        glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
+        
+        // downsample
+        
+        Shaders.bloomDownsampleProgram.use();
+        Shaders.bloomDownsampleProgram.setUniform1i(Shaders.U_SAMPLER_2D,0);
+        for (int i = 1; i < levels.length; i++) {
+            Framebuffer source = levels[i - 1];
+            Framebuffer.bindDraw(levels[i]);
+            Framebuffer.viewport();
+            texel_size.set(1f / source.width(),1f / source.height());
+            Shaders.bloomDownsampleProgram.setUniform(Shaders.U_TEXEL_SIZE,texel_size);
+            source.texture(0).bindToSlot(0);
+            glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
+        }
+        
+        // upsample (additive)
+        
+        glEnable(GL_BLEND);
+        glBlendEquation(GL_FUNC_ADD);
+        glBlendFunc(GL_ONE,GL_ONE);
+        Shaders.bloomUpsampleProgram.use();
+        Shaders.bloomUpsampleProgram.setUniform1i(Shaders.U_SAMPLER_2D,0);
+        for (int i = levels.length - 1; i > 0; i--) {
+            Framebuffer source = levels[i];
+            Framebuffer.bindDraw(levels[i - 1]);
+            Framebuffer.viewport();
+            texel_size.set(1f / source.width(),1f / source.height());
+            Shaders.bloomUpsampleProgram.setUniform(Shaders.U_TEXEL_SIZE,texel_size);
+            source.texture(0).bindToSlot(0);
+            glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
+        }
+        
+        // add to preview. preview alpha is kept
+        
+        glBlendColor(intensity,intensity,intensity,0.0f);
+        glBlendFuncSeparate(GL_CONSTANT_COLOR,GL_ONE,GL_ZERO,GL_ONE);
+        Framebuffer.bindDraw(project.previewBuffer());
+        Framebuffer.viewport();
+        Shaders.texturePassthroughProgram.use();
+        Shaders.texturePassthroughProgram.setUniform1i(Shaders.U_SAMPLER_2D,0);
+        levels[0].texture(0).bindToSlot(0);
+        glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
+        glDisable(GL_BLEND);
+    }
+    
+    public int levelCount() {
+        return levels.length;
+    }
+    
+    public Framebuffer level(int level) {
+        return levels[level];
+    }
+    
+    public void dispose() {
+        Disposable.dispose(levels);
+    }
+}
@@ -51,6 +51,9 @@ public class Brush implements Disposable {
     private final Texture texture;
     private final Color contourColor;
     private final BufferObject uniformBuffer;
+    private final int[] uploaded = new int[UNIFORM_BLOCK_SIZE];
+    private boolean uploaded_valid;
+    private int generation;
     
     private Brush() {
         this(ENUM.BrushShape.DEFAULT, ENUM.BrushTool.DEFAULT, ENUM.BrushFunction.DEFAULT,DEFAULT_SIZE);
@@ -79,49 +82,32 @@ public class Brush implements Disposable {
         
         try (MemoryStack stack = MemoryStack.stackPush()){
             ByteBuffer pixels = stack.malloc(texture_size * texture_size);
-            if (shape == ENUM.BrushShape.ROUND) {
-                boolean oddSize = (brush_size & 1) == 1;
-                float offset = oddSize ? 0.5f : 0.0f;
-                float radius2 = (brush_size / 2.f) * (brush_size / 2.f);
-                float center_x = (texture_size / 2f) - offset;
-                float center_y = (texture_size / 2f) - offset;
-                for (int r = 0; r < texture_size; r++) {
-                    float y = r + 0.5f;
-                    float dy = center_y - y;
-                    for (int c = 0; c < texture_size; c++) {
-                        float x = c + 0.5f;
-                        float dx = center_x - x;
-                        float d2 = dx * dx + dy * dy;
-                        if (radius2 >= d2) pixels.put((byte) 255);
-                        else pixels.put((byte)0);
-                    }
-                }
-            } else {
-                Area area = new Area(0,0,brush_size-1,brush_size-1);
-                int translationX = ((texture_size - brush_size) / 2);
-                int translationY = ((texture_size - brush_size) / 2);
-                area.translate(translationX,translationY);
-                for (int r = 0; r < texture_size; r++) {
-                    for (int c = 0; c < texture_size; c++) {
-                        if (area.contains(c,r)) pixels.put((byte) 255);
-                        else pixels.put((byte)0);
-                    }
-                }
-            }
+            stamp(pixels,shape,brush_size,texture_size);
             texture.uploadData(pixels.flip());
         }
     }
     
+    /** Only uploads if the block has changed since the last upload */
     public void uploadUniformBlock() {
-        uniformBuffer.bind();
         try (MemoryStack stack = MemoryStack.stackPush()) {
             IntBuffer buffer = stack.mallocInt(UNIFORM_BLOCK_SIZE);
             buffer.put(texture_size).put(texture_size).put(function.id);
             buffer.put(color).put(tool.id).put(shape.id).put(brush_size).put(0);
-            uniformBuffer.bufferSubData(buffer.flip(),0);
+            buffer.flip();
+            if (uploaded_valid && buffer.equals(IntBuffer.wrap(uploaded))) return;
+            buffer.get(0,uploaded);
+            uploaded_valid = true;
+            generation++;
+            uniformBuffer.bind();
+            uniformBuffer.bufferSubData(buffer,0);
         }
     }
     
+    /** @return incremented every time the uploaded block (tool, function, color, size, shape) changes */
+    public int generation() {
+        return generation;
+    }
+    
     public int brushSize() {
         return brush_size;
     }
@@ -224,37 +210,46 @@ public class Brush implements Disposable {
     private void refreshTexture() {
         try (MemoryStack stack = MemoryStack.stackPush()){
             ByteBuffer pixels = stack.malloc(texture_size * texture_size);
-            if (shape == ENUM.BrushShape.ROUND) {
-                boolean oddSize = (brush_size & 1) == 1;
-                float offset = oddSize ? 0.5f : 0.0f;
-                float radius2 = (brush_size / 2.f) * (brush_size / 2.f);
-                float center_x = (texture_size / 2f) - offset;
-                float center_y = (texture_size / 2f) - offset;
-                for (int r = 0; r < texture_size; r++) {
-                    float y = r + 0.5f;
-                    float dy = center_y - y;
-                    for (int c = 0; c < texture_size; c++) {
-                        float x = c + 0.5f;
-                        float dx = center_x - x;
-                        float d2 = dx * dx + dy * dy;
-                        if (radius2 >= d2) pixels.put((byte) 255);
-                        else pixels.put((byte)0);
-                    }
+            stamp(pixels,shape,brush_size,texture_size);
+            texture.bindToActiveSlot();
+            texture.uploadSubData(pixels.flip(),0);
+        }
+    }
+    
+    /**
+     * Writes the brush mask (255 inside, 0 outside) as it is uploaded to the brush texture.
+     * Row 0 is the bottom row. The StrokeCommand replays strokes with the same mask.
+     * @param pixels texture_size * texture_size bytes, written from the position
+     */
+    public static void stamp(ByteBuffer pixels, ENUM.BrushShape shape, int brush_size, int texture_size) {
+        if (shape == ENUM.BrushShape.ROUND) {
+            boolean oddSize = (brush_size & 1) == 1;
+            float offset = oddSize ? 0.5f : 0.0f;
+            float radius2 = (brush_size / 2.f) * (brush_size / 2.f);
+            float center_x = (texture_size / 2f) - offset;
+            float center_y = (texture_size / 2f) - offset;
+            for (int r = 0; r < texture_size; r++) {
+                float y = r + 0.5f;
+                float dy = center_y - y;
+                for (int c = 0; c < texture_size; c++) {
+                    float x = c + 0.5f;
+                    float dx = center_x - x;
+                    float d2 = dx * dx + dy * dy;
+                    if (radius2 >= d2) pixels.put((byte) 255);
+                    else pixels.put((byte)0);
                 }
-            } else {
-                Area area = new Area(0,0,brush_size-1,brush_size-1);
-                int translationX = ((texture_size - brush_size) / 2);
-                int translationY = ((texture_size - brush_size) / 2);
-                area.translate(translationX,translationY);
-                for (int r = 0; r < texture_size; r++) {
-                    for (int c = 0; c < texture_size; c++) {
-                        if (area.contains(c,r)) pixels.put((byte) 255);
-                        else pixels.put((byte)0);
-                    }
+            }
+        } else {
+            Area area = new Area(0,0,brush_size-1,brush_size-1);
+            int translationX = ((texture_size - brush_size) / 2);
+            int translationY = ((texture_size - brush_size) / 2);
+            area.translate(translationX,translationY);
+            for (int r = 0; r < texture_size; r++) {
+                for (int c = 0; c < texture_size; c++) {
+                    if (area.contains(c,r)) pixels.put((byte) 255);
+                    else pixels.put((byte)0);
                 }
             }
-            texture.bindToActiveSlot();
-            texture.uploadSubData(pixels.flip(),0);
         }
     }
     
@@ -293,6 +288,12 @@ public class Brush implements Disposable {
         }
         
         
+        /** @return the points drawn per upload. Points put beyond it are dropped */
+        public int capacity() {
+            return vertex_capacity;
+        }
+        
+        
         public void upload() {
             if (count > 0) {
                 vertices.flip();
@@ -1,7 +1,16 @@
 package io.github.heathensoft.canvas;
 
 
+import io.github.heathensoft.canvas.io.AtlasExporter;
+import io.github.heathensoft.canvas.io.CanvasFile;
+import io.github.heathensoft.canvas.io.DecodeCache;
+import io.github.heathensoft.canvas.io.EditJournal;
+import io.github.heathensoft.canvas.io.ExportService;
+import io.github.heathensoft.canvas.io.PaletteLoader;
+import io.github.heathensoft.canvas.io.PngEncoder;
 import io.github.heathensoft.canvas.io.PngImporter;
+import io.github.heathensoft.canvas.io.ProjectFile;
+import io.github.heathensoft.canvas.io.ProjectImporter;
 import io.github.heathensoft.canvas.neo.FloodFillTask;
 import io.github.heathensoft.jlib.common.Disposable;
 import io.github.heathensoft.jlib.common.storage.generic.Container;
@@ -10,7 +19,6 @@ import io.github.heathensoft.jlib.common.utils.Coordinate;
 import io.github.heathensoft.jlib.common.utils.DiscreteLine;
 import io.github.heathensoft.jlib.common.utils.IDPool;
 import io.github.heathensoft.jlib.lwjgl.graphics.BufferObject;
-import io.github.heathensoft.jlib.lwjgl.graphics.Palette;
 import io.github.heathensoft.jlib.lwjgl.utils.MathLib;
 import io.github.heathensoft.jlib.lwjgl.utils.OrthographicCamera;
 import io.github.heathensoft.jlib.lwjgl.window.Engine;
@@ -23,6 +31,8 @@ import org.lwjgl.system.MemoryStack;
 import org.tinylog.Logger;
 
 import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 import static io.github.heathensoft.canvas.ENUM.*;
@@ -45,6 +55,8 @@ public class Editor implements Disposable {
     public static final int PROJECT_UNIFORMS_SIZE_FLOAT = 36;
     public static final float DETAIL_TO_VOLUME_RATIO_DEFAULT = 0.1f;
     public static final float DEPTH_AMPLITUDE_DEFAULT = 8.0f;
+    public static final float BLOOM_THRESHOLD_DEFAULT = 1.0f; // luminance. emissive texels always bloom
+    public static final float BLOOM_INTENSITY_DEFAULT = 0.5f;
     public static final float DEPTH_AMPLITUDE_MIN = 1.0f;
     public static final float DEPTH_AMPLITUDE_MAX = 16.0f;
     public static final float LIGHT_Z_SCROLL_DELTA = 8.0f;
@@ -59,12 +71,16 @@ public class Editor implements Disposable {
     private final BufferObject uniformBufferEditor;
     private final BufferObject uniformBufferProject;
     private final EditorGraphics graphics;
+    private final ExportService exportService;
+    private final SourceWatcher sourceWatcher;
+    private final DecodeCache decodeCache;
     
     private final Brush brush;
-    private final Palette defaultPalette;
+    private final LutPalette defaultPalette;
+    private LutPalette loadedPalette;
     private final PreviewLighting lighting;
     private Project activeProject;
-    private Palette currentPalette;
+    private LutPalette currentPalette;
     private Channel currentChannel;
     private PreviewDisplay previewDisplay;
     
@@ -81,6 +97,11 @@ public class Editor implements Disposable {
     private final Vector2f mouseStart;
     private final int screen_width;
     private final int screen_height;
+    private final float[] uploadedEditorUniforms;
+    private final float[] uploadedProjectUniforms;
+    private long import_started_ms; // 0: no import waiting for its first frame
+    private boolean editor_uniforms_uploaded;
+    private boolean project_uniforms_uploaded;
     
     private float detail_to_volume_ratio;
     private float virtual_depth_amplitude;
@@ -91,6 +112,9 @@ public class Editor implements Disposable {
     private boolean preview_lighting;
     private boolean preview_shadow;
     private boolean preview_palette;
+    private boolean preview_bloom;
+    private float bloom_threshold;
+    private float bloom_intensity;
     
     
     public Editor(Resolution resolution) throws Exception {
@@ -125,21 +149,30 @@ public class Editor implements Disposable {
         this.previewDisplay = PreviewDisplay.DEFAULT;
         this.virtual_depth_amplitude = DEPTH_AMPLITUDE_DEFAULT;
         this.detail_to_volume_ratio = DETAIL_TO_VOLUME_RATIO_DEFAULT;
+        this.bloom_threshold = BLOOM_THRESHOLD_DEFAULT;
+        this.bloom_intensity = BLOOM_INTENSITY_DEFAULT;
         this.current_zoom_amount = 0.0f;
         this.brush = Brush.get();
         this.lighting = PreviewLighting.get();
-        this.defaultPalette = Palette.brightFuture();
+        this.defaultPalette = PaletteLoader.load("palette/bright_future.hex","Bright Future",64);
         this.currentPalette = defaultPalette;
         this.uniformBufferEditor = new BufferObject(GL_UNIFORM_BUFFER,GL_DYNAMIC_DRAW).bind();
         this.uniformBufferEditor.bufferData((long) EDITOR_UNIFORMS_SIZE_FLOAT * Float.BYTES);
+        this.uploadedEditorUniforms = new float[EDITOR_UNIFORMS_SIZE_FLOAT];
+        this.uploadedProjectUniforms = new float[PROJECT_UNIFORMS_SIZE_FLOAT];
         this.uniformBufferEditor.bindBufferBase(EDITOR_BINDING_POINT);
         this.uniformBufferProject = new BufferObject(GL_UNIFORM_BUFFER,GL_DYNAMIC_DRAW).bind();
         this.uniformBufferProject.bufferData((long) PROJECT_UNIFORMS_SIZE_FLOAT * Float.BYTES);
         this.uniformBufferProject.bindBufferBase(PROJECT_BINDING_POINT);
         this.graphics = new EditorGraphics(this);
+        this.exportService = new ExportService();
+        this.exportService.setEncoder(new PngEncoder(PngEncoder.Preset.FAST));
+        this.sourceWatcher = new SourceWatcher(this);
+        this.decodeCache = new DecodeCache();
         this.preview_lighting = true;
         this.preview_palette = true;
         this.preview_shadow = true;
+        this.preview_bloom = true;
         Shaders.initialize();
     }
     
@@ -154,7 +187,15 @@ public class Editor implements Disposable {
             uploadProjectUniformBlock();
             graphics.projectPipeline(activeProject);
         } graphics.drawToScreen();
-        
+        exportService.update();
+        sourceWatcher.update();
+        for (Project project : projectList) {
+            project.undoRedoManager().update();
+        }
+        if (import_started_ms != 0 && projectIsOpen()) {
+            Logger.info("time to first frame: {} ms",System.currentTimeMillis() - import_started_ms);
+            import_started_ms = 0;
+        }
     }
     
     public void process(Mouse mouse, Keyboard keys) {
@@ -218,8 +259,10 @@ public class Editor implements Disposable {
                                 } Area editArea = new Area(min_x,min_y,max_x,max_y);
                                 editArea.expand(brush.brushSize() / 2);
                                 if (projectArea.intersection(editArea)) {
-                                    URM.newEdit(editArea,currentChannel,brush);
+                                    URM.newEdit(editArea,currentChannel,brush,
+                                    StrokeCommand.stroke(brush,activeProject,freeHandCoordinates,false));
                                     graphics.drawToBackbuffer(currentChannel);
+                                    URM.commitEdit();
                                 }
                             }
                         }
@@ -229,15 +272,19 @@ public class Editor implements Disposable {
                                     lineDrawCoordinates.p1());
                             editArea.expand(brush.brushSize() / 2);
                             if (projectArea.intersection(editArea)) {
-                                URM.newEdit(editArea,currentChannel,brush);
+                                URM.newEdit(editArea,currentChannel,brush,
+                                StrokeCommand.stroke(brush,activeProject,lineDrawCoordinates,true));
                                 graphics.drawToBackbuffer(currentChannel);
+                                URM.commitEdit();
                             }
                         }
                         case DRAG_AREA -> {
                             Area editArea = new Area(brushDragArea);
                             if (projectArea.intersection(editArea)) {
-                                URM.newEdit(editArea,currentChannel,brush);
+                                URM.newEdit(editArea,currentChannel,brush,
+                                StrokeCommand.drag(brush,activeProject,brushDragArea));
                                 graphics.drawToBackbuffer(currentChannel);
+                                URM.commitEdit();
                             }
                         }
                         default -> {}
@@ -309,22 +356,31 @@ public class Editor implements Disposable {
         
         if (CTRL && SHIFT) {
             if (keys.just_pressed(GLFW_KEY_Z) && PROJECT_OPEN) {
-                activeProject.undoRedoManager().redo();
+                activeProject.undoRedoManager().redo(graphics);
             } else if (keys.just_pressed(GLFW_KEY_S) && PROJECT_OPEN) {
-                try { activeProject.saveAll(true);
+                try { activeProject.saveAll(exportService,lighting,virtual_depth_amplitude,true);
                 } catch (Exception e) {
                     Logger.error(e,"unable to save");
                 }
             }
         } else if (CTRL && ALT) {
-        
+            if (keys.just_pressed(GLFW_KEY_S) && PROJECT_OPEN) {
+                saveProjectFile(true);
+            } else if (keys.just_pressed(GLFW_KEY_P) && PROJECT_OPEN) {
+                try { activeProject.savePacked(exportService,true);
+                } catch (Exception e) {
+                    Logger.error(e,"unable to save");
+                }
+            } else if (keys.just_pressed(GLFW_KEY_A) && PROJECT_OPEN) {
+                exportAtlas(activeProject.outputDirectory(),"atlas");
+            }
         } else if (CTRL) {
             if (PROJECT_OPEN) {
                 try {
                     if (keys.just_pressed(GLFW_KEY_Z)) {
-                        activeProject.undoRedoManager().undo();
+                        activeProject.undoRedoManager().undo(graphics);
                     } else if (keys.just_pressed(GLFW_KEY_Y)) {
-                        activeProject.undoRedoManager().redo();
+                        activeProject.undoRedoManager().redo(graphics);
                     } else if (keys.just_pressed(GLFW_KEY_S)) {
                         activeProject.save(currentChannel,true);
                     } else if (keys.just_pressed(GLFW_KEY_N)) {
@@ -334,7 +390,7 @@ public class Editor implements Disposable {
                     } else if (keys.just_pressed(GLFW_KEY_P)) {
                         activeProject.savePreview(true);
                     } else if (keys.just_pressed(GLFW_KEY_A)) {
-                        activeProject.saveAll(true);
+                        activeProject.saveAll(exportService,lighting,virtual_depth_amplitude,true);
                     }
                 } catch (Exception e) {
                     Logger.error(e,"unable to save, undo or redo");
@@ -376,6 +432,8 @@ public class Editor implements Disposable {
                 lighting.togglePointLight();
             } else if (keys.just_pressed(GLFW_KEY_S)) {
                 togglePreviewShadow();
+            } else if (keys.just_pressed(GLFW_KEY_B)) {
+                togglePreviewBloom();
             } else if (keys.just_pressed(GLFW_KEY_P)) {
                 togglePreviewPalette();
             } else if (keys.just_pressed(GLFW_KEY_UP)) {
@@ -450,6 +508,101 @@ public class Editor implements Disposable {
         } return id;
     }
     
+    /**
+     * Imports png images as a new project off the render thread (ProjectImporter).
+     * Unchanged images opened before are loaded from the decode cache.
+     * Logs the time from the call to the first frame showing the project.
+     * @param color the color source. The channels can be null (defaults)
+     */
+    public void importProject(Path color, Path details, Path volume, Path specular, Path emissive) {
+        final long start = System.currentTimeMillis();
+        ProjectImporter importer = new ProjectImporter(color,textures -> {
+            if (newProject(textures) != -1) import_started_ms = start;
+        }); importer.setCache(decodeCache);
+        importer.setChannel(Channel.DETAILS,details);
+        importer.setChannel(Channel.VOLUME,volume);
+        importer.setChannel(Channel.SPECULAR,specular);
+        importer.setChannel(Channel.EMISSIVE,emissive);
+        Engine.get().threadPool().handle(importer);
+    }
+    
+    /**
+     * Imports a project from the color source and a packed material map (PackedMaps).
+     * Like importProject, off the render thread.
+     */
+    public void importPackedProject(Path color, Path material) {
+        final long start = System.currentTimeMillis();
+        ProjectImporter importer = new ProjectImporter(color,textures -> {
+            if (newProject(textures) != -1) import_started_ms = start;
+        }); importer.setCache(decodeCache);
+        importer.setMaterial(material);
+        Engine.get().threadPool().handle(importer);
+    }
+    
+    /**
+     * Packs every open project into shared sheets, one per map type (AtlasExporter).
+     * The textures are read back through the export service, packing and encoding runs on the thread pool.
+     */
+    public void exportAtlas(Path directory, String name) {
+        if (!projectList.isEmpty()) {
+            AtlasExporter.export(exportService,projectList,directory,name);
+        }
+    }
+    
+    /**
+     * Opens a .canvas project file. Lighting and depth settings stored in the file are applied.
+     * @return the project id or -1 if the file could not be opened
+     */
+    public int openProjectFile(Path file) {
+        PngImporter.Textures textures;
+        try { textures = ProjectFile.load(this,file);
+        } catch (Exception e) {
+            Logger.error(e,"unable to open project file: {}",file);
+            return -1;
+        } int id = newProject(textures);
+        Project project = getProject(id);
+        if (project != null) {
+            try { project.setJournal(EditJournal.open(file,project.texturesWidth(),project.texturesHeight()));
+            } catch (Exception e) {
+                Logger.error(e,"unable to open edit journal: {}",file);
+            }
+        } return id;
+    }
+    
+    /**
+     * Saves the active project as a single .canvas file in its output directory.
+     * Once saved, edits are logged to the journal of the file. Saving again only
+     * appends the metadata and lighting to the journal and syncs it.
+     * @param raw uncompressed textures. Larger file, opens without decoding
+     */
+    public void saveProjectFile(boolean raw) {
+        if (projectIsOpen()) {
+            EditJournal journal = activeProject.journal();
+            if (journal != null) {
+                try { journal.appendChunk(ProjectFile.META,CanvasFile.properties(ProjectFile.META,
+                        ProjectFile.metaProperties(this,activeProject)).data());
+                    journal.appendChunk(ProjectFile.LIGHTING,CanvasFile.properties(ProjectFile.LIGHTING,
+                        ProjectFile.lightingProperties(lighting)).data());
+                    journal.sync();
+                    Logger.info("project saved (journal): {}",journal.base());
+                } catch (Exception e) {
+                    Logger.error(e,"unable to save project file: {}",journal.base());
+                }
+            } else {
+                Path file = ProjectFile.resolve(activeProject);
+                try { EditJournal.awaitClosed(file); // a disposed project of the same file may still compact
+                    ProjectFile.save(this,activeProject,file,raw);
+                    Files.deleteIfExists(EditJournal.path(file)); // belongs to an older file
+                    activeProject.setJournal(EditJournal.open(file,
+                    activeProject.texturesWidth(),activeProject.texturesHeight()));
+                    Logger.info("project saved: {}",file);
+                } catch (Exception e) {
+                    Logger.error(e,"unable to save project file: {}",file);
+                }
+            }
+        }
+    }
+    
     public void openProject(int project_id) {
         Project project = getProject(project_id);
         if (project != null) {
@@ -576,14 +729,48 @@ public class Editor implements Disposable {
         preview_palette = !preview_palette;
     }
     
-    public Palette currentPalette() {
+    public void togglePreviewBloom() {
+        preview_bloom = !preview_bloom;
+    }
+    
+    public void setBloomThreshold(float threshold) {
+        this.bloom_threshold = Math.max(0.0f,threshold);
+    }
+    
+    public void setBloomIntensity(float intensity) {
+        this.bloom_intensity = Math.max(0.0f,intensity);
+    }
+    
+    public ExportService exportService() {
+        return exportService;
+    }
+    
+    public DecodeCache decodeCache() {
+        return decodeCache;
+    }
+    
+    public LutPalette currentPalette() {
         return currentPalette;
     }
     
-    public void setPalette(Palette palette) {
+    public void setPalette(LutPalette palette) {
         this.currentPalette = palette;
     }
     
+    /**
+     * Loads the palette in the background and uses it when ready.
+     * The previously loaded palette is disposed.
+     * @param resource .hex palette, i.e. "palette/aap-64.hex"
+     * @param size lut texels per axis
+     */
+    public void loadPalette(String resource, String name, int size) {
+        Engine.get().threadPool().handle(new PaletteLoader(resource,name,size,palette -> {
+            Disposable.dispose(loadedPalette);
+            currentPalette = palette;
+            loadedPalette = palette;
+        }));
+    }
+    
     public void setPaletteDefault() {
         this.currentPalette = defaultPalette;
     }
@@ -620,6 +807,18 @@ public class Editor implements Disposable {
         return preview_palette;
     }
     
+    public boolean previewBloom() {
+        return preview_bloom;
+    }
+    
+    public float bloomThreshold() {
+        return bloom_threshold;
+    }
+    
+    public float bloomIntensity() {
+        return bloom_intensity;
+    }
+    
     public int screenWidth() {
         return screen_width;
     }
@@ -632,8 +831,12 @@ public class Editor implements Disposable {
         try (MemoryStack stack = MemoryStack.stackPush()){
             FloatBuffer buffer = stack.mallocFloat(PROJECT_UNIFORMS_SIZE_FLOAT);
             activeProject.getUniforms(buffer);
+            buffer.flip();
+            if (project_uniforms_uploaded && buffer.equals(FloatBuffer.wrap(uploadedProjectUniforms))) return;
+            buffer.get(0,uploadedProjectUniforms);
+            project_uniforms_uploaded = true;
             uniformBufferProject.bind();
-            uniformBufferProject.bufferSubData(buffer.flip(),0);
+            uniformBufferProject.bufferSubData(buffer,0);
         }
     }
     
@@ -650,11 +853,24 @@ public class Editor implements Disposable {
             BufferObject.putPadding(2,buffer);
             buffer.put(shader_time_accumulator);
             buffer.put(previewOptions()).flip();
+            // mouse_world (36,37) and real_time (42) are not read by any shader
+            if (editor_uniforms_uploaded && !editorUniformsChanged(buffer)) return;
+            buffer.get(0,uploadedEditorUniforms);
+            editor_uniforms_uploaded = true;
             uniformBufferEditor.bind();
             uniformBufferEditor.bufferSubData(buffer,0);
         }
     }
     
+    private boolean editorUniformsChanged(FloatBuffer buffer) {
+        for (int i = 0; i < EDITOR_UNIFORMS_SIZE_FLOAT; i++) {
+            if (i == 36 || i == 37 || i == 42) continue;
+            if (Float.floatToIntBits(buffer.get(i)) != Float.floatToIntBits(uploadedEditorUniforms[i])) {
+                return true;
+            }
+        } return false;
+    }
+    
     private int previewOptions() {
         int preview_options = previewDisplay.value;
         preview_options |= ( preview_lighting ? 8  : 0);
@@ -666,6 +882,6 @@ public class Editor implements Disposable {
     public void dispose() {
         closeAllProjects();
         Shaders.dispose();
-        Disposable.dispose(graphics,brush);
+        Disposable.dispose(graphics,brush,exportService,sourceWatcher,loadedPalette,defaultPalette);
     }
 }
@@ -1,6 +1,7 @@
 package io.github.heathensoft.canvas;
 
 import io.github.heathensoft.jlib.common.Disposable;
+import io.github.heathensoft.jlib.common.utils.Area;
 import io.github.heathensoft.jlib.common.utils.Coordinate;
 import io.github.heathensoft.jlib.common.utils.DiscreteLine;
 import io.github.heathensoft.jlib.lwjgl.graphics.*;
@@ -34,6 +35,13 @@ public class EditorGraphics implements Disposable {
     private static final int SPLIT_SCREEN_RIGHT = 1;
     private static final int SPLIT_SCREEN_CONTOUR = 2;
     
+    // Halos of the passes (texels). A change to the input changes the output this far out
+    private static final int NORMALS_HALO = 1; // central differences
+    private static final int OCCLUSION_HALO = 64; // texture_ambient_occlusion.frag radius
+    private static final int SHADOW_HALO = 64; // texture_shadow_mapping.frag MAX_SHADOW_LENGTH
+    private static final int SMOOTHEN_HALO = 1; // 3x3 kernel, texture_smoothen.frag
+    private static final int BACK_TO_FRONT_HALO = 1; // 3x3 kernel (smoothen function)
+    
     private ENUM.Channel previousChannel;
     private final Editor editor;
     private final CanvasGrid grid;
@@ -65,6 +73,7 @@ public class EditorGraphics implements Disposable {
         
         ENUM.Channel currentChannel = editor.currentChannel();
         Texture tex_intermediary = project.intermediaryBuffer().texture(0);
+        Texture tex_intermediary_raw = project.intermediaryBuffer().texture(1);
         Texture tex_backbuffer = project.backBuffer().texture(currentChannel.id);
         Texture tex_brush_overlay = project.brushOverlayBuffer().texture(0);
         Texture tex_detail = project.frontBuffer().texture(ENUM.Channel.DETAILS.id);
@@ -78,6 +87,13 @@ public class EditorGraphics implements Disposable {
         Texture tex_color = project.colorSourceTexture();
         Texture tex_palette = editor.currentPalette().texture();
         
+        // Passes with unchanged inputs since the last frame are skipped. Their output is still valid.
+        // Passes that run are scissored to their dirty region (PipelineCache), grown by the halo of the passes after.
+        PipelineCache cache = project.pipelineCache();
+        PreviewLighting lighting = editor.lighting();
+        Vector4f bounds = project.bounds();
+        float amplitude = editor.depthAmplitude();
+        
         project.viewport();
         glDisable(GL_DEPTH_TEST);
         
@@ -88,115 +104,79 @@ public class EditorGraphics implements Disposable {
         int stroke_offset = brush.textureSize() / 2 - 1;
         Brush.StrokeBuffer strokeBuffer = brush.strokeBuffer();
         
-        Framebuffer.bindDraw(project.brushOverlayBuffer());
-        Framebuffer.clear();
-        
+        boolean overlay;
         if (editor.isCurrentlyEditing()) {
+            cache.run(PipelineCache.Pass.BRUSH_OVERLAY);
+            overlay = true;
+        } else {
+            long key = PipelineCache.key();
+            key = PipelineCache.key(key,brush.tool().ordinal());
+            key = PipelineCache.key(key,brush.generation());
+            key = PipelineCache.key(key,project.area().contains(cursor));
+            key = PipelineCache.key(key,editor.editableAreaBounds.contains(cursor));
+            if (project.area().contains(cursor) || editor.editableAreaBounds.contains(cursor)) {
+                key = PipelineCache.key(key,cursor.x - bounds.x);
+                key = PipelineCache.key(key,cursor.y - bounds.y);
+            } overlay = cache.shouldRun(PipelineCache.Pass.BRUSH_OVERLAY,key);
+        }
+        
+        if (overlay) {
             
-            switch (brush.tool()) {
-    
-                case SAMPLER -> {
-                    if (project.area().contains(cursor)) {
-                        glDisable(GL_BLEND);
-                        Shaders.areaToBrushProgram.use();
-                        Vector4f area = MathLib.vec4(
-                                cursor.x, cursor.y,cursor.x + 1,cursor.y + 1
-                        );
-                        Shaders.areaToBrushProgram.setUniform(Shaders.U_DRAG_AREA,area);
-                        Shaders.areaToBrushProgram.setUniform1i(Shaders.U_SAMPLER_2D,0);
-                        tex_color.bindToSlot(0);
-                        texSpaceVAO.bind();
-                        glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
-                    }
-                }
-                case FREE_HAND -> {
-                    Set<Coordinate> points = editor.freeHandCoordinates;
-                    glEnable(GL_BLEND);
-                    glBlendFunc(GL_ONE, GL_ONE);
-                    glBlendEquation(GL_MAX);
-                    Shaders.strokeToBrushProgram.use();
-                    for (Coordinate point : points) {
-                        int x0 = point.x - stroke_offset;
-                        int y0 = point.y - stroke_offset;
-                        strokeBuffer.put(x0,y0);
-                    }
-                    try (MemoryStack stack = MemoryStack.stackPush()){
-                        IntBuffer buffer = stack.mallocInt(2);
-                        buffer.put(0).put(1).flip();
-                        Shaders.strokeToBrushProgram.setUniform1iv(Shaders.U_SAMPLER_ARRAY,buffer);
+            cache.overlayDrawn(overlayArea(project,brush,cursor));
+            Framebuffer.bindDraw(project.brushOverlayBuffer());
+            Framebuffer.clear();
+            
+            if (editor.isCurrentlyEditing()) {
+            
+                switch (brush.tool()) {
+    
+                    case SAMPLER -> {
+                        if (project.area().contains(cursor)) {
+                            glDisable(GL_BLEND);
+                            Shaders.areaToBrushProgram.use();
+                            Vector4f area = MathLib.vec4(
+                                    cursor.x, cursor.y,cursor.x + 1,cursor.y + 1
+                            );
+                            Shaders.areaToBrushProgram.setUniform(Shaders.U_DRAG_AREA,area);
+                            Shaders.areaToBrushProgram.setUniform1i(Shaders.U_SAMPLER_2D,0);
+                            tex_color.bindToSlot(0);
+                            texSpaceVAO.bind();
+                            glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
+                        }
                     }
-                    brush.texture().bindToSlot(0);
-                    tex_color.bindToSlot(1);
-                    strokeBuffer.upload();
-                }
-                case LINE_DRAW -> {
-                    DiscreteLine line = editor.lineDrawCoordinates;
-                    glEnable(GL_BLEND);
-                    glBlendFunc(GL_ONE, GL_ONE);
-                    glBlendEquation(GL_MAX);
-                    Shaders.strokeToBrushProgram.use();
-                    for (Coordinate point : line) {
-                        if (project.area().contains(point)) {
+                    case FREE_HAND -> {
+                        Set<Coordinate> points = editor.freeHandCoordinates;
+                        glEnable(GL_BLEND);
+                        glBlendFunc(GL_ONE, GL_ONE);
+                        glBlendEquation(GL_MAX);
+                        Shaders.strokeToBrushProgram.use();
+                        for (Coordinate point : points) {
                             int x0 = point.x - stroke_offset;
                             int y0 = point.y - stroke_offset;
                             strokeBuffer.put(x0,y0);
                         }
+                        try (MemoryStack stack = MemoryStack.stackPush()){
+                            IntBuffer buffer = stack.mallocInt(2);
+                            buffer.put(0).put(1).flip();
+                            Shaders.strokeToBrushProgram.setUniform1iv(Shaders.U_SAMPLER_ARRAY,buffer);
+                        }
+                        brush.texture().bindToSlot(0);
+                        tex_color.bindToSlot(1);
+                        strokeBuffer.upload();
                     }
-                    try (MemoryStack stack = MemoryStack.stackPush()){
-                        IntBuffer buffer = stack.mallocInt(2);
-                        buffer.put(0).put(1).flip();
-                        Shaders.strokeToBrushProgram.setUniform1iv(Shaders.U_SAMPLER_ARRAY,buffer);
-                    }
-                    brush.texture().bindToSlot(0);
-                    tex_color.bindToSlot(1);
-                    strokeBuffer.upload();
-                }
-                case DRAG_AREA -> {
-                    if (project.area().intersects(editor.brushDragArea)) {
-                        glDisable(GL_BLEND);
-                        Shaders.areaToBrushProgram.use();
-                        Vector4f area = MathLib.vec4(
-                                editor.brushDragArea.minX(),
-                                editor.brushDragArea.minY(),
-                                editor.brushDragArea.maxX() +1,
-                                editor.brushDragArea.maxY() +1
-                        );
-                        Shaders.areaToBrushProgram.setUniform(Shaders.U_DRAG_AREA,area);
-                        Shaders.areaToBrushProgram.setUniform1i(Shaders.U_SAMPLER_2D,0);
-                        tex_color.bindToSlot(0);
-                        texSpaceVAO.bind();
-                        glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
-                    }
-                }
-            }
-            
-        } else {
-            
-            switch (brush.tool()) {
-    
-                case SAMPLER, DRAG_AREA -> {
-                    if (project.area().contains(cursor)) {
-                        glDisable(GL_BLEND);
-                        Shaders.areaToBrushProgram.use();
-                        Vector4f area = MathLib.vec4(
-                                cursor.x, cursor.y,cursor.x + 1,cursor.y + 1
-                        );
-                        Shaders.areaToBrushProgram.setUniform(Shaders.U_DRAG_AREA,area);
-                        Shaders.areaToBrushProgram.setUniform1i(Shaders.U_SAMPLER_2D,0);
-                        tex_color.bindToSlot(0);
-                        texSpaceVAO.bind();
-                        glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
-                    }
-                }
-                case FREE_HAND, LINE_DRAW -> {
-                    if (editor.editableAreaBounds.contains(cursor)) {
+                    case LINE_DRAW -> {
+                        DiscreteLine line = editor.lineDrawCoordinates;
                         glEnable(GL_BLEND);
                         glBlendFunc(GL_ONE, GL_ONE);
                         glBlendEquation(GL_MAX);
                         Shaders.strokeToBrushProgram.use();
-                        int x0 = cursor.x - stroke_offset;
-                        int y0 = cursor.y - stroke_offset;
-                        strokeBuffer.put(x0,y0);
+                        for (Coordinate point : line) {
+                            if (project.area().contains(point)) {
+                                int x0 = point.x - stroke_offset;
+                                int y0 = point.y - stroke_offset;
+                                strokeBuffer.put(x0,y0);
+                            }
+                        }
                         try (MemoryStack stack = MemoryStack.stackPush()){
                             IntBuffer buffer = stack.mallocInt(2);
                             buffer.put(0).put(1).flip();
@@ -206,6 +186,62 @@ public class EditorGraphics implements Disposable {
                         tex_color.bindToSlot(1);
                         strokeBuffer.upload();
                     }
+                    case DRAG_AREA -> {
+                        if (project.area().intersects(editor.brushDragArea)) {
+                            glDisable(GL_BLEND);
+                            Shaders.areaToBrushProgram.use();
+                            Vector4f area = MathLib.vec4(
+                                    editor.brushDragArea.minX(),
+                                    editor.brushDragArea.minY(),
+                                    editor.brushDragArea.maxX() +1,
+                                    editor.brushDragArea.maxY() +1
+                            );
+                            Shaders.areaToBrushProgram.setUniform(Shaders.U_DRAG_AREA,area);
+                            Shaders.areaToBrushProgram.setUniform1i(Shaders.U_SAMPLER_2D,0);
+                            tex_color.bindToSlot(0);
+                            texSpaceVAO.bind();
+                            glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
+                        }
+                    }
+                }
+            
+            } else {
+            
+                switch (brush.tool()) {
+    
+                    case SAMPLER, DRAG_AREA -> {
+                        if (project.area().contains(cursor)) {
+                            glDisable(GL_BLEND);
+                            Shaders.areaToBrushProgram.use();
+                            Vector4f area = MathLib.vec4(
+                                    cursor.x, cursor.y,cursor.x + 1,cursor.y + 1
+                            );
+                            Shaders.areaToBrushProgram.setUniform(Shaders.U_DRAG_AREA,area);
+                            Shaders.areaToBrushProgram.setUniform1i(Shaders.U_SAMPLER_2D,0);
+                            tex_color.bindToSlot(0);
+                            texSpaceVAO.bind();
+                            glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
+                        }
+                    }
+                    case FREE_HAND, LINE_DRAW -> {
+                        if (editor.editableAreaBounds.contains(cursor)) {
+                            glEnable(GL_BLEND);
+                            glBlendFunc(GL_ONE, GL_ONE);
+                            glBlendEquation(GL_MAX);
+                            Shaders.strokeToBrushProgram.use();
+                            int x0 = cursor.x - stroke_offset;
+                            int y0 = cursor.y - stroke_offset;
+                            strokeBuffer.put(x0,y0);
+                            try (MemoryStack stack = MemoryStack.stackPush()){
+                                IntBuffer buffer = stack.mallocInt(2);
+                                buffer.put(0).put(1).flip();
+                                Shaders.strokeToBrushProgram.setUniform1iv(Shaders.U_SAMPLER_ARRAY,buffer);
+                            }
+                            brush.texture().bindToSlot(0);
+                            tex_color.bindToSlot(1);
+                            strokeBuffer.upload();
+                        }
+                    }
                 }
             }
         }
@@ -218,99 +254,162 @@ public class EditorGraphics implements Disposable {
         
         // BACK TO FRONT ******************************************************
     
-        Framebuffer.bindDraw(project.frontBuffer());
-        
-        
         if (currentChannel != previousChannel) {
+            Framebuffer.bindDraw(project.frontBuffer());
             Framebuffer.drawBuffer(previousChannel.id);
             Shaders.texturePassthroughProgram.use();
             Shaders.texturePassthroughProgram.setUniform1i(Shaders.U_SAMPLER_2D,0);
             project.backBuffer().texture(previousChannel.id).bindToSlot(0);
             glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
+            cache.frontBufferModified(previousChannel);
             previousChannel = currentChannel;
         }
         
-        Framebuffer.drawBuffer(currentChannel.id);
-        Shaders.backToFrontBufferProgram.use();
-        try (MemoryStack stack = MemoryStack.stackPush()){
-            IntBuffer buffer = stack.mallocInt(2);
-            buffer.put(0).put(1).flip();
-            Shaders.backToFrontBufferProgram.setUniform1iv(Shaders.U_SAMPLER_ARRAY,buffer);
+        long key = PipelineCache.key();
+        key = PipelineCache.key(key,currentChannel.ordinal());
+        key = PipelineCache.key(key,cache.backBufferGeneration(currentChannel));
+        key = PipelineCache.key(key,cache.generation(PipelineCache.Pass.BRUSH_OVERLAY));
+        key = PipelineCache.key(key,brush.generation());
+        if (cache.shouldRun(PipelineCache.Pass.BACK_TO_FRONT,key)) {
+            cache.uniformsChanged(PipelineCache.Pass.BACK_TO_FRONT,currentChannel.ordinal());
+            cache.dirty(PipelineCache.Pass.BACK_TO_FRONT,cache.consumeBackBufferDirty(currentChannel),BACK_TO_FRONT_HALO);
+            Area region = cache.consumeDirty(PipelineCache.Pass.BACK_TO_FRONT);
+            if (scissor(region)) {
+                Framebuffer.bindDraw(project.frontBuffer());
+                Framebuffer.drawBuffer(currentChannel.id);
+                Shaders.backToFrontBufferProgram.use();
+                try (MemoryStack stack = MemoryStack.stackPush()){
+                    IntBuffer buffer = stack.mallocInt(2);
+                    buffer.put(0).put(1).flip();
+                    Shaders.backToFrontBufferProgram.setUniform1iv(Shaders.U_SAMPLER_ARRAY,buffer);
+                }
+                tex_backbuffer.bindToSlot(0);
+                tex_brush_overlay.bindToSlot(1);
+                glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
+                glDisable(GL_SCISSOR_TEST);
+                cache.frontBufferDrawn(currentChannel,region);
+            }
         }
-        tex_backbuffer.bindToSlot(0);
-        tex_brush_overlay.bindToSlot(1);
-        glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
         
         
         // DEPTH MIXING *******************************************************
     
-        Framebuffer.bindDraw(project.depthBuffer());
-        Shaders.textureDepthMixingProgram.use();
-        try (MemoryStack stack = MemoryStack.stackPush()){
-            IntBuffer buffer = stack.mallocInt(2);
-            buffer.put(0).put(1).flip();
-            Shaders.textureDepthMixingProgram.setUniform1iv(Shaders.U_SAMPLER_ARRAY,buffer);
+        key = PipelineCache.key();
+        key = PipelineCache.key(key,cache.generation(PipelineCache.Pass.BACK_TO_FRONT));
+        key = PipelineCache.key(key,cache.frontBufferGeneration(ENUM.Channel.DETAILS));
+        key = PipelineCache.key(key,cache.frontBufferGeneration(ENUM.Channel.VOLUME));
+        key = PipelineCache.key(key,editor.detailVolumeRatio());
+        if (cache.shouldRun(PipelineCache.Pass.DEPTH_MIXING,key)) {
+            cache.uniformsChanged(PipelineCache.Pass.DEPTH_MIXING,PipelineCache.key(PipelineCache.key(),editor.detailVolumeRatio()));
+            Area region = cache.consumeDirty(PipelineCache.Pass.DEPTH_MIXING);
+            if (scissor(region)) {
+                Framebuffer.bindDraw(project.depthBuffer());
+                Shaders.textureDepthMixingProgram.use();
+                try (MemoryStack stack = MemoryStack.stackPush()){
+                    IntBuffer buffer = stack.mallocInt(2);
+                    buffer.put(0).put(1).flip();
+                    Shaders.textureDepthMixingProgram.setUniform1iv(Shaders.U_SAMPLER_ARRAY,buffer);
+                }
+                tex_detail.bindToSlot(0);
+                tex_volume.bindToSlot(1);
+                glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
+                glDisable(GL_SCISSOR_TEST);
+                cache.dirty(PipelineCache.Pass.NORMAL_MAPPING,region,NORMALS_HALO);
+                cache.dirty(PipelineCache.Pass.AMBIENT_OCCLUSION,region,OCCLUSION_HALO);
+                cache.dirty(PipelineCache.Pass.SHADOW_MAPPING,region,SHADOW_HALO);
+                cache.dirty(PipelineCache.Pass.LIGHTING,region,0);
+            }
         }
-        tex_detail.bindToSlot(0);
-        tex_volume.bindToSlot(1);
-        glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
         
         // NORMAL MAPPING *****************************************************
     
-        Framebuffer.bindDraw(project.normalsBuffer());
-        Shaders.textureNormalsProgram.use();
-        try (MemoryStack stack = MemoryStack.stackPush()){
-            IntBuffer buffer = stack.mallocInt(2);
-            buffer.put(0).put(1).flip();
-            Shaders.textureNormalsProgram.setUniform1iv(Shaders.U_SAMPLER_ARRAY,buffer);
+        key = PipelineCache.key();
+        key = PipelineCache.key(key,cache.generation(PipelineCache.Pass.DEPTH_MIXING));
+        key = PipelineCache.key(key,cache.colorSourceGeneration());
+        key = PipelineCache.key(key,amplitude);
+        if (cache.shouldRun(PipelineCache.Pass.NORMAL_MAPPING,key)) {
+            cache.uniformsChanged(PipelineCache.Pass.NORMAL_MAPPING,PipelineCache.key(PipelineCache.key(),amplitude));
+            Area region = cache.consumeDirty(PipelineCache.Pass.NORMAL_MAPPING);
+            if (scissor(region)) {
+                Framebuffer.bindDraw(project.normalsBuffer());
+                Shaders.textureNormalsProgram.use();
+                try (MemoryStack stack = MemoryStack.stackPush()){
+                    IntBuffer buffer = stack.mallocInt(2);
+                    buffer.put(0).put(1).flip();
+                    Shaders.textureNormalsProgram.setUniform1iv(Shaders.U_SAMPLER_ARRAY,buffer);
+                }
+                tex_depth.bindToSlot(0);
+                tex_color.bindToSlot(1);
+                glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
+                glDisable(GL_SCISSOR_TEST);
+                cache.dirty(PipelineCache.Pass.AMBIENT_OCCLUSION,region,0);
+                cache.dirty(PipelineCache.Pass.LIGHTING,region,0);
+            }
         }
-        tex_depth.bindToSlot(0);
-        tex_color.bindToSlot(1);
-        glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
     
         // AMBIENT_OCCLUSION **************************************************
     
-        Framebuffer.bindDraw(project.occlusionBuffer());
-        Shaders.textureAmbientOcclusionProgram.use();
-        try (MemoryStack stack = MemoryStack.stackPush()){
-            IntBuffer buffer = stack.mallocInt(2);
-            buffer.put(0).put(1).flip();
-            Shaders.textureAmbientOcclusionProgram.setUniform1iv(Shaders.U_SAMPLER_ARRAY,buffer);
+        key = PipelineCache.key();
+        key = PipelineCache.key(key,cache.generation(PipelineCache.Pass.DEPTH_MIXING));
+        key = PipelineCache.key(key,cache.generation(PipelineCache.Pass.NORMAL_MAPPING));
+        key = PipelineCache.key(key,amplitude);
+        key = PipelineCache.key(key,bounds.x);
+        key = PipelineCache.key(key,bounds.y);
+        if (cache.shouldRun(PipelineCache.Pass.AMBIENT_OCCLUSION,key)) {
+            long uniforms = PipelineCache.key();
+            uniforms = PipelineCache.key(uniforms,amplitude);
+            uniforms = PipelineCache.key(uniforms,bounds.x);
+            uniforms = PipelineCache.key(uniforms,bounds.y);
+            cache.uniformsChanged(PipelineCache.Pass.AMBIENT_OCCLUSION,uniforms);
+            Area region = cache.consumeDirty(PipelineCache.Pass.AMBIENT_OCCLUSION);
+            if (region != null) {
+                // raw -> intermediary (1) -> intermediary (0) -> occlusion. The occlusion buffer only
+                // receives smoothed texels, each step is grown by the halo of the smoothing after it.
+                Framebuffer.bindDraw(project.intermediaryBuffer());
+                Framebuffer.drawBuffer(1);
+                scissor(region,2 * SMOOTHEN_HALO);
+                Shaders.textureAmbientOcclusionProgram.use();
+                try (MemoryStack stack = MemoryStack.stackPush()){
+                    IntBuffer buffer = stack.mallocInt(2);
+                    buffer.put(0).put(1).flip();
+                    Shaders.textureAmbientOcclusionProgram.setUniform1iv(Shaders.U_SAMPLER_ARRAY,buffer);
+                }
+                tex_depth.bindToSlot(0);
+                tex_normals.bindToSlot(1);
+                glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
+                smoothen(project,tex_intermediary_raw,tex_intermediary,project.occlusionBuffer(),region);
+                cache.dirty(PipelineCache.Pass.LIGHTING,region,0);
+            }
         }
-        tex_depth.bindToSlot(0);
-        tex_normals.bindToSlot(1);
-        glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
-    
-        
-        Framebuffer.bind(project.intermediaryBuffer());
-        Shaders.textureSmoothenProgram.use();
-        Shaders.textureSmoothenProgram.setUniform1i(Shaders.U_SAMPLER_2D,0);
-        tex_occlusion.bindToSlot(0);
-        glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
-        Framebuffer.bind(project.occlusionBuffer());
-        tex_intermediary.bindToSlot(0);
-        glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
         
         
         // SHADOW MAPPING *****************************************************
         
-        if (editor.previewShadow()) {
-            Framebuffer.bindDraw(project.shadowBuffer());
-            Shaders.textureShadowsProgram.use();
-            Shaders.textureShadowsProgram.setUniform1i(Shaders.U_SAMPLER_2D,0);
-            tex_depth.bindToSlot(0);
-            glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
-    
-            
-            Framebuffer.bind(project.intermediaryBuffer());
-            Shaders.textureSmoothenProgram.use();
-            Shaders.textureSmoothenProgram.setUniform1i(Shaders.U_SAMPLER_2D,0);
-            tex_shadows.bindToSlot(0);
-            glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
-            Framebuffer.bind(project.shadowBuffer());
-            tex_intermediary.bindToSlot(0);
-            glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
-            
+        key = PipelineCache.key();
+        key = PipelineCache.key(key,cache.generation(PipelineCache.Pass.DEPTH_MIXING));
+        key = PipelineCache.key(key,amplitude);
+        key = PipelineCache.key(key,lighting.generation());
+        key = PipelineCache.key(key,bounds.x);
+        key = PipelineCache.key(key,bounds.y);
+        if (editor.previewShadow() && cache.shouldRun(PipelineCache.Pass.SHADOW_MAPPING,key)) {
+            long uniforms = PipelineCache.key();
+            uniforms = PipelineCache.key(uniforms,amplitude);
+            uniforms = PipelineCache.key(uniforms,lighting.generation());
+            uniforms = PipelineCache.key(uniforms,bounds.x);
+            uniforms = PipelineCache.key(uniforms,bounds.y);
+            cache.uniformsChanged(PipelineCache.Pass.SHADOW_MAPPING,uniforms);
+            Area region = cache.consumeDirty(PipelineCache.Pass.SHADOW_MAPPING);
+            if (region != null) {
+                Framebuffer.bindDraw(project.intermediaryBuffer());
+                Framebuffer.drawBuffer(1);
+                scissor(region,2 * SMOOTHEN_HALO);
+                Shaders.textureShadowsProgram.use();
+                Shaders.textureShadowsProgram.setUniform1i(Shaders.U_SAMPLER_2D,0);
+                tex_depth.bindToSlot(0);
+                glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
+                smoothen(project,tex_intermediary_raw,tex_intermediary,project.shadowBuffer(),region);
+                cache.dirty(PipelineCache.Pass.LIGHTING,region,0);
+            }
         }
         
         
@@ -318,6 +417,54 @@ public class EditorGraphics implements Disposable {
     
         // LIGHTING / PREVIEW *************************************************
         
+        key = PipelineCache.key();
+        key = PipelineCache.key(key,cache.generation(PipelineCache.Pass.BACK_TO_FRONT));
+        key = PipelineCache.key(key,cache.generation(PipelineCache.Pass.DEPTH_MIXING));
+        key = PipelineCache.key(key,cache.generation(PipelineCache.Pass.NORMAL_MAPPING));
+        key = PipelineCache.key(key,cache.generation(PipelineCache.Pass.AMBIENT_OCCLUSION));
+        key = PipelineCache.key(key,cache.generation(PipelineCache.Pass.SHADOW_MAPPING));
+        key = PipelineCache.key(key,cache.colorSourceGeneration());
+        key = PipelineCache.key(key,cache.frontBufferGeneration(ENUM.Channel.SPECULAR));
+        key = PipelineCache.key(key,cache.frontBufferGeneration(ENUM.Channel.EMISSIVE));
+        key = PipelineCache.key(key,System.identityHashCode(tex_palette));
+        key = PipelineCache.key(key,editor.previewDisplay().ordinal());
+        key = PipelineCache.key(key,editor.previewLighting());
+        key = PipelineCache.key(key,editor.previewShadow());
+        key = PipelineCache.key(key,editor.previewPalette());
+        key = PipelineCache.key(key,editor.camera().position.x);
+        key = PipelineCache.key(key,editor.camera().position.y);
+        key = PipelineCache.key(key,editor.camera().position.z);
+        key = PipelineCache.key(key,editor.camera().zoom);
+        key = PipelineCache.key(key,lighting.generation());
+        key = PipelineCache.key(key,amplitude);
+        key = PipelineCache.key(key,bounds.x);
+        key = PipelineCache.key(key,bounds.y);
+        key = PipelineCache.key(key,editor.previewBloom());
+        key = PipelineCache.key(key,editor.bloomThreshold());
+        key = PipelineCache.key(key,editor.bloomIntensity());
+        Bloom bloom = project.bloom(editor.previewBloom());
+        if (!cache.shouldRun(PipelineCache.Pass.LIGHTING,key)) return;
+        
+        long uniforms = PipelineCache.key();
+        uniforms = PipelineCache.key(uniforms,System.identityHashCode(tex_palette));
+        uniforms = PipelineCache.key(uniforms,editor.previewDisplay().ordinal());
+        uniforms = PipelineCache.key(uniforms,editor.previewLighting());
+        uniforms = PipelineCache.key(uniforms,editor.previewShadow());
+        uniforms = PipelineCache.key(uniforms,editor.previewPalette());
+        uniforms = PipelineCache.key(uniforms,editor.camera().position.x);
+        uniforms = PipelineCache.key(uniforms,editor.camera().position.y);
+        uniforms = PipelineCache.key(uniforms,editor.camera().position.z);
+        uniforms = PipelineCache.key(uniforms,editor.camera().zoom);
+        uniforms = PipelineCache.key(uniforms,lighting.generation());
+        uniforms = PipelineCache.key(uniforms,amplitude);
+        uniforms = PipelineCache.key(uniforms,bounds.x);
+        uniforms = PipelineCache.key(uniforms,bounds.y);
+        cache.uniformsChanged(PipelineCache.Pass.LIGHTING,uniforms);
+        boolean bloom_pass = bloom != null && editor.previewDisplay() == ENUM.PreviewDisplay.SOURCE;
+        if (bloom_pass) cache.dirtyAll(PipelineCache.Pass.LIGHTING); // bloom reads the whole preview
+        Area region = cache.consumeDirty(PipelineCache.Pass.LIGHTING);
+        if (!scissor(region)) return;
+        
         glEnable(GL_BLEND);
         glBlendFunc(GL_SRC_ALPHA,GL_ONE_MINUS_SRC_ALPHA);
         Framebuffer.bindDraw(project.previewBuffer());
@@ -339,8 +486,15 @@ public class EditorGraphics implements Disposable {
         tex_palette.bindToSlot(7);
         
         glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
+        glDisable(GL_SCISSOR_TEST);
+        
+        // BLOOM **************************************************************
         
-        // HDR / BLOOM ETC. --->>
+        if (bloom_pass) {
+            glDisable(GL_BLEND);
+            bloom.render(project,editor.bloomThreshold(),editor.bloomIntensity());
+            project.viewport();
+        }
         
     }
     
@@ -435,6 +589,114 @@ public class EditorGraphics implements Disposable {
         Shaders.texturePassthroughProgram.setUniform1i(Shaders.U_SAMPLER_2D,0);
         project.frontBuffer().texture(channel.id).bindToSlot(0);
         glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
+        // front and back only differ where the brush overlay was drawn
+        project.pipelineCache().backBufferModified(channel,project.pipelineCache().overlayArea());
+    }
+    
+    /**
+     * XORs the texels into the region of the back buffer channel (logic op). Nothing is read back.
+     * @param texels R8, texture sized. Only the region is used
+     */
+    public void xorToBackbuffer(Project project, ENUM.Channel channel, Area region, Texture texels) {
+        glDisable(GL_BLEND);
+        texSpaceVAO.bind();
+        Framebuffer.bindDraw(project.backBuffer());
+        Framebuffer.viewport();
+        Framebuffer.drawBuffer(channel.id);
+        glEnable(GL_SCISSOR_TEST);
+        glScissor(region.minX(),region.minY(),region.cols(),region.rows());
+        glEnable(GL_COLOR_LOGIC_OP);
+        glLogicOp(GL_XOR);
+        Shaders.texturePassthroughProgram.use();
+        Shaders.texturePassthroughProgram.setUniform1i(Shaders.U_SAMPLER_2D,0);
+        texels.bindToSlot(0);
+        glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
+        glDisable(GL_COLOR_LOGIC_OP);
+        glDisable(GL_SCISSOR_TEST);
+        project.pipelineCache().backBufferModified(channel,region);
+    }
+    
+    /**
+     * Smoothens the raw texels twice (3x3). raw -> intermediary -> target.
+     * Each step writes the region grown by the halo of the steps after it.
+     * The viewport must be set. The scissor test is disabled after.
+     */
+    private void smoothen(Project project, Texture raw, Texture intermediary, Framebuffer target, Area region) {
+        Shaders.textureSmoothenProgram.use();
+        Shaders.textureSmoothenProgram.setUniform1i(Shaders.U_SAMPLER_2D,0);
+        Framebuffer.drawBuffer(0);
+        scissor(region,SMOOTHEN_HALO);
+        raw.bindToSlot(0);
+        glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
+        Framebuffer.bindDraw(target);
+        scissor(region,0);
+        intermediary.bindToSlot(0);
+        glDrawElements(GL_TRIANGLES,6,GL_UNSIGNED_SHORT,0);
+        glDisable(GL_SCISSOR_TEST);
+    }
+    
+    /** Enables the scissor test for the region (texture space). @return false if null (nothing to draw) */
+    private boolean scissor(Area region) {
+        if (region == null) return false;
+        glEnable(GL_SCISSOR_TEST);
+        glScissor(region.minX(),region.minY(),region.cols(),region.rows());
+        return true;
+    }
+    
+    /** Enables the scissor test for the region grown by halo texels (texture space) */
+    private void scissor(Area region, int halo) {
+        glEnable(GL_SCISSOR_TEST);
+        glScissor(region.minX() - halo,region.minY() - halo,region.cols() + 2 * halo,region.rows() + 2 * halo);
+    }
+    
+    /** @return the texels the brush overlay pass draws to this frame (texture space), or null */
+    private Area overlayArea(Project project, Brush brush, Coordinate cursor) {
+        int stroke_offset = brush.textureSize() / 2 - 1;
+        int stroke_size = brush.textureSize();
+        Area area = null;
+        if (editor.isCurrentlyEditing()) {
+            switch (brush.tool()) {
+                case SAMPLER -> {
+                    if (project.area().contains(cursor)) area = new Area(cursor.x,cursor.y);
+                }
+                case FREE_HAND -> {
+                    for (Coordinate point : editor.freeHandCoordinates) {
+                        area = expandToContain(area,point,stroke_offset,stroke_size);
+                    }
+                }
+                case LINE_DRAW -> {
+                    for (Coordinate point : editor.lineDrawCoordinates) {
+                        if (project.area().contains(point)) {
+                            area = expandToContain(area,point,stroke_offset,stroke_size);
+                        }
+                    }
+                }
+                case DRAG_AREA -> {
+                    if (project.area().intersects(editor.brushDragArea)) area = new Area(editor.brushDragArea);
+                }
+            }
+        } else {
+            switch (brush.tool()) {
+                case SAMPLER, DRAG_AREA -> {
+                    if (project.area().contains(cursor)) area = new Area(cursor.x,cursor.y);
+                }
+                case FREE_HAND, LINE_DRAW -> {
+                    if (editor.editableAreaBounds.contains(cursor)) {
+                        area = expandToContain(null,cursor,stroke_offset,stroke_size);
+                    }
+                }
+            }
+        }
+        return area;
+    }
+    
+    private Area expandToContain(Area area, Coordinate point, int stroke_offset, int stroke_size) {
+        int x0 = point.x - stroke_offset;
+        int y0 = point.y - stroke_offset;
+        Area stamp = new Area(x0,y0,x0 + stroke_size - 1,y0 + stroke_size - 1);
+        if (area == null) return stamp;
+        area.expandToContain(stamp);
+        return area;
     }
     
     public CanvasBackground background() {
@@ -0,0 +1,63 @@
+package io.github.heathensoft.canvas;
+
+import io.github.heathensoft.jlib.common.Disposable;
+import io.github.heathensoft.jlib.lwjgl.graphics.Texture;
+import io.github.heathensoft.jlib.lwjgl.graphics.TextureFormat;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL11.GL_NEAREST;
+
+/**
+ * Palette 3D texture from a lut built off the render thread (PaletteLoader / PaletteLut).
+ * Same texture as jlib Palette. The lut is kept for the cpu pipeline.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class LutPalette implements Disposable {
+    
+    private final String name;
+    private final Texture texture;
+    private final ByteBuffer lut;
+    private final int size;
+    
+    /**
+     * GL thread
+     * @param lut RGB8, size^3 texels
+     */
+    public LutPalette(String name, ByteBuffer lut, int size) {
+        this.name = name;
+        this.lut = lut;
+        this.size = size;
+        this.texture = Texture.generate3D(size,size,size);
+        texture.bindToActiveSlot();
+        texture.filter(GL_NEAREST,GL_NEAREST);
+        texture.clampToEdge();
+        texture.allocate(TextureFormat.RGB8_UNSIGNED_NORMALIZED);
+        texture.uploadData(lut.clear());
+        Texture.unbindActiveSlot(texture.target());
+    }
+    
+    public Texture texture() {
+        return texture;
+    }
+    
+    public String name() {
+        return name;
+    }
+    
+    public ByteBuffer lut() {
+        return lut;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public void dispose() {
+        Disposable.dispose(texture);
+    }
+}
@@ -0,0 +1,219 @@
+package io.github.heathensoft.canvas;
+
+import io.github.heathensoft.jlib.common.utils.Area;
+
+/**
+ * Remembers the inputs each pass of EditorGraphics.projectPipeline consumed the last time it ran.
+ * A pass is skipped when its key (generations of its input textures + the uniforms it reads) is unchanged.
+ * Every time a pass runs, the generation of its output is incremented. Later passes key on that.
+ * A pass that runs only redraws its dirty region (texture space): the texels its inputs changed in,
+ * grown by the halo of the pass. Regions accumulate until the pass runs. If the uniforms of a pass
+ * change (uniformsChanged), or a texture is replaced, the whole texture is dirty.
+ * One per project.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class PipelineCache {
+    
+    public enum Pass {
+        BRUSH_OVERLAY,
+        BACK_TO_FRONT,
+        DEPTH_MIXING,
+        NORMAL_MAPPING,
+        AMBIENT_OCCLUSION,
+        SHADOW_MAPPING,
+        LIGHTING;
+        public static final Pass[] ALL = values();
+        public static final int SIZE = ALL.length;
+    }
+    
+    private static final long SEED = 0xCBF29CE484222325L;
+    
+    private final long[] keys;
+    private final long[] uniforms;
+    private final int[] generations;
+    private final boolean[] valid;
+    private final boolean[] uniforms_valid;
+    private final Area[] dirty; // per pass, null if clean
+    private final Area[] back_buffer_dirty; // per channel, null if clean
+    private final int[] back_buffer_generations;
+    private final int[] front_buffer_generations;
+    private final Area texture_area;
+    private Area overlay_area; // texels the brush overlay was last drawn to. null if none
+    private int color_source_generation;
+    
+    public PipelineCache(int width, int height) {
+        this.keys = new long[Pass.SIZE];
+        this.uniforms = new long[Pass.SIZE];
+        this.generations = new int[Pass.SIZE];
+        this.valid = new boolean[Pass.SIZE];
+        this.uniforms_valid = new boolean[Pass.SIZE];
+        this.dirty = new Area[Pass.SIZE];
+        this.back_buffer_dirty = new Area[ENUM.Channel.SIZE];
+        this.back_buffer_generations = new int[ENUM.Channel.SIZE];
+        this.front_buffer_generations = new int[ENUM.Channel.SIZE];
+        this.texture_area = new Area(0,0,width - 1,height - 1);
+        for (Pass pass : Pass.ALL) dirtyAll(pass);
+    }
+    
+    /**
+     * @param pass the pass
+     * @param key hash of the pass inputs
+     * @return true if the inputs have changed (and the pass should run)
+     */
+    public boolean shouldRun(Pass pass, long key) {
+        if (valid[pass.ordinal()] && keys[pass.ordinal()] == key) return false;
+        keys[pass.ordinal()] = key;
+        valid[pass.ordinal()] = true;
+        generations[pass.ordinal()]++;
+        return true;
+    }
+    
+    /** The pass runs this frame and next time shouldRun is called (i.e. the brush overlay while editing) */
+    public void run(Pass pass) {
+        valid[pass.ordinal()] = false;
+        generations[pass.ordinal()]++;
+    }
+    
+    /** @return output generation of the pass */
+    public int generation(Pass pass) {
+        return generations[pass.ordinal()];
+    }
+    
+    /**
+     * @param pass the pass
+     * @param key hash of the uniforms the pass reads
+     * @return true if the uniforms have changed. The whole texture is dirty for the pass
+     */
+    public boolean uniformsChanged(Pass pass, long key) {
+        if (uniforms_valid[pass.ordinal()] && uniforms[pass.ordinal()] == key) return false;
+        uniforms[pass.ordinal()] = key;
+        uniforms_valid[pass.ordinal()] = true;
+        dirtyAll(pass);
+        return true;
+    }
+    
+    /**
+     * The pass must redraw the region, grown by halo texels
+     * @param region texture space. Nothing if null
+     */
+    public void dirty(Pass pass, Area region, int halo) {
+        if (region == null) return;
+        Area area = new Area(region);
+        area.expand(halo);
+        if (!texture_area.intersection(area)) return;
+        Area current = dirty[pass.ordinal()];
+        if (current == null) dirty[pass.ordinal()] = area;
+        else current.expandToContain(area);
+    }
+    
+    public void dirtyAll(Pass pass) {
+        dirty[pass.ordinal()] = new Area(texture_area);
+    }
+    
+    /** @return the region the pass must redraw (clipped to the texture), or null if clean. The pass is clean after */
+    public Area consumeDirty(Pass pass) {
+        Area area = dirty[pass.ordinal()];
+        dirty[pass.ordinal()] = null;
+        return area;
+    }
+    
+    /** The brush overlay was cleared and drawn to the region (texture space, null if nothing was drawn) */
+    public void overlayDrawn(Area region) {
+        dirty(Pass.BACK_TO_FRONT,overlay_area,0);
+        dirty(Pass.BACK_TO_FRONT,region,0);
+        overlay_area = region == null ? null : new Area(region);
+    }
+    
+    /** @return the texels the brush overlay was last drawn to (texture space), or null */
+    public Area overlayArea() {
+        return overlay_area;
+    }
+    
+    /** Call when the back buffer has been written to outside of the pipeline (replaced). The whole channel is dirty */
+    public void backBufferModified(ENUM.Channel channel) {
+        backBufferModified(channel,texture_area);
+    }
+    
+    /**
+     * Call when the back buffer has been written to (edits, undo / redo)
+     * @param region texture space, the texels written to
+     */
+    public void backBufferModified(ENUM.Channel channel, Area region) {
+        back_buffer_generations[channel.id]++;
+        if (region == null) return;
+        Area area = new Area(region);
+        if (!texture_area.intersection(area)) return;
+        Area current = back_buffer_dirty[channel.id];
+        if (current == null) back_buffer_dirty[channel.id] = area;
+        else current.expandToContain(area);
+    }
+    
+    /** @return the texels of the back buffer channel written to since the last call, or null */
+    public Area consumeBackBufferDirty(ENUM.Channel channel) {
+        Area area = back_buffer_dirty[channel.id];
+        back_buffer_dirty[channel.id] = null;
+        return area;
+    }
+    
+    public int backBufferGeneration(ENUM.Channel channel) {
+        return back_buffer_generations[channel.id];
+    }
+    
+    /** Call when a front buffer has been written to outside of the pipeline (reloaded from file) */
+    public void frontBufferModified(ENUM.Channel channel) {
+        front_buffer_generations[channel.id]++;
+        frontBufferDrawn(channel,texture_area);
+    }
+    
+    /** The pipeline wrote the region of the front buffer channel. Dirty for the passes reading it */
+    public void frontBufferDrawn(ENUM.Channel channel, Area region) {
+        switch (channel) {
+            case DETAILS, VOLUME -> dirty(Pass.DEPTH_MIXING,region,0);
+            case SPECULAR, EMISSIVE -> dirty(Pass.LIGHTING,region,0);
+        }
+    }
+    
+    public int frontBufferGeneration(ENUM.Channel channel) {
+        return front_buffer_generations[channel.id];
+    }
+    
+    /** Call when the color source texture has been written to (reloaded from file) */
+    public void colorSourceModified() {
+        color_source_generation++;
+        for (Pass pass : Pass.ALL) dirtyAll(pass);
+    }
+    
+    public int colorSourceGeneration() {
+        return color_source_generation;
+    }
+    
+    /** Every pass runs next frame */
+    public void invalidate() {
+        for (int i = 0; i < Pass.SIZE; i++) {
+            valid[i] = false;
+            uniforms_valid[i] = false;
+            dirtyAll(Pass.ALL[i]);
+        }
+    }
+    
+    public static long key() {
+        return SEED;
+    }
+    
+    public static long key(long hash, long value) {
+        hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+    
+    public static long key(long hash, float value) {
+        return key(hash,Float.floatToIntBits(value));
+    }
+    
+    public static long key(long hash, boolean value) {
+        return key(hash,value ? 1L : 0L);
+    }
+}
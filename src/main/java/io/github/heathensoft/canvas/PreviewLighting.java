@@ -9,6 +9,9 @@ import org.joml.Vector3f;
 import org.lwjgl.system.MemoryStack;
 
 import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import static org.lwjgl.opengl.GL15.GL_DYNAMIC_DRAW;
 import static org.lwjgl.opengl.GL31.GL_UNIFORM_BUFFER;
@@ -37,6 +40,66 @@ public class PreviewLighting implements Disposable {
     public static final Attenuation ATT_3250 = new Attenuation(1.0f,0.0014f,0.000007f);
     public static final Attenuation[] PRESETS = new Attenuation[] {ATT_100,ATT_160,ATT_200,ATT_325,ATT_600,ATT_3250};
     
+    /**
+     * Additional point light. Diffuse and specular only (ambience and shadows come from the main light).
+     * Culled per tile against its radius: the distance where it contributes less than CUTOFF.
+     */
+    public static final class PointLight {
+        public static final float CUTOFF = 1.0f / 512.0f;
+        public final Vector3f position;
+        public final Color color;
+        private float diffuse;
+        private int preset;
+        public PointLight(Vector3f position, Color color, float diffuse, int preset) {
+            this.position = new Vector3f(position);
+            this.color = color.cpy();
+            setDiffuseStrength(diffuse);
+            setPreset(preset);
+        }
+        public PointLight(PointLight light) {
+            this(light.position,light.color,light.diffuse,light.preset);
+        }
+        public Attenuation attenuation() {
+            return PRESETS[preset];
+        }
+        public int preset() {
+            return preset;
+        }
+        public void setPreset(int preset) {
+            this.preset = Math.clamp(0,PRESETS.length - 1,preset);
+        }
+        public float diffuseStrength() {
+            return diffuse;
+        }
+        public void setDiffuseStrength(float diffuse) {
+            this.diffuse = Math.clamp(0.0f,1.0f,diffuse);
+        }
+        /** max(color) * (diffuse + specular) * att_inv < CUTOFF beyond this distance */
+        public float radius() {
+            Attenuation att = attenuation();
+            float intensity = Math.max(color.r,Math.max(color.g,color.b)) * (diffuse + 1.0f);
+            float c = att.constant() - intensity / CUTOFF;
+            if (c >= 0) return 0.0f;
+            float l = att.linear();
+            float q = att.quadratic();
+            return (-l + Math.sqrt(l * l - 4 * q * c)) / (2 * q);
+        }
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PointLight light)) return false;
+            return preset == light.preset && diffuse == light.diffuse && position.equals(light.position)
+                    && color.r == light.color.r && color.g == light.color.g && color.b == light.color.b;
+        }
+        public int hashCode() {
+            int hash = position.hashCode();
+            hash = 31 * hash + Float.floatToIntBits(color.r);
+            hash = 31 * hash + Float.floatToIntBits(color.g);
+            hash = 31 * hash + Float.floatToIntBits(color.b);
+            hash = 31 * hash + Float.floatToIntBits(diffuse);
+            return 31 * hash + preset;
+        }
+    }
+    
     
     private static PreviewLighting instance;
     private static final int BINDING_POINT = 4;
@@ -64,10 +127,14 @@ public class PreviewLighting implements Disposable {
     private final BufferObject uniformBuffer;
     private final Vector3f position;
     private final Color color;
+    private final List<PointLight> lights;
     private float diffuse;
     private float ambience;
     private float brightness;
     private float pointLight;
+    private final float[] uploaded;
+    private boolean uploaded_valid;
+    private int generation;
     
     private PreviewLighting() {
         position = new Vector3f(DEFAULT_POSITION);
@@ -76,6 +143,8 @@ public class PreviewLighting implements Disposable {
         ambience = DEFAULT_AMBIENCE;
         diffuse = DEFAULT_DIFFUSE;
         color = Color.WHITE.cpy();
+        lights = new ArrayList<>();
+        uploaded = new float[UNIFORM_BLOCK_SIZE - ATT_BLOCK_SIZE];
         uniformBuffer = new BufferObject(GL_UNIFORM_BUFFER,GL_DYNAMIC_DRAW);
         uniformBuffer.bind();
         uniformBuffer.bindBufferBase(BINDING_POINT);
@@ -86,8 +155,8 @@ public class PreviewLighting implements Disposable {
         }
     }
     
+    /** Only uploads if the block has changed since the last upload */
     public void uploadUniformBlock() {
-        uniformBuffer.bind();
         try (MemoryStack stack = MemoryStack.stackPush()){
             FloatBuffer buffer = stack.mallocFloat(UNIFORM_BLOCK_SIZE - ATT_BLOCK_SIZE);
             BufferObject.put(position,buffer);
@@ -96,10 +165,21 @@ public class PreviewLighting implements Disposable {
             buffer.put(diffuse);
             BufferObject.putPadding(2,buffer);
             buffer.put(brightness).put(pointLight);
-            uniformBuffer.bufferSubData(buffer.flip(),ATT_BLOCK_SIZE * Float.BYTES);
+            buffer.flip();
+            if (uploaded_valid && buffer.equals(FloatBuffer.wrap(uploaded))) return;
+            buffer.get(0,uploaded);
+            uploaded_valid = true;
+            generation++;
+            uniformBuffer.bind();
+            uniformBuffer.bufferSubData(buffer,ATT_BLOCK_SIZE * Float.BYTES);
         }
     }
     
+    /** @return incremented every time the uploaded block changes */
+    public int generation() {
+        return generation;
+    }
+    
     
     public Color color() {
         return color;
@@ -151,6 +231,32 @@ public class PreviewLighting implements Disposable {
         return brightness / PRESETS.length;
     }
     
+    /** @return the attenuation preset index */
+    public int brightnessPreset() {
+        return (int) brightness;
+    }
+    
+    public void setBrightnessPreset(int preset) {
+        this.brightness = Math.clamp(0,PRESETS.length-1,preset);
+    }
+    
+    /** @return the additional point lights (read only) */
+    public List<PointLight> lights() {
+        return Collections.unmodifiableList(lights);
+    }
+    
+    public void addLight(PointLight light) {
+        lights.add(light);
+    }
+    
+    public boolean removeLight(PointLight light) {
+        return lights.remove(light);
+    }
+    
+    public void clearLights() {
+        lights.clear();
+    }
+    
     public void togglePointLight() {
         pointLight = pointLight == 0.0f ? 1.0f : 0.0f;
     }
@@ -159,6 +265,10 @@ public class PreviewLighting implements Disposable {
         return pointLight == 1.0f;
     }
     
+    public void setPointLight(boolean enabled) {
+        pointLight = enabled ? 1.0f : 0.0f;
+    }
+    
     public void dispose() {
         Disposable.dispose(uniformBuffer);
     }
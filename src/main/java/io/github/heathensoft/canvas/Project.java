@@ -1,5 +1,7 @@
 package io.github.heathensoft.canvas;
 
+import io.github.heathensoft.canvas.io.EditJournal;
+import io.github.heathensoft.canvas.io.ExportService;
 import io.github.heathensoft.canvas.io.PngExporter;
 import io.github.heathensoft.canvas.io.PngImporter;
 import io.github.heathensoft.jlib.common.Disposable;
@@ -15,6 +17,7 @@ import org.joml.Matrix4f;
 import org.joml.Vector2f;
 import org.joml.Vector4f;
 import org.lwjgl.system.MemoryStack;
+import org.tinylog.Logger;
 
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
@@ -43,7 +46,7 @@ public class Project implements Disposable, Comparable<Project> {
     private final Vector4f bounds;
     private final Texture colorSource;
     private final Framebuffer brushOverlayBuffer;
-    private final Framebuffer bloomBuffer;
+    private Bloom bloom; // null while bloom is disabled
     private final Framebuffer depthBuffer;
     private final Framebuffer occlusionBuffer;
     private final Framebuffer shadowBuffer;
@@ -54,13 +57,15 @@ public class Project implements Disposable, Comparable<Project> {
     private final Framebuffer intermediaryBuffer;
     private final BufferObject pixelBufferObject;
     private final UndoRedoManager undoRedoManager;
+    private final PipelineCache pipelineCache;
+    private EditJournal journal; // null until saved as, or opened from a .canvas file
     
     public Project(PngImporter.Textures sources, int id) throws Exception {
         
         colorSource = sources.color_source();
         area = new Area(0,0,texturesWidth() - 1,texturesHeight() - 1);
         bounds = new Vector4f(0.0f,0.0f,texturesWidth(),texturesHeight());
-        undoRedoManager = new UndoRedoManager(this);
+        pipelineCache = new PipelineCache(texturesWidth(),texturesHeight());
         pixelBufferObject = new BufferObject(GL_PIXEL_PACK_BUFFER, GL_STREAM_READ);
         pixelBufferObject.bind();
         pixelBufferObject.bufferData((long) texturesWidth() * texturesHeight());
@@ -96,6 +101,7 @@ public class Project implements Disposable, Comparable<Project> {
         Framebuffer.attachColor(back_buffer_emissive, ENUM.Channel.EMISSIVE.id,true);
         Framebuffer.drawBuffers(ENUM.Channel.DETAILS.id, ENUM.Channel.VOLUME.id, ENUM.Channel.SPECULAR.id, ENUM.Channel.EMISSIVE.id);
         Framebuffer.checkStatus();
+        undoRedoManager = new UndoRedoManager(this);
         
         //***********************************************************************************************************
         
@@ -133,6 +139,12 @@ public class Project implements Disposable, Comparable<Project> {
         intermediary_texture.filter(GL_NEAREST,GL_NEAREST);
         intermediary_texture.clampToEdge();
         Framebuffer.attachColor(intermediary_texture ,0,true);
+        Texture intermediary_raw = Texture.generate2D(texturesWidth(),texturesHeight());
+        intermediary_raw.bindToActiveSlot(); // unsmoothed occlusion / shadows
+        intermediary_raw.allocate(TextureFormat.RGB8_UNSIGNED_NORMALIZED,false);
+        intermediary_raw.filter(GL_NEAREST,GL_NEAREST);
+        intermediary_raw.clampToEdge();
+        Framebuffer.attachColor(intermediary_raw ,1,true);
         Framebuffer.drawBuffer(0);
         Framebuffer.checkStatus();
     
@@ -164,19 +176,6 @@ public class Project implements Disposable, Comparable<Project> {
     
         //***********************************************************************************************************
         
-        bloomBuffer = new Framebuffer(texturesWidth(),texturesHeight());
-        Framebuffer.bind(bloomBuffer);
-        Texture bloom_texture = Texture.generate2D(texturesWidth(), texturesHeight());
-        bloom_texture.bindToActiveSlot();
-        bloom_texture.allocate(TextureFormat.RGB8_UNSIGNED_NORMALIZED,false);
-        bloom_texture.filter(GL_NEAREST,GL_NEAREST);
-        bloom_texture.clampToEdge();
-        Framebuffer.attachColor(bloom_texture,0,true);
-        Framebuffer.drawBuffer(0);
-        Framebuffer.checkStatus();
-    
-        //***********************************************************************************************************
-        
         previewBuffer = new Framebuffer(texturesWidth(),texturesHeight());
         Framebuffer.bind(previewBuffer);
         Texture preview = Texture.generate2D(texturesWidth(), texturesHeight());
@@ -293,7 +292,20 @@ public class Project implements Disposable, Comparable<Project> {
         exporter.exportDepth(texture,overwrite);
     }
     
-    public void saveAll(boolean overwrite) throws Exception {
+    /**
+     * Directional light: swept from the depth map (ShadowSweep) by the export service, as the CPU pipeline does.
+     * Point light: the ray marched shadow buffer (the sweep does not support point lights).
+     */
+    public void saveShadows(ExportService service, PreviewLighting lighting, float amplitude, boolean overwrite) throws Exception {
+        PngExporter exporter = new PngExporter(output_directory,project_name);
+        exportShadows(service,lighting,amplitude,exporter.outputFile(PngExporter.shadows_suffix,overwrite));
+    }
+    
+    /**
+     * Queues every output on the export service. Returns without waiting for the gpu or the encoding.
+     * Shadows as saveShadows.
+     */
+    public void saveAll(ExportService service, PreviewLighting lighting, float amplitude, boolean overwrite) throws Exception {
         
         Texture preview =               previewBuffer.texture(0);
         Texture depth_map =             depthBuffer.texture(0);
@@ -304,14 +316,41 @@ public class Project implements Disposable, Comparable<Project> {
         Texture back_buffer_emissive =  backBuffer.texture(ENUM.Channel.EMISSIVE.id);
     
         PngExporter exporter = new PngExporter(output_directory,project_name);
-        //exporter.exportColor(colorSource,overwrite);
-        exporter.exportPreview(preview,overwrite);
-        exporter.exportDepth(depth_map,overwrite);
-        exporter.exportNormals(normal_map,overwrite);
-        exporter.exportDetails(back_buffer_details,overwrite);
-        exporter.exportVolume(back_buffer_volume,overwrite);
-        exporter.exportSpecular(back_buffer_specular,overwrite);
-        exporter.exportEmissive(back_buffer_emissive,overwrite);
+        service.export(preview,exporter.outputFile(PngExporter.preview_suffix,overwrite));
+        service.export(depth_map,exporter.outputFile(PngExporter.depth_suffix,overwrite));
+        service.export(normal_map,exporter.outputFile(PngExporter.normals_suffix,overwrite));
+        exportShadows(service,lighting,amplitude,exporter.outputFile(PngExporter.shadows_suffix,overwrite));
+        service.export(back_buffer_details,exporter.outputFile(PngExporter.details_suffix,overwrite));
+        service.export(back_buffer_volume,exporter.outputFile(PngExporter.volume_suffix,overwrite));
+        service.export(back_buffer_specular,exporter.outputFile(PngExporter.specular_suffix,overwrite));
+        service.export(back_buffer_emissive,exporter.outputFile(PngExporter.emissive_suffix,overwrite));
+    }
+    
+    private void exportShadows(ExportService service, PreviewLighting lighting, float amplitude, Path file) {
+        if (lighting.usingPointLight()) service.export(shadowBuffer.texture(0),file);
+        else service.exportShadows(depthBuffer.texture(0),file,amplitude,lighting.position());
+    }
+    
+    /**
+     * Packed alternative to saveAll (PackedMaps). Three files:
+     * material (the four channels), surface (depth, specular, emissive, occlusion) and octahedral normals.
+     */
+    public void savePacked(ExportService service, boolean overwrite) throws Exception {
+        
+        Texture depth_map =             depthBuffer.texture(0);
+        Texture normal_map =            normalsBuffer.texture(0);
+        Texture occlusion_map =         occlusionBuffer.texture(0);
+        Texture back_buffer_details =   backBuffer.texture(ENUM.Channel.DETAILS.id);
+        Texture back_buffer_volume =    backBuffer.texture(ENUM.Channel.VOLUME.id);
+        Texture back_buffer_specular =  backBuffer.texture(ENUM.Channel.SPECULAR.id);
+        Texture back_buffer_emissive =  backBuffer.texture(ENUM.Channel.EMISSIVE.id);
+        
+        PngExporter exporter = new PngExporter(output_directory,project_name);
+        service.exportPacked(exporter.outputFile(PngExporter.material_suffix,overwrite),
+                back_buffer_details,back_buffer_volume,back_buffer_specular,back_buffer_emissive);
+        service.exportPacked(exporter.outputFile(PngExporter.surface_suffix,overwrite),
+                depth_map,back_buffer_specular,back_buffer_emissive,occlusion_map);
+        service.exportNormalsOctahedral(normal_map,exporter.outputFile(PngExporter.octahedral_suffix,overwrite));
     }
     
     public void viewport() {
@@ -322,6 +361,41 @@ public class Project implements Disposable, Comparable<Project> {
         return undoRedoManager;
     }
     
+    /** @return the edit journal or null if the project has no .canvas file */
+    public EditJournal journal() {
+        return journal;
+    }
+    
+    /** Replaces (and disposes) the current journal */
+    public void setJournal(EditJournal journal) {
+        if (this.journal != journal) {
+            Disposable.dispose(this.journal);
+            this.journal = journal;
+        }
+    }
+    
+    public PipelineCache pipelineCache() {
+        return pipelineCache;
+    }
+    
+    /**
+     * Allocates the bloom pyramid, or frees it when disabled.
+     * @return the bloom pyramid. Null if disabled (or if the allocation failed)
+     */
+    public Bloom bloom(boolean enabled) {
+        if (enabled) {
+            if (bloom == null) {
+                try { bloom = new Bloom(texturesWidth(),texturesHeight());
+                } catch (Exception e) {
+                    Logger.error(e,"unable to allocate bloom buffers");
+                }
+            }
+        } else if (bloom != null) {
+            bloom.dispose();
+            bloom = null;
+        } return bloom;
+    }
+    
     public Framebuffer brushOverlayBuffer() {
         return brushOverlayBuffer;
     }
@@ -396,6 +470,10 @@ public class Project implements Disposable, Comparable<Project> {
         return area.contains(coordinate);
     }
     
+    public Path outputDirectory() {
+        return output_directory;
+    }
+    
     public boolean setOutputDirectory(Path path) {
         if (Files.isDirectory(path)) {
             output_directory = path;
@@ -413,13 +491,14 @@ public class Project implements Disposable, Comparable<Project> {
     
     public void dispose() {
         Disposable.dispose(
+                journal,
                 colorSource,
                 depthBuffer,
                 shadowBuffer,
                 normalsBuffer,
                 occlusionBuffer,
                 previewBuffer,
-                bloomBuffer,
+                bloom,
                 frontBuffer,
                 backBuffer,
                 brushOverlayBuffer,
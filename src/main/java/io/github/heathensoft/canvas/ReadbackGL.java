@@ -0,0 +1,133 @@
+package io.github.heathensoft.canvas;
+
+import io.github.heathensoft.jlib.common.utils.Area;
+import io.github.heathensoft.jlib.lwjgl.graphics.Framebuffer;
+import io.github.heathensoft.jlib.lwjgl.graphics.Texture;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL21.GL_PIXEL_PACK_BUFFER;
+import static org.lwjgl.opengl.GL30.GL_MAP_READ_BIT;
+import static org.lwjgl.opengl.GL30.glMapBufferRange;
+import static org.lwjgl.opengl.GL32.*;
+
+/**
+ * The GL calls of ReadbackRing. Reads always target the bound pixel pack buffer (offset 0),
+ * they never return texels. OPENGL is the implementation, others record the calls (tests).
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public interface ReadbackGL {
+
+    ReadbackGL OPENGL = new OpenGL();
+
+    /** @return a new pixel pack buffer name */
+    int genBuffer();
+
+    /** Binds the pixel pack buffer. 0 to unbind */
+    void bindBuffer(int buffer);
+
+    /** (Re)allocates the bound pixel pack buffer (GL_STREAM_READ) */
+    void bufferData(long size);
+
+    void deleteBuffer(int buffer);
+
+    /** GL_RED, one byte per texel, into the bound pixel pack buffer */
+    void readPixels(Framebuffer framebuffer, int attachment, Area region);
+
+    /** RGBA, 4 bytes per texel, into the bound pixel pack buffer */
+    void getTexImage(Texture texture);
+
+    long fenceSync();
+
+    /** Never blocks */
+    boolean isSignaled(long sync);
+
+    /** Blocks until the fence is signaled. @return false if the wait failed */
+    boolean clientWaitSync(long sync);
+
+    void deleteSync(long sync);
+
+    void flush();
+
+    /** Copies the first size bytes of the bound pixel pack buffer. @return false if it could not be mapped */
+    boolean copyBuffer(int size, ByteBuffer dst);
+
+    final class OpenGL implements ReadbackGL {
+
+        private OpenGL() { }
+
+        public int genBuffer() {
+            return glGenBuffers();
+        }
+
+        public void bindBuffer(int buffer) {
+            glBindBuffer(GL_PIXEL_PACK_BUFFER,buffer);
+        }
+
+        public void bufferData(long size) {
+            glBufferData(GL_PIXEL_PACK_BUFFER,size,GL_STREAM_READ);
+        }
+
+        public void deleteBuffer(int buffer) {
+            glDeleteBuffers(buffer);
+        }
+
+        public void readPixels(Framebuffer framebuffer, int attachment, Area region) {
+            Framebuffer.bindRead(framebuffer);
+            Framebuffer.readBuffer(attachment);
+            glPixelStorei(GL_PACK_ALIGNMENT,1);
+            glReadPixels(region.minX(),region.minY(),region.cols(),region.rows(),GL_RED,GL_UNSIGNED_BYTE,0L);
+        }
+
+        public void getTexImage(Texture texture) {
+            texture.bindToActiveSlot();
+            glPixelStorei(GL_PACK_ALIGNMENT,1);
+            glGetTexImage(GL_TEXTURE_2D,0,GL_RGBA,GL_UNSIGNED_BYTE,0L);
+            Texture.unbindActiveSlot(GL_TEXTURE_2D);
+        }
+
+        public long fenceSync() {
+            return glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE,0);
+        }
+
+        public boolean isSignaled(long sync) {
+            try (MemoryStack stack = MemoryStack.stackPush()) {
+                IntBuffer status = stack.mallocInt(1);
+                glGetSynciv(sync,GL_SYNC_STATUS,null,status);
+                return status.get(0) == GL_SIGNALED;
+            }
+        }
+
+        public boolean clientWaitSync(long sync) {
+            int status;
+            do { status = glClientWaitSync(sync,GL_SYNC_FLUSH_COMMANDS_BIT,1_000_000_000L);
+            } while (status == GL_TIMEOUT_EXPIRED);
+            return status != GL_WAIT_FAILED;
+        }
+
+        public void deleteSync(long sync) {
+            glDeleteSync(sync);
+        }
+
+        public void flush() {
+            glFlush();
+        }
+
+        public boolean copyBuffer(int size, ByteBuffer dst) {
+            ByteBuffer mapped = glMapBufferRange(GL_PIXEL_PACK_BUFFER,0,size,GL_MAP_READ_BIT);
+            if (mapped == null) return false;
+            MemoryUtil.memCopy(mapped,dst);
+            glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+            return true;
+        }
+    }
+}
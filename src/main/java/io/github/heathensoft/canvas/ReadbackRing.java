@@ -0,0 +1,150 @@
+package io.github.heathensoft.canvas;
+
+import io.github.heathensoft.jlib.common.Disposable;
+import io.github.heathensoft.jlib.common.utils.Area;
+import io.github.heathensoft.jlib.lwjgl.graphics.Framebuffer;
+import io.github.heathensoft.jlib.lwjgl.graphics.Texture;
+import org.lwjgl.system.MemoryUtil;
+import org.tinylog.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * Asynchronous readbacks (single channel regions, whole textures) through a ring of pixel pack buffers.
+ * read() queues glReadPixels into the next buffer of the ring and places a fence. Nothing waits on it.
+ * update() (once per frame) lands the readbacks whose fences are signaled, in the order they were issued.
+ * The GL executes commands in order, so a readback issued before a draw sees the texels before the draw.
+ * Waiting only happens when the ring is full or on flush(). Both are counted (waits()).
+ * Every GL call goes through ReadbackGL.
+ * Render thread only.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class ReadbackRing implements Disposable {
+    
+    private final ReadbackGL gl;
+    private final int[] buffers; // 0: not created
+    private final long[] capacities;
+    private final ArrayDeque<Readback> queue;
+    private int next;
+    private int waits;
+    
+    /** @param size number of pixel pack buffers, readbacks in flight */
+    public ReadbackRing(int size) {
+        this(size,ReadbackGL.OPENGL);
+    }
+    
+    public ReadbackRing(int size, ReadbackGL gl) {
+        this.gl = gl;
+        this.buffers = new int[size];
+        this.capacities = new long[size];
+        this.queue = new ArrayDeque<>(size);
+    }
+    
+    /**
+     * Queues a readback of the region (GL_RED, one byte per texel).
+     * @param onLanded called on the render thread with the texels (rows of region.cols()).
+     * The buffer is freed when the call returns
+     */
+    public void read(Framebuffer framebuffer, int attachment, Area region, Consumer<ByteBuffer> onLanded) {
+        int size = region.size();
+        int slot = bind(size);
+        gl.readPixels(framebuffer,attachment,region);
+        fence(slot,size,onLanded);
+    }
+    
+    /**
+     * Queues a readback of a whole texture as RGBA (4 bytes per texel).
+     * @param onLanded called on the render thread with the texels. The buffer is freed when the call returns
+     */
+    public void read(Texture texture, Consumer<ByteBuffer> onLanded) {
+        int size = texture.width() * texture.height() * 4;
+        int slot = bind(size);
+        gl.getTexImage(texture);
+        fence(slot,size,onLanded);
+    }
+    
+    /** Lands the readbacks that have completed. Never blocks */
+    public void update() {
+        while (!queue.isEmpty() && gl.isSignaled(queue.peek().sync)) {
+            land(queue.poll(),false);
+        }
+    }
+    
+    /** Lands every readback in flight, waiting if necessary */
+    public void flush() {
+        if (queue.isEmpty()) return;
+        waits++;
+        while (!queue.isEmpty()) land(queue.poll(),true);
+    }
+    
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+    
+    public int inFlight() {
+        return queue.size();
+    }
+    
+    /** @return the number of times the render thread had to wait for a readback */
+    public int waits() {
+        return waits;
+    }
+    
+    /** Readbacks in flight are dropped. flush() first to land them */
+    public void dispose() {
+        for (Readback readback : queue) gl.deleteSync(readback.sync);
+        queue.clear();
+        for (int i = 0; i < buffers.length; i++) {
+            if (buffers[i] != 0) gl.deleteBuffer(buffers[i]);
+            buffers[i] = 0;
+            capacities[i] = 0;
+        }
+    }
+    
+    /** @return the next slot of the ring, bound with at least size bytes. Waits if the ring is full */
+    private int bind(int size) {
+        if (queue.size() == buffers.length) {
+            waits++;
+            land(queue.poll(),true);
+        } int slot = next;
+        next = (next + 1) % buffers.length;
+        if (buffers[slot] == 0) buffers[slot] = gl.genBuffer();
+        gl.bindBuffer(buffers[slot]);
+        if (capacities[slot] < size) {
+            gl.bufferData(size);
+            capacities[slot] = size;
+        } return slot;
+    }
+    
+    private void fence(int slot, int size, Consumer<ByteBuffer> onLanded) {
+        long sync = gl.fenceSync();
+        gl.bindBuffer(0);
+        gl.flush(); // the fence must reach the gpu to ever be signaled
+        queue.add(new Readback(slot,sync,size,onLanded));
+    }
+    
+    private void land(Readback readback, boolean wait) {
+        if (wait && !gl.clientWaitSync(readback.sync)) {
+            Logger.warn("readback fence wait failed");
+        } gl.deleteSync(readback.sync);
+        gl.bindBuffer(buffers[readback.slot]);
+        ByteBuffer texels = MemoryUtil.memAlloc(readback.size);
+        boolean copied = gl.copyBuffer(readback.size,texels);
+        gl.bindBuffer(0);
+        if (!copied) {
+            MemoryUtil.memFree(texels);
+            Logger.error("unable to map pixel pack buffer");
+        } else try { readback.onLanded.accept(texels);
+        } finally {
+            MemoryUtil.memFree(texels);
+        }
+    }
+    
+    private record Readback(int slot, long sync, int size, Consumer<ByteBuffer> onLanded) { }
+}
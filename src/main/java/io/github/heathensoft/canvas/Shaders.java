@@ -1,5 +1,6 @@
 package io.github.heathensoft.canvas;
 
+import io.github.heathensoft.canvas.cpu.OcclusionKernel;
 import io.github.heathensoft.jlib.common.Disposable;
 import io.github.heathensoft.jlib.lwjgl.graphics.ShaderProgram;
 import io.github.heathensoft.jlib.lwjgl.utils.Resources;
@@ -38,6 +39,10 @@ public class Shaders {
     public static final String TEXTURE_SHADOW_MAPPING_FRAG = "res/glsl/editor/texture/texture_shadow_mapping.frag";
     public static final String TEXTURE_AMBIENT_OCCLUSION_VERT = "res/glsl/editor/texture/texture_ambient_occlusion.vert";
     public static final String TEXTURE_AMBIENT_OCCLUSION_FRAG = "res/glsl/editor/texture/texture_ambient_occlusion.frag";
+    public static final String TEXTURE_BLOOM_VERT = "res/glsl/editor/texture/texture_bloom.vert";
+    public static final String TEXTURE_BLOOM_PREFILTER_FRAG = "res/glsl/editor/texture/texture_bloom_prefilter.frag";
+    public static final String TEXTURE_BLOOM_DOWNSAMPLE_FRAG = "res/glsl/editor/texture/texture_bloom_downsample.frag";
+    public static final String TEXTURE_BLOOM_UPSAMPLE_FRAG = "res/glsl/editor/texture/texture_bloom_upsample.frag";
     
     public static final String CANVAS_BACKGROUND_VERT = "res/glsl/editor/canvas_background.vert";
     public static final String CANVAS_BACKGROUND_FRAG = "res/glsl/editor/canvas_background.frag";
@@ -53,6 +58,8 @@ public class Shaders {
     public static final String U_DRAG_AREA = "u_drag_area";                 // vec4
     public static final String U_CANVAS_SIZE_INV = "u_canvas_size_inv";     // vec2
     public static final String U_OCCLUSION_SAMPLES = "u_occlusion_samples"; // vec3[]
+    public static final String U_TEXEL_SIZE = "u_texel_size";               // vec2
+    public static final String U_BLOOM_THRESHOLD = "u_bloom_threshold";     // float
     
     private static boolean initialized;
     
@@ -63,6 +70,9 @@ public class Shaders {
     public static ShaderProgram textureNormalsProgram;
     public static ShaderProgram textureDepthMixingProgram;
     public static ShaderProgram textureAmbientOcclusionProgram;
+    public static ShaderProgram bloomPrefilterProgram;
+    public static ShaderProgram bloomDownsampleProgram;
+    public static ShaderProgram bloomUpsampleProgram;
     public static ShaderProgram textureToCanvasProgram;
     public static ShaderProgram canvasBackgroundProgram;
     public static ShaderProgram canvasToScreenProgram;
@@ -112,6 +122,24 @@ public class Shaders {
             uploadOcclusionSamples();
             ShaderProgram.useZERO();
             
+            bloomPrefilterProgram = new ShaderProgram(
+                    io.asString(TEXTURE_BLOOM_VERT),
+                    io.asString(TEXTURE_BLOOM_PREFILTER_FRAG));
+            bloomPrefilterProgram.createUniform(U_SAMPLER_ARRAY);
+            bloomPrefilterProgram.createUniform(U_BLOOM_THRESHOLD);
+            
+            bloomDownsampleProgram = new ShaderProgram(
+                    io.asString(TEXTURE_BLOOM_VERT),
+                    io.asString(TEXTURE_BLOOM_DOWNSAMPLE_FRAG));
+            bloomDownsampleProgram.createUniform(U_SAMPLER_2D);
+            bloomDownsampleProgram.createUniform(U_TEXEL_SIZE);
+            
+            bloomUpsampleProgram = new ShaderProgram(
+                    io.asString(TEXTURE_BLOOM_VERT),
+                    io.asString(TEXTURE_BLOOM_UPSAMPLE_FRAG));
+            bloomUpsampleProgram.createUniform(U_SAMPLER_2D);
+            bloomUpsampleProgram.createUniform(U_TEXEL_SIZE);
+            
             textureDepthMixingProgram = new ShaderProgram(
                     io.asString(TEXTURE_DEPTH_MIXING_VERT),
                     io.asString(TEXTURE_DEPTH_MIXING_FRAG));
@@ -162,15 +190,10 @@ public class Shaders {
     }
     
     private static void uploadOcclusionSamples() {
-        final int KERNEL_SIZE = 128;
-        Vector3f[] samples = new Vector3f[KERNEL_SIZE];
-        for (int i = 0; i < KERNEL_SIZE; i++) {
-            float scale = (float)i / (float)KERNEL_SIZE;
-            scale = 0.1f + scale * scale * 0.9f;
-            float x = (float) (Math.random() * 2.0 - 1.0);
-            float y = (float) (Math.random() * 2.0 - 1.0);
-            float z = (float) (Math.random() * scale);
-            samples[i] = new Vector3f(x,y,z);
+        OcclusionKernel kernel = OcclusionKernel.DEFAULT; // seeded, same as the cpu pipeline
+        Vector3f[] samples = new Vector3f[kernel.size()];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = kernel.get(i,new Vector3f());
         } textureAmbientOcclusionProgram.setUniform(U_OCCLUSION_SAMPLES,samples);
     }
     
@@ -184,6 +207,9 @@ public class Shaders {
                     textureNormalsProgram,
                     textureDepthMixingProgram,
                     textureAmbientOcclusionProgram,
+                    bloomPrefilterProgram,
+                    bloomDownsampleProgram,
+                    bloomUpsampleProgram,
                     textureToCanvasProgram,
                     canvasBackgroundProgram,
                     canvasToScreenProgram,
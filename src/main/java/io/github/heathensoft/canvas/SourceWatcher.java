@@ -0,0 +1,251 @@
+package io.github.heathensoft.canvas;
+
+import io.github.heathensoft.canvas.io.EditJournal;
+import io.github.heathensoft.canvas.io.PngExporter;
+import io.github.heathensoft.canvas.io.ProjectFile;
+import io.github.heathensoft.canvas.io.ProjectImporter;
+import io.github.heathensoft.canvas.io.WrittenFiles;
+import io.github.heathensoft.jlib.common.Disposable;
+import io.github.heathensoft.jlib.common.thread.Task;
+import io.github.heathensoft.jlib.lwjgl.graphics.Texture;
+import io.github.heathensoft.jlib.lwjgl.graphics.surface.DepthMap8;
+import io.github.heathensoft.jlib.lwjgl.window.Engine;
+import org.lwjgl.system.MemoryStack;
+import org.tinylog.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
+import static org.lwjgl.stb.STBImage.stbi_image_free;
+
+/**
+ * Hot reload of source images edited by external tools.
+ * The output directories of the open projects are watched. Files are matched to a project by name
+ * (PngExporter suffixes): "name.png" / "name_color.png" is the color source, "name_details.png" etc. the channels.
+ * Writes are debounced (tools often write a file in several steps). Only the changed file is decoded
+ * (thread pool), then only that texture is uploaded and only the passes depending on it run again (PipelineCache).
+ * A reloaded channel replaces the front and back buffer. Projects with an edit journal log the reload.
+ * Files the editor wrote itself (saves, exports) are skipped if they are unchanged since (WrittenFiles).
+ * Reloading them would wipe the undo history of the channel for nothing.
+ * Render thread only, except decoding. Polled once per frame, never blocks.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class SourceWatcher implements Disposable {
+    
+    public static final long DEBOUNCE_MS = 300;
+    
+    private final Editor editor;
+    private final Supplier<Set<Path>> directories;
+    private final Consumer<Path> reloader;
+    private final Map<Path,WatchKey> keys;
+    private final Map<Path,Long> pending; // file, time of the last event
+    private WatchService service;
+    
+    public SourceWatcher(Editor editor) {
+        this(editor,null,null);
+    }
+    
+    /**
+     * Without an editor (tests)
+     * @param directories the directories to watch (absolute, normalized)
+     * @param reloader receives the changed png files. Debounced, our own writes skipped
+     */
+    SourceWatcher(Supplier<Set<Path>> directories, Consumer<Path> reloader) {
+        this(null,directories,reloader);
+    }
+    
+    private SourceWatcher(Editor editor, Supplier<Set<Path>> directories, Consumer<Path> reloader) {
+        this.editor = editor;
+        this.directories = directories == null ? this::outputDirectories : directories;
+        this.reloader = reloader == null ? this::reload : reloader;
+        this.keys = new HashMap<>();
+        this.pending = new HashMap<>();
+        try { service = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            Logger.error(e,"hot reload disabled");
+        }
+    }
+    
+    /** Render thread, once per frame */
+    public void update() {
+        if (service == null) return;
+        updateDirectories();
+        long now = System.currentTimeMillis();
+        WatchKey key;
+        while ((key = service.poll()) != null) {
+            Path directory = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) continue;
+                Path file = directory.resolve((Path) event.context());
+                if (file.getFileName().toString().endsWith(".png")) pending.put(file,now);
+            } if (!key.reset()) keys.values().remove(key);
+        } if (pending.isEmpty()) return;
+        Iterator<Map.Entry<Path,Long>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path,Long> entry = iterator.next();
+            if (now - entry.getValue() >= DEBOUNCE_MS) {
+                iterator.remove(); // stamped after the write, so checked once the writes have settled
+                if (WrittenFiles.isOwn(entry.getKey())) Logger.debug("skipped own write: {}",entry.getKey());
+                else reloader.accept(entry.getKey());
+            }
+        }
+    }
+    
+    public void dispose() {
+        if (service != null) {
+            try { service.close();
+            } catch (IOException ignored) { }
+            service = null;
+        } keys.clear();
+        pending.clear();
+    }
+    
+    private Set<Path> outputDirectories() {
+        Set<Path> directories = new HashSet<>();
+        for (Project project : editor.getProjects()) {
+            Path directory = project.outputDirectory();
+            if (directory != null) directories.add(directory.toAbsolutePath().normalize());
+        } return directories;
+    }
+    
+    private void updateDirectories() {
+        Set<Path> directories = this.directories.get();
+        Iterator<Map.Entry<Path,WatchKey>> iterator = keys.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path,WatchKey> entry = iterator.next();
+            if (!directories.contains(entry.getKey())) {
+                if (entry.getValue() != null) entry.getValue().cancel();
+                iterator.remove();
+            }
+        } for (Path directory : directories) {
+            if (!keys.containsKey(directory) && Files.isDirectory(directory)) {
+                try { keys.put(directory,directory.register(service,ENTRY_CREATE,ENTRY_MODIFY));
+                } catch (IOException e) {
+                    Logger.warn("unable to watch: {}",directory);
+                    keys.put(directory,null); // not retried
+                }
+            }
+        }
+    }
+    
+    private void reload(Path file) {
+        String filename = file.getFileName().toString();
+        String name = filename.substring(0,filename.length() - 4);
+        Path directory = file.getParent();
+        for (Project project : editor.getProjects()) {
+            Path output = project.outputDirectory();
+            if (output == null || !output.toAbsolutePath().normalize().equals(directory)) continue;
+            String project_name = project.projectName();
+            if (name.equals(project_name) || name.equals(project_name + PngExporter.color_suffix)) {
+                Engine.get().threadPool().handle(new ReloadTask(project,file,null));
+                return;
+            } for (ENUM.Channel channel : ENUM.Channel.ALL) {
+                if (name.equals(project_name + suffix(channel))) {
+                    Engine.get().threadPool().handle(new ReloadTask(project,file,channel));
+                    return;
+                }
+            }
+        }
+    }
+    
+    private static String suffix(ENUM.Channel channel) {
+        return switch (channel) {
+            case DETAILS -> PngExporter.details_suffix;
+            case VOLUME -> PngExporter.volume_suffix;
+            case SPECULAR -> PngExporter.specular_suffix;
+            case EMISSIVE -> PngExporter.emissive_suffix;
+        };
+    }
+    
+    private final class ReloadTask implements Task {
+    
+        private final Project project;
+        private final Path file;
+        private final ENUM.Channel channel; // null: color source
+        private final int width, height;
+        private final int channels_expected;
+        private ByteBuffer pixels; // stbi (color) or heap (channel)
+    
+        ReloadTask(Project project, Path file, ENUM.Channel channel) {
+            this.project = project;
+            this.file = file;
+            this.channel = channel;
+            this.width = project.texturesWidth();
+            this.height = project.texturesHeight();
+            this.channels_expected = project.colorSourceTexture().format().channels;
+        }
+    
+        public int process(long queue_time_ms) throws Exception {
+            try (MemoryStack stack = MemoryStack.stackPush()) {
+                IntBuffer c = stack.mallocInt(1);
+                ByteBuffer data = ProjectImporter.decode(file,width,height,c);
+                int channels = c.get(0);
+                if (channel == null) {
+                    if (channels != channels_expected) {
+                        stbi_image_free(data);
+                        throw new IOException("color source changed format (" + channels + " channels), reopen the project");
+                    } pixels = data;
+                } else try {
+                    if (channels == 1) {
+                        byte[] texels = new byte[width * height];
+                        data.get(0,texels);
+                        pixels = ByteBuffer.wrap(texels);
+                    } else pixels = ByteBuffer.wrap(new DepthMap8(width,height,channels,data).get());
+                } finally {
+                    stbi_image_free(data);
+                }
+            } return 0;
+        }
+    
+        public void onCompletion(Exception e, int status, long runtime_ms) {
+            if (e != null) {
+                Logger.warn("unable to reload {}: {}",file.getFileName(),e.getMessage());
+                freePixels();
+                return;
+            } if (!editor.getProjects().contains(project)) { // closed while decoding
+                freePixels();
+                return;
+            } PipelineCache cache = project.pipelineCache();
+            EditJournal journal = project.journal();
+            if (channel == null) {
+                Texture texture = project.colorSourceTexture();
+                texture.bindToActiveSlot();
+                texture.uploadData(pixels);
+                cache.colorSourceModified();
+                project.undoRedoManager().colorSourceModified();
+                if (journal != null) journal.appendChunk(ProjectFile.COLOR,pixels);
+                freePixels();
+            } else {
+                byte[] texels = pixels.array();
+                Texture back = project.backBuffer().texture(channel.id);
+                Texture front = project.frontBuffer().texture(channel.id);
+                back.bindToActiveSlot();
+                back.uploadData(texels);
+                front.bindToActiveSlot();
+                front.uploadData(texels);
+                cache.backBufferModified(channel);
+                cache.frontBufferModified(channel);
+                project.undoRedoManager().invalidate(channel);
+                if (journal != null) journal.appendChunk(ProjectFile.tag(channel),pixels);
+                pixels = null;
+            } Texture.unbindActiveSlot(GL_TEXTURE_2D);
+            Logger.info("reloaded {} ({} ms)",file.getFileName(),runtime_ms);
+        }
+    
+        private void freePixels() {
+            if (pixels != null && channel == null) stbi_image_free(pixels);
+            pixels = null;
+        }
+    }
+}
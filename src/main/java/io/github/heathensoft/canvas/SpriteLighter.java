@@ -1,19 +1,16 @@
 package io.github.heathensoft.canvas;
 
-import io.github.heathensoft.canvas.io.PngImporter;
+import io.github.heathensoft.canvas.io.CanvasFile;
 import io.github.heathensoft.jlib.common.Disposable;
 import io.github.heathensoft.jlib.common.io.External;
 import io.github.heathensoft.jlib.lwjgl.graphics.Color;
-import io.github.heathensoft.jlib.lwjgl.graphics.Palette;
 import io.github.heathensoft.jlib.lwjgl.utils.Input;
 import io.github.heathensoft.jlib.lwjgl.utils.OrthographicCamera;
-import io.github.heathensoft.jlib.lwjgl.utils.Resources;
 import io.github.heathensoft.jlib.lwjgl.window.*;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.List;
 
 import static org.lwjgl.glfw.GLFW.GLFW_KEY_ESCAPE;
@@ -30,7 +27,6 @@ public class SpriteLighter extends Application {
     private static final int RESOLUTION_HEIGHT = 720;
     
     private Editor editor;
-    private Palette palette;
     private OrthographicCamera testCam;
     
     protected void engine_init(List<Resolution> supported, BootConfiguration config, String[] args) {
@@ -56,28 +52,14 @@ public class SpriteLighter extends Application {
         External external = new External(External.USER_HOME("desktop","f"));
         
         Path colorPath = external.path().resolve("TTT3.png");
-        PngImporter importer = new PngImporter();
-        importer.importColorImage(colorPath);
-        importer.importVolumeImage(external.path().resolve("TTT_volume.png"));
-        importer.loadEmissiveImage(external.path().resolve("TTT3_emissive.png"));
-        //importer.importDetailsImage(external.path().resolve("Female_1_details.png"));
-        //importer.importSpecularImage(external.path().resolve("Female_1_specular.png"));
-        
-        if (!importer.status().ready) {
-            System.out.println(importer.status().description);
-            Engine.get().exit();
-            return;
-        }
-        PngImporter.Textures textures = importer.generateTextures();
-        importer.dispose();
-        editor.newProject(textures);
+        editor.importProject(colorPath,
+                null, // external.path().resolve("Female_1_details.png")
+                external.path().resolve("TTT_volume.png"),
+                null, // external.path().resolve("Female_1_specular.png")
+                external.path().resolve("TTT3_emissive.png"));
         editor.lighting().setColor(new Color(0.85f,0.83f,0.75f,1f));
         editor.lighting().setAmbience(0.5f);
-        List<String> lines = new Resources().asLines("palette/aerugo.hex");
-        List<Color> colors = new ArrayList<>(lines.size());
-        for (String line : lines) colors.add(Color.valueOf(line));
-        palette = new Palette(colors,"aap-64",128);
-        editor.setPalette(palette);
+        editor.loadPalette("palette/aerugo.hex","aap-64",128);
         editor.setDetailVolumeRatio(0.1f);
         editor.setDepthAmplitude(16f);
         editor.togglePreviewPalette();
@@ -88,7 +70,11 @@ public class SpriteLighter extends Application {
         //System.out.println(Engine.get().time().fps());
         Input input = Input.get();
         if (input.anyFilesDropped()) {
-            input.collectDroppedFiles(System.out::println);
+            input.collectDroppedFiles(file -> {
+                if (file.endsWith(CanvasFile.EXTENSION)) {
+                    editor.openProjectFile(Path.of(file));
+                } else System.out.println(file);
+            });
         }
         Keyboard keys = input.keyboard();
         Mouse mouse = input.mouse();
@@ -113,7 +99,7 @@ public class SpriteLighter extends Application {
     protected void on_exit() {
         
         
-        Disposable.dispose(editor,palette);
+        Disposable.dispose(editor);
     }
     
     protected void resolution_request(Resolution resolution) {}
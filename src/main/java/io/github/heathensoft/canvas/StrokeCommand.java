@@ -0,0 +1,184 @@
+package io.github.heathensoft.canvas;
+
+import io.github.heathensoft.jlib.common.utils.Area;
+import io.github.heathensoft.jlib.common.utils.Coordinate;
+import org.joml.Vector4f;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An edit as the brush drew it: tool, shape, size, function, color and the stroke (or drag area).
+ * Replays the edit on the cpu (apply) with the same results as the brush overlay and back to front shaders.
+ * Only functions with exact results are recorded (set, add, subtract). Mix rounds halves and smoothen, sharpen,
+ * raise and lower depend on filtering and interpolation, those edits are kept as pixels.
+ * The UndoRedoManager still compares the replay with what the gpu drew before it trusts a command.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public final class StrokeCommand {
+    
+    private final ENUM.BrushTool tool;
+    private final ENUM.BrushShape shape;
+    private final ENUM.BrushFunction function;
+    private final int size;
+    private final int color;
+    private final int texture_size;
+    private final int[] origins; // texture space, bottom left of each stamp (x,y pairs). null for drag area
+    private final float[] drag; // world space, as the u_drag_area uniform. null for strokes
+    private final float bounds_x, bounds_y;
+    
+    private StrokeCommand(Brush brush, Vector4f bounds, int[] origins, float[] drag) {
+        this.tool = brush.tool();
+        this.shape = brush.shape();
+        this.function = brush.function();
+        this.size = brush.brushSize();
+        this.color = brush.colorValue() & 0xFF;
+        this.texture_size = brush.textureSize();
+        this.bounds_x = bounds.x;
+        this.bounds_y = bounds.y;
+        this.origins = origins;
+        this.drag = drag;
+    }
+    
+    /**
+     * @param points world coordinates, in the order they are put in the stroke buffer
+     * @param clip only points within the project area are drawn (line draw)
+     * @return the command, or null if the edit can't be replayed exactly
+     */
+    public static StrokeCommand stroke(Brush brush, Project project, Iterable<Coordinate> points, boolean clip) {
+        if (!isReplayable(brush)) return null;
+        int stroke_offset = brush.textureSize() / 2 - 1;
+        int capacity = brush.strokeBuffer().capacity();
+        int[] origins = new int[capacity * 2];
+        int count = 0;
+        for (Coordinate point : points) {
+            if (count == capacity) break; // the rest is dropped by the stroke buffer
+            if (clip && !project.area().contains(point)) continue;
+            origins[count * 2] = point.x - stroke_offset - (int) project.bounds().x;
+            origins[count * 2 + 1] = point.y - stroke_offset - (int) project.bounds().y;
+            count++;
+        } return new StrokeCommand(brush,project.bounds(),Arrays.copyOf(origins,count * 2),null);
+    }
+    
+    /**
+     * @param area world coordinates (inclusive)
+     * @return the command, or null if the edit can't be replayed exactly
+     */
+    public static StrokeCommand drag(Brush brush, Project project, Area area) {
+        if (!isReplayable(brush)) return null;
+        float[] drag = { area.minX(), area.minY(), area.maxX() + 1, area.maxY() + 1 };
+        return new StrokeCommand(brush,project.bounds(),null,drag);
+    }
+    
+    public static boolean isReplayable(Brush brush) {
+        return switch (brush.function()) {
+            case NON, SET, ADD, SUB -> brush.tool() != ENUM.BrushTool.SAMPLER;
+            default -> false;
+        };
+    }
+    
+    /**
+     * Draws the edit into the texels (the region of a back buffer channel). Thread safe.
+     * @param mask the texels editable at the time of the edit
+     */
+    public void apply(ByteBuffer texels, Area region, Mask mask) {
+        int cols = region.cols();
+        byte[] covered = new byte[region.size()]; // max blending, every texel is drawn once
+        if (drag != null) {
+            for (int y = region.minY(); y <= region.maxY(); y++) {
+                for (int x = region.minX(); x <= region.maxX(); x++) {
+                    if (withinDrag(x,y)) covered[(y - region.minY()) * cols + (x - region.minX())] = 1;
+                }
+            }
+        } else {
+            ByteBuffer stamp = ByteBuffer.allocate(texture_size * texture_size);
+            Brush.stamp(stamp,shape,size,texture_size);
+            for (int i = 0; i < origins.length; i += 2) {
+                int x0 = origins[i], y0 = origins[i + 1];
+                int min_x = Math.max(x0,region.minX());
+                int min_y = Math.max(y0,region.minY());
+                int max_x = Math.min(x0 + texture_size - 1,region.maxX());
+                int max_y = Math.min(y0 + texture_size - 1,region.maxY());
+                for (int y = min_y; y <= max_y; y++) {
+                    for (int x = min_x; x <= max_x; x++) {
+                        if (stamp.get((y - y0) * texture_size + (x - x0)) != 0) {
+                            covered[(y - region.minY()) * cols + (x - region.minX())] = 1;
+                        }
+                    }
+                }
+            }
+        } for (int y = region.minY(); y <= region.maxY(); y++) {
+            for (int x = region.minX(); x <= region.maxX(); x++) {
+                int i = (y - region.minY()) * cols + (x - region.minX());
+                if (covered[i] != 0 && mask.editable(x,y)) {
+                    texels.put(i,(byte) blend(texels.get(i) & 0xFF));
+                }
+            }
+        }
+    }
+    
+    public ENUM.BrushTool tool() {
+        return tool;
+    }
+    
+    public ENUM.BrushFunction function() {
+        return function;
+    }
+    
+    /** @return approximate bytes held */
+    public int sizeOf() {
+        return 64 + (origins == null ? 0 : origins.length * Integer.BYTES) + (drag == null ? 0 : 16);
+    }
+    
+    /** back_to_frontbuffer.frag (in normalized floats, exact in bytes for these functions) */
+    private int blend(int back) {
+        return switch (function) {
+            case SET -> color;
+            case ADD -> Math.min(back + color,255);
+            case SUB -> Math.max(back - color,0);
+            default -> back;
+        };
+    }
+    
+    /** area_to_brush_overlay.frag */
+    private boolean withinDrag(int x, int y) {
+        float px = bounds_x + (x + 0.5f);
+        float py = bounds_y + (y + 0.5f);
+        if (shape == ENUM.BrushShape.ROUND) {
+            float a = (drag[2] - drag[0]) / 2.0f;
+            float b = (drag[3] - drag[1]) / 2.0f;
+            float h = drag[0] + a;
+            float k = drag[1] + b;
+            float p = ((px - h) * (px - h)) / (a * a) + ((py - k) * (py - k)) / (b * b);
+            return p <= 1.0f;
+        } return px > drag[0] && py > drag[1] && px < drag[2] && py < drag[3];
+    }
+    
+    /** Texels of the color source with alpha above the editing threshold (as the brush overlay shaders) */
+    public static final class Mask {
+        
+        private final int width;
+        private final int height;
+        private final long[] bits;
+        
+        /** @param rgba the color source, 4 bytes per texel from position 0 */
+        public Mask(ByteBuffer rgba, int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.bits = new long[(width * height + 63) / 64];
+            for (int i = 0; i < width * height; i++) {
+                if ((rgba.get(i * 4 + 3) & 0xFF) / 255f > 0.1f) bits[i >> 6] |= 1L << i;
+            }
+        }
+        
+        public boolean editable(int x, int y) {
+            if (x < 0 || y < 0 || x >= width || y >= height) return false;
+            int i = y * width + x;
+            return (bits[i >> 6] & (1L << i)) != 0;
+        }
+    }
+}
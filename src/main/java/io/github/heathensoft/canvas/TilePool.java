@@ -0,0 +1,154 @@
+package io.github.heathensoft.canvas;
+
+import io.github.heathensoft.jlib.common.Disposable;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Off-heap storage for 64x64 single channel tiles (undo history).
+ * Tiles are allocated from slabs of 64 tiles and recycled through a free list, so history entries
+ * never allocate memory themselves. Tiles are reference counted: a tile is immutable once written
+ * and can be shared by several entries (copy-on-write). Slabs are kept when their tiles are released,
+ * trim() frees the slabs with no tiles in use (after eviction). Freed slab slots are reused first.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class TilePool implements Disposable {
+    
+    public static final int TILE_SIZE = 64;
+    public static final int TILE_BYTES = TILE_SIZE * TILE_SIZE;
+    public static final int TILES_PER_SLAB = 64;
+    public static final int SLAB_BYTES = TILE_BYTES * TILES_PER_SLAB;
+    
+    private final IntFunction<ByteBuffer> allocator;
+    private final Consumer<ByteBuffer> deallocator;
+    private final List<ByteBuffer> slabs; // null: freed slot
+    private int[] slab_in_use;
+    private int[] references;
+    private int[] free;
+    private int free_count;
+    private int slab_count;
+    private int in_use;
+    
+    public TilePool() {
+        this(MemoryUtil::memAlloc,MemoryUtil::memFree);
+    }
+    
+    /** Slab memory from elsewhere (tests) */
+    TilePool(IntFunction<ByteBuffer> allocator, Consumer<ByteBuffer> deallocator) {
+        this.allocator = allocator;
+        this.deallocator = deallocator;
+        this.slabs = new ArrayList<>();
+        this.slab_in_use = new int[0];
+        this.references = new int[0];
+        this.free = new int[0];
+    }
+    
+    /** @return a tile with one reference. The content is undefined */
+    public int allocate() {
+        if (free_count == 0) grow();
+        int tile = free[--free_count];
+        references[tile] = 1;
+        slab_in_use[tile / TILES_PER_SLAB]++;
+        in_use++;
+        return tile;
+    }
+    
+    public void retain(int tile) {
+        references[tile]++;
+    }
+    
+    /** The tile is recycled when the last reference is released */
+    public void release(int tile) {
+        if (--references[tile] == 0) {
+            free[free_count++] = tile;
+            slab_in_use[tile / TILES_PER_SLAB]--;
+            in_use--;
+        }
+    }
+    
+    /**
+     * Frees the slabs with no tiles in use
+     * @return bytes freed
+     */
+    public long trim() {
+        int freed = 0;
+        for (int s = 0; s < slabs.size(); s++) {
+            ByteBuffer slab = slabs.get(s);
+            if (slab != null && slab_in_use[s] == 0) {
+                deallocator.accept(slab);
+                slabs.set(s,null);
+                freed++;
+            }
+        } if (freed == 0) return 0;
+        while (!slabs.isEmpty() && slabs.get(slabs.size() - 1) == null) {
+            slabs.remove(slabs.size() - 1);
+        } int capacity = slabs.size() * TILES_PER_SLAB;
+        slab_in_use = Arrays.copyOf(slab_in_use,slabs.size());
+        references = Arrays.copyOf(references,capacity);
+        free = Arrays.copyOf(free,capacity);
+        free_count = 0;
+        for (int tile = capacity - 1; tile >= 0; tile--) { // lowest tiles first out
+            if (references[tile] == 0 && slabs.get(tile / TILES_PER_SLAB) != null) {
+                free[free_count++] = tile;
+            }
+        } slab_count -= freed;
+        return (long) freed * SLAB_BYTES;
+    }
+    
+    /** @return the tile memory (TILE_BYTES), position 0 */
+    public ByteBuffer buffer(int tile) {
+        ByteBuffer slab = slabs.get(tile / TILES_PER_SLAB);
+        return slab.slice((tile % TILES_PER_SLAB) * TILE_BYTES,TILE_BYTES);
+    }
+    
+    public int tilesInUse() {
+        return in_use;
+    }
+    
+    public long bytesInUse() {
+        return (long) in_use * TILE_BYTES;
+    }
+    
+    public long bytesAllocated() {
+        return (long) slab_count * SLAB_BYTES;
+    }
+    
+    public void dispose() {
+        for (ByteBuffer slab : slabs) {
+            if (slab != null) deallocator.accept(slab);
+        } slabs.clear();
+        slab_in_use = new int[0];
+        references = new int[0];
+        free = new int[0];
+        free_count = 0;
+        slab_count = 0;
+        in_use = 0;
+    }
+    
+    private void grow() {
+        int slot = slabs.indexOf(null);
+        if (slot < 0) {
+            slot = slabs.size();
+            slabs.add(null);
+            int capacity = slabs.size() * TILES_PER_SLAB;
+            slab_in_use = Arrays.copyOf(slab_in_use,slabs.size());
+            references = Arrays.copyOf(references,capacity);
+            free = Arrays.copyOf(free,capacity);
+        } slabs.set(slot,allocator.apply(SLAB_BYTES));
+        slab_count++;
+        int first = slot * TILES_PER_SLAB;
+        for (int tile = first + TILES_PER_SLAB - 1; tile >= first; tile--) {
+            free[free_count++] = tile;
+        }
+    }
+}
@@ -1,176 +1,1004 @@
 package io.github.heathensoft.canvas;
 
+import io.github.heathensoft.canvas.io.DeltaCodec;
+import io.github.heathensoft.canvas.io.EditJournal;
+import io.github.heathensoft.canvas.io.HistoryFile;
+import io.github.heathensoft.canvas.io.ProjectFile;
 import io.github.heathensoft.jlib.common.Disposable;
+import io.github.heathensoft.jlib.common.thread.Task;
 import io.github.heathensoft.jlib.common.utils.Area;
-import io.github.heathensoft.jlib.common.utils.UndoRedo;
 import io.github.heathensoft.jlib.lwjgl.graphics.Framebuffer;
 import io.github.heathensoft.jlib.lwjgl.graphics.Texture;
+import io.github.heathensoft.jlib.lwjgl.graphics.TextureFormat;
+import io.github.heathensoft.jlib.lwjgl.window.Engine;
+import org.joml.Vector4f;
 import org.lwjgl.system.MemoryUtil;
 import org.tinylog.Logger;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 
-import static org.lwjgl.opengl.GL11.*;
-import static org.lwjgl.stb.STBImageWrite.stbi_write_png;
+import static io.github.heathensoft.canvas.TilePool.TILE_SIZE;
+import static org.lwjgl.opengl.GL11.GL_NEAREST;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
 
 /**
+ * Undo history of the back buffer channels, stored as 64x64 tiles (TilePool).
+ * An entry references only the tiles its edit area touches: the tiles before the edit,
+ * and the tiles after it, read back the first time it is undone and reused from then on.
+ * Tiles known to match the back buffer (just uploaded) are shared by the next entry touching them
+ * instead of being read back. Writes to the back buffer outside of the manager must call invalidate().
+ * Once an edit is committed, its before and after states are XORed and run-length encoded
+ * on the thread pool (DeltaCodec) and the entry drops its tiles. The delta is applied to the back buffer
+ * in place, the same delta undoes and redoes (the stack guarantees the back buffer is in the other state).
+ * Captures are asynchronous (ReadbackRing): the readback is queued before the edit is drawn and lands
+ * a frame or two later (update). Undo and redo land the captures in flight first.
+ * Compressed entries are XORed into the back buffer on the gpu, so undo and redo never read back
+ * (except for the journal, also asynchronous).
+ * Edits recorded with a StrokeCommand are replayed on the cpu while compressing. If the replay matches
+ * what the gpu drew, the entry keeps only the command (a few hundred bytes). Undoing it restores the
+ * nearest keyframe: the base (the tiles as they were before the oldest entry touched them), or a snapshot
+ * of the channel taken every KEYFRAME_INTERVAL edits. The entries in between are applied on the cpu.
+ * The memory of the history is limited by a byte budget, not a count. Over budget, the least recently
+ * used deltas are spilled to a memory-mapped history file (HistoryFile) and paged back in when undone,
+ * so the length of the history is bounded by the disk. Keyframes other than the latest of each channel
+ * go next (replays only get longer). Entries are only discarded (oldest first, the latest edit is always
+ * kept) if the file can't be written, or if nothing else frees memory. Tile slabs left empty by the
+ * eviction are freed while the memory held is over budget.
+ *
  * @author Frederik Dahl
  * 02/02/2023
  */
 
 
 public class UndoRedoManager implements Disposable {
- 
-    public static final int CAPACITY = 8;
     
-    private final UndoRedo<UndoRedoObject> stack;
+    public static final long DEFAULT_BUDGET = 64L * 1024L * 1024L;
+    public static final int READBACKS_IN_FLIGHT = 8;
+    public static final int KEYFRAME_INTERVAL = 16;
+    
+    private final TilePool pool;
+    private final ReadbackRing readbacks;
+    private final ArrayDeque<UndoRedoObject> undo; // first: latest
+    private final ArrayDeque<UndoRedoObject> redo; // first: latest
+    private final Map<Long,Integer> clean; // tile key, tile matching the back buffer
+    private final Map<Long,Integer> base; // tile key, tile as it was before the oldest entry touching it
+    private final ArrayDeque<Keyframe> keyframes; // first: oldest
+    private final ArrayDeque<UndoRedoObject> hot; // compressed entries in memory, first: least recently used
     private final Project project;
+    private final Framebuffer back_buffer;
+    private final Vector4f bounds; // of the project, translated in place
+    private final int width, height;
+    private HistoryFile history; // created on the first spill
+    private Texture delta_texture; // R8, texture sized. Decoded deltas for the gpu
+    private StrokeCommand.Mask alpha_mask; // editable texels. null until the color source has been read back
+    private boolean alpha_requested;
+    private int alpha_generation;
+    private long compressed_bytes;
+    private long budget;
+    private long sequence;
+    private int compressing;
     
     
+    /** The back buffer of the project must exist */
     public UndoRedoManager(Project project) {
-        this.stack = new UndoRedo<>(CAPACITY);
+        this(project,project.backBuffer(),project.bounds(),project.texturesWidth(),project.texturesHeight(),
+        new TilePool(),ReadbackGL.OPENGL);
+    }
+    
+    /** Tests. Edits and their captures only touch the back buffer, bounds and size, not the project */
+    UndoRedoManager(Project project, Framebuffer back_buffer, Vector4f bounds, int width, int height, TilePool pool, ReadbackGL gl) {
+        this.pool = pool;
+        this.readbacks = new ReadbackRing(READBACKS_IN_FLIGHT,gl);
+        this.back_buffer = back_buffer;
+        this.bounds = bounds;
+        this.width = width;
+        this.height = height;
+        this.undo = new ArrayDeque<>();
+        this.redo = new ArrayDeque<>();
+        this.clean = new HashMap<>();
+        this.base = new HashMap<>();
+        this.keyframes = new ArrayDeque<>();
+        this.hot = new ArrayDeque<>();
+        this.budget = DEFAULT_BUDGET;
         this.project = project;
     }
     
+    /** Call before the edit is drawn to the back buffer */
     public void newEdit(Area editArea, ENUM.Channel channel, Brush brush) {
-        UndoRedoObject object = createObject(editArea,channel,brush.tool(),brush.function());
-        stack.onEdit(object);
+        newEdit(editArea,channel,brush,null);
+    }
+    
+    /**
+     * Call before the edit is drawn to the back buffer.
+     * @param command the edit as drawn (or null). Kept instead of pixels if the replay matches the gpu
+     */
+    public void newEdit(Area editArea, ENUM.Channel channel, Brush brush, StrokeCommand command) {
+        newEdit(editArea,channel,brush.tool(),brush.function(),command);
+    }
+    
+    void newEdit(Area editArea, ENUM.Channel channel, ENUM.BrushTool tool, ENUM.BrushFunction function, StrokeCommand command) {
+        clearRedo();
+        UndoRedoObject object = createObject(editArea,channel,tool,function);
+        object.before = capture(object);
+        if (command != null && alpha_mask != null) {
+            object.command = command;
+            object.mask = alpha_mask;
+        } int i = 0;
+        for (int ty = object.ty0; ty <= object.ty1; ty++) {
+            for (int tx = object.tx0; tx <= object.tx1; tx++, i++) {
+                long key = key(channel,tx,ty);
+                Integer tile = clean.remove(key); // about to be drawn to
+                if (tile != null) pool.release(tile);
+                if (!base.containsKey(key)) { // first touch
+                    pool.retain(object.before[i]);
+                    base.put(key,object.before[i]);
+                }
+            }
+        } undo.push(object);
+        evict();
+    }
+    
+    /**
+     * Call after the edit (newEdit) has been drawn to the back buffer.
+     * Logs the new texels of the edit area to the project journal (if any)
+     * and compresses the entry on the thread pool.
+     */
+    public void commitEdit() {
+        UndoRedoObject object = undo.peek();
+        if (object == null || object.before == null || object.committed) return;
+        object.committed = true;
+        Area region = object.region;
+        int[] tiles = object.before;
+        readbacks.read(back_buffer,object.channel.id,region,after -> {
+            EditJournal journal = project.journal();
+            if (journal != null) {
+                Area area = object.editArea();
+                ByteBuffer texels = MemoryUtil.memAlloc(area.size());
+                for (int r = 0; r < area.rows(); r++) {
+                    int offset = (area.minY() - region.minY() + r) * region.cols() + (area.minX() - region.minX());
+                    texels.put(r * area.cols(),after,offset,area.cols());
+                } journal(object.channel(),area,texels);
+                MemoryUtil.memFree(texels);
+            } if (object.before != tiles) return; // evicted
+            ByteBuffer before = MemoryUtil.memAlloc(region.size());
+            int i = 0;
+            for (int ty = object.ty0; ty <= object.ty1; ty++) {
+                for (int tx = object.tx0; tx <= object.tx1; tx++) {
+                    copy(region,before,tx,ty,pool.buffer(tiles[i++]),false);
+                }
+            } ByteBuffer copy = MemoryUtil.memAlloc(region.size());
+            MemoryUtil.memCopy(after,copy);
+            compressing++;
+            Engine.get().threadPool().handle(new CompressTask(object,before,copy,region.size()));
+        });
+        keyframe(object);
     }
     
-    public void undo() {
-        UndoRedoObject undoObject = stack.peakUndo();
-        if (undoObject != null) {
-            Area editArea = new Area(undoObject.editArea());
-            ENUM.BrushFunction function = undoObject.function();
-            ENUM.Channel channel = undoObject.channel();
-            ENUM.BrushTool tool = undoObject.tool();
-            UndoRedoObject redoObject = createObject(editArea,channel,tool,function);
-            undoObject = stack.undo(redoObject);
-            undoObject.upload();
-            undoObject.dispose();
+    /** Render thread, once per frame. Lands the captures that have completed */
+    public void update() {
+        if (!alpha_requested) readAlphaMask();
+        readbacks.update();
+    }
+    
+    public void undo(EditorGraphics graphics) {
+        UndoRedoObject object = undo.peek();
+        if (object != null) {
+            readbacks.flush(); // captures in flight
+            undo.poll();
+            if (object.isCommand()) {
+                if (!replay(object,false)) {
+                    lost(object);
+                    return;
+                }
+            } else if (object.isCompressed()) applyDelta(graphics,object);
+            else {
+                if (object.after == null) object.after = capture(object);
+                upload(object,object.before);
+            } redo.push(object);
+            project.pipelineCache().backBufferModified(object.channel,object.region);
+            evict(); // paged in
+        }
+    }
+    
+    public void redo(EditorGraphics graphics) {
+        UndoRedoObject object = redo.peek();
+        if (object != null) {
+            readbacks.flush();
+            redo.poll();
+            if (object.isCommand()) {
+                if (!replay(object,true)) {
+                    lost(object);
+                    return;
+                }
+            } else if (object.isCompressed()) applyDelta(graphics,object);
+            else upload(object,object.after);
+            undo.push(object);
+            project.pipelineCache().backBufferModified(object.channel,object.region);
+            evict();
         }
     }
     
-    public void redo() {
-        UndoRedoObject redoObject = stack.peakRedo();
-        if (redoObject != null) {
-            Area editArea = new Area(redoObject.editArea());
-            ENUM.BrushFunction function = redoObject.function();
-            ENUM.Channel channel = redoObject.channel();
-            ENUM.BrushTool tool = redoObject.tool();
-            UndoRedoObject undoObject = createObject(editArea,channel,tool,function);
-            redoObject = stack.redo(undoObject);
-            redoObject.upload();
-            redoObject.dispose();
+    /**
+     * The back buffer channel was written to outside of the manager.
+     * Keyframes can't be replayed across it, the history is cleared if it has edits of the channel
+     */
+    public void invalidate(ENUM.Channel channel) {
+        boolean edited = false;
+        for (UndoRedoObject object : undo) edited |= object.channel == channel;
+        for (UndoRedoObject object : redo) edited |= object.channel == channel;
+        if (edited) {
+            readbacks.flush();
+            clear();
+            Logger.info("undo history cleared, {} was replaced",channel.descriptor);
+        } release(clean,channel);
+        release(base,channel);
+        Iterator<Keyframe> iterator = keyframes.iterator();
+        while (iterator.hasNext()) {
+            Keyframe keyframe = iterator.next();
+            if (keyframe.channel == channel) {
+                release(keyframe);
+                iterator.remove();
+            }
         }
     }
     
+    /** The color source was replaced. Edits are recorded without commands until it has been read back */
+    public void colorSourceModified() {
+        alpha_mask = null;
+        alpha_requested = false;
+        alpha_generation++;
+    }
+    
+    /** @param bytes the memory the history may use. The latest edit is kept regardless */
+    public void setBudget(long bytes) {
+        this.budget = Math.max(0,bytes);
+        evict();
+    }
+    
+    public long budget() {
+        return budget;
+    }
+    
+    /** @return the number of times a capture had to be waited for (undo before it landed, ring full) */
+    public int synchronousWaits() {
+        return readbacks.waits();
+    }
+    
+    /** @return bytes of tile memory (entries, base, keyframes), deltas and commands in memory referenced by the history */
+    public long bytesInUse() {
+        return pool.bytesInUse() + compressed_bytes;
+    }
+    
+    /** @return bytes of tile slabs allocated (used or not) and deltas in memory */
+    public long bytesHeld() {
+        return pool.bytesAllocated() + compressed_bytes;
+    }
+    
+    /** @return bytes of the deltas spilled to the history file */
+    public long bytesSpilled() {
+        return history == null ? 0 : history.liveBytes();
+    }
+    
+    /** @return uncompressed / compressed size of the compressed entries (deltas and commands). 0 if none */
+    public float compressionRatio() {
+        long raw = 0, compressed = 0;
+        for (UndoRedoObject object : undo) {
+            if (object.isCommand()) { raw += object.regionSize(); compressed += object.command.sizeOf(); }
+            else if (object.isCompressed()) { raw += object.regionSize(); compressed += object.delta_length; }
+        } for (UndoRedoObject object : redo) {
+            if (object.isCommand()) { raw += object.regionSize(); compressed += object.command.sizeOf(); }
+            else if (object.isCompressed()) { raw += object.regionSize(); compressed += object.delta_length; }
+        } return compressed == 0 ? 0 : (float) raw / compressed;
+    }
+    
+    /** @return entries stored as their command only */
+    public int commandCount() {
+        int count = 0;
+        for (UndoRedoObject object : undo) if (object.isCommand()) count++;
+        for (UndoRedoObject object : redo) if (object.isCommand()) count++;
+        return count;
+    }
+    
+    public int keyframeCount() {
+        return keyframes.size();
+    }
+    
     public UndoRedoObject peakUndo() {
-        return stack.peakUndo();
+        return undo.peek();
     }
     
     public UndoRedoObject peakRedo() {
-        return stack.peakRedo();
+        return redo.peek();
     }
     
     public boolean canUndo() {
-        return stack.canUndo();
+        return !undo.isEmpty();
     }
     
     public boolean canRedo() {
-        return stack.canRedo();
+        return !redo.isEmpty();
     }
     
     public int undoCount() {
-        return stack.undoCount();
+        return undo.size();
     }
     
     public int redoCount() {
-        return stack.redoCount();
+        return redo.size();
     }
     
+    /** Lands the captures in flight (journal) */
     public void dispose() {
-        Disposable.dispose(stack);
+        readbacks.flush();
+        readbacks.dispose();
+        clear();
+        clean.clear();
+        pool.dispose();
+        Disposable.dispose(delta_texture,history);
+        delta_texture = null;
+        history = null;
+    }
+    
+    /** Discards every entry, the keyframes and the base */
+    private void clear() {
+        while (!undo.isEmpty()) discard(undo.poll());
+        clearRedo();
+        for (Keyframe keyframe : keyframes) release(keyframe);
+        keyframes.clear();
+        for (int tile : base.values()) pool.release(tile);
+        base.clear();
+    }
+    
+    /** Keyframes after the latest entry go with the redo stack */
+    private void clearRedo() {
+        if (redo.isEmpty()) return;
+        while (!redo.isEmpty()) discard(redo.poll());
+        long latest = undo.isEmpty() ? Long.MIN_VALUE : undo.peek().position;
+        while (!keyframes.isEmpty() && keyframes.peekLast().position > latest) {
+            release(keyframes.pollLast());
+        }
+    }
+    
+    private void discard(UndoRedoObject object) {
+        if (object.isCommand()) compressed_bytes -= object.command.sizeOf();
+        if (object.delta != null) {
+            compressed_bytes -= object.delta.length;
+            hot.remove(object);
+        } if (object.record != null) history.release(object.record);
+        object.dispose();
+    }
+    
+    /**
+     * Discards the oldest entry. The base moves past it (the entry is applied to the base tiles),
+     * and the keyframes before it are released
+     */
+    private void discardOldest() {
+        readbacks.flush(); // base tiles in flight
+        UndoRedoObject object = undo.pollLast();
+        Area region = object.region;
+        ByteBuffer texels = MemoryUtil.memAlloc(region.size());
+        boolean known = true;
+        for (int ty = object.ty0; ty <= object.ty1 && known; ty++) {
+            for (int tx = object.tx0; tx <= object.tx1 && known; tx++) {
+                Integer tile = base.get(key(object.channel,tx,ty));
+                if (tile == null) known = false;
+                else copy(region,texels,tx,ty,pool.buffer(tile),false);
+            }
+        } known = known && advance(object,texels,region);
+        for (int ty = object.ty0; ty <= object.ty1; ty++) {
+            for (int tx = object.tx0; tx <= object.tx1; tx++) {
+                long key = key(object.channel,tx,ty);
+                Integer previous = base.remove(key);
+                if (previous != null) pool.release(previous);
+                if (known) {
+                    int tile = pool.allocate();
+                    copy(region,texels,tx,ty,pool.buffer(tile),true);
+                    base.put(key,tile);
+                }
+            }
+        } MemoryUtil.memFree(texels);
+        discard(object);
+        while (!keyframes.isEmpty() && keyframes.peekFirst().position < object.position) {
+            release(keyframes.pollFirst());
+        }
+    }
+    
+    /** Discards the entry and every entry further from the current state (the history must stay unbroken) */
+    private void drop(UndoRedoObject object) {
+        UndoRedoObject last;
+        if (undo.contains(object)) {
+            do { last = undo.peekLast();
+                discardOldest();
+            } while (last != object);
+        } else {
+            do { last = redo.pollLast();
+                discard(last);
+            } while (last != object);
+        }
+    }
+    
+    /** The entry could not be restored, nothing before it can be either */
+    private void lost(UndoRedoObject object) {
+        Logger.warn("unable to restore undo entry, undo history cleared");
+        discard(object);
+        clear();
+    }
+    
+    private void evict() {
+        while (bytesInUse() > budget) {
+            if (!hot.isEmpty()) {
+                if (!spill(hot.poll())) break; // history file failed, try again on the next edit
+            } else if (!clean.isEmpty()) {
+                for (int tile : clean.values()) pool.release(tile);
+                clean.clear();
+            } else if (releaseKeyframe()) {
+                continue;
+            } else if (compressing == 0 && undo.size() > 1 && undo.peekLast().before != null) {
+                discardOldest(); // compression failed, the tiles would be kept for good
+            } else break; // uncompressed entries, spilled once compressed
+        } if (bytesHeld() > budget) pool.trim();
+    }
+    
+    /**
+     * Writes the delta to the history file (once) and drops it from memory.
+     * If the write fails, the entry and everything further from the current state is discarded.
+     * The current entry itself is kept in memory and never spilled again.
+     * @return false if the write failed
+     */
+    private boolean spill(UndoRedoObject object) {
+        if (object.record == null) {
+            try { if (history == null) history = HistoryFile.create(String.valueOf(project.projectName()));
+                object.record = history.write(object.delta);
+            } catch (IOException e) {
+                Logger.warn(e,"unable to spill undo history, discarding the oldest entries");
+                if (undo.peek() == object) {
+                    object.unspillable = true; // out of hot for good
+                    while (undo.size() > 1) discardOldest();
+                    clearRedo();
+                } else {
+                    hot.addFirst(object); // discard removes it
+                    drop(object);
+                } return false;
+            }
+        } compressed_bytes -= object.delta.length;
+        object.delta = null;
+        return true;
+    }
+    
+    /**
+     * Entries with a verified command drop their delta, if every older entry of the channel
+     * can be applied on the cpu (none uncompressed) and the base has all of their tiles
+     */
+    private void settle() {
+        boolean[] restorable = new boolean[ENUM.Channel.SIZE];
+        Arrays.fill(restorable,true);
+        Iterator<UndoRedoObject> older = undo.descendingIterator();
+        Iterator<UndoRedoObject> newer = redo.iterator();
+        while (older.hasNext() || newer.hasNext()) {
+            UndoRedoObject object = older.hasNext() ? older.next() : newer.next();
+            int c = object.channel.id;
+            if (object.before != null) restorable[c] = false;
+            else if (restorable[c] && object.replayable && object.isCompressed() && covered(object)) {
+                if (object.delta != null) {
+                    compressed_bytes -= object.delta.length;
+                    hot.remove(object);
+                    object.delta = null;
+                } if (object.record != null) {
+                    history.release(object.record);
+                    object.record = null;
+                } compressed_bytes += object.command.sizeOf();
+            }
+        }
+    }
+    
+    private boolean covered(UndoRedoObject object) {
+        for (int ty = object.ty0; ty <= object.ty1; ty++) {
+            for (int tx = object.tx0; tx <= object.tx1; tx++) {
+                if (!base.containsKey(key(object.channel,tx,ty))) return false;
+            }
+        } return true;
+    }
+    
+    /** Uploads the region of a command entry as it was before (or after) the entry */
+    private boolean replay(UndoRedoObject object, boolean forward) {
+        ByteBuffer texels = restore(object);
+        if (texels == null) return false;
+        Area region = object.region;
+        if (forward) object.command.apply(texels,region,object.mask);
+        Texture texture = back_buffer.texture(object.channel.id);
+        texture.bindToActiveSlot();
+        texture.uploadSubData(texels,0,region.cols(),region.rows(),region.minX(),region.minY());
+        Texture.unbindActiveSlot(GL_TEXTURE_2D);
+        journal(object.channel,region,texels);
+        MemoryUtil.memFree(texels);
+        unclean(object);
+        return true;
+    }
+    
+    /**
+     * @return the region of the entry as it was before the entry (memAlloc), or null if it can't be restored.
+     * The nearest keyframe (or the base) with the entries in between applied. The entries older than
+     * the entry are all on the undo stack
+     */
+    private ByteBuffer restore(UndoRedoObject object) {
+        Keyframe keyframe = latestKeyframe(object.channel,object.position);
+        long from = keyframe == null ? Long.MIN_VALUE : keyframe.position;
+        Area region = object.region;
+        ByteBuffer texels = MemoryUtil.memAlloc(region.size());
+        for (int ty = object.ty0; ty <= object.ty1; ty++) {
+            for (int tx = object.tx0; tx <= object.tx1; tx++) {
+                long key = key(object.channel,tx,ty);
+                Integer tile = keyframe == null ? null : keyframe.tiles.get(key);
+                if (tile == null) tile = base.get(key); // not touched since the base
+                if (tile == null) {
+                    MemoryUtil.memFree(texels);
+                    return null;
+                } copy(region,texels,tx,ty,pool.buffer(tile),false);
+            }
+        } Iterator<UndoRedoObject> iterator = undo.descendingIterator();
+        while (iterator.hasNext()) {
+            UndoRedoObject older = iterator.next();
+            if (older.position >= object.position) break;
+            if (older.position <= from || older.channel != object.channel) continue;
+            if (!overlaps(older.region,region)) continue;
+            if (!advance(older,texels,region)) {
+                MemoryUtil.memFree(texels);
+                return null;
+            }
+        } return texels;
+    }
+    
+    /** Applies the entry to the texels of the region (as they were before the entry). False if it can't */
+    private boolean advance(UndoRedoObject object, ByteBuffer texels, Area region) {
+        if (object.isCommand()) {
+            object.command.apply(texels,region,object.mask);
+        } else if (object.isCompressed()) {
+            Area area = object.region;
+            byte[] delta = object.delta == null ? history.read(object.record) : object.delta;
+            ByteBuffer decoded = MemoryUtil.memCalloc(area.size());
+            DeltaCodec.apply(delta,decoded);
+            int x0 = Math.max(area.minX(),region.minX()), x1 = Math.min(area.maxX(),region.maxX());
+            int y0 = Math.max(area.minY(),region.minY()), y1 = Math.min(area.maxY(),region.maxY());
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    int i = (y - region.minY()) * region.cols() + (x - region.minX());
+                    int d = (y - area.minY()) * area.cols() + (x - area.minX());
+                    texels.put(i,(byte) (texels.get(i) ^ decoded.get(d)));
+                }
+            } MemoryUtil.memFree(decoded);
+        } else if (object.after != null) {
+            int i = 0;
+            for (int ty = object.ty0; ty <= object.ty1; ty++) {
+                for (int tx = object.tx0; tx <= object.tx1; tx++, i++) {
+                    if (region.contains(tx * TILE_SIZE,ty * TILE_SIZE)) {
+                        copy(region,texels,tx,ty,pool.buffer(object.after[i]),false);
+                    }
+                }
+            }
+        } else return false;
+        return true;
+    }
+    
+    /**
+     * Every KEYFRAME_INTERVAL entries of a channel, the tiles touched since the previous keyframe are read back
+     * (the back buffer is in the state after the entry). Untouched tiles are shared with the previous keyframe
+     */
+    private void keyframe(UndoRedoObject object) {
+        Keyframe previous = latestKeyframe(object.channel,Long.MAX_VALUE);
+        long from = previous == null ? Long.MIN_VALUE : previous.position;
+        Set<Long> dirty = new HashSet<>();
+        int tx0 = Integer.MAX_VALUE, ty0 = Integer.MAX_VALUE;
+        int tx1 = Integer.MIN_VALUE, ty1 = Integer.MIN_VALUE;
+        int count = 0;
+        for (UndoRedoObject entry : undo) {
+            if (entry.position <= from) break;
+            if (entry.channel != object.channel) continue;
+            tx0 = Math.min(tx0,entry.tx0); tx1 = Math.max(tx1,entry.tx1);
+            ty0 = Math.min(ty0,entry.ty0); ty1 = Math.max(ty1,entry.ty1);
+            for (int ty = entry.ty0; ty <= entry.ty1; ty++) {
+                for (int tx = entry.tx0; tx <= entry.tx1; tx++) dirty.add(key(object.channel,tx,ty));
+            } count++;
+        } if (count < KEYFRAME_INTERVAL) return;
+        Map<Long,Integer> tiles = new HashMap<>();
+        if (previous != null) {
+            for (Map.Entry<Long,Integer> entry : previous.tiles.entrySet()) {
+                if (!dirty.contains(entry.getKey())) {
+                    pool.retain(entry.getValue());
+                    tiles.put(entry.getKey(),entry.getValue());
+                }
+            }
+        } Map<Long,Integer> missing = new HashMap<>();
+        for (long key : dirty) {
+            int tile = pool.allocate();
+            pool.retain(tile); // released when the readback lands
+            tiles.put(key,tile);
+            missing.put(key,tile);
+        } keyframes.add(new Keyframe(object.channel,object.position,tiles));
+        Area region = new Area(tx0 * TILE_SIZE,ty0 * TILE_SIZE,
+                Math.min((tx1 + 1) * TILE_SIZE,width) - 1,
+                Math.min((ty1 + 1) * TILE_SIZE,height) - 1);
+        readbacks.read(back_buffer,object.channel.id,region,texels -> {
+            for (Map.Entry<Long,Integer> entry : missing.entrySet()) {
+                long key = entry.getKey();
+                int tx = (int) (key >>> 24) & 0xFFFFFF;
+                int ty = (int) key & 0xFFFFFF;
+                copy(region,texels,tx,ty,pool.buffer(entry.getValue()),true);
+                pool.release(entry.getValue());
+            }
+        });
+        evict();
+    }
+    
+    /** @return the latest keyframe of the channel before the position, or null */
+    private Keyframe latestKeyframe(ENUM.Channel channel, long position) {
+        Iterator<Keyframe> iterator = keyframes.descendingIterator();
+        while (iterator.hasNext()) {
+            Keyframe keyframe = iterator.next();
+            if (keyframe.channel == channel && keyframe.position < position) return keyframe;
+        } return null;
+    }
+    
+    /** Releases the oldest keyframe that is not the latest of its channel */
+    private boolean releaseKeyframe() {
+        Iterator<Keyframe> iterator = keyframes.iterator();
+        while (iterator.hasNext()) {
+            Keyframe keyframe = iterator.next();
+            if (latestKeyframe(keyframe.channel,Long.MAX_VALUE) != keyframe) {
+                iterator.remove();
+                release(keyframe);
+                return true;
+            }
+        } return false;
+    }
+    
+    private void release(Keyframe keyframe) {
+        for (int tile : keyframe.tiles.values()) pool.release(tile);
+    }
+    
+    private void release(Map<Long,Integer> tiles, ENUM.Channel channel) {
+        Iterator<Map.Entry<Long,Integer>> iterator = tiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long,Integer> entry = iterator.next();
+            if ((entry.getKey() >>> 48) == channel.id) {
+                pool.release(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+    
+    /** Commands replay the editing threshold of the color source alpha */
+    private void readAlphaMask() {
+        alpha_requested = true;
+        int generation = alpha_generation;
+        Texture texture = project.colorSourceTexture();
+        int width = texture.width();
+        int height = texture.height();
+        readbacks.read(texture,rgba -> {
+            if (generation == alpha_generation) {
+                alpha_mask = new StrokeCommand.Mask(rgba,width,height);
+            }
+        });
+    }
+    
+    /**
+     * @return the tiles of the entry as they are in the back buffer now. Clean tiles are shared,
+     * the others are filled when the readback lands (the readback holds a reference until then)
+     */
+    private int[] capture(UndoRedoObject object) {
+        int[] tiles = new int[object.tileCount()];
+        boolean[] read_back = null;
+        int i = 0;
+        for (int ty = object.ty0; ty <= object.ty1; ty++) {
+            for (int tx = object.tx0; tx <= object.tx1; tx++, i++) {
+                Integer tile = clean.get(key(object.channel,tx,ty));
+                if (tile != null) {
+                    pool.retain(tile);
+                    tiles[i] = tile;
+                } else {
+                    if (read_back == null) read_back = new boolean[tiles.length];
+                    read_back[i] = true;
+                    tiles[i] = pool.allocate();
+                    pool.retain(tiles[i]);
+                }
+            }
+        } if (read_back != null) {
+            boolean[] missing = read_back;
+            Area region = object.region;
+            readbacks.read(back_buffer,object.channel.id,region,texels -> {
+                int t = 0;
+                for (int ty = object.ty0; ty <= object.ty1; ty++) {
+                    for (int tx = object.tx0; tx <= object.tx1; tx++, t++) {
+                        if (missing[t]) {
+                            copy(region,texels,tx,ty,pool.buffer(tiles[t]),true);
+                            pool.release(tiles[t]);
+                        }
+                    }
+                }
+            });
+        } return tiles;
+    }
+    
+    /** Uploads the tiles as one region. The tiles are clean from here on */
+    private void upload(UndoRedoObject object, int[] tiles) {
+        Area region = object.region;
+        ByteBuffer texels = MemoryUtil.memAlloc(region.size());
+        int i = 0;
+        for (int ty = object.ty0; ty <= object.ty1; ty++) {
+            for (int tx = object.tx0; tx <= object.tx1; tx++) {
+                int tile = tiles[i++];
+                copy(region,texels,tx,ty,pool.buffer(tile),false);
+                pool.retain(tile);
+                Integer previous = clean.put(key(object.channel,tx,ty),tile);
+                if (previous != null) pool.release(previous);
+            }
+        } Texture texture = back_buffer.texture(object.channel.id);
+        texture.bindToActiveSlot();
+        texture.uploadSubData(texels,0,region.cols(),region.rows(),region.minX(),region.minY());
+        journal(object.channel,region,texels);
+        MemoryUtil.memFree(texels);
+    }
+    
+    /** XORs the delta into the back buffer on the gpu. The tiles are no longer clean */
+    private void applyDelta(EditorGraphics graphics, UndoRedoObject object) {
+        if (object.delta == null) { // page in
+            object.delta = history.read(object.record);
+            compressed_bytes += object.delta.length;
+        } else hot.remove(object);
+        if (!object.unspillable) hot.add(object);
+        Area region = object.region;
+        ByteBuffer texels = MemoryUtil.memCalloc(region.size());
+        DeltaCodec.apply(object.delta,texels);
+        if (delta_texture == null) {
+            delta_texture = Texture.generate2D(width,height);
+            delta_texture.bindToActiveSlot();
+            delta_texture.allocate(TextureFormat.R8_UNSIGNED_NORMALIZED,false);
+            delta_texture.filter(GL_NEAREST,GL_NEAREST);
+            delta_texture.clampToEdge();
+        } else delta_texture.bindToActiveSlot();
+        delta_texture.uploadSubData(texels,0,region.cols(),region.rows(),region.minX(),region.minY());
+        Texture.unbindActiveSlot(GL_TEXTURE_2D);
+        MemoryUtil.memFree(texels);
+        graphics.xorToBackbuffer(project,object.channel,region,delta_texture);
+        if (project.journal() != null) {
+            readbacks.read(back_buffer,object.channel.id,region,result -> journal(object.channel,region,result));
+        } unclean(object);
+    }
+    
+    private void unclean(UndoRedoObject object) {
+        for (int ty = object.ty0; ty <= object.ty1; ty++) {
+            for (int tx = object.tx0; tx <= object.tx1; tx++) {
+                Integer tile = clean.remove(key(object.channel,tx,ty));
+                if (tile != null) pool.release(tile);
+            }
+        }
+    }
+    
+    /** Copies one tile between a region and the tile memory. Rows of the tile are as wide as the clipped tile */
+    private void copy(Area region, ByteBuffer texels, int tx, int ty, ByteBuffer tile, boolean to_tile) {
+        int x0 = tx * TILE_SIZE;
+        int y0 = ty * TILE_SIZE;
+        int w = Math.min(TILE_SIZE,region.maxX() + 1 - x0);
+        int h = Math.min(TILE_SIZE,region.maxY() + 1 - y0);
+        for (int r = 0; r < h; r++) {
+            int offset = (y0 - region.minY() + r) * region.cols() + (x0 - region.minX());
+            if (to_tile) tile.put(r * w,texels,offset,w);
+            else texels.put(offset,tile,r * w,w);
+        }
+    }
+    
+    private static boolean overlaps(Area a, Area b) {
+        return a.minX() <= b.maxX() && b.minX() <= a.maxX() && a.minY() <= b.maxY() && b.minY() <= a.maxY();
+    }
+    
+    private static long key(ENUM.Channel channel, int tx, int ty) {
+        return ((long) channel.id << 48) | ((long) tx << 24) | ty;
+    }
+    
+    private void journal(ENUM.Channel channel, Area area, ByteBuffer texels) {
+        EditJournal journal = project.journal();
+        if (journal != null) {
+            journal.appendEdit(ProjectFile.tag(channel),area.minX(),area.minY(),area.cols(),area.rows(),texels);
+        }
     }
     
     private UndoRedoObject createObject(Area editArea, ENUM.Channel channel,
                                         ENUM.BrushTool tool, ENUM.BrushFunction function) {
-        
-        int tex_w = project.texturesWidth();
-        int tex_h = project.texturesHeight();
-        int x_offset = -(int)project.bounds().x;
-        int y_offset = -(int)project.bounds().y;
-        Area textureArea = new Area(0,0,tex_w,tex_h); // wrong
+    
+        int tex_w = width;
+        int tex_h = height;
+        int x_offset = -(int)bounds.x;
+        int y_offset = -(int)bounds.y;
+        Area textureArea = new Area(0,0,tex_w - 1,tex_h - 1);
         editArea.translate(x_offset,y_offset);
         if (!textureArea.intersection(editArea)) {
             Logger.warn("should not happen");
             editArea.set(textureArea);
-        } return new UndoRedoObject(
-                project.backBuffer(), editArea, channel, tool, function);
+        } int max_x = Math.min((editArea.maxX() / TILE_SIZE + 1) * TILE_SIZE,tex_w) - 1;
+        int max_y = Math.min((editArea.maxY() / TILE_SIZE + 1) * TILE_SIZE,tex_h) - 1;
+        Area region = new Area(editArea.minX() / TILE_SIZE * TILE_SIZE,editArea.minY() / TILE_SIZE * TILE_SIZE,max_x,max_y);
+        return new UndoRedoObject(pool,new Area(editArea),region,channel,tool,function,sequence++);
+    
+    }
+    
+    /** The channel after the entry at position: tiles touched since the base (shared with the previous keyframe) */
+    private record Keyframe(ENUM.Channel channel, long position, Map<Long,Integer> tiles) { }
+    
+    /** XOR delta of the before and after states, encoded on the thread pool. Verifies the command (if any) */
+    private final class CompressTask implements Task {
+        
+        private final UndoRedoObject object;
+        private final StrokeCommand command;
+        private final StrokeCommand.Mask mask;
+        private final Area region;
+        private final ByteBuffer before; // memAlloc
+        private final ByteBuffer after; // memAlloc
+        private final int size;
+        private byte[] delta;
+        private boolean replayable;
+        
+        CompressTask(UndoRedoObject object, ByteBuffer before, ByteBuffer after, int size) {
+            this.object = object;
+            this.command = object.command;
+            this.mask = object.mask;
+            this.region = object.region;
+            this.before = before;
+            this.after = after;
+            this.size = size;
+        }
+        
+        public int process(long queue_time_ms) {
+            if (command != null) {
+                ByteBuffer replay = MemoryUtil.memAlloc(size);
+                MemoryUtil.memCopy(before,replay);
+                command.apply(replay,region,mask);
+                replayable = replay.mismatch(after) == -1;
+                MemoryUtil.memFree(replay);
+            } DeltaCodec.xor(before,after,size);
+            delta = DeltaCodec.encode(before,size);
+            return 0;
+        }
         
+        public void onCompletion(Exception e, int status, long runtime_ms) {
+            MemoryUtil.memFree(before);
+            MemoryUtil.memFree(after);
+            compressing--;
+            if (e != null) Logger.warn(e,"unable to compress undo entry");
+            else if (object.before != null) { // not evicted
+                object.delta = delta;
+                object.delta_length = delta.length;
+                object.replayable = replayable;
+                compressed_bytes += delta.length;
+                hot.add(object);
+                for (int tile : object.before) pool.release(tile);
+                if (object.after != null) for (int tile : object.after) pool.release(tile);
+                object.before = null;
+                object.after = null;
+                if (command != null && !replayable) {
+                    Logger.debug("undo entry: {} replay does not match, kept as delta",command.tool().descriptor);
+                } Logger.debug("undo entry {}x{}: {} -> {} bytes ({}:1, {} ms)",object.region.cols(),object.region.rows(),
+                size,delta.length,String.format("%.1f",(float) size / Math.max(1,delta.length)),runtime_ms);
+                settle();
+                evict();
+            }
+        }
     }
     
     public static final class UndoRedoObject implements Disposable {
-        
+    
+        private final TilePool pool;
         private final Area editArea;
         private final ENUM.Channel channel;
         private final ENUM.BrushTool tool;
-        private final ByteBuffer buffer;
-        private final Framebuffer backBuffer;
         private final ENUM.BrushFunction function;
-        
-        UndoRedoObject(Framebuffer backBuffer, Area editArea, ENUM.Channel channel,
-                       ENUM.BrushTool tool, ENUM.BrushFunction function) {
-            
-            this.buffer = MemoryUtil.memAlloc(editArea.size() + 16);
+        private final int tx0, ty0, tx1, ty1; // tiles touched (inclusive)
+        private final Area region; // the tiles, clipped to the texture
+        private final long position; // in the history, increasing
+        private int[] before; // null once compressed
+        private int[] after; // null until undone, null once compressed
+        private byte[] delta; // XOR of before and after (DeltaCodec). null until compressed, null while spilled
+        private HistoryFile.Record record; // the delta in the history file. null until spilled
+        private int delta_length;
+        private StrokeCommand command; // null if not recorded
+        private StrokeCommand.Mask mask; // editable texels when drawn
+        private boolean replayable; // the command reproduces the edit
+        private boolean unspillable; // the history file failed to take the delta, it stays in memory
+        private boolean committed;
+    
+        UndoRedoObject(TilePool pool, Area editArea, Area region, ENUM.Channel channel,
+                       ENUM.BrushTool tool, ENUM.BrushFunction function, long position) {
+    
+            this.pool = pool;
             this.editArea = editArea;
             this.channel = channel;
             this.tool = tool;
             this.function = function;
-            this.backBuffer = backBuffer;
-            
-            int x0 = editArea.minX();
-            int y0 = editArea.minY();
-            int width = editArea.cols();
-            int height = editArea.rows();
-            Framebuffer.bindRead(backBuffer);
-            Framebuffer.readBuffer(channel.id);
-            glPixelStorei(GL_PACK_ALIGNMENT,1);
-            glReadPixels(x0,y0,width,height,GL_RED,GL_UNSIGNED_BYTE, buffer);
-        }
-        
-        public void upload() {
-            int x0 = editArea.minX();
-            int y0 = editArea.minY();
-            int width = editArea.cols();
-            int height = editArea.rows();
-            Texture texture = backBuffer.texture(channel.id);
-            texture.bindToActiveSlot();
-            texture.uploadSubData(buffer,0,width,height,x0,y0);
+            this.tx0 = editArea.minX() / TILE_SIZE;
+            this.ty0 = editArea.minY() / TILE_SIZE;
+            this.tx1 = editArea.maxX() / TILE_SIZE;
+            this.ty1 = editArea.maxY() / TILE_SIZE;
+            this.region = region;
+            this.position = position;
         }
-        
+    
         public Area editArea() {
             return editArea;
         }
-        
+    
         public ENUM.Channel channel() {
             return channel;
         }
-        
+    
         public ENUM.BrushTool tool() {
             return tool;
         }
-        
+    
         public ENUM.BrushFunction function() {
             return function;
         }
+    
+        public int tileCount() {
+            return (tx1 - tx0 + 1) * (ty1 - ty0 + 1);
+        }
+    
+        /** @return the texels covered by the tiles, clipped to the texture */
+        public Area region() {
+            return region;
+        }
         
-        public int sizeOf() {
-            return buffer.capacity();
+        /** @return texels covered by the tiles (uncompressed size of one state) */
+        public int regionSize() {
+            return region.size();
         }
         
+        public boolean isCompressed() {
+            return delta != null || record != null;
+        }
+        
+        /** @return true if the delta is in the history file only */
+        public boolean isSpilled() {
+            return delta == null && record != null;
+        }
+        
+        /** @return true if only the command is kept (replayed from a keyframe) */
+        public boolean isCommand() {
+            return replayable && before == null && !isCompressed();
+        }
+        
+        /** @return the edit as drawn, or null if it was not recorded */
+        public StrokeCommand command() {
+            return command;
+        }
+        
+        /** @return regionSize / compressed size. 0 if not compressed */
+        public float compressionRatio() {
+            if (isCommand()) return (float) regionSize() / command.sizeOf();
+            return isCompressed() ? (float) regionSize() / Math.max(1,delta_length) : 0;
+        }
+        
+        /** @return bytes of memory referenced (tiles, delta or command). Shared tiles are counted by every entry */
+        public int sizeOf() {
+            if (isCommand()) return command.sizeOf();
+            if (isCompressed()) return delta == null ? 0 : delta.length;
+            int tiles = (before == null ? 0 : before.length) + (after == null ? 0 : after.length);
+            return tiles * TilePool.TILE_BYTES;
+        }
+    
         public void dispose() {
-            if (buffer != null) MemoryUtil.memFree(buffer);
+            if (before != null) for (int tile : before) pool.release(tile);
+            if (after != null) for (int tile : after) pool.release(tile);
+            before = null;
+            after = null;
+            delta = null;
+            record = null;
+            replayable = false;
         }
     }
     
@@ -0,0 +1,179 @@
+package io.github.heathensoft.canvas.cpu;
+
+import io.github.heathensoft.canvas.Bloom;
+import io.github.heathensoft.canvas.ENUM;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * texture_bloom_prefilter.frag, texture_bloom_downsample.frag, texture_bloom_upsample.frag (Bloom).
+ * Same pyramid as the gpu: full res level 0, half size levels below. Linear filtering and clamp to edge
+ * are emulated. Level 0 is stored as 8-bit, the rest as 16-bit, like the gpu targets.
+ * The result is added to the preview (alpha is kept).
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class BloomPass {
+
+    private static final float LR = 0.2126f, LG = 0.7152f, LB = 0.0722f;
+
+    private static final float[] DOWN_X = { -2, 0, 2, -2, 0, 2, -2, 0, 2, -1, 1, -1, 1 };
+    private static final float[] DOWN_Y = {  2, 2, 2,  0, 0, 0, -2,-2,-2,  1, 1, -1,-1 };
+    private static final float[] DOWN_W = {
+            0.03125f, 0.0625f, 0.03125f,
+            0.0625f,  0.125f,  0.0625f,
+            0.03125f, 0.0625f, 0.03125f,
+            0.125f, 0.125f, 0.125f, 0.125f };
+
+    private static final float[] TENT_X = { -1, 0, 1, -1, 0, 1, -1, 0, 1 };
+    private static final float[] TENT_Y = {  1, 1, 1,  0, 0, 0, -1,-1,-1 };
+    private static final float[] TENT_W = {
+            0.0625f, 0.1250f, 0.0625f,
+            0.1250f, 0.2500f, 0.1250f,
+            0.0625f, 0.1250f, 0.0625f };
+
+    private float[][] levels; // rgb
+    private int[] widths;
+    private int[] heights;
+
+    public void process(ForkJoinPool pool, CpuProject project, PipelineSettings settings) {
+        allocate(project.width(),project.height());
+        final float threshold = settings.bloom_threshold;
+        final float intensity = settings.bloom_intensity;
+        final ByteBuffer preview = project.preview();
+        final ByteBuffer emissive = project.frontBuffer(ENUM.Channel.EMISSIVE);
+        final float[] level_0 = levels[0];
+        final int width = widths[0];
+        TileTask.invoke(pool,width,heights[0],(x0, y0, x1, y1) -> {
+            float[] rgb = new float[3];
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    int i = y * width + x;
+                    for (int c = 0; c < 3; c++) rgb[c] = (preview.get(i * 4 + c) & 0xFF) / 255f;
+                    float weight = Math.max(contribution(rgb,threshold),(emissive.get(i) & 0xFF) / 255f);
+                    for (int c = 0; c < 3; c++) level_0[i * 3 + c] = store(rgb[c] * weight,0);
+                }
+            }
+        });
+        for (int l = 1; l < levels.length; l++) {
+            final int level = l;
+            TileTask.invoke(pool,widths[l],heights[l],(x0, y0, x1, y1) ->
+                    filter(level - 1,level,DOWN_X,DOWN_Y,DOWN_W,false,x0,y0,x1,y1));
+        }
+        for (int l = levels.length - 1; l > 0; l--) {
+            final int level = l;
+            TileTask.invoke(pool,widths[l - 1],heights[l - 1],(x0, y0, x1, y1) ->
+                    filter(level,level - 1,TENT_X,TENT_Y,TENT_W,true,x0,y0,x1,y1));
+        }
+        TileTask.invoke(pool,width,heights[0],(x0, y0, x1, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    int i = y * width + x;
+                    for (int c = 0; c < 3; c++) {
+                        float color = (preview.get(i * 4 + c) & 0xFF) / 255f + level_0[i * 3 + c] * intensity;
+                        preview.put(i * 4 + c,CpuProject.unorm(color));
+                    }
+                }
+            }
+        });
+    }
+
+    /** Frees the pyramid. Reallocated on the next call to process */
+    public void release() {
+        levels = null;
+        widths = null;
+        heights = null;
+    }
+
+    /** soft knee threshold (texture_bloom_prefilter.frag) */
+    public static float contribution(float[] rgb, float threshold) {
+        float luminance = rgb[0] * LR + rgb[1] * LG + rgb[2] * LB;
+        float knee = threshold * 0.5f;
+        float soft = Math.max(0.0f,Math.min(2.0f * knee,luminance - threshold + knee));
+        soft = (soft * soft) / (4.0f * knee + 0.00001f);
+        return Math.max(soft,luminance - threshold) / Math.max(luminance,0.00001f);
+    }
+
+    public float[] level(int level) {
+        return levels[level];
+    }
+
+    public int levelCount() {
+        return levels == null ? 0 : levels.length;
+    }
+
+    private void filter(int src, int dst, float[] off_x, float[] off_y, float[] weights,
+                        boolean additive, int x0, int y0, int x1, int y1) {
+        float[] source = levels[src];
+        float[] target = levels[dst];
+        int sw = widths[src], sh = heights[src];
+        int tw = widths[dst], th = heights[dst];
+        float[] rgb = new float[3];
+        float[] sum = new float[3];
+        for (int y = y0; y < y1; y++) {
+            float v = (y + 0.5f) / th;
+            for (int x = x0; x < x1; x++) {
+                float u = (x + 0.5f) / tw;
+                sum[0] = sum[1] = sum[2] = 0;
+                for (int k = 0; k < weights.length; k++) {
+                    sample(source,sw,sh,u + off_x[k] / sw,v + off_y[k] / sh,rgb);
+                    for (int c = 0; c < 3; c++) sum[c] += rgb[c] * weights[k];
+                }
+                int i = (y * tw + x) * 3;
+                for (int c = 0; c < 3; c++) {
+                    target[i + c] = store(additive ? target[i + c] + sum[c] : sum[c],dst);
+                }
+            }
+        }
+    }
+
+    /** GL_LINEAR, GL_CLAMP_TO_EDGE */
+    private static void sample(float[] level, int w, int h, float u, float v, float[] dst) {
+        float x = u * w - 0.5f;
+        float y = v * h - 0.5f;
+        int ix = (int) Math.floor(x);
+        int iy = (int) Math.floor(y);
+        float fx = x - ix;
+        float fy = y - iy;
+        int x0 = clamp(ix,w), x1 = clamp(ix + 1,w);
+        int y0 = clamp(iy,h), y1 = clamp(iy + 1,h);
+        for (int c = 0; c < 3; c++) {
+            float a = level[(y0 * w + x0) * 3 + c];
+            float b = level[(y0 * w + x1) * 3 + c];
+            float d = level[(y1 * w + x0) * 3 + c];
+            float e = level[(y1 * w + x1) * 3 + c];
+            float top = a + (b - a) * fx;
+            float bottom = d + (e - d) * fx;
+            dst[c] = top + (bottom - top) * fy;
+        }
+    }
+
+    private static int clamp(int i, int size) {
+        return i < 0 ? 0 : Math.min(i,size - 1);
+    }
+
+    private static float store(float value, int level) {
+        float max = level == 0 ? 255f : 65535f;
+        value = Math.max(0.0f,Math.min(1.0f,value));
+        return Math.round(value * max) / max;
+    }
+
+    private void allocate(int width, int height) {
+        if (levels != null && widths[0] == width && heights[0] == height) return;
+        int count = Bloom.levels(width,height);
+        levels = new float[count][];
+        widths = new int[count];
+        heights = new int[count];
+        for (int i = 0; i < count; i++) {
+            widths[i] = width;
+            heights[i] = height;
+            levels[i] = new float[width * height * 3];
+            width = Math.max(1,width / 2);
+            height = Math.max(1,height / 2);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package io.github.heathensoft.canvas.cpu;
+
+import io.github.heathensoft.canvas.ENUM;
+
+import java.nio.ByteBuffer;
+
+/**
+ * back_to_frontbuffer.frag
+ * The brush overlay is applied to the current channel. The other channels are copied.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class CompositePass {
+
+    private static final float[] SMOOTHEN_KERNEL = {
+            0.0625f, 0.1250f, 0.0625f,
+            0.1250f, 0.2500f, 0.1250f,
+            0.0625f, 0.1250f, 0.0625f };
+
+    private static final float[] SHARPEN_KERNEL = {
+            -0.250f, -1.000f, -0.250f,
+            -1.000f,  6.000f, -1.000f,
+            -0.250f, -1.000f, -0.250f };
+
+    private static final int[] ADJ_X = { -1, 0, 1, -1, 0, 1, -1, 0, 1 };
+    private static final int[] ADJ_Y = {  1, 1, 1,  0, 0, 0, -1,-1,-1 };
+
+    public static void process(CpuProject project, PipelineSettings settings, int x0, int y0, int x1, int y1) {
+        int width = project.width();
+        for (ENUM.Channel channel : ENUM.Channel.ALL) {
+            ByteBuffer back = project.backBuffer(channel);
+            ByteBuffer front = project.frontBuffer(channel);
+            if (channel == settings.channel) {
+                composite(project,settings,back,front,x0,y0,x1,y1);
+            } else {
+                for (int y = y0; y < y1; y++) {
+                    int row = y * width;
+                    for (int x = x0; x < x1; x++) {
+                        front.put(row + x,back.get(row + x));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void composite(CpuProject project, PipelineSettings settings,
+            ByteBuffer back, ByteBuffer front, int x0, int y0, int x1, int y1) {
+        ByteBuffer overlay = project.brushOverlay();
+        int width = project.width();
+        int function = settings.brush_function.id;
+        float brush_color = (settings.brush_color & 0xFF) / 255f;
+        boolean sampling = settings.brush_tool == ENUM.BrushTool.SAMPLER;
+        for (int y = y0; y < y1; y++) {
+            int row = y * width;
+            for (int x = x0; x < x1; x++) {
+                float overlay_red = (overlay.get(row + x) & 0xFF) / 255f;
+                float back_red = (back.get(row + x) & 0xFF) / 255f;
+                float color;
+                if (overlay_red > 0.0f && !sampling) {
+                    if (function == ENUM.BrushFunction.SET.id) color = brush_color;
+                    else if (function == ENUM.BrushFunction.ADD.id) color = back_red + brush_color;
+                    else if (function == ENUM.BrushFunction.SUB.id) color = back_red - brush_color;
+                    else if (function == ENUM.BrushFunction.MIX.id) color = (brush_color + back_red) * 0.5f;
+                    else if (function == ENUM.BrushFunction.SMOOTHEN.id || function == ENUM.BrushFunction.SHARPEN.id) {
+                        float[] kernel = function == ENUM.BrushFunction.SMOOTHEN.id ? SMOOTHEN_KERNEL : SHARPEN_KERNEL;
+                        color = 0.0f;
+                        for (int i = 0; i < 9; i++) {
+                            color += project.fetchRed(back,x + ADJ_X[i],y + ADJ_Y[i]) * kernel[i];
+                        }
+                    } else if (function == ENUM.BrushFunction.RAISE.id) {
+                        color = Math.min(back_red + overlay_red * brush_color, brush_color);
+                    } else if (function == ENUM.BrushFunction.LOWER.id) {
+                        color = back_red - overlay_red * brush_color;
+                    } else color = back_red;
+                    front.put(row + x,CpuProject.unorm(color));
+                } else front.put(row + x,back.get(row + x));
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package io.github.heathensoft.canvas.cpu;
+
+import io.github.heathensoft.canvas.ENUM;
+import io.github.heathensoft.jlib.common.utils.Area;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Headless equivalent of EditorGraphics.projectPipeline(Project).
+ * Same passes in the same order. Each pass is split into tiles and run in a fork/join pool.
+ * No OpenGL context required.
+ *
+ * Incremental: Only the project's dirty area (edits) grown by each stage's halo is recomputed.
+ * composite, depth: dirty area. normals: + 1. occlusion: + kernel radius. shadows: + MAX_SHADOW_LENGTH
+ * (the sweep and the horizon map are linear and recompute everything). smoothing: + 2.
+ * A stage and the stages after it are recomputed in full when the settings they read have changed.
+ * Bloom is added to the preview in place, so with bloom the lighting is always recomputed in full.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class CpuPipeline {
+
+    public enum ShadowMode {
+        RAY_MARCH,   // texture_shadow_mapping.frag
+        SWEEP,       // ShadowSweep for directional lights. Ray marched for point lights
+        HORIZON_MAP  // per project HorizonMap, rebuilt only when the depth map changes
+    }
+
+    private final ForkJoinPool pool;
+    private final PipelineSettings settings;
+    private final PipelineSettings processed;
+    private final OcclusionBaker occlusion_baker;
+    private final BloomPass bloom_pass;
+    private ShadowMode shadow_mode = ShadowMode.SWEEP;
+    private ByteBuffer palette;
+    private int palette_size;
+
+    private CpuProject last_project;
+    private OcclusionKernel last_kernel;
+    private ShadowMode last_shadow_mode;
+    private boolean palette_changed;
+
+    public CpuPipeline() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public CpuPipeline(ForkJoinPool pool) {
+        this.pool = pool;
+        this.settings = new PipelineSettings();
+        this.processed = new PipelineSettings();
+        this.occlusion_baker = new OcclusionBaker(pool,OcclusionKernel.DEFAULT);
+        this.bloom_pass = new BloomPass();
+    }
+
+    /** Recomputes what has changed since the last call */
+    public void process(CpuProject project) {
+        final PipelineSettings s = settings;
+        final Area bounds = project.area();
+        Area dirty = new Area(bounds);
+        boolean edited = project.takeDirty(dirty);
+        boolean full = project != last_project;
+        if (full) edited = true;
+
+        Area composite = edited ? dirty : null;
+        if (full || s.channel != processed.channel || s.brush_tool != processed.brush_tool
+                || s.brush_function != processed.brush_function || s.brush_color != processed.brush_color) {
+            composite = new Area(bounds);
+        }
+        Area depth = composite;
+        if (full || s.detail_to_volume_ratio != processed.detail_to_volume_ratio) {
+            depth = new Area(bounds);
+        }
+        boolean amplitude = full || s.depth_amplitude != processed.depth_amplitude;
+        Area normals = amplitude ? new Area(bounds) : grow(depth,1,bounds);
+        normals = union(normals,edited ? dirty : null); // color source alpha
+        Area occlusion = amplitude || occlusion_baker.kernel() != last_kernel ? new Area(bounds) :
+                union(normals,grow(depth,occlusion_baker.halo(),bounds));
+        Area shadows = null;
+        if (s.preview_shadow) {
+            if (amplitude || lightChanged(s,processed) || !processed.preview_shadow || shadow_mode != last_shadow_mode) {
+                shadows = new Area(bounds);
+            } else if (depth != null) {
+                if (shadow_mode == ShadowMode.RAY_MARCH || (shadow_mode == ShadowMode.SWEEP && s.point_light)) {
+                    shadows = grow(depth,(int) ShadowMappingPass.MAX_SHADOW_LENGTH + 1,bounds);
+                } else shadows = new Area(bounds);
+            }
+        }
+        Area lighting = union(union(composite,normals),union(grow(occlusion,2,bounds),grow(shadows,2,bounds)));
+        boolean bloom = s.preview_bloom && s.preview_display == ENUM.PreviewDisplay.SOURCE;
+        if (full || bloom || palette_changed || previewChanged(s,processed) || lightChanged(s,processed)
+                || !s.lights.equals(processed.lights) || s.preview_shadow != processed.preview_shadow) {
+            lighting = new Area(bounds);
+        }
+
+        if (composite != null) invoke(composite,(x0, y0, x1, y1) -> CompositePass.process(project,s,x0,y0,x1,y1));
+        if (depth != null) {
+            invoke(depth,(x0, y0, x1, y1) -> DepthMixingPass.process(project,s,x0,y0,x1,y1));
+            project.invalidateHorizonMap();
+        } if (shadow_mode != ShadowMode.HORIZON_MAP) project.releaseHorizonMap();
+        if (normals != null) invoke(normals,(x0, y0, x1, y1) -> NormalMappingPass.process(project,s,x0,y0,x1,y1));
+        if (occlusion != null) occlusion_baker.bake(project,s,occlusion);
+        if (shadows != null) {
+            if (shadow_mode == ShadowMode.HORIZON_MAP) {
+                HorizonMap horizon_map = project.horizonMap();
+                horizon_map.update(pool,project.depth(),s.depth_amplitude);
+                horizon_map.shadows(pool,project,s);
+            } else if (shadow_mode == ShadowMode.SWEEP && !s.point_light) {
+                new ShadowSweep(project,s).process(pool);
+            } else invoke(shadows,(x0, y0, x1, y1) -> ShadowMappingPass.process(project,s,x0,y0,x1,y1));
+            SmoothenPass.apply(pool,project,project.shadowRaw(),project.shadow(),grow(shadows,2,bounds));
+        } if (lighting != null) {
+            final ByteBuffer lut = palette;
+            final int lut_size = palette_size;
+            final LightCulling culling = s.lights.isEmpty() ? null : new LightCulling(project,s);
+            invoke(lighting,(x0, y0, x1, y1) -> LightingPass.process(project,s,lut,lut_size,culling,x0,y0,x1,y1));
+        } if (bloom) bloom_pass.process(pool,project,s);
+        else if (!s.preview_bloom) bloom_pass.release();
+        processed.set(s);
+        last_project = project;
+        last_kernel = occlusion_baker.kernel();
+        last_shadow_mode = shadow_mode;
+        palette_changed = false;
+    }
+
+    /** Recompute everything on the next call to process */
+    public void invalidate() {
+        last_project = null;
+    }
+
+    private void invoke(Area area, TileTask.Kernel kernel) {
+        TileTask.invoke(pool,area.minX(),area.minY(),area.maxX() + 1,area.maxY() + 1,kernel);
+    }
+
+    private static Area grow(Area area, int amount, Area bounds) {
+        if (area == null) return null;
+        Area grown = new Area(area);
+        grown.expand(amount);
+        bounds.intersection(grown);
+        return grown;
+    }
+
+    private static Area union(Area a, Area b) {
+        if (a == null) return b == null ? null : new Area(b);
+        Area union = new Area(a);
+        if (b != null) union.expandToContain(b);
+        return union;
+    }
+
+    private static boolean lightChanged(PipelineSettings a, PipelineSettings b) {
+        return a.point_light != b.point_light || !a.light_position.equals(b.light_position)
+                || !a.light_color.equals(b.light_color) || a.light_ambience != b.light_ambience
+                || a.light_diffuse != b.light_diffuse || a.light_brightness != b.light_brightness
+                || !a.project_position.equals(b.project_position);
+    }
+
+    private static boolean previewChanged(PipelineSettings a, PipelineSettings b) {
+        return a.preview_display != b.preview_display || a.preview_lighting != b.preview_lighting
+                || a.preview_palette != b.preview_palette || a.camera_zoom != b.camera_zoom
+                || !a.camera_position.equals(b.camera_position) || a.preview_bloom != b.preview_bloom
+                || a.bloom_threshold != b.bloom_threshold || a.bloom_intensity != b.bloom_intensity;
+    }
+
+    /** Copies the current channel front buffer to its back buffer (EditorGraphics.drawToBackbuffer) */
+    public void frontToBack(CpuProject project) {
+        ByteBuffer front = project.frontBuffer(settings.channel);
+        ByteBuffer back = project.backBuffer(settings.channel);
+        back.put(0,front,0,project.width() * project.height());
+    }
+
+    /**
+     * @param lut RGB8 3D lut (Palette texture data). Null to disable
+     * @param size texels per axis
+     */
+    public void setPalette(ByteBuffer lut, int size) {
+        this.palette = lut;
+        this.palette_size = size;
+        this.palette_changed = true;
+    }
+
+    public void setOcclusionKernel(OcclusionKernel kernel) {
+        occlusion_baker.setKernel(kernel);
+    }
+
+    public void setShadowMode(ShadowMode mode) {
+        this.shadow_mode = mode == null ? ShadowMode.SWEEP : mode;
+    }
+
+    public ShadowMode shadowMode() {
+        return shadow_mode;
+    }
+
+    public BloomPass bloomPass() {
+        return bloom_pass;
+    }
+
+    public OcclusionBaker occlusionBaker() {
+        return occlusion_baker;
+    }
+
+    public PipelineSettings settings() {
+        return settings;
+    }
+
+    public ForkJoinPool pool() {
+        return pool;
+    }
+}
@@ -0,0 +1,385 @@
+package io.github.heathensoft.canvas.cpu;
+
+import io.github.heathensoft.canvas.ENUM;
+import io.github.heathensoft.canvas.io.PackedMaps;
+import io.github.heathensoft.canvas.io.PngImporter;
+import io.github.heathensoft.jlib.common.utils.Area;
+import io.github.heathensoft.jlib.lwjgl.graphics.Image;
+import io.github.heathensoft.jlib.lwjgl.graphics.surface.DepthMap8;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * The cpu equivalent of a Project. One direct buffer per texture.
+ * Same layout as the textures: row 0 is the bottom row (images are flipped on import).
+ * Direct buffers (not MemoryUtil) so this works without the lwjgl natives.
+ *
+ * color source: RGBA8 (sRGB)
+ * channels, depth, occlusion, shadow, brush overlay: R8
+ * normals: RGB8, preview: RGBA8
+ *
+ * Occlusion and shadows keep their unfiltered output (raw) so they can be smoothened per region.
+ * Edits are tracked as a dirty area. The CpuPipeline only recomputes what the dirty area affects.
+ * Write to the brush overlay through stampBrushOverlay / clearBrushOverlay, or call markDirty.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class CpuProject {
+
+    public static final byte DEFAULT_VOLUME = 0x7F;
+    public static final byte DEFAULT_SPECULAR = 0x0F;
+
+    private static final float[] SRGB_TO_LINEAR = new float[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            float c = i / 255f;
+            if (c <= 0.04045f) SRGB_TO_LINEAR[i] = c / 12.92f;
+            else SRGB_TO_LINEAR[i] = (float) Math.pow((c + 0.055f) / 1.055f, 2.4f);
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final ByteBuffer colorSource;
+    private final ByteBuffer[] frontBuffer;
+    private final ByteBuffer[] backBuffer;
+    private final ByteBuffer brushOverlay;
+    private final ByteBuffer depth;
+    private final ByteBuffer occlusion;
+    private final ByteBuffer occlusionRaw;
+    private final ByteBuffer shadow;
+    private final ByteBuffer shadowRaw;
+    private final ByteBuffer normals;
+    private final ByteBuffer preview;
+    private final ByteBuffer intermediary;
+    private HorizonMap horizon_map;
+    private final Area area;
+    private final Area dirty_area;
+    private final Area overlay_area;
+    private boolean dirty;
+    private boolean overlay_used;
+    private Path output_directory;
+    private String project_name;
+
+    public CpuProject(String name, int width, int height) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("invalid size: " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+        this.project_name = name == null ? "untitled" : name;
+        int size = width * height;
+        colorSource = ByteBuffer.allocateDirect(size * 4);
+        frontBuffer = new ByteBuffer[ENUM.Channel.SIZE];
+        backBuffer = new ByteBuffer[ENUM.Channel.SIZE];
+        for (int i = 0; i < ENUM.Channel.SIZE; i++) {
+            frontBuffer[i] = ByteBuffer.allocateDirect(size);
+            backBuffer[i] = ByteBuffer.allocateDirect(size);
+        } brushOverlay = ByteBuffer.allocateDirect(size);
+        depth = ByteBuffer.allocateDirect(size);
+        occlusion = ByteBuffer.allocateDirect(size);
+        occlusionRaw = ByteBuffer.allocateDirect(size);
+        shadow = ByteBuffer.allocateDirect(size);
+        shadowRaw = ByteBuffer.allocateDirect(size);
+        intermediary = ByteBuffer.allocateDirect(size);
+        normals = ByteBuffer.allocateDirect(size * 3);
+        preview = ByteBuffer.allocateDirect(size * 4);
+        area = new Area(0,0,width - 1,height - 1);
+        dirty_area = new Area(area);
+        overlay_area = new Area(0,0);
+        dirty = true;
+        fill(ENUM.Channel.VOLUME, DEFAULT_VOLUME);
+        fill(ENUM.Channel.SPECULAR, DEFAULT_SPECULAR);
+    }
+
+    /**
+     * Same defaults as PngImporter.generateTextures().
+     * Details default to the greyscale of the color source. Channels of a material map (PackedMaps) are used
+     * where the importer has no separate image.
+     * @param importer a ready importer (status().ready)
+     * @return the project
+     */
+    public static CpuProject of(PngImporter importer) {
+        if (!importer.status().ready) {
+            throw new IllegalStateException(importer.status().description);
+        } Image color = importer.diffuse_image();
+        CpuProject project = new CpuProject(importer.name(),color.width(),color.height());
+        project.setColorSource(color.data(),color.format().channels);
+        Image material = importer.material_image();
+        if (material != null) {
+            for (ENUM.Channel channel : ENUM.Channel.ALL) {
+                byte[] texels = PackedMaps.component(material.data(),color.width() * color.height(),4,channel.id);
+                project.setChannel(channel,ByteBuffer.wrap(texels),1);
+            }
+        } if (importer.details_image() != null || material == null) {
+            Image details = importer.details_image() == null ? color : importer.details_image();
+            project.setChannel(ENUM.Channel.DETAILS,details.data(),details.format().channels);
+        }
+        if (importer.volume_image() != null) {
+            Image image = importer.volume_image();
+            project.setChannel(ENUM.Channel.VOLUME,image.data(),image.format().channels);
+        } if (importer.specular_image() != null) {
+            Image image = importer.specular_image();
+            project.setChannel(ENUM.Channel.SPECULAR,image.data(),image.format().channels);
+        } if (importer.emissive_image() != null) {
+            Image image = importer.emissive_image();
+            project.setChannel(ENUM.Channel.EMISSIVE,image.data(),image.format().channels);
+        } return project;
+    }
+
+    /**
+     * @param data (sRGB) pixels, width * height * channels
+     * @param channels 1 to 4
+     */
+    public void setColorSource(ByteBuffer data, int channels) {
+        int size = width * height;
+        for (int i = 0; i < size; i++) {
+            int src = i * channels;
+            int dst = i * 4;
+            switch (channels) {
+                case 1, 2 -> {
+                    byte v = data.get(src);
+                    colorSource.put(dst,v).put(dst + 1,v).put(dst + 2,v);
+                    colorSource.put(dst + 3,channels == 2 ? data.get(src + 1) : (byte) 0xFF);
+                }
+                case 3 -> {
+                    colorSource.put(dst,data.get(src));
+                    colorSource.put(dst + 1,data.get(src + 1));
+                    colorSource.put(dst + 2,data.get(src + 2));
+                    colorSource.put(dst + 3,(byte) 0xFF);
+                }
+                case 4 -> colorSource.putInt(dst,data.getInt(src));
+                default -> throw new IllegalArgumentException("invalid channels: " + channels);
+            }
+        } markDirty();
+    }
+
+    /**
+     * Sets both the front and back buffer of the channel.
+     * Images with more than one channel are converted to greyscale (DepthMap8).
+     * @param data pixels, width * height * channels
+     * @param channels 1 to 4
+     */
+    public void setChannel(ENUM.Channel channel, ByteBuffer data, int channels) {
+        ByteBuffer back = backBuffer[channel.id];
+        ByteBuffer front = frontBuffer[channel.id];
+        int size = width * height;
+        if (channels == 1) {
+            for (int i = 0; i < size; i++) {
+                byte v = data.get(i);
+                back.put(i,v);
+                front.put(i,v);
+            }
+        } else {
+            byte[] grey = new DepthMap8(width,height,channels,data).get();
+            back.put(0,grey);
+            front.put(0,grey);
+        } markDirty();
+    }
+
+    public void fill(ENUM.Channel channel, byte value) {
+        ByteBuffer back = backBuffer[channel.id];
+        ByteBuffer front = frontBuffer[channel.id];
+        int size = width * height;
+        for (int i = 0; i < size; i++) {
+            back.put(i,value);
+            front.put(i,value);
+        } markDirty();
+    }
+
+    /** Everything must be recomputed */
+    public void markDirty() {
+        dirty_area.set(area);
+        dirty = true;
+    }
+
+    /** Texels in the area (inclusive) have changed. Clamped to the texture */
+    public void markDirty(int minX, int minY, int maxX, int maxY) {
+        if (!area.intersects(minX,minY,maxX,maxY)) return;
+        if (dirty) {
+            dirty_area.expandToContain(minX,minY);
+            dirty_area.expandToContain(maxX,maxY);
+        } else {
+            dirty_area.set(minX,minY,maxX,maxY);
+            dirty = true;
+        } area.intersection(dirty_area);
+    }
+
+    public void markDirty(Area area) {
+        markDirty(area.minX(),area.minY(),area.maxX(),area.maxY());
+    }
+
+    /**
+     * Copies the dirty area to dest and marks the project as clean.
+     * @return false if nothing has changed since the last call
+     */
+    public boolean takeDirty(Area dest) {
+        if (!dirty) return false;
+        dest.set(dirty_area);
+        dirty = false;
+        return true;
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Writes a brush mask to the overlay with max blending (as the stroke shader). Marks it dirty.
+     * @param mask R8 mask, size * size
+     * @param x0 texture x of the mask's first texel
+     * @param y0 texture y of the mask's first texel
+     */
+    public void stampBrushOverlay(ByteBuffer mask, int size, int x0, int y0) {
+        int minX = Math.max(x0,0);
+        int minY = Math.max(y0,0);
+        int maxX = Math.min(x0 + size - 1,width - 1);
+        int maxY = Math.min(y0 + size - 1,height - 1);
+        if (minX > maxX || minY > maxY) return;
+        for (int y = minY; y <= maxY; y++) {
+            for (int x = minX; x <= maxX; x++) {
+                int v = mask.get((y - y0) * size + (x - x0)) & 0xFF;
+                int i = y * width + x;
+                if (v > (brushOverlay.get(i) & 0xFF)) brushOverlay.put(i,(byte) v);
+            }
+        } if (overlay_used) {
+            overlay_area.expandToContain(minX,minY);
+            overlay_area.expandToContain(maxX,maxY);
+        } else overlay_area.set(minX,minY,maxX,maxY);
+        overlay_used = true;
+        markDirty(minX,minY,maxX,maxY);
+    }
+
+    /** Clears what has been stamped since the last clear. Marks it dirty */
+    public void clearBrushOverlay() {
+        if (!overlay_used) return;
+        for (int y = overlay_area.minY(); y <= overlay_area.maxY(); y++) {
+            for (int x = overlay_area.minX(); x <= overlay_area.maxX(); x++) {
+                brushOverlay.put(y * width + x,(byte) 0);
+            }
+        } markDirty(overlay_area);
+        overlay_used = false;
+    }
+
+    public static float srgbToLinear(int value) {
+        return SRGB_TO_LINEAR[value & 0xFF];
+    }
+
+    /** @return byte value as 0 -> 1. Clamped to edge (GL_CLAMP_TO_EDGE, GL_NEAREST) */
+    public float fetchRed(ByteBuffer r8, int x, int y) {
+        x = x < 0 ? 0 : (x >= width ? width - 1 : x);
+        y = y < 0 ? 0 : (y >= height ? height - 1 : y);
+        return (r8.get(y * width + x) & 0xFF) / 255f;
+    }
+
+    /** @return unsigned byte, no bounds check */
+    public int red(ByteBuffer r8, int x, int y) {
+        return r8.get(y * width + x) & 0xFF;
+    }
+
+    /** Normalized float to unsigned byte, as when writing to a R8 / RGB8 texture */
+    public static byte unorm(float value) {
+        if (value <= 0.0f || Float.isNaN(value)) return 0;
+        if (value >= 1.0f) return (byte) 0xFF;
+        return (byte) (int) (value * 255.0f + 0.5f);
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public ByteBuffer colorSource() {
+        return colorSource;
+    }
+
+    public ByteBuffer frontBuffer(ENUM.Channel channel) {
+        return frontBuffer[channel.id];
+    }
+
+    public ByteBuffer backBuffer(ENUM.Channel channel) {
+        return backBuffer[channel.id];
+    }
+
+    public ByteBuffer brushOverlay() {
+        return brushOverlay;
+    }
+
+    public ByteBuffer depth() {
+        return depth;
+    }
+
+    public ByteBuffer occlusion() {
+        return occlusion;
+    }
+
+    public ByteBuffer shadow() {
+        return shadow;
+    }
+
+    /** Shadow map before smoothing */
+    public ByteBuffer shadowRaw() {
+        return shadowRaw;
+    }
+
+    /** Occlusion before smoothing */
+    public ByteBuffer occlusionRaw() {
+        return occlusionRaw;
+    }
+
+    /** The texture area (inclusive) */
+    public Area area() {
+        return area;
+    }
+
+    public ByteBuffer normals() {
+        return normals;
+    }
+
+    public ByteBuffer preview() {
+        return preview;
+    }
+
+    public ByteBuffer intermediary() {
+        return intermediary;
+    }
+
+    /** Created on first use */
+    public HorizonMap horizonMap() {
+        if (horizon_map == null) {
+            horizon_map = new HorizonMap(width,height);
+        } return horizon_map;
+    }
+
+    /** The depth map changed. The horizon map (if any) is rebuilt on its next update */
+    public void invalidateHorizonMap() {
+        if (horizon_map != null) horizon_map.invalidate();
+    }
+
+    /** Frees the horizon map (bins * width * height bytes) */
+    public void releaseHorizonMap() {
+        horizon_map = null;
+    }
+
+    public String projectName() {
+        return project_name;
+    }
+
+    public void setProjectName(String name) {
+        this.project_name = name;
+    }
+
+    public Path outputDirectory() {
+        return output_directory;
+    }
+
+    public void setOutputDirectory(Path path) {
+        this.output_directory = path;
+    }
+}
@@ -0,0 +1,34 @@
+package io.github.heathensoft.canvas.cpu;
+
+import io.github.heathensoft.canvas.ENUM;
+
+import java.nio.ByteBuffer;
+
+/**
+ * texture_depth_mixing.frag
+ * depth = mix(volume, details, detail_to_volume_ratio)
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class DepthMixingPass {
+
+    public static void process(CpuProject project, PipelineSettings settings, int x0, int y0, int x1, int y1) {
+        ByteBuffer details = project.frontBuffer(ENUM.Channel.DETAILS);
+        ByteBuffer volume = project.frontBuffer(ENUM.Channel.VOLUME);
+        ByteBuffer depth = project.depth();
+        int width = project.width();
+        float weight = Math.max(0.0f,Math.min(1.0f,settings.detail_to_volume_ratio));
+        for (int y = y0; y < y1; y++) {
+            int row = y * width;
+            for (int x = x0; x < x1; x++) {
+                float detail_red = (details.get(row + x) & 0xFF) / 255f;
+                float volume_red = (volume.get(row + x) & 0xFF) / 255f;
+                float mixed_red = volume_red * (1.0f - weight) + detail_red * weight;
+                depth.put(row + x,CpuProject.unorm(mixed_red));
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package io.github.heathensoft.canvas.cpu;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Per texel horizon angles for a fixed number of azimuth directions.
+ * Built from the depth map once (upper convex hull sweep per direction, O(pixels log window) per bin).
+ * After that, shadows for any light position are a lookup and an interpolation per texel.
+ * Only rebuilt when invalidated (the depth map changed) or when the depth amplitude changes.
+ * Holds bins * width * height bytes (16 MB for 1024 x 1024 and 16 bins). Drop it when not in use.
+ *
+ * Horizon angles are stored as bytes: 0 -> PI/2 (0 -> 255).
+ * Occluders further away than MAX_SHADOW_LENGTH are ignored (as in the shadow shader).
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class HorizonMap {
+
+    public static final int DEFAULT_BINS = 16;
+    public static final float DEFAULT_PENUMBRA = 0.1f; // radians
+    public static final float DEFAULT_STRENGTH = 0.75f;
+
+    private static final float PI_HALF = (float) (Math.PI / 2.0);
+    private static final float TWO_PI = (float) (Math.PI * 2.0);
+
+    private final int width;
+    private final int height;
+    private final int bins;
+    private final byte[][] horizon;
+    private float penumbra = DEFAULT_PENUMBRA;
+    private float strength = DEFAULT_STRENGTH;
+    private float amplitude;
+    private boolean built;
+
+    public HorizonMap(int width, int height) {
+        this(width,height,DEFAULT_BINS);
+    }
+
+    public HorizonMap(int width, int height, int bins) {
+        if (bins < 4) throw new IllegalArgumentException("bins < 4");
+        this.width = width;
+        this.height = height;
+        this.bins = bins;
+        this.horizon = new byte[bins][width * height];
+    }
+
+    /**
+     * Rebuilds the map if it was invalidated or the amplitude has changed since the last build.
+     * @return true if rebuilt
+     */
+    public boolean update(ForkJoinPool pool, ByteBuffer depth, float amplitude) {
+        if (built && amplitude == this.amplitude) return false;
+        this.amplitude = amplitude;
+        for (int bin = 0; bin < bins; bin++) {
+            float azimuth = TWO_PI * bin / bins;
+            SweepLines lines = new SweepLines(width,height,(float) Math.cos(azimuth),(float) Math.sin(azimuth));
+            final byte[] dst = horizon[bin];
+            TileTask.invoke(pool,0,0,lines.numLines(),1,(x0, y0, x1, y1) -> buildLines(lines,depth,dst,x0,x1));
+        } built = true;
+        return true;
+    }
+
+    /**
+     * The horizon of step k is the steepest slope to a higher step within [k - window, k).
+     * The line is cut into blocks of window steps. The window of k covers a prefix of its own block
+     * and a suffix of the previous block. Prefixes: the upper hull is built forwards, block by block,
+     * and the tangent from k is the top of the hull after adding k. Suffixes: the upper hull of the
+     * previous block is built backwards while k walks back through its block, one point per step,
+     * and the tangent is found by binary search. Nothing leaves a hull before its block is done,
+     * so no occluder is lost (popping from one windowed hull is not exact).
+     */
+    private void buildLines(SweepLines lines, ByteBuffer depth, byte[] dst, int line0, int line1) {
+        int line_length = lines.lineLength();
+        float step_length = lines.stepLength();
+        int window = Math.max(1,(int) (ShadowMappingPass.MAX_SHADOW_LENGTH / step_length));
+        float[] z = new float[line_length];
+        float[] max_slope = new float[line_length];
+        int[] hull = new int[line_length];
+        for (int line = line0; line < line1; line++) {
+            int k0 = 0;
+            while (k0 < line_length && lines.index(line,k0) < 0) k0++;
+            int k1 = k0; // the steps inside the texture are contiguous
+            while (k1 < line_length && lines.index(line,k1) >= 0) k1++;
+            for (int k = k0; k < k1; k++) {
+                z[k] = ((depth.get(lines.index(line,k)) & 0xFF) / 255f * 2.0f - 1.0f) * amplitude;
+            } int top = 0;
+            for (int k = k0; k < k1; k++) { // prefix of the own block
+                if ((k - k0) % window == 0) top = 0;
+                while (top > 1 && slope(z,hull[top - 2],k) >= slope(z,hull[top - 1],k)) top--;
+                max_slope[k] = top > 0 ? slope(z,hull[top - 1],k) : 0.0f;
+                hull[top++] = k;
+            } for (int block = k0 + window; block < k1; block += window) { // suffix of the previous block
+                top = 0; // hull[0] is the rightmost point
+                for (int k = block + window - 1; k >= block; k--) { // the last block can be short
+                    int s = k - window;
+                    while (top > 1 && below(z,s,hull[top - 1],hull[top - 2])) top--;
+                    hull[top++] = s;
+                    if (k < k1) max_slope[k] = Math.max(max_slope[k],tangent(z,hull,top,k));
+                }
+            } for (int k = k0; k < k1; k++) {
+                float angle = 0.0f;
+                if (max_slope[k] > 0) angle = (float) Math.atan(max_slope[k] / step_length);
+                dst[lines.index(line,k)] = (byte) Math.round(angle / PI_HALF * 255.0f);
+            }
+        }
+    }
+
+    /** Rise per step from k to j (j < k) */
+    private static float slope(float[] z, int j, int k) {
+        return (z[j] - z[k]) / (k - j);
+    }
+
+    /** @return true if b is on or below the line a -> c (a < b < c) */
+    private static boolean below(float[] z, int a, int b, int c) {
+        return (b - a) * (z[c] - z[a]) - (c - a) * (z[b] - z[a]) >= 0;
+    }
+
+    /**
+     * @param hull upper hull, hull[0] rightmost. Every point is left of k
+     * @return the steepest slope from k to the hull (unimodal along the hull)
+     */
+    private static float tangent(float[] z, int[] hull, int size, int k) {
+        int lo = 0, hi = size - 1; // from the right
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (slope(z,hull[mid + 1],k) > slope(z,hull[mid],k)) lo = mid + 1;
+            else hi = mid;
+        } return slope(z,hull[lo],k);
+    }
+
+    /**
+     * @param x texel x
+     * @param y texel y
+     * @param azimuth radians, direction towards the light
+     * @return horizon angle (radians) interpolated between the two nearest bins
+     */
+    public float horizon(int x, int y, float azimuth) {
+        float f = (azimuth / TWO_PI) * bins;
+        f -= (float) Math.floor(f / bins) * bins;
+        int bin0 = (int) f;
+        float t = f - bin0;
+        bin0 = bin0 % bins;
+        int bin1 = (bin0 + 1) % bins;
+        int index = y * width + x;
+        float h0 = (horizon[bin0][index] & 0xFF);
+        float h1 = (horizon[bin1][index] & 0xFF);
+        return (h0 + (h1 - h0) * t) / 255.0f * PI_HALF;
+    }
+
+    /**
+     * Writes the shadow map. Call update() first.
+     * Point lights are supported (direction per texel).
+     */
+    public void shadows(ForkJoinPool pool, CpuProject project, PipelineSettings settings) {
+        ByteBuffer depth = project.depth();
+        ByteBuffer shadow = project.shadowRaw();
+        TileTask.invoke(pool,width,height,(x0, y0, x1, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    int i = y * width + x;
+                    float dx = settings.light_position.x;
+                    float dy = settings.light_position.y;
+                    float dz = settings.light_position.z;
+                    if (settings.point_light) {
+                        float z = ((depth.get(i) & 0xFF) / 255f * 2.0f - 1.0f) * settings.depth_amplitude;
+                        dx -= settings.project_position.x + x + 0.5f;
+                        dy -= settings.project_position.y + y + 0.5f;
+                        dz -= z;
+                    } float xy = (float) Math.sqrt(dx * dx + dy * dy);
+                    float elevation = (float) Math.atan2(dz,xy);
+                    float color = 1.0f;
+                    if (xy > 0) {
+                        float h = horizon(x,y,(float) Math.atan2(dy,dx));
+                        float visibility = Math.max(0.0f,Math.min(1.0f,0.5f + (elevation - h) / penumbra));
+                        color = 1.0f - strength * (1.0f - visibility);
+                    } shadow.put(i,CpuProject.unorm(color));
+                }
+            }
+        });
+    }
+
+    /** @param penumbra soft transition (radians) around the horizon */
+    public void setPenumbra(float penumbra) {
+        this.penumbra = Math.max(1e-4f,penumbra);
+    }
+
+    /** @param strength 0 -> 1, 1 is black in full shadow */
+    public void setStrength(float strength) {
+        this.strength = Math.max(0.0f,Math.min(1.0f,strength));
+    }
+
+    public void invalidate() {
+        built = false;
+    }
+
+    public int bins() {
+        return bins;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+}
@@ -0,0 +1,109 @@
+package io.github.heathensoft.canvas.cpu;
+
+import io.github.heathensoft.canvas.PreviewLighting;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Per tile light lists for the additional point lights (PreviewLighting.lights()).
+ * Each tile is a world space box: its texels (xy) and the min / max of its depth samples (z).
+ * A light is listed for a tile if its radius reaches the box. The lists are stored back to back (offsets / indices).
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class LightCulling {
+
+    public static final int TILE_SIZE = 16;
+
+    private final PreviewLighting.PointLight[] lights;
+    private final int tiles_x;
+    private final int tiles_y;
+    private final int[] offsets; // tile -> first index. offsets[tiles] = total
+    private final int[] indices;
+
+    public LightCulling(CpuProject project, PipelineSettings settings) {
+        List<PreviewLighting.PointLight> list = settings.lights;
+        int width = project.width();
+        int height = project.height();
+        lights = list.toArray(new PreviewLighting.PointLight[0]);
+        tiles_x = (width + TILE_SIZE - 1) / TILE_SIZE;
+        tiles_y = (height + TILE_SIZE - 1) / TILE_SIZE;
+        offsets = new int[tiles_x * tiles_y + 1];
+        float[] radius_squared = new float[lights.length];
+        for (int l = 0; l < lights.length; l++) {
+            float radius = lights[l].radius();
+            radius_squared[l] = radius * radius;
+        }
+        ByteBuffer depth = project.depth();
+        float amplitude = settings.depth_amplitude;
+        int[] list_buffer = new int[tiles_x * tiles_y * Math.max(1,lights.length)];
+        int count = 0;
+        for (int ty = 0; ty < tiles_y; ty++) {
+            int y0 = ty * TILE_SIZE;
+            int y1 = Math.min(height,y0 + TILE_SIZE);
+            for (int tx = 0; tx < tiles_x; tx++) {
+                int x0 = tx * TILE_SIZE;
+                int x1 = Math.min(width,x0 + TILE_SIZE);
+                int min = 255, max = 0;
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        int d = depth.get(y * width + x) & 0xFF;
+                        min = Math.min(min,d);
+                        max = Math.max(max,d);
+                    }
+                }
+                float min_x = settings.project_position.x + x0;
+                float max_x = settings.project_position.x + x1;
+                float min_y = settings.project_position.y + y0;
+                float max_y = settings.project_position.y + y1;
+                float min_z = (min / 255f * 2.0f - 1.0f) * amplitude;
+                float max_z = (max / 255f * 2.0f - 1.0f) * amplitude;
+                offsets[ty * tiles_x + tx] = count;
+                for (int l = 0; l < lights.length; l++) {
+                    float dx = distance(lights[l].position.x,min_x,max_x);
+                    float dy = distance(lights[l].position.y,min_y,max_y);
+                    float dz = distance(lights[l].position.z,min_z,max_z);
+                    if (dx * dx + dy * dy + dz * dz <= radius_squared[l]) {
+                        list_buffer[count++] = l;
+                    }
+                }
+            }
+        } offsets[tiles_x * tiles_y] = count;
+        indices = new int[count];
+        System.arraycopy(list_buffer,0,indices,0,count);
+    }
+
+    /** @return index of the tile containing the texel */
+    public int tile(int x, int y) {
+        return (y / TILE_SIZE) * tiles_x + (x / TILE_SIZE);
+    }
+
+    public int first(int tile) {
+        return offsets[tile];
+    }
+
+    public int end(int tile) {
+        return offsets[tile + 1];
+    }
+
+    public PreviewLighting.PointLight light(int index) {
+        return lights[indices[index]];
+    }
+
+    public int lightCount() {
+        return lights.length;
+    }
+
+    /** @return average number of lights per tile */
+    public float averagePerTile() {
+        return indices.length / (float) (tiles_x * tiles_y);
+    }
+
+    private static float distance(float p, float min, float max) {
+        return p < min ? min - p : (p > max ? p - max : 0.0f);
+    }
+}
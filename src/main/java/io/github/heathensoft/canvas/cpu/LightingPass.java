@@ -0,0 +1,220 @@
+package io.github.heathensoft.canvas.cpu;
+
+import io.github.heathensoft.canvas.ENUM;
+import io.github.heathensoft.canvas.PreviewLighting;
+
+import java.nio.ByteBuffer;
+
+/**
+ * texture_lighting.frag
+ * Writes the preview. The result is blended (SRC_ALPHA, ONE_MINUS_SRC_ALPHA) onto a cleared buffer.
+ * Additional point lights (diffuse and specular) are evaluated from the texel's tile list (LightCulling).
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class LightingPass {
+
+    public static final float DIR_LIGHT_WRAP = 0.33334f;
+    public static final float CAMERA_VIRTUAL_Z = 512.0f;
+    public static final float DEFAULT_SHINE_EXPONENT = 128.0f;
+    public static final float SKY_R = 0.44f, SKY_G = 0.12f, SKY_B = 0.97f;
+    private static final float AMBIENT_WRAP = 0.33f;
+    private static final float GAMMA_INV = 1.0f / 2.2f;
+
+    public static float energyConservation(float shine) {
+        return (float) (( 8.0 + shine ) / ( 8.0 * Math.PI ));
+    }
+
+    /**
+     * @param palette RGB8 3D lut, size^3 texels. Null to ignore preview_palette
+     * @param palette_size texels per axis
+     * @param culling per tile lists of the additional lights. Null if there are none
+     */
+    public static void process(CpuProject project, PipelineSettings settings, ByteBuffer palette,
+            int palette_size, LightCulling culling, int x0, int y0, int x1, int y1) {
+        ByteBuffer color = project.colorSource();
+        ByteBuffer depth = project.depth();
+        ByteBuffer specular = project.frontBuffer(ENUM.Channel.SPECULAR);
+        ByteBuffer emissive = project.frontBuffer(ENUM.Channel.EMISSIVE);
+        ByteBuffer shadows = project.shadow();
+        ByteBuffer normals = project.normals();
+        ByteBuffer occlusion = project.occlusion();
+        ByteBuffer preview = project.preview();
+        int width = project.width();
+        ENUM.PreviewDisplay display = settings.preview_display;
+        boolean use_palette = settings.preview_palette && palette != null;
+        float[] rgb = new float[3];
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                int i = y * width + x;
+                float alpha = (color.get(i * 4 + 3) & 0xFF) / 255f;
+                if (display == ENUM.PreviewDisplay.DEPTH_MAP) {
+                    float v = (occlusion.get(i) & 0xFF) / 255f;
+                    rgb[0] = rgb[1] = rgb[2] = v;
+                } else if (display == ENUM.PreviewDisplay.NORMAL_MAP) {
+                    rgb[0] = (normals.get(i * 3) & 0xFF) / 255f;
+                    rgb[1] = (normals.get(i * 3 + 1) & 0xFF) / 255f;
+                    rgb[2] = (normals.get(i * 3 + 2) & 0xFF) / 255f;
+                } else if (display == ENUM.PreviewDisplay.SHADOW_MAP) {
+                    float v = (shadows.get(i) & 0xFF) / 255f;
+                    rgb[0] = rgb[1] = rgb[2] = v;
+                } else {
+                    rgb[0] = CpuProject.srgbToLinear(color.get(i * 4));
+                    rgb[1] = CpuProject.srgbToLinear(color.get(i * 4 + 1));
+                    rgb[2] = CpuProject.srgbToLinear(color.get(i * 4 + 2));
+                    if (settings.preview_lighting) {
+                        float shadow = settings.preview_shadow ? (shadows.get(i) & 0xFF) / 255f : 1.0f;
+                        light(settings,culling,rgb,x,y,
+                                (depth.get(i) & 0xFF) / 255f,
+                                normals.get(i * 3) & 0xFF,
+                                normals.get(i * 3 + 1) & 0xFF,
+                                normals.get(i * 3 + 2) & 0xFF,
+                                (specular.get(i) & 0xFF) / 255f,
+                                (emissive.get(i) & 0xFF) / 255f,
+                                (occlusion.get(i) & 0xFF) / 255f,
+                                shadow);
+                    } for (int c = 0; c < 3; c++) {
+                        rgb[c] = (float) Math.pow(rgb[c],GAMMA_INV);
+                    } if (use_palette) {
+                        samplePalette(palette,palette_size,rgb);
+                    }
+                }
+                int o = i * 4;
+                preview.put(o,CpuProject.unorm(rgb[0] * alpha));
+                preview.put(o + 1,CpuProject.unorm(rgb[1] * alpha));
+                preview.put(o + 2,CpuProject.unorm(rgb[2] * alpha));
+                preview.put(o + 3,CpuProject.unorm(alpha * alpha));
+            }
+        }
+    }
+
+    private static void light(PipelineSettings settings, LightCulling culling, float[] rgb, int x, int y, float depth_sample,
+            int normal_r, int normal_g, int normal_b, float spec_sample, float emis, float ambi, float shadow) {
+        float nx = normal_r / 255f * 2.0f - 1.0f;
+        float ny = normal_g / 255f * 2.0f - 1.0f;
+        float nz = normal_b / 255f * 2.0f - 1.0f;
+        float inv = invLength(nx,ny,nz);
+        nx *= inv; ny *= inv; nz *= inv;
+        float fx = settings.project_position.x + x + 0.5f;
+        float fy = settings.project_position.y + y + 0.5f;
+        float fz = (depth_sample * 2.0f - 1.0f) * settings.depth_amplitude;
+        float ex = settings.camera_position.x - fx;
+        float ey = settings.camera_position.y - fy;
+        float ez = CAMERA_VIRTUAL_Z * settings.camera_zoom - fz;
+        inv = invLength(ex,ey,ez);
+        ex *= inv; ey *= inv; ez *= inv;
+        float lr = settings.light_color.x;
+        float lg = settings.light_color.y;
+        float lb = settings.light_color.z;
+        float dott = clamp(ny + AMBIENT_WRAP,0.0f,AMBIENT_WRAP + 1.0f) / (AMBIENT_WRAP + 1.0f);
+        float amb_r, amb_g, amb_b, diff_s, spec_s, light_d, light_s, emis_s;
+        if (settings.point_light) {
+            float lx = settings.light_position.x - fx;
+            float ly = settings.light_position.y - fy;
+            float lz = settings.light_position.z - fz;
+            float d = (float) Math.sqrt(lx * lx + ly * ly + lz * lz);
+            lx /= d; ly /= d; lz /= d;
+            float diff = Math.max(nx * lx + ny * ly + nz * lz,0.0f);
+            float spec_factor = specFactor(nx,ny,nz,lx,ly,lz,ex,ey,ez);
+            PreviewLighting.Attenuation att = settings.attenuation();
+            float att_inv = 1.0f / (att.constant() + att.linear() * d + att.quadratic() * d * d);
+            float influence = 0.25f;
+            float intensity = 0.4f;
+            float a = settings.light_ambience * ((att_inv * (1.0f - influence)) / 2.0f);
+            float s = intensity * dott * (((1.0f - att_inv) * influence) / 2.0f);
+            amb_r = lr * a + SKY_R * s;
+            amb_g = lg * a + SKY_G * s;
+            amb_b = lb * a + SKY_B * s;
+            diff_s = diff * shadow;
+            spec_s = spec_factor * spec_sample * shadow;
+            light_d = settings.light_diffuse * att_inv;
+            light_s = att_inv;
+            emis_s = emis;
+        } else {
+            float lx = settings.light_position.x;
+            float ly = settings.light_position.y;
+            float lz = settings.light_position.z;
+            inv = invLength(lx,ly,lz);
+            lx *= inv; ly *= inv; lz *= inv;
+            float diff = clamp(nx * lx + ny * ly + nz * lz + DIR_LIGHT_WRAP,0.0f,DIR_LIGHT_WRAP + 1.0f) / (DIR_LIGHT_WRAP + 1.0f);
+            float spec_factor = energyConservation(DEFAULT_SHINE_EXPONENT) * specFactor(nx,ny,nz,lx,ly,lz,ex,ey,ez);
+            float ratio = 1.0f - clamp(lz,0.0f,1.0f);
+            float a = settings.light_ambience * (1.0f - ratio);
+            amb_r = lr * a + SKY_R * dott * ratio;
+            amb_g = lg * a + SKY_G * dott * ratio;
+            amb_b = lb * a + SKY_B * dott * ratio;
+            diff_s = diff * shadow * (1.0f - ratio);
+            spec_s = spec_factor * spec_sample * shadow * (1.0f - ratio);
+            light_d = settings.light_diffuse;
+            light_s = 1.0f;
+            emis_s = emis * ratio * ratio;
+        }
+        float dr = lr * light_d * diff_s + lr * light_s * spec_s;
+        float dg = lg * light_d * diff_s + lg * light_s * spec_s;
+        float db = lb * light_d * diff_s + lb * light_s * spec_s;
+        if (culling != null) {
+            int tile = culling.tile(x,y);
+            for (int k = culling.first(tile), end = culling.end(tile); k < end; k++) {
+                PreviewLighting.PointLight light = culling.light(k);
+                float lx = light.position.x - fx;
+                float ly = light.position.y - fy;
+                float lz = light.position.z - fz;
+                float d = (float) Math.sqrt(lx * lx + ly * ly + lz * lz);
+                lx /= d; ly /= d; lz /= d;
+                PreviewLighting.Attenuation att = light.attenuation();
+                float att_inv = 1.0f / (att.constant() + att.linear() * d + att.quadratic() * d * d);
+                float diff = Math.max(nx * lx + ny * ly + nz * lz,0.0f) * light.diffuseStrength();
+                float spec = spec_sample > 0.0f ? specFactor128(nx,ny,nz,lx,ly,lz,ex,ey,ez) * spec_sample : 0.0f;
+                float strength = (diff + spec) * att_inv;
+                dr += light.color.r * strength;
+                dg += light.color.g * strength;
+                db += light.color.b * strength;
+            }
+        }
+        rgb[0] = clamp(rgb[0] * (amb_r * ambi + dr + emis_s),0.0f,1.0f);
+        rgb[1] = clamp(rgb[1] * (amb_g * ambi + dg + emis_s),0.0f,1.0f);
+        rgb[2] = clamp(rgb[2] * (amb_b * ambi + db + emis_s),0.0f,1.0f);
+    }
+
+    private static float specFactor(float nx, float ny, float nz, float lx, float ly, float lz, float ex, float ey, float ez) {
+        float hx = lx + ex;
+        float hy = ly + ey;
+        float hz = lz + ez;
+        float inv = invLength(hx,hy,hz);
+        float dot = Math.max((nx * hx + ny * hy + nz * hz) * inv,0.0f);
+        return (float) Math.pow(dot,DEFAULT_SHINE_EXPONENT);
+    }
+
+    /** specFactor for DEFAULT_SHINE_EXPONENT (128) by repeated squaring. For the per tile lights */
+    private static float specFactor128(float nx, float ny, float nz, float lx, float ly, float lz, float ex, float ey, float ez) {
+        float hx = lx + ex;
+        float hy = ly + ey;
+        float hz = lz + ez;
+        float inv = invLength(hx,hy,hz);
+        float dot = Math.max((nx * hx + ny * hy + nz * hz) * inv,0.0f);
+        for (int i = 0; i < 7; i++) dot *= dot;
+        return dot;
+    }
+
+    /** GL_NEAREST lookup. The lut is indexed (x = red, y = green, z = blue) */
+    public static void samplePalette(ByteBuffer palette, int size, float[] rgb) {
+        int r = Math.min(size - 1,(int) (rgb[0] * size));
+        int g = Math.min(size - 1,(int) (rgb[1] * size));
+        int b = Math.min(size - 1,(int) (rgb[2] * size));
+        int index = ((b * size + g) * size + r) * 3;
+        rgb[0] = (palette.get(index) & 0xFF) / 255f;
+        rgb[1] = (palette.get(index + 1) & 0xFF) / 255f;
+        rgb[2] = (palette.get(index + 2) & 0xFF) / 255f;
+    }
+
+    private static float invLength(float x, float y, float z) {
+        return 1.0f / (float) Math.sqrt(x * x + y * y + z * z);
+    }
+
+    private static float clamp(float v, float min, float max) {
+        return v < min ? min : (v > max ? max : v);
+    }
+}
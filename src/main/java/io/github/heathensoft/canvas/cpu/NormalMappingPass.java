@@ -0,0 +1,90 @@
+package io.github.heathensoft.canvas.cpu;
+
+import org.tinylog.Logger;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+
+/**
+ * texture_normal_mapping.frag
+ * Central differences of the depth map. Flat blue where the color source is transparent.
+ * NormalMappingVector is opt in (-Dcanvas.vector=true, jdk.incubator.vector must be present).
+ * It lives in its own source set (src/vector, gradle vectorJar) so the main build never touches the
+ * incubator module, and is looked up by name when enabled.
+ * The scalar loop stays the default until the jmh benchmark (src/jmh) shows the vector kernel winning.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class NormalMappingPass {
+
+    public static final boolean VECTOR_API = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    private static final String VECTOR_KERNEL_CLASS = "io.github.heathensoft.canvas.cpu.NormalMappingVector";
+    private static final MethodHandle VECTOR_KERNEL = vectorKernel();
+    public static final boolean USE_VECTOR_API = VECTOR_KERNEL != null;
+
+    public static void process(CpuProject project, PipelineSettings settings, int x0, int y0, int x1, int y1) {
+        if (USE_VECTOR_API) {
+            try { VECTOR_KERNEL.invokeExact(project,settings,x0,y0,x1,y1);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        } else processScalar(project,settings,x0,y0,x1,y1);
+    }
+
+    public static void processScalar(CpuProject project, PipelineSettings settings, int x0, int y0, int x1, int y1) {
+        ByteBuffer color = project.colorSource();
+        ByteBuffer depth = project.depth();
+        ByteBuffer normals = project.normals();
+        int width = project.width();
+        int xlim = width - 1;
+        int ylim = project.height() - 1;
+        float amp = settings.depth_amplitude;
+        for (int y = y0; y < y1; y++) {
+            int row = y * width;
+            for (int x = x0; x < x1; x++) {
+                int i = row + x;
+                int o = i * 3;
+                if (color.get(i * 4 + 3) != 0) {
+                    float d = normalDepth(depth.get(i),amp);
+                    float hr = x < xlim ? normalDepth(depth.get(i + 1),amp) : d;
+                    float hu = y < ylim ? normalDepth(depth.get(i + width),amp) : d;
+                    float hl = x > 0 ? normalDepth(depth.get(i - 1),amp) : d;
+                    float hd = y > 0 ? normalDepth(depth.get(i - width),amp) : d;
+                    float nx = hl - hr;
+                    float ny = hd - hu;
+                    float inv = 1.0f / (float) Math.sqrt(nx * nx + ny * ny + 4.0f);
+                    normals.put(o,CpuProject.unorm(nx * inv * 0.5f + 0.5f));
+                    normals.put(o + 1,CpuProject.unorm(ny * inv * 0.5f + 0.5f));
+                    normals.put(o + 2,CpuProject.unorm(2.0f * inv * 0.5f + 0.5f));
+                } else {
+                    normals.put(o,(byte) 0x80);
+                    normals.put(o + 1,(byte) 0x80);
+                    normals.put(o + 2,(byte) 0xFF);
+                }
+            }
+        }
+    }
+
+    private static MethodHandle vectorKernel() {
+        if (!VECTOR_API || !Boolean.getBoolean("canvas.vector")) return null;
+        try { Class<?> kernel = Class.forName(VECTOR_KERNEL_CLASS);
+            MethodType type = MethodType.methodType(void.class,CpuProject.class,PipelineSettings.class,
+            int.class,int.class,int.class,int.class);
+            return MethodHandles.publicLookup().findStatic(kernel,"process",type);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            Logger.warn("canvas.vector set, vector kernel unavailable ({}). Using the scalar pass",e.toString());
+            return null;
+        }
+    }
+
+    private static float normalDepth(byte depth, float amp) {
+        return (2.0f * ((depth & 0xFF) / 255f) - 1.0f) * amp;
+    }
+}
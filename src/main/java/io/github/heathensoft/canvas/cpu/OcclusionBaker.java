@@ -0,0 +1,63 @@
+package io.github.heathensoft.canvas.cpu;
+
+import io.github.heathensoft.jlib.common.utils.Area;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Bakes ambient occlusion from the depth and normals of a CpuProject.
+ * texture_ambient_occlusion.frag followed by texture_smoothen.frag (twice, as in the editor).
+ * Deterministic for a given kernel. Use a larger kernel for offline (export) quality.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class OcclusionBaker {
+
+    private final ForkJoinPool pool;
+    private OcclusionKernel kernel;
+
+    public OcclusionBaker() {
+        this(ForkJoinPool.commonPool(),OcclusionKernel.DEFAULT);
+    }
+
+    public OcclusionBaker(ForkJoinPool pool, OcclusionKernel kernel) {
+        this.pool = pool;
+        this.kernel = kernel;
+    }
+
+    /** Writes project.occlusion(). Requires up-to-date depth and normals */
+    public void bake(CpuProject project, PipelineSettings settings) {
+        bake(project,settings,project.area());
+    }
+
+    /**
+     * Recomputes the raw occlusion within the area, and the smoothened occlusion within area + 2.
+     * Raw occlusion outside the area must be valid.
+     * @param area the area (inclusive) where the raw occlusion has changed
+     */
+    public void bake(CpuProject project, PipelineSettings settings, Area area) {
+        final OcclusionKernel k = kernel;
+        TileTask.invoke(pool,area.minX(),area.minY(),area.maxX() + 1,area.maxY() + 1,
+                (x0, y0, x1, y1) -> OcclusionPass.process(project,settings,k,x0,y0,x1,y1));
+        Area smoothened = new Area(area);
+        smoothened.expand(2);
+        project.area().intersection(smoothened);
+        SmoothenPass.apply(pool,project,project.occlusionRaw(),project.occlusion(),smoothened);
+    }
+
+    /** @return how far (texels) a change in depth affects the raw occlusion */
+    public int halo() {
+        return (int) Math.ceil(kernel.radius()) + 1;
+    }
+
+    public void setKernel(OcclusionKernel kernel) {
+        this.kernel = kernel == null ? OcclusionKernel.DEFAULT : kernel;
+    }
+
+    public OcclusionKernel kernel() {
+        return kernel;
+    }
+}
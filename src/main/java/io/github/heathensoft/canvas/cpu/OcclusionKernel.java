@@ -0,0 +1,75 @@
+package io.github.heathensoft.canvas.cpu;
+
+import org.joml.Vector3f;
+
+import java.util.Random;
+
+/**
+ * Ambient occlusion sample kernel. Seeded, so the same seed always gives the same occlusion.
+ * x and y are stratified (jittered grid, cells shuffled), z is scaled as in the original kernel:
+ * scale = 0.1 + (i / size)^2 * 0.9, z = random * scale.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class OcclusionKernel {
+
+    public static final int DEFAULT_SIZE = 128; // KERNEL_SIZE in texture_ambient_occlusion.frag
+    public static final float DEFAULT_RADIUS = 64.0f;
+    public static final long DEFAULT_SEED = 0x2545F4914F6CDD1DL;
+    public static final OcclusionKernel DEFAULT = new OcclusionKernel(DEFAULT_SIZE,DEFAULT_RADIUS,DEFAULT_SEED);
+
+    private final float[] samples;
+    private final float radius;
+    private final long seed;
+
+    public OcclusionKernel(int size, float radius, long seed) {
+        if (size <= 0) throw new IllegalArgumentException("size <= 0");
+        if (radius <= 0) throw new IllegalArgumentException("radius <= 0");
+        this.samples = new float[size * 3];
+        this.radius = radius;
+        this.seed = seed;
+        Random rnd = new Random(seed);
+        int grid = (int) Math.ceil(Math.sqrt(size));
+        int[] cells = new int[grid * grid];
+        for (int i = 0; i < cells.length; i++) cells[i] = i;
+        for (int i = cells.length - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            int tmp = cells[i];
+            cells[i] = cells[j];
+            cells[j] = tmp;
+        } for (int i = 0; i < size; i++) {
+            float scale = (float)i / (float)size;
+            scale = 0.1f + scale * scale * 0.9f;
+            int cell = cells[i];
+            float u = ((cell % grid) + rnd.nextFloat()) / grid;
+            float v = ((cell / grid) + rnd.nextFloat()) / grid;
+            samples[i * 3] = u * 2.0f - 1.0f;
+            samples[i * 3 + 1] = v * 2.0f - 1.0f;
+            samples[i * 3 + 2] = rnd.nextFloat() * scale;
+        }
+    }
+
+    /** @return (x,y,z) * size */
+    public float[] samples() {
+        return samples;
+    }
+
+    public Vector3f get(int index, Vector3f dst) {
+        return dst.set(samples[index * 3],samples[index * 3 + 1],samples[index * 3 + 2]);
+    }
+
+    public int size() {
+        return samples.length / 3;
+    }
+
+    public float radius() {
+        return radius;
+    }
+
+    public long seed() {
+        return seed;
+    }
+}
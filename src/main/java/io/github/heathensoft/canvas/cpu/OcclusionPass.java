@@ -0,0 +1,67 @@
+package io.github.heathensoft.canvas.cpu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * texture_ambient_occlusion.frag
+ * The output is not pure occlusion. It is mixed with the normal z and the depth (as in the shader).
+ * Sample count and radius are taken from the kernel (128 and 64 in the shader).
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class OcclusionPass {
+
+    public static void process(CpuProject project, PipelineSettings settings, OcclusionKernel occlusion_kernel, int x0, int y0, int x1, int y1) {
+        ByteBuffer depth = project.depth();
+        ByteBuffer normals = project.normals();
+        ByteBuffer occlusion = project.occlusionRaw();
+        int width = project.width();
+        float[] kernel = occlusion_kernel.samples();
+        float radius = occlusion_kernel.radius();
+        int num_samples = occlusion_kernel.size();
+        float amp = settings.depth_amplitude;
+        for (int y = y0; y < y1; y++) {
+            float rot_y = (y & 1) == 0 ? -1.0f : 1.0f;
+            for (int x = x0; x < x1; x++) {
+                float rot_x = (x & 1) == 0 ? -1.0f : 1.0f;
+                int i = y * width + x;
+                float nx = (normals.get(i * 3) & 0xFF) / 255f * 2.0f - 1.0f;
+                float ny = (normals.get(i * 3 + 1) & 0xFF) / 255f * 2.0f - 1.0f;
+                float nz = (normals.get(i * 3 + 2) & 0xFF) / 255f * 2.0f - 1.0f;
+                float inv = invLength(nx,ny,nz);
+                nx *= inv; ny *= inv; nz *= inv;
+                float fragment_depth = (depth.get(i) & 0xFF) / 255f;
+                float fragment_z = (fragment_depth * 2.0f - 1.0f) * amp;
+                int occluded = 0;
+                for (int s = 0; s < num_samples; s++) {
+                    float sx = kernel[s * 3] * rot_x;
+                    float sy = kernel[s * 3 + 1] * rot_y;
+                    float sz = (float) Math.sqrt(1.0f - sx * sx); // sic. (shader)
+                    float sample_length = kernel[s * 3 + 2] * radius;
+                    inv = invLength(sx,sy,sz);
+                    float vx = sx * inv + nx;
+                    float vy = sy * inv + ny;
+                    float vz = sz * inv + nz;
+                    inv = invLength(vx,vy,vz) * sample_length;
+                    float px = x + vx * inv;
+                    float py = y + vy * inv;
+                    float pz = fragment_z + vz * inv;
+                    float sample_depth = project.fetchRed(depth,(int) Math.floor(px),(int) Math.floor(py));
+                    float sample_pos_depth = ((pz / amp) + 1.0f) * 0.5f;
+                    if (sample_depth >= (sample_pos_depth + 0.00125f)) occluded++;
+                }
+                float color = 1.0f - ((float) occluded / num_samples);
+                color *= color;
+                float normal_z = (nz + 1.0f) * 0.5f;
+                occlusion.put(i,CpuProject.unorm((5.0f * color + 2.0f * normal_z + fragment_depth) / 8.0f));
+            }
+        }
+    }
+
+    private static float invLength(float x, float y, float z) {
+        return 1.0f / (float) Math.sqrt(x * x + y * y + z * z);
+    }
+}
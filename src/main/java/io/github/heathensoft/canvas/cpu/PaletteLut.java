@@ -0,0 +1,119 @@
+package io.github.heathensoft.canvas.cpu;
+
+import io.github.heathensoft.jlib.lwjgl.graphics.Color;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Nearest palette color (CIE-LAB distance) for every cell of a size^3 RGB cube.
+ * Same lut as jlib Palette, built in parallel: the cube is split into (green, blue) tiles,
+ * each tile runs the red axis. The sRGB linearization is tabled per axis.
+ * Layout: ((blue * size + green) * size + red) * 3. Same as the Palette texture (see LightingPass.samplePalette).
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class PaletteLut {
+
+    private static final float WHITE_X = 95.047f, WHITE_Y = 100.000f, WHITE_Z = 108.883f;
+
+    /**
+     * @param colors palette colors (alpha ignored). Not empty
+     * @param size texels per axis
+     * @return RGB8 lut, size^3 * 3 bytes (direct)
+     */
+    public static ByteBuffer build(ForkJoinPool pool, List<Color> colors, int size) {
+        if (colors.isEmpty()) throw new IllegalArgumentException("empty palette");
+        final int count = colors.size();
+        final float[] palette_lab = new float[count * 3];
+        final byte[] palette_rgb = new byte[count * 3];
+        float[] lab = new float[3];
+        for (int i = 0; i < count; i++) {
+            Color color = colors.get(i);
+            toLAB(linear(color.r),linear(color.g),linear(color.b),lab);
+            System.arraycopy(lab,0,palette_lab,i * 3,3);
+            palette_rgb[i * 3] = (byte) ((int) (255 * color.r) & 0xFF);
+            palette_rgb[i * 3 + 1] = (byte) ((int) (255 * color.g) & 0xFF);
+            palette_rgb[i * 3 + 2] = (byte) ((int) (255 * color.b) & 0xFF);
+        }
+        final float[] axis = new float[size];
+        for (int i = 0; i < size; i++) axis[i] = linear(i / (float) size);
+        final ByteBuffer lut = ByteBuffer.allocateDirect(size * size * size * 3);
+        TileTask.invoke(pool,size,size,(x0, y0, x1, y1) -> {
+            float[] sample = new float[3];
+            for (int blue = y0; blue < y1; blue++) {
+                for (int green = x0; green < x1; green++) {
+                    int index = ((blue * size + green) * size) * 3;
+                    for (int red = 0; red < size; red++, index += 3) {
+                        toLAB(axis[red],axis[green],axis[blue],sample);
+                        int closest = 0;
+                        float d_min = Float.MAX_VALUE;
+                        for (int i = 0; i < count; i++) {
+                            float dl = palette_lab[i * 3] - sample[0];
+                            float da = palette_lab[i * 3 + 1] - sample[1];
+                            float db = palette_lab[i * 3 + 2] - sample[2];
+                            float d = dl * dl + da * da + db * db;
+                            if (d < d_min) {
+                                d_min = d;
+                                closest = i;
+                            }
+                        }
+                        lut.put(index,palette_rgb[closest * 3]);
+                        lut.put(index + 1,palette_rgb[closest * 3 + 1]);
+                        lut.put(index + 2,palette_rgb[closest * 3 + 2]);
+                    }
+                }
+            }
+        });
+        return lut;
+    }
+
+    /**
+     * @return SHA-256 (hex) of the lut size and the palette colors (RGB8). Used as the cache key
+     */
+    public static String key(List<Color> colors, int size) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(("lut " + size + ";").getBytes(StandardCharsets.US_ASCII));
+            for (Color color : colors) {
+                digest.update((byte) (int) (255 * color.r));
+                digest.update((byte) (int) (255 * color.g));
+                digest.update((byte) (int) (255 * color.b));
+            } StringBuilder builder = new StringBuilder(64);
+            for (byte b : digest.digest()) {
+                builder.append(Character.forDigit((b >> 4) & 0xF,16));
+                builder.append(Character.forDigit(b & 0xF,16));
+            } return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** sRGB to linear * 100 */
+    private static float linear(float c) {
+        if (c > 0.04045) c = (float) Math.pow( ((c + 0.055f) / 1.055f ), 2.4f); else c /= 12.92f;
+        return c * 100;
+    }
+
+    private static void toLAB(float r, float g, float b, float[] dest) {
+        float x = (float) (r * 0.4124 + g * 0.3576 + b * 0.1805) / WHITE_X;
+        float y = (float) (r * 0.2126 + g * 0.7152 + b * 0.0722) / WHITE_Y;
+        float z = (float) (r * 0.0193 + g * 0.1192 + b * 0.9505) / WHITE_Z;
+        x = f(x); y = f(y); z = f(z);
+        dest[0] = ( 116f * y ) - 16;
+        dest[1] = 500f * ( x - y );
+        dest[2] = 200f * ( y - z );
+    }
+
+    private static float f(float t) {
+        if (t > 0.008856) return (float) Math.pow(t,1/3f);
+        return ( 7.787f * t ) + 16/116f;
+    }
+}
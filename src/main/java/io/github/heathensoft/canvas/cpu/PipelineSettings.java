@@ -0,0 +1,132 @@
+package io.github.heathensoft.canvas.cpu;
+
+import io.github.heathensoft.canvas.Brush;
+import io.github.heathensoft.canvas.Editor;
+import io.github.heathensoft.canvas.ENUM;
+import io.github.heathensoft.canvas.PreviewLighting;
+import io.github.heathensoft.canvas.Project;
+import io.github.heathensoft.jlib.lwjgl.graphics.Color;
+import org.joml.Vector2f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everything the shaders read from the uniform blocks (Editor, Brush and Light blocks).
+ * Defaults are the same as the Editor / PreviewLighting defaults.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class PipelineSettings {
+
+    public ENUM.Channel channel = ENUM.Channel.DEFAULT;
+    public ENUM.PreviewDisplay preview_display = ENUM.PreviewDisplay.DEFAULT;
+    public ENUM.BrushTool brush_tool = ENUM.BrushTool.DEFAULT;
+    public ENUM.BrushFunction brush_function = ENUM.BrushFunction.DEFAULT;
+    public int brush_color = Brush.DEFAULT_COLOR;
+
+    public float depth_amplitude = Editor.DEPTH_AMPLITUDE_DEFAULT;
+    public float detail_to_volume_ratio = Editor.DETAIL_TO_VOLUME_RATIO_DEFAULT;
+    public boolean preview_lighting = true;
+    public boolean preview_shadow = true;
+    public boolean preview_palette = false;
+    public boolean preview_bloom = true;
+    public float bloom_threshold = Editor.BLOOM_THRESHOLD_DEFAULT;
+    public float bloom_intensity = Editor.BLOOM_INTENSITY_DEFAULT;
+
+    public final Vector2f project_position = new Vector2f(); // bounds.xy (world)
+    public final Vector3f camera_position = new Vector3f();
+    public float camera_zoom = 1.0f;
+
+    public final Vector3f light_position = new Vector3f(-16,-16,30);
+    public final Vector3f light_color = new Vector3f(1,1,1);
+    public float light_ambience = 0.4f;
+    public float light_diffuse = 0.7f;
+    public float light_brightness = 4.0f; // attenuation preset index
+    public boolean point_light = false;
+    public final List<PreviewLighting.PointLight> lights = new ArrayList<>(); // additional point lights
+
+    public PipelineSettings() { }
+
+    public PipelineSettings(PipelineSettings settings) {
+        set(settings);
+    }
+
+    public void set(PipelineSettings s) {
+        channel = s.channel;
+        preview_display = s.preview_display;
+        brush_tool = s.brush_tool;
+        brush_function = s.brush_function;
+        brush_color = s.brush_color;
+        depth_amplitude = s.depth_amplitude;
+        detail_to_volume_ratio = s.detail_to_volume_ratio;
+        preview_lighting = s.preview_lighting;
+        preview_shadow = s.preview_shadow;
+        preview_palette = s.preview_palette;
+        preview_bloom = s.preview_bloom;
+        bloom_threshold = s.bloom_threshold;
+        bloom_intensity = s.bloom_intensity;
+        project_position.set(s.project_position);
+        camera_position.set(s.camera_position);
+        camera_zoom = s.camera_zoom;
+        light_position.set(s.light_position);
+        light_color.set(s.light_color);
+        light_ambience = s.light_ambience;
+        light_diffuse = s.light_diffuse;
+        light_brightness = s.light_brightness;
+        point_light = s.point_light;
+        lights.clear();
+        for (PreviewLighting.PointLight light : s.lights) {
+            lights.add(new PreviewLighting.PointLight(light));
+        }
+    }
+
+    /**
+     * Copies the current editor state. So the cpu output can be compared with the preview.
+     */
+    public void set(Editor editor) {
+        Brush brush = editor.brush();
+        PreviewLighting lighting = editor.lighting();
+        Color color = lighting.color();
+        channel = editor.currentChannel();
+        preview_display = editor.previewDisplay();
+        brush_tool = brush.tool();
+        brush_function = brush.function();
+        brush_color = brush.colorValue();
+        depth_amplitude = editor.depthAmplitude();
+        detail_to_volume_ratio = editor.detailVolumeRatio();
+        preview_lighting = editor.previewLighting();
+        preview_shadow = editor.previewShadow();
+        preview_palette = editor.previewPalette();
+        preview_bloom = editor.previewBloom();
+        bloom_threshold = editor.bloomThreshold();
+        bloom_intensity = editor.bloomIntensity();
+        Project project = editor.activeProject();
+        if (project != null) {
+            Vector4f bounds = project.bounds();
+            project_position.set(bounds.x,bounds.y);
+        } camera_position.set(editor.camera().position);
+        camera_zoom = editor.camera().zoom;
+        light_position.set(lighting.position());
+        light_color.set(color.r,color.g,color.b);
+        light_ambience = lighting.ambience();
+        light_diffuse = lighting.diffuseStrength();
+        light_brightness = lighting.brightness() * PreviewLighting.PRESETS.length;
+        point_light = lighting.usingPointLight();
+        lights.clear();
+        for (PreviewLighting.PointLight light : lighting.lights()) {
+            lights.add(new PreviewLighting.PointLight(light));
+        }
+    }
+
+    public PreviewLighting.Attenuation attenuation() {
+        int index = (int) light_brightness;
+        index = Math.max(0,Math.min(PreviewLighting.PRESETS.length - 1, index));
+        return PreviewLighting.PRESETS[index];
+    }
+}
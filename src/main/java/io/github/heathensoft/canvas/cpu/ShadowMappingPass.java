@@ -0,0 +1,84 @@
+package io.github.heathensoft.canvas.cpu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * texture_shadow_mapping.frag
+ * Marches from each texel towards the light. Max 128 samples.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class ShadowMappingPass {
+
+    public static final float MAX_SHADOW_LENGTH = 64.0f;
+    public static final float SAMPLE_DENSITY = 8.0f;
+    public static final int MAX_SAMPLES = 128;
+    private static final double PI_HALF = Math.PI / 2.0;
+
+    public static void process(CpuProject project, PipelineSettings settings, int x0, int y0, int x1, int y1) {
+        ByteBuffer depth = project.depth();
+        ByteBuffer shadow_map = project.shadowRaw();
+        int width = project.width();
+        int height = project.height();
+        float amp = settings.depth_amplitude;
+        float lx = settings.light_position.x;
+        float ly = settings.light_position.y;
+        float lz = settings.light_position.z;
+        boolean point_light = settings.point_light;
+        float ox = settings.project_position.x;
+        float oy = settings.project_position.y;
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                int i = y * width + x;
+                float fragment_depth = (depth.get(i) & 0xFF) / 255f;
+                float fragment_z = (fragment_depth * 2.0f - 1.0f) * amp;
+                float dx, dy, dz;
+                if (point_light) {
+                    dx = lx - (ox + x + 0.5f);
+                    dy = ly - (oy + y + 0.5f);
+                    dz = lz - fragment_z;
+                } else {
+                    dx = lx; dy = ly; dz = lz;
+                } float inv = 1.0f / (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+                dx *= inv; dy *= inv; dz *= inv;
+                double A = Math.abs(PI_HALF - Math.acos(dz));
+                double C = PI_HALF - A;
+                double sinC = Math.sin(C);
+                double b = (amp - fragment_z) / Math.sin(A);
+                double c = b * sinC;
+                if (c > MAX_SHADOW_LENGTH) {
+                    c = MAX_SHADOW_LENGTH;
+                    b = c / sinC;
+                } int num_samples = (int) Math.max(1,Math.min(MAX_SAMPLES,Math.round(c * SAMPLE_DENSITY)));
+                float sample_delta = (float) (b / num_samples);
+                float mx = dx * sample_delta;
+                float my = dy * sample_delta;
+                float px = x + 0.5f;
+                float py = y + 0.5f;
+                float fade_step = 1.0f / num_samples;
+                float shadow = 0.0f;
+                fragment_depth += 0.001f;
+                for (int s = 0; s < num_samples; s++) {
+                    px += mx;
+                    py += my;
+                    int sx = (int) Math.floor(px);
+                    int sy = (int) Math.floor(py);
+                    sx = sx < 0 ? 0 : (sx >= width ? width - 1 : sx);
+                    sy = sy < 0 ? 0 : (sy >= height ? height - 1 : sy);
+                    float sample_depth = (depth.get(sy * width + sx) & 0xFF) / 255f;
+                    if (sample_depth > fragment_depth) {
+                        float fade_x = fade_step * (s + 1.0f);
+                        float fade = (float) Math.exp(fade_x) * (1 - fade_x);
+                        shadow += (sample_depth - fragment_depth) * fade;
+                        shadow += fade_step;
+                    }
+                }
+                float color = 1.0f - (shadow / num_samples);
+                shadow_map.put(i,CpuProject.unorm(color * color));
+            }
+        }
+    }
+}
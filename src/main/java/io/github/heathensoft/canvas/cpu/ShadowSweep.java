@@ -0,0 +1,143 @@
+package io.github.heathensoft.canvas.cpu;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Directional light shadows in O(pixels).
+ *
+ * Texels are swept along rasterized lines parallel to the light direction, starting on the light side.
+ * Each line keeps a running max-horizon of the texels behind it (monotonic deque, windowed to
+ * MAX_SHADOW_LENGTH). Every texel is pushed and popped once, regardless of the light angle.
+ *
+ * Output follows texture_shadow_mapping.frag: a texel is occluded by higher texels within the ray length
+ * (MAX_SHADOW_LENGTH cutoff), with the same sample count, depth bias and fade curve. Instead of summing
+ * up to 128 samples, the fade is integrated from the nearest occluder to the end of the ray, using the
+ * highest occluder: delta * (e - e^f * (2 - f)) + (1 - f) / n. Close to the ray marched result, not bit
+ * identical. Point lights are not supported (the direction differs per texel).
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class ShadowSweep {
+
+    private static final float E = (float) Math.E;
+    private static final float DEPTH_BIAS = 0.001f;
+
+    private final ByteBuffer depth;
+    private final ByteBuffer shadow;
+    private final int width;
+    private final int height;
+    private final float amplitude;
+    private final SweepLines lines;
+    private final float step_length; // horizontal distance per step
+    private final float slope;       // depth units per horizontal distance
+    private final int window;
+
+    /**
+     * @param depth R8 depth map
+     * @param shadow R8 output
+     * @param lx light direction x (towards the light)
+     * @param ly light direction y
+     * @param lz light direction z
+     */
+    public ShadowSweep(ByteBuffer depth, ByteBuffer shadow, int width, int height,
+                       float amplitude, float lx, float ly, float lz) {
+        this.depth = depth;
+        this.shadow = shadow;
+        this.width = width;
+        this.height = height;
+        this.amplitude = amplitude;
+        float xy = (float) Math.sqrt(lx * lx + ly * ly);
+        this.lines = new SweepLines(width,height,lx,ly);
+        this.step_length = lines.stepLength();
+        this.slope = xy == 0 ? Float.POSITIVE_INFINITY : (Math.abs(lz) / xy) / (2.0f * amplitude);
+        this.window = (int) (ShadowMappingPass.MAX_SHADOW_LENGTH / step_length);
+    }
+
+    public ShadowSweep(CpuProject project, PipelineSettings settings) {
+        this(project.depth(),project.shadowRaw(),project.width(),project.height(),settings.depth_amplitude,
+                settings.light_position.x,settings.light_position.y,settings.light_position.z);
+    }
+
+    /**
+     * The shadow map of the editor export: swept, then smoothened twice as on the gpu.
+     * @param depth R8 depth map (width * height)
+     * @return a new R8 buffer
+     */
+    public static ByteBuffer shadowMap(ForkJoinPool pool, ByteBuffer depth, int width, int height,
+                                       float amplitude, float lx, float ly, float lz) {
+        int texels = width * height;
+        ByteBuffer raw = ByteBuffer.allocateDirect(texels);
+        ByteBuffer intermediary = ByteBuffer.allocateDirect(texels);
+        new ShadowSweep(depth,raw,width,height,amplitude,lx,ly,lz).process(pool);
+        TileTask.invoke(pool,0,0,width,height,(x0, y0, x1, y1) -> SmoothenPass.process(raw,intermediary,width,height,x0,y0,x1,y1));
+        TileTask.invoke(pool,0,0,width,height,(x0, y0, x1, y1) -> SmoothenPass.process(intermediary,raw,width,height,x0,y0,x1,y1));
+        return raw;
+    }
+
+    public void process(ForkJoinPool pool) {
+        if (slope == Float.POSITIVE_INFINITY) { // light straight above
+            for (int i = 0; i < width * height; i++) shadow.put(i,(byte) 0xFF);
+        } else TileTask.invoke(pool,0,0,lines.numLines(),1,(x0, y0, x1, y1) -> processLines(x0,x1));
+    }
+
+    /** @param line0 first line (inclusive) @param line1 last line (exclusive) */
+    public void processLines(int line0, int line1) {
+        int line_length = lines.lineLength();
+        float[] line_depth = new float[line_length];
+        int[] deque = new int[line_length];
+        for (int line = line0; line < line1; line++) {
+            int head = 0, tail = 0;
+            for (int k = 0; k < line_length; k++) {
+                int index = lines.index(line,k);
+                if (index < 0) {
+                    head = tail = 0; // outside the texture
+                    continue;
+                }
+                float fragment_depth = (depth.get(index) & 0xFF) / 255f;
+                line_depth[k] = fragment_depth;
+                while (head < tail && deque[head] < k - window) head++;
+                // texels lower than the fragment can never occlude it or anything after it
+                while (head < tail && line_depth[deque[tail - 1]] <= fragment_depth) tail--;
+                float color = 1.0f;
+                if (head < tail) {
+                    float c = rayLength(fragment_depth);
+                    float nearest = (k - deque[tail - 1] - 0.5f) * step_length; // ray enters the texel
+                    if (nearest <= c) {
+                        int limit = k - (int) (c / step_length + 0.5f);
+                        int lo = head, hi = tail - 1;
+                        while (lo < hi) { // highest texel within c
+                            int mid = (lo + hi) >>> 1;
+                            if (deque[mid] < limit) lo = mid + 1;
+                            else hi = mid;
+                        } float delta = 0.5f * (line_depth[deque[lo]] + line_depth[deque[tail - 1]]) - (fragment_depth + DEPTH_BIAS);
+                        color = shade(delta,nearest,c);
+                    }
+                } shadow.put(index,CpuProject.unorm(color));
+                deque[tail++] = k;
+            }
+        }
+    }
+
+    /** Horizontal distance from the fragment to where the ray reaches the depth amplitude. Max 64 */
+    private float rayLength(float fragment_depth) {
+        float fragment_z = (fragment_depth * 2.0f - 1.0f) * amplitude;
+        float c = (amplitude - fragment_z) / (slope * 2.0f * amplitude);
+        return Math.min(c,ShadowMappingPass.MAX_SHADOW_LENGTH);
+    }
+
+    private float shade(float delta, float distance, float c) {
+        int num_samples = Math.max(1,Math.min(ShadowMappingPass.MAX_SAMPLES,Math.round(c * ShadowMappingPass.SAMPLE_DENSITY)));
+        float f = c > 0 ? Math.min(1.0f,distance / c) : 1.0f;
+        float s = delta * (E - (float) Math.exp(f) * (2.0f - f)) + (1.0f - f) / num_samples;
+        float color = Math.max(0.0f,1.0f - s);
+        return color * color;
+    }
+
+    public int numLines() {
+        return lines.numLines();
+    }
+}
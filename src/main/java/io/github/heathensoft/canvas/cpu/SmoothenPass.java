@@ -0,0 +1,54 @@
+package io.github.heathensoft.canvas.cpu;
+
+import io.github.heathensoft.jlib.common.utils.Area;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * texture_smoothen.frag
+ * 3x3 gaussian. Clamped to edge.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class SmoothenPass {
+
+    /**
+     * As on the gpu, smoothened twice: src -> intermediary -> dst.
+     * @param region the area of dst to write (inclusive). The intermediary is written to region + 1
+     */
+    public static void apply(ForkJoinPool pool, CpuProject project, ByteBuffer src, ByteBuffer dst, Area region) {
+        ByteBuffer intermediary = project.intermediary();
+        Area halo = new Area(region);
+        halo.expand(1);
+        project.area().intersection(halo);
+        TileTask.invoke(pool,halo.minX(),halo.minY(),halo.maxX() + 1,halo.maxY() + 1,
+                (x0, y0, x1, y1) -> process(project,src,intermediary,x0,y0,x1,y1));
+        TileTask.invoke(pool,region.minX(),region.minY(),region.maxX() + 1,region.maxY() + 1,
+                (x0, y0, x1, y1) -> process(project,intermediary,dst,x0,y0,x1,y1));
+    }
+
+    public static void process(CpuProject project, ByteBuffer src, ByteBuffer dst, int x0, int y0, int x1, int y1) {
+        process(src,dst,project.width(),project.height(),x0,y0,x1,y1);
+    }
+
+    public static void process(ByteBuffer src, ByteBuffer dst, int width, int height, int x0, int y0, int x1, int y1) {
+        for (int y = y0; y < y1; y++) {
+            int yu = Math.min(y + 1,height - 1) * width;
+            int yd = Math.max(y - 1,0) * width;
+            int yc = y * width;
+            for (int x = x0; x < x1; x++) {
+                int xl = Math.max(x - 1,0);
+                int xr = Math.min(x + 1,width - 1);
+                float color =
+                        0.0625f * (src.get(yu + xl) & 0xFF) + 0.1250f * (src.get(yu + x) & 0xFF) + 0.0625f * (src.get(yu + xr) & 0xFF) +
+                        0.1250f * (src.get(yc + xl) & 0xFF) + 0.2500f * (src.get(yc + x) & 0xFF) + 0.1250f * (src.get(yc + xr) & 0xFF) +
+                        0.0625f * (src.get(yd + xl) & 0xFF) + 0.1250f * (src.get(yd + x) & 0xFF) + 0.0625f * (src.get(yd + xr) & 0xFF);
+                dst.put(yc + x,CpuProject.unorm(color / 255f));
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.heathensoft.canvas.cpu;
+
+/**
+ * Rasterized lines parallel to a direction, covering every texel exactly once.
+ * Step 0 of each line is on the side the direction points towards (the light side).
+ * Used by the shadow sweep and the horizon map.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class SweepLines {
+
+    private final int width;
+    private final int height;
+    private final boolean major_x;
+    private final boolean reverse;
+    private final float minor_step;  // minor axis offset per step
+    private final float step_length; // horizontal distance per step
+    private final int line_length;
+    private final int minor_length;
+    private final int max_offset;
+    private final int num_lines;
+
+    /**
+     * @param dx direction x (towards the light)
+     * @param dy direction y
+     */
+    public SweepLines(int width, int height, float dx, float dy) {
+        this.width = width;
+        this.height = height;
+        float xy = (float) Math.sqrt(dx * dx + dy * dy);
+        float ax = xy == 0 ? 1 : dx / xy;
+        float ay = xy == 0 ? 0 : dy / xy;
+        this.major_x = Math.abs(ax) >= Math.abs(ay);
+        float major = major_x ? ax : ay;
+        float minor = major_x ? ay : ax;
+        this.reverse = major > 0;
+        this.minor_step = -minor / Math.abs(major);
+        this.step_length = 1.0f / Math.abs(major);
+        this.line_length = major_x ? width : height;
+        this.minor_length = major_x ? height : width;
+        int end_offset = Math.round((line_length - 1) * minor_step);
+        this.max_offset = Math.max(0,end_offset);
+        this.num_lines = minor_length + Math.abs(end_offset);
+    }
+
+    /**
+     * @param line the line [0, numLines)
+     * @param step the step along the line [0, lineLength)
+     * @return texel index (y * width + x) or -1 if the step is outside the texture
+     */
+    public int index(int line, int step) {
+        int m = line - max_offset + Math.round(step * minor_step);
+        if (m < 0 || m >= minor_length) return -1;
+        int major = reverse ? (line_length - 1 - step) : step;
+        return major_x ? (m * width + major) : (major * width + m);
+    }
+
+    public int numLines() {
+        return num_lines;
+    }
+
+    public int lineLength() {
+        return line_length;
+    }
+
+    /** @return horizontal distance between two steps */
+    public float stepLength() {
+        return step_length;
+    }
+}
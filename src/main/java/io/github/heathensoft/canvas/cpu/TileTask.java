@@ -0,0 +1,58 @@
+package io.github.heathensoft.canvas.cpu;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits a rectangle of texels into tiles and runs the kernel on each tile in a fork/join pool.
+ * Rectangles are min inclusive, max exclusive.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class TileTask extends RecursiveAction {
+
+    public static final int TILE_SIZE = 64;
+    private static final long serialVersionUID = 1L;
+
+    public interface Kernel {
+        void process(int x0, int y0, int x1, int y1);
+    }
+
+    private final Kernel kernel;
+    private final int x0, y0, x1, y1;
+
+    public TileTask(Kernel kernel, int x0, int y0, int x1, int y1) {
+        this.kernel = kernel;
+        this.x0 = x0;
+        this.y0 = y0;
+        this.x1 = x1;
+        this.y1 = y1;
+    }
+
+    public static void invoke(ForkJoinPool pool, int width, int height, Kernel kernel) {
+        invoke(pool,0,0,width,height,kernel);
+    }
+
+    public static void invoke(ForkJoinPool pool, int x0, int y0, int x1, int y1, Kernel kernel) {
+        if (x1 > x0 && y1 > y0) {
+            pool.invoke(new TileTask(kernel,x0,y0,x1,y1));
+        }
+    }
+
+    protected void compute() {
+        int w = x1 - x0;
+        int h = y1 - y0;
+        if (w <= TILE_SIZE && h <= TILE_SIZE) {
+            kernel.process(x0,y0,x1,y1);
+        } else if (w >= h) { // split on a tile boundary
+            int mid = x0 + Math.max(TILE_SIZE,(w / 2) / TILE_SIZE * TILE_SIZE);
+            invokeAll(new TileTask(kernel,x0,y0,mid,y1), new TileTask(kernel,mid,y0,x1,y1));
+        } else {
+            int mid = y0 + Math.max(TILE_SIZE,(h / 2) / TILE_SIZE * TILE_SIZE);
+            invokeAll(new TileTask(kernel,x0,y0,x1,mid), new TileTask(kernel,x0,mid,x1,y1));
+        }
+    }
+}
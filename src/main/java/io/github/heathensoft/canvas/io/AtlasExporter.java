@@ -0,0 +1,277 @@
+package io.github.heathensoft.canvas.io;
+
+import io.github.heathensoft.canvas.ENUM;
+import io.github.heathensoft.canvas.Project;
+import io.github.heathensoft.jlib.common.thread.Task;
+import io.github.heathensoft.jlib.lwjgl.graphics.Texture;
+import io.github.heathensoft.jlib.lwjgl.window.Engine;
+import org.json.simple.JSONValue;
+import org.lwjgl.system.MemoryUtil;
+import org.tinylog.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Packs the open projects into one sheet per map type, plus a json index (name.json).
+ * The textures are read back through the ExportService (pixel pack buffers, nothing waits on the gpu).
+ * Once every readback has landed, the rest runs as a task: Every sprite is trimmed to the bounds of its
+ * visible texels (color source alpha), the trimmed sizes are packed (AtlasPacker) and the map types are
+ * blitted and encoded. Sheets are encoded in parallel, as many at a time as fit in SHEET_BUDGET.
+ * All sheets share the layout. Color sheets are RGBA regardless of the source format.
+ * Sprites are named after their projects. Repeated names get a suffix (_2, _3 ..).
+ *
+ * index: sheet size, file per map type and per sprite: x, y, w, h (pixels, origin top left),
+ * u0, v0, u1, v1 (normalized, origin top left), source size and the trim offset into the source (top left).
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class AtlasExporter implements Task {
+
+    public static final int PADDING = 2;
+    public static final int MAX_SIZE = 8192;
+    public static final long SHEET_BUDGET = 256L * 1024 * 1024; // bytes of sheets in flight (at least one)
+
+    public enum MapType {
+        COLOR(PngExporter.color_suffix),
+        PREVIEW(PngExporter.preview_suffix),
+        DEPTH(PngExporter.depth_suffix),
+        NORMALS(PngExporter.normals_suffix),
+        SHADOWS(PngExporter.shadows_suffix),
+        OCCLUSION(PngExporter.occlusion_suffix),
+        DETAILS(PngExporter.details_suffix),
+        VOLUME(PngExporter.volume_suffix),
+        SPECULAR(PngExporter.specular_suffix),
+        EMISSIVE(PngExporter.emissive_suffix);
+        public static final MapType[] ALL = values();
+        public final String suffix;
+        MapType(String suffix) {
+            this.suffix = suffix;
+        }
+    }
+
+    private static final class Sprite {
+        final String name;
+        final int width, height;
+        final ByteBuffer[] maps = new ByteBuffer[MapType.ALL.length]; // memAlloc, texture space
+        final int[] channels = new int[MapType.ALL.length];
+        AtlasPacker.Rect trim; // texture space
+        AtlasPacker.Rect rect; // texture space
+        Sprite(String name, int width, int height) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private final Path directory;
+    private final String name;
+    private final PngEncoder encoder;
+    private final ForkJoinPool pool;
+    private final List<Sprite> sprites;
+    private AtlasPacker.Layout layout;
+    private int readbacks_pending;
+    private boolean readback_failed;
+
+    /**
+     * Render thread. Queues the readback of every map of every project and returns.
+     * The export is handed to the engine thread pool once the readbacks have landed (service.update()).
+     */
+    public static void export(ExportService service, List<Project> projects, Path directory, String name) {
+        new AtlasExporter(service,projects,directory,name,ForkJoinPool.commonPool());
+    }
+
+    private AtlasExporter(ExportService service, List<Project> projects, Path directory, String name, ForkJoinPool pool) {
+        this.directory = directory;
+        this.name = name.replace(" ","");
+        this.pool = pool;
+        this.encoder = new PngEncoder(pool,PngEncoder.Preset.FAST);
+        this.sprites = new ArrayList<>(projects.size());
+        List<String> names = new ArrayList<>(projects.size());
+        for (Project project : projects) names.add(project.projectName());
+        names = uniqueNames(names);
+        for (int i = 0; i < projects.size(); i++) {
+            Project project = projects.get(i);
+            Sprite sprite = new Sprite(names.get(i),project.texturesWidth(),project.texturesHeight());
+            sprites.add(sprite);
+            read(service,sprite,MapType.COLOR,project.colorSourceTexture());
+            read(service,sprite,MapType.PREVIEW,project.previewBuffer().texture(0));
+            read(service,sprite,MapType.DEPTH,project.depthBuffer().texture(0));
+            read(service,sprite,MapType.NORMALS,project.normalsBuffer().texture(0));
+            read(service,sprite,MapType.SHADOWS,project.shadowBuffer().texture(0));
+            read(service,sprite,MapType.OCCLUSION,project.occlusionBuffer().texture(0));
+            read(service,sprite,MapType.DETAILS,project.backBuffer().texture(ENUM.Channel.DETAILS.id));
+            read(service,sprite,MapType.VOLUME,project.backBuffer().texture(ENUM.Channel.VOLUME.id));
+            read(service,sprite,MapType.SPECULAR,project.backBuffer().texture(ENUM.Channel.SPECULAR.id));
+            read(service,sprite,MapType.EMISSIVE,project.backBuffer().texture(ENUM.Channel.EMISSIVE.id));
+        }
+    }
+
+    public int process(long queue_time_ms) throws Exception {
+        if (sprites.isEmpty()) throw new IOException("no projects to pack");
+        int[] widths = new int[sprites.size()];
+        int[] heights = new int[sprites.size()];
+        for (int i = 0; i < sprites.size(); i++) {
+            Sprite sprite = sprites.get(i);
+            sprite.trim = trim(sprite);
+            widths[i] = sprite.trim.w();
+            heights[i] = sprite.trim.h();
+        } layout = AtlasPacker.pack(widths,heights,PADDING,MAX_SIZE);
+        if (layout == null) throw new IOException("sprites do not fit in " + MAX_SIZE + "x" + MAX_SIZE);
+        for (int i = 0; i < sprites.size(); i++) {
+            sprites.get(i).rect = layout.rects()[i];
+        } Files.createDirectories(directory);
+        long sheet_bytes = (long) layout.width() * layout.height() * 4;
+        int in_flight = (int) Math.max(1,Math.min(MapType.ALL.length,SHEET_BUDGET / sheet_bytes));
+        List<Callable<Void>> tasks = new ArrayList<>(MapType.ALL.length);
+        for (MapType map : MapType.ALL) {
+            tasks.add(() -> {
+                int channels = map == MapType.COLOR ? 4 : sprites.get(0).channels[map.ordinal()];
+                ByteBuffer sheet = ByteBuffer.allocateDirect(layout.width() * layout.height() * channels);
+                for (Sprite sprite : sprites) blit(sprite,map,sheet,channels);
+                Path file = directory.resolve(name + map.suffix + ".png");
+                encoder.write(file,sheet,layout.width(),layout.height(),channels,true);
+                WrittenFiles.record(file);
+                return null;
+            });
+        } try { // in batches, each sheet is encoded in parallel on its own
+            for (int i = 0; i < tasks.size(); i += in_flight) {
+                List<Callable<Void>> batch = tasks.subList(i,Math.min(tasks.size(),i + in_flight));
+                for (Future<Void> future : pool.invokeAll(batch)) future.get();
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        } Files.writeString(directory.resolve(name + ".json"),index(),StandardCharsets.UTF_8);
+        return 0;
+    }
+
+    /** Render thread */
+    public void onCompletion(Exception e, int status, long runtime_ms) {
+        free();
+        if (e != null) Logger.error(e,"unable to export atlas: {}",name);
+        else Logger.info("exported atlas {} ({}x{}, {} sprites) in {} ms",
+        name,layout.width(),layout.height(),sprites.size(),runtime_ms);
+    }
+
+    /** Render thread */
+    private void read(ExportService service, Sprite sprite, MapType map, Texture texture) {
+        sprite.channels[map.ordinal()] = texture.format().channels;
+        readbacks_pending++;
+        service.read(texture,pixels -> {
+            sprite.maps[map.ordinal()] = pixels;
+            if (pixels == null) readback_failed = true;
+            if (--readbacks_pending == 0) {
+                if (readback_failed) {
+                    Logger.error("unable to export atlas: {} (readback failed)",name);
+                    free();
+                } else Engine.get().threadPool().handle(this);
+            }
+        });
+    }
+
+    private void free() {
+        for (Sprite sprite : sprites) {
+            for (int i = 0; i < sprite.maps.length; i++) {
+                if (sprite.maps[i] != null) {
+                    MemoryUtil.memFree(sprite.maps[i]);
+                    sprite.maps[i] = null;
+                }
+            }
+        }
+    }
+
+    /** @return the names in order. A name already taken gets the first free suffix (_2, _3 ..) */
+    static List<String> uniqueNames(List<String> names) {
+        Set<String> taken = new HashSet<>();
+        List<String> unique = new ArrayList<>(names.size());
+        for (String name : names) {
+            String candidate = name;
+            for (int n = 2; !taken.add(candidate); n++) candidate = name + "_" + n;
+            unique.add(candidate);
+        } return unique;
+    }
+
+    /** @return the bounds of the texels with alpha. The whole sprite if the color source has no alpha */
+    private static AtlasPacker.Rect trim(Sprite sprite) {
+        int channels = sprite.channels[MapType.COLOR.ordinal()];
+        if (channels != 2 && channels != 4) return new AtlasPacker.Rect(0,0,sprite.width,sprite.height);
+        ByteBuffer color = sprite.maps[MapType.COLOR.ordinal()];
+        int min_x = sprite.width, min_y = sprite.height, max_x = -1, max_y = -1;
+        for (int y = 0; y < sprite.height; y++) {
+            for (int x = 0; x < sprite.width; x++) {
+                if (color.get((y * sprite.width + x) * channels + channels - 1) != 0) {
+                    if (x < min_x) min_x = x;
+                    if (x > max_x) max_x = x;
+                    if (y < min_y) min_y = y;
+                    max_y = y;
+                }
+            }
+        } if (max_x < 0) return new AtlasPacker.Rect(0,0,1,1); // fully transparent
+        return new AtlasPacker.Rect(min_x,min_y,max_x - min_x + 1,max_y - min_y + 1);
+    }
+
+    private void blit(Sprite sprite, MapType map, ByteBuffer sheet, int channels) {
+        ByteBuffer src = sprite.maps[map.ordinal()];
+        int src_channels = sprite.channels[map.ordinal()];
+        AtlasPacker.Rect trim = sprite.trim;
+        AtlasPacker.Rect rect = sprite.rect;
+        for (int r = 0; r < trim.h(); r++) {
+            int src_row = ((trim.y() + r) * sprite.width + trim.x()) * src_channels;
+            int dst_row = ((rect.y() + r) * layout.width() + rect.x()) * channels;
+            if (src_channels == channels) {
+                sheet.put(dst_row,src,src_row,trim.w() * channels);
+            } else for (int x = 0; x < trim.w(); x++) { // color source to RGBA
+                int s = src_row + x * src_channels;
+                int d = dst_row + x * channels;
+                byte v = src.get(s);
+                switch (src_channels) {
+                    case 1, 2 -> sheet.put(d,v).put(d + 1,v).put(d + 2,v).put(d + 3,src_channels == 2 ? src.get(s + 1) : (byte) 0xFF);
+                    default -> sheet.put(d,v).put(d + 1,src.get(s + 1)).put(d + 2,src.get(s + 2)).put(d + 3,(byte) 0xFF);
+                }
+            }
+        }
+    }
+
+    private String index() {
+        int w = layout.width();
+        int h = layout.height();
+        StringBuilder json = new StringBuilder(256 + sprites.size() * 256);
+        json.append("{\n  \"name\": \"").append(JSONValue.escape(name)).append("\",\n");
+        json.append("  \"width\": ").append(w).append(",\n  \"height\": ").append(h).append(",\n");
+        json.append("  \"padding\": ").append(PADDING).append(",\n  \"maps\": {");
+        for (MapType map : MapType.ALL) {
+            json.append(map.ordinal() == 0 ? "\n" : ",\n").append("    \"").append(map.name().toLowerCase(Locale.ROOT));
+            json.append("\": \"").append(JSONValue.escape(name + map.suffix + ".png")).append('"');
+        } json.append("\n  },\n  \"sprites\": [");
+        for (int i = 0; i < sprites.size(); i++) {
+            Sprite sprite = sprites.get(i);
+            AtlasPacker.Rect rect = sprite.rect;
+            AtlasPacker.Rect trim = sprite.trim;
+            int x = rect.x();
+            int y = h - (rect.y() + rect.h()); // texture space to image space
+            json.append(i == 0 ? "\n" : ",\n").append("    { \"name\": \"").append(JSONValue.escape(sprite.name)).append("\", ");
+            json.append("\"x\": ").append(x).append(", \"y\": ").append(y).append(", ");
+            json.append("\"w\": ").append(rect.w()).append(", \"h\": ").append(rect.h()).append(", ");
+            json.append(String.format(Locale.ROOT,"\"u0\": %.6f, \"v0\": %.6f, \"u1\": %.6f, \"v1\": %.6f, ",
+            (float) x / w,(float) y / h,(float) (x + rect.w()) / w,(float) (y + rect.h()) / h));
+            json.append("\"source_w\": ").append(sprite.width).append(", \"source_h\": ").append(sprite.height).append(", ");
+            json.append("\"trim_x\": ").append(trim.x()).append(", \"trim_y\": ").append(sprite.height - (trim.y() + trim.h())).append(" }");
+        } json.append("\n  ]\n}\n");
+        return json.toString();
+    }
+}
@@ -0,0 +1,114 @@
+package io.github.heathensoft.canvas.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * MaxRects bin packer (best short side fit). Rectangles are never rotated.
+ * pack() finds the smallest power of two sheet (growing the shorter side) that fits every rectangle.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class AtlasPacker {
+
+    public record Rect(int x, int y, int w, int h) {
+        boolean contains(Rect r) {
+            return r.x >= x && r.y >= y && r.x + r.w <= x + w && r.y + r.h <= y + h;
+        }
+        boolean intersects(Rect r) {
+            return r.x < x + w && r.x + r.w > x && r.y < y + h && r.y + r.h > y;
+        }
+    }
+
+    /** @param rects in the order of the input sizes. Padding excluded */
+    public record Layout(int width, int height, Rect[] rects) { }
+
+    private final List<Rect> free;
+
+    public AtlasPacker(int width, int height) {
+        this.free = new ArrayList<>();
+        this.free.add(new Rect(0,0,width,height));
+    }
+
+    /**
+     * @param padding space right of and above every rectangle
+     * @return the layout or null if the rectangles do not fit in max_size * max_size
+     */
+    public static Layout pack(int[] widths, int[] heights, int padding, int max_size) {
+        int count = widths.length;
+        long area = 0;
+        int min_width = 1, min_height = 1;
+        for (int i = 0; i < count; i++) {
+            area += (long) (widths[i] + padding) * (heights[i] + padding);
+            min_width = Math.max(min_width,widths[i] + padding);
+            min_height = Math.max(min_height,heights[i] + padding);
+        } Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) order[i] = i;
+        Arrays.sort(order,Comparator.comparingInt((Integer i) -> Math.max(widths[i],heights[i])).reversed());
+        int side = powerOfTwo((int) Math.ceil(Math.sqrt((double) area)));
+        int width = Math.max(side,powerOfTwo(min_width));
+        int height = Math.max(side / 2,powerOfTwo(min_height));
+        while (width <= max_size && height <= max_size) {
+            AtlasPacker packer = new AtlasPacker(width,height);
+            Rect[] rects = new Rect[count];
+            boolean fits = true;
+            for (int i : order) {
+                Rect rect = packer.insert(widths[i] + padding,heights[i] + padding);
+                if (rect == null) { fits = false; break; }
+                rects[i] = new Rect(rect.x,rect.y,widths[i],heights[i]);
+            } if (fits) return new Layout(width,height,rects);
+            if (width <= height) width *= 2;
+            else height *= 2;
+        } return null;
+    }
+
+    /** @return the placement or null if the rectangle does not fit */
+    public Rect insert(int w, int h) {
+        Rect best = null;
+        int best_short = Integer.MAX_VALUE;
+        int best_long = Integer.MAX_VALUE;
+        for (Rect f : free) {
+            if (w <= f.w && h <= f.h) {
+                int dx = f.w - w, dy = f.h - h;
+                int short_side = Math.min(dx,dy);
+                int long_side = Math.max(dx,dy);
+                if (short_side < best_short || (short_side == best_short && long_side < best_long)) {
+                    best = new Rect(f.x,f.y,w,h);
+                    best_short = short_side;
+                    best_long = long_side;
+                }
+            }
+        } if (best != null) place(best);
+        return best;
+    }
+
+    private void place(Rect used) {
+        List<Rect> split = new ArrayList<>();
+        for (int i = 0; i < free.size(); i++) {
+            Rect f = free.get(i);
+            if (!f.intersects(used)) continue;
+            free.remove(i--);
+            if (used.x > f.x) split.add(new Rect(f.x,f.y,used.x - f.x,f.h));
+            if (used.x + used.w < f.x + f.w) split.add(new Rect(used.x + used.w,f.y,f.x + f.w - used.x - used.w,f.h));
+            if (used.y > f.y) split.add(new Rect(f.x,f.y,f.w,used.y - f.y));
+            if (used.y + used.h < f.y + f.h) split.add(new Rect(f.x,used.y + used.h,f.w,f.y + f.h - used.y - used.h));
+        } free.addAll(split);
+        for (int i = 0; i < free.size(); i++) { // prune rectangles contained in others
+            for (int j = i + 1; j < free.size(); j++) {
+                if (free.get(j).contains(free.get(i))) { free.remove(i--); break; }
+                if (free.get(i).contains(free.get(j))) free.remove(j--);
+            }
+        }
+    }
+
+    private static int powerOfTwo(int value) {
+        int p = 1;
+        while (p < value) p <<= 1;
+        return p;
+    }
+}
@@ -0,0 +1,261 @@
+package io.github.heathensoft.canvas.io;
+
+import io.github.heathensoft.jlib.common.Disposable;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Single file chunk container (.canvas).
+ *
+ * header: magic "CNVS", version (int), chunk count (int), index offset (long)
+ * chunks: stored back to back, each either deflated or raw
+ * index:  per chunk: tag (4 ascii), flags (int), offset (long), stored size (long), size (long), crc32 (int)
+ *
+ * Opening a file reads the header and the index only. Chunks are read on request:
+ * Compressed chunks are inflated (crc checked). Raw chunks are read as is (not checked).
+ * Chunks are never memory mapped: The file may be replaced while the chunks are in use
+ * (journal compaction), and a mapped file can not be replaced on Windows.
+ * Chunks are compressed in parallel when written. The file is written to a temp file and moved into place.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class CanvasFile implements Disposable {
+
+    public static final String EXTENSION = ".canvas";
+    public static final int VERSION = 1;
+    private static final int MAGIC = 0x434E5653; // CNVS
+    private static final int HEADER_SIZE = 20;
+    private static final int ENTRY_SIZE = 36;
+    private static final int FLAG_COMPRESSED = 1;
+
+    /** Chunk to be written. data is read from position to limit and left untouched */
+    public record Chunk(String tag, ByteBuffer data, boolean compress) {
+        public Chunk {
+            if (tag.length() != 4) throw new IllegalArgumentException("chunk tag must be 4 characters: " + tag);
+        }
+    }
+
+    public record Entry(String tag, boolean compressed, long offset, long stored_size, long size, int crc) { }
+
+    private final Path path;
+    private final FileChannel channel;
+    private final Map<String,Entry> index;
+
+    private CanvasFile(Path path, FileChannel channel, Map<String,Entry> index) {
+        this.path = path;
+        this.channel = channel;
+        this.index = index;
+    }
+
+    /** Reads the header and the index. Remember to dispose */
+    public static CanvasFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path,StandardOpenOption.READ);
+        try {
+            ByteBuffer header = readFully(channel,0,HEADER_SIZE);
+            if (header.getInt() != MAGIC) throw new IOException("not a canvas file: " + path);
+            int version = header.getInt();
+            if (version > VERSION) throw new IOException("unsupported canvas file version: " + version);
+            int count = header.getInt();
+            long index_offset = header.getLong();
+            if (count < 0 || index_offset + (long) count * ENTRY_SIZE > channel.size()) {
+                throw new IOException("corrupt canvas file index: " + path);
+            } ByteBuffer buffer = readFully(channel,index_offset,count * ENTRY_SIZE);
+            Map<String,Entry> index = new LinkedHashMap<>();
+            byte[] tag = new byte[4];
+            for (int i = 0; i < count; i++) {
+                buffer.get(tag);
+                int flags = buffer.getInt();
+                Entry entry = new Entry(new String(tag,StandardCharsets.US_ASCII),
+                (flags & FLAG_COMPRESSED) != 0, buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getInt());
+                if (entry.offset + entry.stored_size > index_offset) {
+                    throw new IOException("corrupt canvas file chunk: " + entry.tag);
+                } index.put(entry.tag,entry);
+            } return new CanvasFile(path,channel,index);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static void write(Path file, List<Chunk> chunks) throws IOException {
+        write(file,chunks,ForkJoinPool.commonPool());
+    }
+
+    public static void write(Path file, List<Chunk> chunks, ForkJoinPool pool) throws IOException {
+        List<Callable<ByteBuffer>> tasks = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            tasks.add(() -> chunk.compress ? deflate(chunk.data) : chunk.data.duplicate());
+        } List<ByteBuffer> stored = new ArrayList<>(chunks.size());
+        try {
+            for (Future<ByteBuffer> future : pool.invokeAll(tasks)) {
+                stored.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("canvas file write interrupted",e);
+        } catch (ExecutionException e) {
+            throw new IOException("unable to compress chunk",e.getCause());
+        }
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory,file.getFileName().toString(),".tmp");
+        try (FileChannel out = FileChannel.open(temp,StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer index = ByteBuffer.allocate(chunks.size() * ENTRY_SIZE);
+            long offset = HEADER_SIZE;
+            out.position(offset);
+            for (int i = 0; i < chunks.size(); i++) {
+                Chunk chunk = chunks.get(i);
+                ByteBuffer data = stored.get(i);
+                long stored_size = data.remaining();
+                writeFully(out,data);
+                index.put(chunk.tag.getBytes(StandardCharsets.US_ASCII));
+                index.putInt(chunk.compress ? FLAG_COMPRESSED : 0);
+                index.putLong(offset).putLong(stored_size);
+                index.putLong(chunk.data.remaining());
+                index.putInt(chunk.compress ? crc(chunk.data) : 0);
+                offset += stored_size;
+            } writeFully(out,index.flip());
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(chunks.size()).putLong(offset).flip();
+            out.position(0);
+            writeFully(out,header);
+            out.force(false);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        } Files.move(temp,file,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Properties as a compressed chunk */
+    public static Chunk properties(String tag, Properties properties) throws IOException {
+        StringWriter writer = new StringWriter();
+        properties.store(writer,null);
+        byte[] bytes = writer.toString().getBytes(StandardCharsets.ISO_8859_1);
+        return new Chunk(tag,ByteBuffer.wrap(bytes),true);
+    }
+
+    public boolean contains(String tag) {
+        return index.containsKey(tag);
+    }
+
+    public Entry entry(String tag) {
+        return index.get(tag);
+    }
+
+    public Collection<Entry> entries() {
+        return Collections.unmodifiableCollection(index.values());
+    }
+
+    /**
+     * Raw chunks are read into a new direct buffer. Compressed chunks are inflated into a new direct buffer.
+     * Both can be uploaded as is. The buffers are owned by the caller and hold no reference to the file.
+     * @return the chunk data or null if the file has no such chunk
+     */
+    public ByteBuffer chunk(String tag) throws IOException {
+        Entry entry = index.get(tag);
+        if (entry == null) return null;
+        if (entry.size > Integer.MAX_VALUE || entry.stored_size > Integer.MAX_VALUE) {
+            throw new IOException("chunk too large: " + tag);
+        } if (!entry.compressed) {
+            ByteBuffer data = ByteBuffer.allocateDirect((int) entry.stored_size);
+            return readFully(channel,entry.offset,data);
+        } ByteBuffer stored = readFully(channel,entry.offset,(int) entry.stored_size);
+        ByteBuffer data = ByteBuffer.allocateDirect((int) entry.size);
+        Inflater inflater = new Inflater();
+        try { inflater.setInput(stored);
+            while (data.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(data) == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt chunk: " + tag,e);
+        } finally {
+            inflater.end();
+        } data.flip();
+        if (data.remaining() != entry.size || crc(data) != entry.crc) {
+            throw new IOException("corrupt chunk: " + tag);
+        } return data;
+    }
+
+    public Properties properties(String tag) throws IOException {
+        return toProperties(chunk(tag));
+    }
+
+    /** @param data properties chunk data. Null for empty properties */
+    public static Properties toProperties(ByteBuffer data) throws IOException {
+        Properties properties = new Properties();
+        if (data != null) {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(data.position(),bytes);
+            properties.load(new StringReader(new String(bytes,StandardCharsets.ISO_8859_1)));
+        } return properties;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public void dispose() {
+        try { channel.close();
+        } catch (IOException ignored) { }
+    }
+
+    private static ByteBuffer deflate(ByteBuffer data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(data.duplicate());
+            deflater.finish();
+            ByteBuffer out = ByteBuffer.allocate(Math.max(64,data.remaining() / 2));
+            while (!deflater.finished()) {
+                if (!out.hasRemaining()) {
+                    ByteBuffer grown = ByteBuffer.allocate(out.capacity() * 2);
+                    out = grown.put(out.flip());
+                } deflater.deflate(out);
+            } return out.flip();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static int crc(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int size) throws IOException {
+        return readFully(channel,position,ByteBuffer.allocate(size));
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer,position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of file");
+            }
+        } return buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+}
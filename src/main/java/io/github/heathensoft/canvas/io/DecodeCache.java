@@ -0,0 +1,191 @@
+package io.github.heathensoft.canvas.io;
+
+import io.github.heathensoft.jlib.common.io.External;
+import org.tinylog.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Local cache of decoded images. Raw texels, already in texture space (flipped) and already converted
+ * (PIXELS: as decoded, GREY: reduced to one byte per texel like DepthMap8).
+ * Entries are keyed by the absolute source path, its length and its last modified time, so an edited
+ * source is never served stale. A hit is memory-mapped and uploaded as is, nothing is decoded.
+ * Least recently used entries are deleted when the cache grows beyond its limit. An entry that is still
+ * mapped cannot be deleted on Windows. It is logged and deleted by a later trim.
+ * Thread safe: entries are written to a temporary file and moved in place.
+ *
+ * entry: magic, width, height, channels (little endian ints), texels.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class DecodeCache {
+
+    public static final String PIXELS = "pixels";
+    public static final String GREY = "grey";
+    public static final long DEFAULT_LIMIT = 1024L * 1024L * 1024L;
+    private static final int MAGIC = 0x43444331; // CDC1
+    private static final int HEADER_SIZE = 16;
+    private static final String EXTENSION = ".raw";
+
+    /** An identity of the source at the time it was read. Obtain before decoding */
+    public record Key(Path source, String variant, String file) { }
+
+    /** @param texels read only. Mapped, valid until garbage collected */
+    public record Entry(int width, int height, int channels, ByteBuffer texels) { }
+
+    private final Path directory;
+    private final long limit;
+
+    /** In the app data folder, next to the palette cache */
+    public DecodeCache() throws IOException {
+        this(cacheDirectory(),DEFAULT_LIMIT);
+    }
+
+    /** @param limit bytes */
+    public DecodeCache(Path directory, long limit) {
+        this.directory = directory;
+        this.limit = limit;
+    }
+
+    public static Path cacheDirectory() throws IOException {
+        return External.APP_DATA("SpriteLighter","decode_cache");
+    }
+
+    /** @return the key of the source as it is now */
+    public Key key(Path source, String variant) throws IOException {
+        Path path = source.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(path,BasicFileAttributes.class);
+        String identity = path + "|" + attributes.size() + "|" + attributes.lastModifiedTime().toMillis() + "|" + variant;
+        return new Key(path,variant,sha1(identity) + EXTENSION);
+    }
+
+    /** @return the entry or null if missing or not the expected size */
+    public Entry get(Key key, int width, int height) {
+        Path file = directory.resolve(key.file);
+        if (!Files.isRegularFile(file)) return null;
+        try (FileChannel channel = FileChannel.open(file,StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) return null;
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,0,size).order(ByteOrder.LITTLE_ENDIAN);
+            int channels = mapped.getInt(12);
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != width || mapped.getInt(8) != height
+            || channels < 1 || channels > 4 || size != HEADER_SIZE + (long) width * height * channels) {
+                Logger.warn("invalid cache entry: {}",file.getFileName());
+                return null;
+            } Files.setLastModifiedTime(file,FileTime.fromMillis(System.currentTimeMillis()));
+            return new Entry(width,height,channels,mapped.slice(HEADER_SIZE,(int) (size - HEADER_SIZE)));
+        } catch (IOException e) {
+            Logger.warn("unable to read cache entry {}: {}",file.getFileName(),e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores the texels. Failures are logged, the cache is optional.
+     * @param texels width * height * channels from index 0. Not modified
+     */
+    public void put(Key key, int width, int height, int channels, ByteBuffer texels) {
+        int length = width * height * channels;
+        Path file = directory.resolve(key.file);
+        Path tmp = directory.resolve(key.file + ".tmp" + Thread.currentThread().getId());
+        try {
+            Files.createDirectories(directory);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(width).putInt(height).putInt(channels).flip();
+            ByteBuffer body = texels.slice(0,length);
+            try (FileChannel channel = FileChannel.open(tmp,StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (header.hasRemaining()) channel.write(header);
+                while (body.hasRemaining()) channel.write(body);
+            } Files.move(tmp,file,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Logger.warn("unable to cache {}: {}",key.source.getFileName(),e.getMessage());
+            try { Files.deleteIfExists(tmp);
+            } catch (IOException ignored) { }
+            return;
+        } trim();
+    }
+
+    /** @param texels width * height * channels */
+    public void put(Key key, int width, int height, int channels, byte[] texels) {
+        put(key,width,height,channels,ByteBuffer.wrap(texels));
+    }
+
+    /** Deletes the least recently used entries until the cache is within its limit */
+    public synchronized void trim() {
+        if (!Files.isDirectory(directory)) return;
+        record File(Path path, long size, long time) { }
+        List<File> files = new ArrayList<>();
+        long total = 0;
+        try (Stream<Path> stream = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) stream::iterator) {
+                if (!path.getFileName().toString().endsWith(EXTENSION)) continue;
+                BasicFileAttributes attributes = Files.readAttributes(path,BasicFileAttributes.class);
+                files.add(new File(path,attributes.size(),attributes.lastModifiedTime().toMillis()));
+                total += attributes.size();
+            }
+        } catch (IOException e) {
+            Logger.warn("unable to list cache: {}",e.getMessage());
+            return;
+        } if (total <= limit) return;
+        files.sort(Comparator.comparingLong(File::time));
+        int failed = 0;
+        IOException first = null;
+        for (File file : files) {
+            if (total <= limit) break;
+            try { Files.deleteIfExists(file.path);
+                total -= file.size;
+            } catch (IOException e) { // still mapped (windows)
+                if (failed++ == 0) first = e;
+            }
+        } if (failed > 0) {
+            Logger.warn("unable to evict {} cache entries, {} bytes over the limit ({}: {})",
+            failed,total - limit,first.getClass().getSimpleName(),first.getMessage());
+        }
+    }
+
+    /** Deletes every entry */
+    public synchronized void clear() {
+        if (!Files.isDirectory(directory)) return;
+        try (Stream<Path> stream = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) stream::iterator) {
+                if (!path.getFileName().toString().endsWith(EXTENSION)) continue;
+                try { Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    Logger.warn("unable to delete cache entry {}: {}",path.getFileName(),e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            Logger.warn("unable to clear cache: {}",e.getMessage());
+        }
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    private static String sha1(String string) {
+        try { MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return HexFormat.of().formatHex(digest.digest(string.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
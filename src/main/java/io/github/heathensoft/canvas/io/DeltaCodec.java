@@ -0,0 +1,110 @@
+package io.github.heathensoft.canvas.io;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Run-length codec for XOR deltas (undo history).
+ * A delta of two states is mostly zero (texels outside the stroke) and often repeats one value
+ * (a fill over a flat area), so the stream is three kinds of runs: skip (zero), repeat and literal.
+ * Applying a delta XORs it into the target in place: a skip is free, so decoding costs
+ * in proportion to the changed texels. The same delta turns the before state into the after state and back.
+ *
+ * run: varint (length << 2 | op), then the value (repeat) or the bytes (literal).
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class DeltaCodec {
+
+    private static final int SKIP = 0;
+    private static final int REPEAT = 1;
+    private static final int LITERAL = 2;
+    private static final int MIN_REPEAT = 4;
+
+    /** a ^= b, length bytes from index 0 */
+    public static void xor(ByteBuffer a, ByteBuffer b, int length) {
+        int i = 0;
+        for (; i <= length - 8; i += 8) a.putLong(i,a.getLong(i) ^ b.getLong(i));
+        for (; i < length; i++) a.put(i,(byte) (a.get(i) ^ b.get(i)));
+    }
+
+    /** @param delta length bytes from index 0. Not modified */
+    public static byte[] encode(ByteBuffer delta, int length) {
+        byte[] out = new byte[Math.max(16,length / 8)];
+        int size = 0;
+        int i = 0;
+        while (i < length) {
+            byte value = delta.get(i);
+            int run = runLength(delta,i,length);
+            if (value == 0 || run >= MIN_REPEAT) {
+                out = ensure(out,size,10);
+                size = putVarint(out,size,((long) run << 2) | (value == 0 ? SKIP : REPEAT));
+                if (value != 0) out[size++] = value;
+                i += run;
+            } else {
+                int start = i;
+                while (i < length) { // until the next run worth encoding
+                    run = runLength(delta,i,length);
+                    if ((delta.get(i) == 0 && run > 1) || run >= MIN_REPEAT) break;
+                    i += run;
+                } int literal = i - start;
+                out = ensure(out,size,10 + literal);
+                size = putVarint(out,size,((long) literal << 2) | LITERAL);
+                delta.get(start,out,size,literal);
+                size += literal;
+            }
+        } return Arrays.copyOf(out,size);
+    }
+
+    /**
+     * XORs the encoded delta into the target.
+     * @param target the delta length from index 0
+     */
+    public static void apply(byte[] encoded, ByteBuffer target) {
+        int s = 0;
+        int t = 0;
+        while (s < encoded.length) {
+            long header = 0;
+            int shift = 0;
+            byte b;
+            do { b = encoded[s++];
+                header |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            int length = (int) (header >>> 2);
+            switch ((int) (header & 3)) {
+                case SKIP -> t += length;
+                case REPEAT -> {
+                    byte value = encoded[s++];
+                    for (int end = t + length; t < end; t++) target.put(t,(byte) (target.get(t) ^ value));
+                }
+                default -> {
+                    for (int end = t + length; t < end; t++) target.put(t,(byte) (target.get(t) ^ encoded[s++]));
+                }
+            }
+        }
+    }
+
+    private static int runLength(ByteBuffer buffer, int from, int length) {
+        byte value = buffer.get(from);
+        int i = from + 1;
+        while (i < length && buffer.get(i) == value) i++;
+        return i - from;
+    }
+
+    private static int putVarint(byte[] out, int size, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        } out[size++] = (byte) value;
+        return size;
+    }
+
+    private static byte[] ensure(byte[] out, int size, int required) {
+        if (size + required <= out.length) return out;
+        return Arrays.copyOf(out,Math.max(out.length * 2,size + required));
+    }
+}
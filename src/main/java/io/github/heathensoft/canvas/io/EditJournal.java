@@ -0,0 +1,347 @@
+package io.github.heathensoft.canvas.io;
+
+import io.github.heathensoft.jlib.common.Disposable;
+import org.tinylog.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of committed edits next to a .canvas base file (base.canvas.journal).
+ *
+ * header: magic "CNVJ", version (int), width (int), height (int)
+ * record: type (byte), tag (4 ascii), x, y, w, h (int), crc32 (int), data
+ *
+ * An edit record holds the new texels of an area of a single channel chunk (1 byte per texel).
+ * A chunk record replaces a whole chunk (w = data length, h = 0). Used for the metadata and lighting.
+ * Replaying the records in order over the base gives the current state. Replaying is idempotent,
+ * so a crash in the middle of a compaction loses nothing.
+ *
+ * Records are written in order by a single background thread, so appending never touches the disk
+ * on the render thread. When the journal grows past the threshold, it is folded into the base file
+ * (compaction) on the same thread, and truncated. A torn record at the end (crash) is cut off on open.
+ * Disposing compacts in the background. Opening or reading the journal of a base file waits for a
+ * disposed journal of the same file to finish. If the process exits first, the journal is replayed.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class EditJournal implements Disposable {
+
+    public static final String EXTENSION = ".journal";
+    public static final long COMPACTION_THRESHOLD = 16L * 1024 * 1024;
+    private static final int MAGIC = 0x434E564A; // CNVJ
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 25;
+    private static final byte TYPE_EDIT = 1;
+    private static final byte TYPE_CHUNK = 2;
+
+    public record Record(byte type, String tag, int x, int y, int w, int h, byte[] data) {
+        public boolean isEdit() {
+            return type == TYPE_EDIT;
+        }
+    }
+
+    private static final Map<Path,ExecutorService> closing = new ConcurrentHashMap<>();
+
+    private final Path base;
+    private final Path path;
+    private final int width;
+    private final int height;
+    private final ExecutorService writer;
+    private final FileChannel channel; // writer thread only
+
+    private EditJournal(Path base, Path path, int width, int height, FileChannel channel) {
+        this.base = base;
+        this.path = path;
+        this.width = width;
+        this.height = height;
+        this.channel = channel;
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable,"edit-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static Path path(Path base) {
+        return base.resolveSibling(base.getFileName().toString() + EXTENSION);
+    }
+
+    /**
+     * Opens the journal of the base file for appending. Creates it if it does not exist.
+     * A journal of another size is discarded.
+     */
+    public static EditJournal open(Path base, int width, int height) throws IOException {
+        awaitClosed(base);
+        Path path = path(base);
+        FileChannel channel = FileChannel.open(path,StandardOpenOption.CREATE,StandardOpenOption.READ,StandardOpenOption.WRITE);
+        try {
+            long valid = validLength(channel,width,height);
+            if (valid < HEADER_SIZE) {
+                channel.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).flip();
+                while (header.hasRemaining()) channel.write(header,header.position());
+                valid = HEADER_SIZE;
+            } else if (valid < channel.size()) {
+                Logger.warn("edit journal: discarding {} bytes of a torn record",channel.size() - valid);
+                channel.truncate(valid);
+            } channel.position(valid);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        } return new EditJournal(base,path,width,height,channel);
+    }
+
+    /**
+     * Reads the journal of the base file. Stops at the first torn or corrupt record.
+     * @return the records in order. Empty if there is no journal, or if it belongs to an image of another size
+     */
+    public static List<Record> read(Path base, int width, int height) throws IOException {
+        awaitClosed(base);
+        Path path = path(base);
+        if (!Files.isRegularFile(path)) return Collections.emptyList();
+        try (FileChannel channel = FileChannel.open(path,StandardOpenOption.READ)) {
+            return read(channel,width,height);
+        }
+    }
+
+    /**
+     * Applies the records of the chunk in order.
+     * @param data the chunk data. Copied before the first write, so read only buffers are fine
+     * @param width image width (texels per row)
+     * @return the chunk after the records. The same buffer if no record touched the chunk
+     */
+    public static ByteBuffer apply(List<Record> records, String tag, ByteBuffer data, int width) {
+        boolean copied = false;
+        for (Record record : records) {
+            if (!record.tag.equals(tag)) continue;
+            if (record.isEdit()) {
+                if (!copied) {
+                    data = ByteBuffer.allocateDirect(data.remaining()).put(data.duplicate()).flip();
+                    copied = true;
+                } for (int r = 0; r < record.h; r++) {
+                    int row = (record.y + r) * width + record.x;
+                    data.put(data.position() + row,record.data,r * record.w,record.w);
+                }
+            } else {
+                data = ByteBuffer.allocateDirect(record.data.length).put(record.data).flip();
+                copied = true;
+            }
+        } return data;
+    }
+
+    /**
+     * Logs the new texels of an area. The texels are copied before returning.
+     * @param texels w * h bytes, rows bottom up (texture space)
+     */
+    public void appendEdit(String tag, int x, int y, int w, int h, ByteBuffer texels) {
+        if (x < 0 || y < 0 || w <= 0 || h <= 0 || x + w > width || y + h > height) {
+            throw new IllegalArgumentException("edit outside of the image");
+        } byte[] data = new byte[w * h];
+        texels.get(texels.position(),data);
+        append(new Record(TYPE_EDIT,tag,x,y,w,h,data));
+    }
+
+    /** Logs a whole chunk (replaces the chunk in the base on compaction) */
+    public void appendChunk(String tag, ByteBuffer chunk) {
+        byte[] data = new byte[chunk.remaining()];
+        chunk.get(chunk.position(),data);
+        append(new Record(TYPE_CHUNK,tag,0,0,data.length,0,data));
+    }
+
+    /** Forces the journal to the storage device (in order, after the pending records) */
+    public void sync() {
+        submit(() -> channel.force(false));
+    }
+
+    /** Folds the journal into the base file (in order, after the pending records) */
+    public void compact() {
+        submit(this::compactNow);
+    }
+
+    public Path base() {
+        return base;
+    }
+
+    /** Compacts, then closes the journal on the writer thread. Returns without waiting (see awaitClosed) */
+    public void dispose() {
+        if (writer.isShutdown()) return;
+        Path key = key(base);
+        closing.put(key,writer);
+        submit(() -> {
+            try { if (channel.size() > HEADER_SIZE) compactNow();
+            } finally {
+                channel.close();
+                closing.remove(key,writer);
+            }
+        });
+        writer.shutdown();
+    }
+
+    /**
+     * Waits for a disposed journal of the base file to finish compacting.
+     * Call before writing the base file. Open and read call it.
+     */
+    public static void awaitClosed(Path base) {
+        ExecutorService writer = closing.get(key(base));
+        if (writer == null) return;
+        try {
+            if (!writer.awaitTermination(30,TimeUnit.SECONDS)) {
+                Logger.warn("edit journal: disposed journal still compacting: {}",base);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Path key(Path base) {
+        return base.toAbsolutePath().normalize();
+    }
+
+    private interface Job {
+        void run() throws IOException;
+    }
+
+    private void submit(Job job) {
+        if (writer.isShutdown()) return;
+        writer.execute(() -> {
+            try { job.run();
+            } catch (IOException e) {
+                Logger.error(e,"edit journal: {}",path);
+            }
+        });
+    }
+
+    private void append(Record record) {
+        submit(() -> {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + record.data.length);
+            CRC32 crc = new CRC32();
+            crc.update(record.data);
+            buffer.put(record.type).put(record.tag.getBytes(StandardCharsets.US_ASCII));
+            buffer.putInt(record.x).putInt(record.y).putInt(record.w).putInt(record.h);
+            buffer.putInt((int) crc.getValue()).put(record.data).flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            if (channel.size() > COMPACTION_THRESHOLD) compactNow();
+        });
+    }
+
+    /** Writer thread */
+    private void compactNow() throws IOException {
+        List<Record> records = read(channel,width,height);
+        if (records.isEmpty()) return;
+        long time = System.currentTimeMillis();
+        CanvasFile canvas = CanvasFile.open(base);
+        List<CanvasFile.Chunk> chunks = new ArrayList<>();
+        Set<String> added = new LinkedHashSet<>();
+        try {
+            for (CanvasFile.Entry entry : canvas.entries()) {
+                ByteBuffer data = apply(records,entry.tag(),canvas.chunk(entry.tag()),width);
+                chunks.add(new CanvasFile.Chunk(entry.tag(),data,entry.compressed()));
+            } for (Record record : records) {
+                if (!canvas.contains(record.tag)) added.add(record.tag);
+            }
+        } finally {
+            canvas.dispose();
+        } for (String tag : added) { // new chunks start at their first chunk record
+            int first = -1, dropped = 0;
+            for (int i = 0; i < records.size() && first < 0; i++) {
+                Record record = records.get(i);
+                if (!record.tag.equals(tag)) continue;
+                if (record.isEdit()) dropped++;
+                else first = i;
+            } if (dropped > 0) {
+                Logger.warn("edit journal: {} edits of {} without a chunk to apply to, dropped",dropped,tag);
+            } if (first >= 0) {
+                ByteBuffer data = apply(records.subList(first,records.size()),tag,ByteBuffer.allocate(0),width);
+                chunks.add(new CanvasFile.Chunk(tag,data,true));
+            }
+        } CanvasFile.write(base,chunks);
+        channel.truncate(HEADER_SIZE);
+        channel.position(HEADER_SIZE);
+        channel.force(false);
+        Logger.info("edit journal: {} records folded into {} ({} ms)",
+        records.size(),base.getFileName(),System.currentTimeMillis() - time);
+    }
+
+    private static List<Record> read(FileChannel channel, int width, int height) throws IOException {
+        List<Record> records = new ArrayList<>();
+        scan(channel,width,height,records);
+        return records;
+    }
+
+    private static long validLength(FileChannel channel, int width, int height) throws IOException {
+        return scan(channel,width,height,null);
+    }
+
+    /** @return the length of the valid part of the journal. 0 if the header is invalid */
+    private static long scan(FileChannel channel, int width, int height, List<Record> records) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) return 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel,header,0);
+        if (header.getInt() != MAGIC || header.getInt() > VERSION) return 0;
+        if (header.getInt() != width || header.getInt() != height) {
+            Logger.warn("edit journal: size mismatch. ignoring the journal");
+            return 0;
+        } long position = HEADER_SIZE;
+        ByteBuffer record_header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        byte[] tag = new byte[4];
+        while (position + RECORD_HEADER_SIZE <= size) {
+            record_header.clear();
+            readFully(channel,record_header,position);
+            byte type = record_header.get();
+            record_header.get(tag);
+            int x = record_header.getInt();
+            int y = record_header.getInt();
+            int w = record_header.getInt();
+            int h = record_header.getInt();
+            int crc = record_header.getInt();
+            long length;
+            if (type == TYPE_EDIT) {
+                if (x < 0 || y < 0 || w <= 0 || h <= 0 || x + w > width || y + h > height) break;
+                length = (long) w * h;
+            } else if (type == TYPE_CHUNK) {
+                if (w < 0 || h != 0) break;
+                length = w;
+            } else break;
+            if (position + RECORD_HEADER_SIZE + length > size) break;
+            ByteBuffer data = ByteBuffer.allocate((int) length);
+            readFully(channel,data,position + RECORD_HEADER_SIZE);
+            CRC32 checksum = new CRC32();
+            checksum.update(data.array());
+            if ((int) checksum.getValue() != crc) break;
+            if (records != null) {
+                records.add(new Record(type,new String(tag,StandardCharsets.US_ASCII),x,y,w,h,data.array()));
+            } position += RECORD_HEADER_SIZE + length;
+        } return position;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer,position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of journal");
+            }
+        } buffer.flip();
+    }
+}
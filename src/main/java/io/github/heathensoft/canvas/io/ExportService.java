@@ -0,0 +1,301 @@
+package io.github.heathensoft.canvas.io;
+
+import io.github.heathensoft.canvas.cpu.ShadowSweep;
+import io.github.heathensoft.jlib.common.Disposable;
+import io.github.heathensoft.jlib.common.thread.Task;
+import io.github.heathensoft.jlib.lwjgl.graphics.BufferObject;
+import io.github.heathensoft.jlib.lwjgl.graphics.Texture;
+import io.github.heathensoft.jlib.lwjgl.graphics.TextureFormat;
+import io.github.heathensoft.jlib.lwjgl.window.Engine;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.tinylog.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.stb.STBImageWrite.stbi_flip_vertically_on_write;
+import static org.lwjgl.stb.STBImageWrite.stbi_write_png;
+
+/**
+ * Png export without stalling the render thread.
+ * export() reads the texture into a pixel pack buffer and places a fence. Nothing waits on it.
+ * update() (once per frame) checks the fences. When a readback has landed, the pixels are copied out
+ * of the mapped buffer and encoded by the engine thread pool. Completion is reported on the render thread.
+ * Packed exports (PackedMaps) read several textures into one buffer. They are packed by the pool as well.
+ * Shadow exports read the depth map and sweep it (ShadowSweep) on the pool, as the CPU pipeline does.
+ * read() is the same readback without a file: the texels are handed to the caller (AtlasExporter).
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class ExportService implements Disposable {
+
+    private final List<Readback> readbacks;
+    private PngEncoder encoder; // null: stb_image_write
+    private int exports_queued;
+    private int exports_completed;
+    private int exports_failed;
+    private long batch_start;
+
+    public ExportService() {
+        this.readbacks = new ArrayList<>();
+    }
+
+    /**
+     * Render thread. Queues the readback of texture level 0. Texels are expected to be 8-bit per channel.
+     * @param file png output file. Overwritten if it exists
+     */
+    public void export(Texture texture, Path file) {
+        queue(file,Packing.NONE,texture);
+    }
+
+    /**
+     * Render thread. Packs single channel textures into one png, one component each (PackedMaps).
+     * @param planes R8 textures of the same size. 1 to 4
+     */
+    public void exportPacked(Path file, Texture... planes) {
+        if (planes.length < 1 || planes.length > 4) throw new IllegalArgumentException("planes: " + planes.length);
+        queue(file,Packing.PLANAR,planes);
+    }
+
+    /** Render thread. Two byte octahedral normals (PackedMaps). RGB8 texture */
+    public void exportNormalsOctahedral(Texture normals, Path file) {
+        queue(file,Packing.OCTAHEDRAL,normals);
+    }
+
+    /**
+     * Render thread. The shadow map of a directional light, swept from the read back depth map.
+     * @param depth R8 depth texture
+     * @param light direction towards the light (not normalized)
+     */
+    public void exportShadows(Texture depth, Path file, float amplitude, Vector3f light) {
+        queue(file,Packing.SHADOW_SWEEP,depth).sweep = new Sweep(amplitude,light.x,light.y,light.z);
+    }
+
+    /**
+     * Render thread. Reads texture level 0 without stalling. Not counted as an export.
+     * @param consumer called on the render thread (update) with the texels (memAlloc, the consumer frees them),
+     * or with null if the readback failed or was dropped (dispose)
+     */
+    public void read(Texture texture, Consumer<ByteBuffer> consumer) {
+        queue(null,Packing.RAW,texture).consumer = consumer;
+    }
+
+    /** Render thread. Hands finished readbacks to the thread pool. Never blocks */
+    public void update() {
+        if (readbacks.isEmpty()) return;
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer status = stack.mallocInt(1);
+            for (int i = 0; i < readbacks.size(); i++) {
+                Readback readback = readbacks.get(i);
+                glGetSynciv(readback.sync,GL_SYNC_STATUS,null,status);
+                if (status.get(0) == GL_SIGNALED) {
+                    readbacks.remove(i--);
+                    ByteBuffer pixels = readback.map();
+                    readback.dispose();
+                    if (readback.packing == Packing.RAW) {
+                        if (pixels == null) Logger.error("unable to map pixel buffer (readback)");
+                        readback.consumer.accept(pixels);
+                    } else if (pixels == null) {
+                        Logger.error("unable to map pixel buffer: {}",readback.file);
+                        onExported(false);
+                    } else Engine.get().threadPool().handle(new EncodeTask(this,encoder,readback,pixels));
+                }
+            }
+        }
+    }
+
+    /** @param encoder null to encode with stb_image_write. Applies to readbacks not yet handed to the pool */
+    public void setEncoder(PngEncoder encoder) {
+        this.encoder = encoder;
+    }
+
+    public boolean busy() {
+        return exports_completed + exports_failed < exports_queued;
+    }
+
+    /** @return completed / queued in the current (or last) batch. 1 if idle */
+    public float progress() {
+        return exports_queued == 0 ? 1.0f : (float) (exports_completed + exports_failed) / exports_queued;
+    }
+
+    public int exportsQueued() {
+        return exports_queued;
+    }
+
+    public int exportsCompleted() {
+        return exports_completed;
+    }
+
+    public int exportsFailed() {
+        return exports_failed;
+    }
+
+    /** Pending readbacks are dropped. Encoding in progress finishes on its own */
+    public void dispose() {
+        for (Readback readback : readbacks) {
+            readback.dispose();
+            if (readback.packing == Packing.RAW) readback.consumer.accept(null);
+        } readbacks.clear();
+    }
+
+    private Readback queue(Path file, Packing packing, Texture... textures) {
+        if (packing != Packing.RAW && !busy()) {
+            exports_queued = exports_completed = exports_failed = 0;
+            batch_start = System.currentTimeMillis();
+        } int width = textures[0].width();
+        int height = textures[0].height();
+        long texels = (long) width * height;
+        long size = 0;
+        for (Texture texture : textures) size += texels * texture.format().channels;
+        BufferObject pbo = new BufferObject(GL_PIXEL_PACK_BUFFER,GL_STREAM_READ);
+        pbo.bind();
+        pbo.bufferData(size);
+        glPixelStorei(GL_PACK_ALIGNMENT,1);
+        long offset = 0L;
+        for (Texture texture : textures) { // planes back to back
+            TextureFormat format = texture.format();
+            texture.bindToActiveSlot();
+            glGetTexImage(GL_TEXTURE_2D,0,format.pixel_format,format.pixel_data_type,offset);
+            offset += texels * format.channels;
+        } long sync = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE,0);
+        BufferObject.bindZERO(GL_PIXEL_PACK_BUFFER);
+        Texture.unbindActiveSlot(GL_TEXTURE_2D);
+        glFlush(); // the fence must reach the gpu to ever be signaled
+        int channels = switch (packing) {
+            case NONE, RAW -> textures[0].format().channels;
+            case PLANAR -> textures.length;
+            case OCTAHEDRAL -> 2;
+            case SHADOW_SWEEP -> 1;
+        }; Readback readback = new Readback(pbo,sync,file,width,height,channels,(int) size,packing);
+        readbacks.add(readback);
+        if (packing != Packing.RAW) exports_queued++;
+        return readback;
+    }
+
+    private void onExported(boolean success) {
+        if (success) exports_completed++;
+        else exports_failed++;
+        if (!busy()) {
+            long time = System.currentTimeMillis() - batch_start;
+            if (exports_failed == 0) Logger.info("export complete: {} files in {} ms",exports_completed,time);
+            else Logger.warn("export complete: {} of {} files failed ({} ms)",exports_failed,exports_queued,time);
+        } else Logger.debug("exporting: {}%",(int) (progress() * 100));
+    }
+
+    /** How the read back texels become the encoded pixels */
+    private enum Packing { NONE, PLANAR, OCTAHEDRAL, SHADOW_SWEEP, RAW }
+
+    private record Sweep(float amplitude, float lx, float ly, float lz) { }
+
+    private static final class Readback implements Disposable {
+
+        final BufferObject pbo;
+        final Path file;
+        final Packing packing;
+        final int width, height, channels; // encoded
+        final int size; // read back
+        Sweep sweep; // SHADOW_SWEEP
+        Consumer<ByteBuffer> consumer; // RAW
+        long sync;
+
+        Readback(BufferObject pbo, long sync, Path file, int width, int height, int channels, int size, Packing packing) {
+            this.pbo = pbo;
+            this.sync = sync;
+            this.file = file;
+            this.width = width;
+            this.height = height;
+            this.channels = channels;
+            this.size = size;
+            this.packing = packing;
+        }
+
+        /** @return a copy of the read back texels (memAlloc). Null if the buffer could not be mapped */
+        ByteBuffer map() {
+            pbo.bind();
+            ByteBuffer mapped = glMapBufferRange(GL_PIXEL_PACK_BUFFER,0,size,GL_MAP_READ_BIT);
+            ByteBuffer pixels = null;
+            if (mapped != null) {
+                pixels = MemoryUtil.memAlloc(size);
+                MemoryUtil.memCopy(mapped,pixels);
+                glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+            } BufferObject.bindZERO(GL_PIXEL_PACK_BUFFER);
+            return pixels;
+        }
+
+        public void dispose() {
+            if (sync != 0L) {
+                glDeleteSync(sync);
+                sync = 0L;
+            } Disposable.dispose(pbo);
+        }
+    }
+
+    private static final class EncodeTask implements Task {
+
+        private final ExportService service;
+        private final PngEncoder encoder;
+        private final Readback readback;
+        private ByteBuffer pixels;
+
+        EncodeTask(ExportService service, PngEncoder encoder, Readback readback, ByteBuffer pixels) {
+            this.service = service;
+            this.encoder = encoder;
+            this.readback = readback;
+            this.pixels = pixels;
+        }
+
+        public int process(long queue_time_ms) throws Exception {
+            try {
+                int texels = readback.width * readback.height;
+                ByteBuffer encoded = switch (readback.packing) {
+                    case NONE, RAW -> pixels;
+                    case PLANAR -> PackedMaps.interleave(pixels,texels,readback.channels);
+                    case OCTAHEDRAL -> PackedMaps.encodeOctahedral(pixels,texels);
+                    case SHADOW_SWEEP -> { Sweep s = readback.sweep;
+                        yield ShadowSweep.shadowMap(ForkJoinPool.commonPool(),pixels,readback.width,
+                        readback.height,s.amplitude(),s.lx(),s.ly(),s.lz());
+                    }
+                };
+                Path directory = readback.file.getParent();
+                if (directory != null) Files.createDirectories(directory);
+                if (encoder == null) {
+                    int stride = readback.width * readback.channels;
+                    stbi_flip_vertically_on_write(true);
+                    if (!stbi_write_png(readback.file.toString(),readback.width,
+                    readback.height,readback.channels,encoded,stride)) {
+                        throw new IOException("stbi_write_png failed: " + readback.file);
+                    }
+                } else encoder.write(readback.file,encoded,readback.width,readback.height,readback.channels,true);
+                WrittenFiles.record(readback.file);
+            } finally {
+                MemoryUtil.memFree(pixels);
+                pixels = null;
+            } return 0;
+        }
+
+        public void onCompletion(Exception e, int status, long runtime_ms) {
+            if (e != null) {
+                Logger.error(e,"unable to export: {}",readback.file);
+                if (pixels != null) { // rejected by the thread pool
+                    MemoryUtil.memFree(pixels);
+                    pixels = null;
+                }
+            } else Logger.debug("exported: {} ({} ms)",readback.file,runtime_ms);
+            service.onExported(e == null);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package io.github.heathensoft.canvas.io;
+
+import io.github.heathensoft.jlib.common.Disposable;
+import org.tinylog.Logger;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memory-mapped scratch file for cold undo history (one per project, in the temp directory).
+ * Records are byte arrays written into mapped segments. The index is kept by the caller (Record),
+ * nothing in the file describes itself. Writing is a copy into mapped memory, the OS pages it out.
+ * A segment is reused once every record in it has been released, so the file only grows with the
+ * live history. The file is deleted on dispose. Render thread only.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class HistoryFile implements Disposable {
+
+    public static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    public record Record(int segment, int offset, int length) { }
+
+    private static final class Segment {
+        final MappedByteBuffer buffer;
+        int position;
+        int live;
+        Segment(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    private final List<Segment> segments;
+    private long file_size;
+    private long live_bytes;
+    private int current;
+
+    private HistoryFile(Path path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+        this.segments = new ArrayList<>();
+    }
+
+    /** @param name used in the file name */
+    public static HistoryFile create(String name) throws IOException {
+        Path path = Files.createTempFile("canvas-history-" + name.replaceAll("[^A-Za-z0-9_-]",""),".tmp");
+        path.toFile().deleteOnExit();
+        FileChannel channel = FileChannel.open(path,StandardOpenOption.READ,StandardOpenOption.WRITE);
+        return new HistoryFile(path,channel);
+    }
+
+    public Record write(byte[] data) throws IOException {
+        Segment segment = segments.isEmpty() ? null : segments.get(current);
+        if (segment == null || segment.buffer.capacity() - segment.position < data.length) {
+            segment = null;
+            for (int i = 0; i < segments.size(); i++) {
+                Segment s = segments.get(i);
+                if (s.live == 0 && s.buffer.capacity() >= data.length) {
+                    s.position = 0;
+                    segment = s;
+                    current = i;
+                    break;
+                }
+            } if (segment == null) {
+                int size = Math.max(SEGMENT_SIZE,data.length);
+                segment = new Segment(channel.map(FileChannel.MapMode.READ_WRITE,file_size,size));
+                file_size += size;
+                segments.add(segment);
+                current = segments.size() - 1;
+            }
+        } Record record = new Record(current,segment.position,data.length);
+        segment.buffer.put(segment.position,data);
+        segment.position += data.length;
+        segment.live++;
+        live_bytes += data.length;
+        return record;
+    }
+
+    public byte[] read(Record record) {
+        byte[] data = new byte[record.length];
+        segments.get(record.segment).buffer.get(record.offset,data);
+        return data;
+    }
+
+    /** The record can no longer be read */
+    public void release(Record record) {
+        segments.get(record.segment).live--;
+        live_bytes -= record.length;
+    }
+
+    /** @return bytes of records not released */
+    public long liveBytes() {
+        return live_bytes;
+    }
+
+    public long fileSize() {
+        return file_size;
+    }
+
+    public void dispose() {
+        segments.clear();
+        try { channel.close();
+            Files.deleteIfExists(path);
+        } catch (IOException e) { // still mapped (windows), deleted on exit
+            Logger.debug("unable to delete history file: {}",path);
+        }
+    }
+}
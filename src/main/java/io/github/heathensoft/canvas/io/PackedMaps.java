@@ -0,0 +1,119 @@
+package io.github.heathensoft.canvas.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packed layouts. Several maps in one image, fewer files to write, decode and upload.
+ *
+ * material (RGBA8): details, volume, specular, emissive. The four channels of a project (component = channel id).
+ * Together with the color source, a project round-trips from two files.
+ * surface (RGBA8): depth, specular, emissive, occlusion. Export only, for the game side.
+ * octahedral normals (RG8): the normal folded onto the octahedron and unfolded to a square. Two bytes per texel.
+ *
+ * The alpha component carries data, so packed images should not be edited by tools that premultiply
+ * or clear transparent texels. Buffers are read from index 0 (absolute) and never modified.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class PackedMaps {
+
+    /**
+     * Interleaves single channel maps.
+     * @param planes one R8 map per component. null components are 0
+     * @return a new buffer, texels * planes.length
+     */
+    public static ByteBuffer interleave(int texels, ByteBuffer... planes) {
+        int channels = planes.length;
+        ByteBuffer packed = ByteBuffer.allocateDirect(texels * channels);
+        for (int c = 0; c < channels; c++) {
+            ByteBuffer plane = planes[c];
+            if (plane == null) continue;
+            for (int i = 0; i < texels; i++) {
+                packed.put(i * channels + c,plane.get(i));
+            }
+        } return packed;
+    }
+
+    /**
+     * Planar to interleaved. The planes are stored back to back (texels each).
+     * @return a new buffer, texels * channels
+     */
+    public static ByteBuffer interleave(ByteBuffer planar, int texels, int channels) {
+        ByteBuffer[] planes = new ByteBuffer[channels];
+        for (int c = 0; c < channels; c++) {
+            planes[c] = planar.slice(c * texels,texels);
+        } return interleave(texels,planes);
+    }
+
+    /**
+     * Extracts one component.
+     * @param packed texels * channels
+     * @return the component, one byte per texel
+     */
+    public static byte[] component(ByteBuffer packed, int texels, int channels, int component) {
+        byte[] plane = new byte[texels];
+        for (int i = 0; i < texels; i++) {
+            plane[i] = packed.get(i * channels + component);
+        } return plane;
+    }
+
+    /**
+     * @param rgb normals, unsigned normalized (n * 0.5 + 0.5)
+     * @return a new RG8 buffer
+     */
+    public static ByteBuffer encodeOctahedral(ByteBuffer rgb, int texels) {
+        ByteBuffer rg = ByteBuffer.allocateDirect(texels * 2);
+        for (int i = 0; i < texels; i++) {
+            float x = (rgb.get(i * 3) & 0xFF) / 127.5f - 1f;
+            float y = (rgb.get(i * 3 + 1) & 0xFF) / 127.5f - 1f;
+            float z = (rgb.get(i * 3 + 2) & 0xFF) / 127.5f - 1f;
+            encodeOctahedral(x,y,z,rg,i * 2);
+        } return rg;
+    }
+
+    /**
+     * Encodes one normal (any length) into two bytes.
+     * @param offset of the two bytes in rg (absolute)
+     */
+    public static void encodeOctahedral(float x, float y, float z, ByteBuffer rg, int offset) {
+        float l1 = Math.abs(x) + Math.abs(y) + Math.abs(z);
+        if (l1 == 0) { x = 0; y = 0; } // flat: (0,0,1)
+        else { x /= l1; y /= l1;
+            if (z < 0) { // fold the lower hemisphere over the diagonals
+                float fx = (1f - Math.abs(y)) * signNotZero(x);
+                float fy = (1f - Math.abs(x)) * signNotZero(y);
+                x = fx; y = fy;
+            }
+        } rg.put(offset,unorm(x));
+        rg.put(offset + 1,unorm(y));
+    }
+
+    /** @return a new RGB8 buffer, unsigned normalized (n * 0.5 + 0.5) */
+    public static ByteBuffer decodeOctahedral(ByteBuffer rg, int texels) {
+        ByteBuffer rgb = ByteBuffer.allocateDirect(texels * 3);
+        for (int i = 0; i < texels; i++) {
+            float x = (rg.get(i * 2) & 0xFF) / 127.5f - 1f;
+            float y = (rg.get(i * 2 + 1) & 0xFF) / 127.5f - 1f;
+            float z = 1f - Math.abs(x) - Math.abs(y);
+            float t = Math.max(-z,0f);
+            x += x >= 0 ? -t : t;
+            y += y >= 0 ? -t : t;
+            float length = (float) Math.sqrt(x * x + y * y + z * z);
+            rgb.put(i * 3,unorm(x / length));
+            rgb.put(i * 3 + 1,unorm(y / length));
+            rgb.put(i * 3 + 2,unorm(z / length));
+        } return rgb;
+    }
+
+    /** Math.signum is 0 on the axes, which would fold (0, y, -z) onto (0, 1, 0) */
+    private static float signNotZero(float v) {
+        return v >= 0f ? 1f : -1f;
+    }
+
+    private static byte unorm(float v) {
+        return (byte) Math.round(Math.max(0f,Math.min(255f,(v * 0.5f + 0.5f) * 255f)));
+    }
+}
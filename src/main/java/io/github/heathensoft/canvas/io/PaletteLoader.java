@@ -0,0 +1,109 @@
+package io.github.heathensoft.canvas.io;
+
+import io.github.heathensoft.canvas.LutPalette;
+import io.github.heathensoft.canvas.cpu.PaletteLut;
+import io.github.heathensoft.jlib.common.io.External;
+import io.github.heathensoft.jlib.common.thread.Task;
+import io.github.heathensoft.jlib.lwjgl.graphics.Color;
+import io.github.heathensoft.jlib.lwjgl.utils.Resources;
+import org.tinylog.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Loads a .hex palette (one RRGGBB per line) and its lut off the render thread.
+ * Luts are cached on disk, keyed by the hash of the colors and size (PaletteLut.key).
+ * A cache miss builds the lut in parallel and writes it to the cache.
+ * The texture is created in onCompletion (render thread).
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class PaletteLoader implements Task {
+    
+    private static final String extension = ".lut";
+    
+    private final String resource;
+    private final String name;
+    private final int size;
+    private final Consumer<LutPalette> onLoaded;
+    private ByteBuffer lut;
+    
+    /**
+     * @param resource class path resource, i.e. "palette/aap-64.hex"
+     * @param onLoaded called on the render thread
+     */
+    public PaletteLoader(String resource, String name, int size, Consumer<LutPalette> onLoaded) {
+        this.resource = resource;
+        this.name = name;
+        this.size = size;
+        this.onLoaded = onLoaded;
+    }
+    
+    /** Loads on the calling thread (render thread) */
+    public static LutPalette load(String resource, String name, int size) throws Exception {
+        PaletteLoader loader = new PaletteLoader(resource,name,size,null);
+        loader.process(0);
+        return new LutPalette(name,loader.lut,size);
+    }
+    
+    public static Path cacheDirectory() throws IOException {
+        return External.APP_DATA("SpriteLighter","palette_cache");
+    }
+    
+    public static List<Color> readColors(List<String> lines) {
+        List<Color> colors = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            if (!line.isBlank()) colors.add(Color.valueOf(line.trim()));
+        } return colors;
+    }
+    
+    /** @return 1 if the lut was cached, 0 if it was built */
+    public int process(long queue_time_ms) throws Exception {
+        List<Color> colors = readColors(new Resources().asLines(resource));
+        if (colors.isEmpty()) throw new IOException("empty palette: " + resource);
+        int bytes = size * size * size * 3;
+        Path file = cacheDirectory().resolve(PaletteLut.key(colors,size) + extension);
+        if (Files.isRegularFile(file) && Files.size(file) == bytes) {
+            try (FileChannel channel = FileChannel.open(file,StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(bytes);
+                while (buffer.hasRemaining() && channel.read(buffer) != -1);
+                if (!buffer.hasRemaining()) {
+                    lut = buffer.flip();
+                    return 1;
+                }
+            } catch (IOException e) {
+                Logger.warn(e,"unable to read cached lut: {}",file);
+            }
+        }
+        lut = PaletteLut.build(ForkJoinPool.commonPool(),colors,size);
+        try { Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(),"lut",".tmp");
+            new External(tmp).write(lut.clear());
+            Files.move(tmp,file,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Logger.warn(e,"unable to cache lut: {}",file);
+        } return 0;
+    }
+    
+    public void onCompletion(Exception e, int status, long runtime_ms) {
+        if (e != null) {
+            Logger.error(e,"failed to load palette: {}",resource);
+        } else {
+            Logger.info("palette {} loaded in {} ms ({})",name,runtime_ms,status == 1 ? "cached" : "built");
+            onLoaded.accept(new LutPalette(name,lut,size));
+        }
+    }
+}
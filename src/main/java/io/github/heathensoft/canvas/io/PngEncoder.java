@@ -0,0 +1,271 @@
+package io.github.heathensoft.canvas.io;
+
+import io.github.heathensoft.canvas.cpu.TileTask;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Pure java png encoder. 8-bit gray, gray alpha, rgb and rgba.
+ * Rows are filtered in parallel. The filter is picked per row (minimum sum of absolute differences).
+ * The filtered data is split into chunks that are deflated in parallel (like pigz).
+ * Each chunk is primed with the last 32 KB of the previous chunk as its dictionary and ends with a sync flush,
+ * so the chunks concatenate into a single valid zlib stream.
+ * Stateless. One encoder can be shared between threads.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class PngEncoder {
+
+    public enum Preset {
+        FASTEST(1,false),   // sub filter only
+        FAST(3,true),
+        DEFAULT(6,true),
+        SMALLEST(9,true);
+        public final int level;
+        public final boolean adaptive;
+        Preset(int level, boolean adaptive) {
+            this.level = level;
+            this.adaptive = adaptive;
+        }
+    }
+
+    private static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+    private static final int DICTIONARY_SIZE = 32768;
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+
+    private final ForkJoinPool pool;
+    private final Preset preset;
+
+    public PngEncoder() {
+        this(Preset.DEFAULT);
+    }
+
+    public PngEncoder(Preset preset) {
+        this(ForkJoinPool.commonPool(),preset);
+    }
+
+    public PngEncoder(ForkJoinPool pool, Preset preset) {
+        this.pool = pool;
+        this.preset = preset == null ? Preset.DEFAULT : preset;
+    }
+
+    public void write(Path file, ByteBuffer pixels, int width, int height, int channels, boolean flip) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            encode(out,pixels,width,height,channels,flip);
+        }
+    }
+
+    /**
+     * @param pixels tightly packed rows, 1 byte per channel. Not modified
+     * @param flip rows are stored bottom up (OpenGL)
+     */
+    public void encode(OutputStream out, ByteBuffer pixels, int width, int height, int channels, boolean flip) throws IOException {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("empty image");
+        if (channels < 1 || channels > 4) throw new IllegalArgumentException("channels: " + channels);
+        int stride = width * channels;
+        if (pixels.remaining() < (long) stride * height) throw new IllegalArgumentException("buffer too small");
+        byte[] filtered = filter(pixels,width,height,channels,flip);
+        List<byte[]> compressed = deflate(filtered);
+        Adler32 adler = new Adler32();
+        adler.update(filtered);
+        out.write(SIGNATURE);
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(width).putInt(height);
+        header.put((byte) 8).put((byte) colorType(channels));
+        header.put((byte) 0).put((byte) 0).put((byte) 0);
+        writeChunk(out,"IHDR",header.array(),0,13);
+        writeChunk(out,"IDAT",zlibHeader(preset.level),0,2);
+        for (byte[] data : compressed) {
+            writeChunk(out,"IDAT",data,0,data.length);
+        } byte[] checksum = ByteBuffer.allocate(4).putInt((int) adler.getValue()).array();
+        writeChunk(out,"IDAT",checksum,0,4);
+        writeChunk(out,"IEND",new byte[0],0,0);
+    }
+
+    public Preset preset() {
+        return preset;
+    }
+
+    private byte[] filter(ByteBuffer pixels, int width, int height, int channels, boolean flip) {
+        final int stride = width * channels;
+        final int position = pixels.position();
+        final byte[] filtered = new byte[(stride + 1) * height];
+        TileTask.invoke(pool,0,0,1,height,(x0, y0, x1, y1) -> {
+            byte[] current = new byte[stride];
+            byte[] previous = new byte[stride];
+            byte[][] candidates = preset.adaptive ? new byte[5][stride] : null;
+            for (int y = y0; y < y1; y++) {
+                int source_row = flip ? height - 1 - y : y;
+                pixels.get(position + source_row * stride,current,0,stride);
+                if (y > 0) {
+                    int above = flip ? source_row + 1 : source_row - 1;
+                    pixels.get(position + above * stride,previous,0,stride);
+                } else Arrays.fill(previous,(byte) 0);
+                int offset = y * (stride + 1);
+                if (candidates == null) {
+                    filtered[offset] = FILTER_SUB;
+                    filterRow(FILTER_SUB,current,previous,channels,filtered,offset + 1);
+                } else {
+                    int best_filter = FILTER_NONE;
+                    long best_sum = Long.MAX_VALUE;
+                    for (int f = FILTER_NONE; f <= FILTER_PAETH; f++) {
+                        byte[] candidate = candidates[f];
+                        filterRow(f,current,previous,channels,candidate,0);
+                        long sum = 0;
+                        for (int i = 0; i < stride; i++) sum += Math.abs(candidate[i]);
+                        if (sum < best_sum) {
+                            best_sum = sum;
+                            best_filter = f;
+                        }
+                    } filtered[offset] = (byte) best_filter;
+                    System.arraycopy(candidates[best_filter],0,filtered,offset + 1,stride);
+                }
+            }
+        });
+        return filtered;
+    }
+
+    private static void filterRow(int filter, byte[] row, byte[] prior, int bpp, byte[] dst, int offset) {
+        int length = row.length;
+        switch (filter) {
+            case FILTER_NONE -> System.arraycopy(row,0,dst,offset,length);
+            case FILTER_SUB -> {
+                for (int i = 0; i < length; i++) {
+                    int a = i >= bpp ? row[i - bpp] : 0;
+                    dst[offset + i] = (byte) (row[i] - a);
+                }
+            }
+            case FILTER_UP -> {
+                for (int i = 0; i < length; i++) {
+                    dst[offset + i] = (byte) (row[i] - prior[i]);
+                }
+            }
+            case FILTER_AVERAGE -> {
+                for (int i = 0; i < length; i++) {
+                    int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    int b = prior[i] & 0xFF;
+                    dst[offset + i] = (byte) (row[i] - ((a + b) >> 1));
+                }
+            }
+            case FILTER_PAETH -> {
+                for (int i = 0; i < length; i++) {
+                    int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    int b = prior[i] & 0xFF;
+                    int c = i >= bpp ? prior[i - bpp] & 0xFF : 0;
+                    dst[offset + i] = (byte) (row[i] - paeth(a,b,c));
+                }
+            }
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        return pb <= pc ? b : c;
+    }
+
+    /** Raw deflate chunks. Concatenated they form one deflate stream */
+    private List<byte[]> deflate(byte[] data) throws IOException {
+        int chunks = Math.max(1,(data.length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        List<Callable<byte[]>> tasks = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            final int start = i * CHUNK_SIZE;
+            final int end = Math.min(data.length,start + CHUNK_SIZE);
+            final boolean last = i == chunks - 1;
+            tasks.add(() -> deflateChunk(data,start,end,last));
+        } List<byte[]> compressed = new ArrayList<>(chunks);
+        try {
+            for (Future<byte[]> future : pool.invokeAll(tasks)) {
+                compressed.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("png encoding interrupted",e);
+        } catch (ExecutionException e) {
+            throw new IOException("png encoding failed",e.getCause());
+        } return compressed;
+    }
+
+    private byte[] deflateChunk(byte[] data, int start, int end, boolean last) {
+        Deflater deflater = new Deflater(preset.level,true);
+        try {
+            if (preset.adaptive) deflater.setStrategy(Deflater.FILTERED);
+            if (start > 0) {
+                int dictionary = Math.min(DICTIONARY_SIZE,start);
+                deflater.setDictionary(data,start - dictionary,dictionary);
+            } deflater.setInput(data,start,end - start);
+            ByteArrayOutputStream out = new ByteArrayOutputStream((end - start) / 2 + 64);
+            byte[] buffer = new byte[16384];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    out.write(buffer,0,n);
+                }
+            } else {
+                int n;
+                do { n = deflater.deflate(buffer,0,buffer.length,Deflater.SYNC_FLUSH);
+                    out.write(buffer,0,n);
+                } while (n == buffer.length || !deflater.needsInput());
+            } return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] zlibHeader(int level) {
+        int cmf = 0x78; // deflate, 32 KB window
+        int flevel = level <= 1 ? 0 : level <= 5 ? 1 : level == 6 ? 2 : 3;
+        int flg = flevel << 6;
+        flg += 31 - ((cmf << 8) + flg) % 31;
+        return new byte[] { (byte) cmf, (byte) flg };
+    }
+
+    private static int colorType(int channels) {
+        return switch (channels) {
+            case 1 -> 0;
+            case 2 -> 4;
+            case 3 -> 2;
+            default -> 6;
+        };
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int offset, int length) throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data,offset,length);
+        out.write(ByteBuffer.allocate(4).putInt(length).array());
+        out.write(name);
+        out.write(data,offset,length);
+        out.write(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+    }
+}
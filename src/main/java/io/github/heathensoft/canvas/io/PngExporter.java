@@ -6,6 +6,7 @@ import io.github.heathensoft.jlib.lwjgl.graphics.surface.DepthMap8;
 import io.github.heathensoft.jlib.lwjgl.graphics.surface.NormalMap;
 import org.lwjgl.system.MemoryUtil;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
 
@@ -15,8 +16,9 @@ import static org.lwjgl.stb.STBImageWrite.stbi_write_png;
 
 /**
  *
- * Later I would like to have alternatives for various packed formats.
- * In the meantime normals are 3 bytes and every format its own separate png file.
+ * Every format its own separate png file, or packed (PackedMaps):
+ * material (details, volume, specular, emissive), surface (depth, specular, emissive, occlusion)
+ * and two byte octahedral normals.
  *
  * @author Frederik Dahl
  * 18/01/2023
@@ -26,17 +28,23 @@ import static org.lwjgl.stb.STBImageWrite.stbi_write_png;
 public class PngExporter {
     
     private static final String extension = ".png";
-    private static final String color_suffix = "_color";
-    private static final String depth_suffix = "_depth";
-    private static final String volume_suffix = "_volume";
-    private static final String details_suffix = "_details";
-    private static final String specular_suffix = "_specular";
-    private static final String emissive_suffix = "_emissive";
-    private static final String normals_suffix = "_normals";
-    private static final String preview_suffix = "_preview";
+    public static final String color_suffix = "_color";
+    public static final String depth_suffix = "_depth";
+    public static final String volume_suffix = "_volume";
+    public static final String details_suffix = "_details";
+    public static final String specular_suffix = "_specular";
+    public static final String emissive_suffix = "_emissive";
+    public static final String normals_suffix = "_normals";
+    public static final String preview_suffix = "_preview";
+    public static final String shadows_suffix = "_shadows";
+    public static final String occlusion_suffix = "_occlusion";
+    public static final String material_suffix = "_material";
+    public static final String surface_suffix = "_surface";
+    public static final String octahedral_suffix = "_octahedral";
     
     private String outputName;
     private Path outputDirectory;
+    private PngEncoder encoder; // null: stb_image_write
     
     public PngExporter(Path outputDirectory, String outputName) {
         this.outputDirectory = outputDirectory;
@@ -63,9 +71,7 @@ public class PngExporter {
         ByteBuffer pixels = MemoryUtil.memAlloc(width * height * channels);
         diffuseTexture.bindToActiveSlot();
         diffuseTexture.get(pixels);
-        stbi_flip_vertically_on_write(true);
-        stbi_write_png(color_out.path().toString(),width,height,
-        channels,pixels,width * channels);
+        write(color_out.path(),width,height,channels,pixels);
         MemoryUtil.memFree(pixels);
         Texture.unbindActiveSlot(GL_TEXTURE_2D);
     }
@@ -89,9 +95,7 @@ public class PngExporter {
         ByteBuffer pixels = MemoryUtil.memAlloc(width * height * channels);
         normalsTexture.bindToActiveSlot();
         normalsTexture.get(pixels);
-        stbi_flip_vertically_on_write(true);
-        stbi_write_png(color_out.path().toString(),width,height,
-                channels,pixels,width * channels);
+        write(color_out.path(),width,height,channels,pixels);
         MemoryUtil.memFree(pixels);
         Texture.unbindActiveSlot(GL_TEXTURE_2D);
     }
@@ -115,9 +119,7 @@ public class PngExporter {
         ByteBuffer pixels = MemoryUtil.memAlloc(width * height * channels);
         depthTexture.bindToActiveSlot();
         depthTexture.get(pixels);
-        stbi_flip_vertically_on_write(true);
-        stbi_write_png(color_out.path().toString(),width,height,
-                channels,pixels,width * channels);
+        write(color_out.path(),width,height,channels,pixels);
         MemoryUtil.memFree(pixels);
         Texture.unbindActiveSlot(GL_TEXTURE_2D);
     }
@@ -141,9 +143,7 @@ public class PngExporter {
         ByteBuffer pixels = MemoryUtil.memAlloc(width * height * channels);
         depthTexture.bindToActiveSlot();
         depthTexture.get(pixels);
-        stbi_flip_vertically_on_write(true);
-        stbi_write_png(color_out.path().toString(),width,height,
-                channels,pixels,width * channels);
+        write(color_out.path(),width,height,channels,pixels);
         MemoryUtil.memFree(pixels);
         Texture.unbindActiveSlot(GL_TEXTURE_2D);
     }
@@ -167,9 +167,7 @@ public class PngExporter {
         ByteBuffer pixels = MemoryUtil.memAlloc(width * height * channels);
         depthTexture.bindToActiveSlot();
         depthTexture.get(pixels);
-        stbi_flip_vertically_on_write(true);
-        stbi_write_png(color_out.path().toString(),width,height,
-                channels,pixels,width * channels);
+        write(color_out.path(),width,height,channels,pixels);
         MemoryUtil.memFree(pixels);
         Texture.unbindActiveSlot(GL_TEXTURE_2D);
     }
@@ -205,14 +203,11 @@ public class PngExporter {
         depthTexture.get(pixels);
         DepthMap8 depthMap = new DepthMap8(width,height,channels,pixels);
         pixels.clear().put(depthMap.get()).flip();
-        stbi_flip_vertically_on_write(true);
-        stbi_write_png(depth_out.path().toString(),width,height,
-        1,pixels,width);
+        write(depth_out.path(),width,height,1,pixels);
         // Normals
         NormalMap normalMap = new NormalMap(depthMap,amplitude);
         pixels.clear().put(normalMap.get()).flip();
-        stbi_write_png(normals_out.path().toString(),width,height,
-        3,pixels,width * 3);
+        write(normals_out.path(),width,height,3,pixels);
         MemoryUtil.memFree(pixels);
         Texture.unbindActiveSlot(GL_TEXTURE_2D);
     }
@@ -239,9 +234,7 @@ public class PngExporter {
         ByteBuffer pixels = MemoryUtil.memAlloc(width * height * channels);
         specularTexture.bindToActiveSlot();
         specularTexture.get(pixels);
-        stbi_flip_vertically_on_write(true);
-        stbi_write_png(specular_out.path().toString(),width,height,
-        channels,pixels,width * channels);
+        write(specular_out.path(),width,height,channels,pixels);
         MemoryUtil.memFree(pixels);
         Texture.unbindActiveSlot(GL_TEXTURE_2D);
     }
@@ -265,9 +258,31 @@ public class PngExporter {
         ByteBuffer pixels = MemoryUtil.memAlloc(width * height * channels);
         emissiveTexture.bindToActiveSlot();
         emissiveTexture.get(pixels);
-        stbi_flip_vertically_on_write(true);
-        stbi_write_png(emissive_out.path().toString(),width,height,
-        channels,pixels,width * channels);
+        write(emissive_out.path(),width,height,channels,pixels);
+        MemoryUtil.memFree(pixels);
+        Texture.unbindActiveSlot(GL_TEXTURE_2D);
+    }
+    
+    public void exportShadows(Texture shadowTexture, boolean overwrite) throws Exception {
+        External projectFolder = new External(outputDirectory);
+        projectFolder.createDirectories();
+        String rootName = outputName + shadows_suffix;
+        External shadows_out = new External(projectFolder.path().resolve(rootName + extension));
+        if (!overwrite) {
+            int numerator = 1;
+            while (shadows_out.exist()) {
+                String filename = rootName + "_" + numerator;
+                shadows_out.set(projectFolder.path().resolve(filename + extension));
+                numerator++;
+            }
+        }
+        int width = shadowTexture.width();
+        int height = shadowTexture.height();
+        int channels = shadowTexture.format().channels;
+        ByteBuffer pixels = MemoryUtil.memAlloc(width * height * channels);
+        shadowTexture.bindToActiveSlot();
+        shadowTexture.get(pixels);
+        write(shadows_out.path(),width,height,channels,pixels);
         MemoryUtil.memFree(pixels);
         Texture.unbindActiveSlot(GL_TEXTURE_2D);
     }
@@ -291,13 +306,64 @@ public class PngExporter {
         ByteBuffer pixels = MemoryUtil.memAlloc(width * height * channels);
         previewTexture.bindToActiveSlot();
         previewTexture.get(pixels);
-        stbi_flip_vertically_on_write(true);
-        stbi_write_png(preview_out.path().toString(),width,height,
-        channels,pixels,width * channels);
+        write(preview_out.path(),width,height,channels,pixels);
         MemoryUtil.memFree(pixels);
         Texture.unbindActiveSlot(GL_TEXTURE_2D);
     }
     
+    /** The four channels in one RGBA png (PackedMaps). R8 textures */
+    public void exportMaterial(Texture details, Texture volume, Texture specular, Texture emissive, boolean overwrite) throws Exception {
+        exportPacked(outputFile(material_suffix,overwrite),details,volume,specular,emissive);
+    }
+    
+    /** depth, specular, emissive and occlusion in one RGBA png (PackedMaps). R8 textures */
+    public void exportSurface(Texture depth, Texture specular, Texture emissive, Texture occlusion, boolean overwrite) throws Exception {
+        exportPacked(outputFile(surface_suffix,overwrite),depth,specular,emissive,occlusion);
+    }
+    
+    /** Two byte octahedral normals (PackedMaps). RGB8 texture */
+    public void exportNormalsOctahedral(Texture normalsTexture, boolean overwrite) throws Exception {
+        Path file = outputFile(octahedral_suffix,overwrite);
+        int width = normalsTexture.width();
+        int height = normalsTexture.height();
+        ByteBuffer pixels = MemoryUtil.memAlloc(width * height * 3);
+        try { normalsTexture.bindToActiveSlot();
+            normalsTexture.get(pixels);
+            write(file,width,height,2,PackedMaps.encodeOctahedral(pixels,width * height));
+        } finally {
+            MemoryUtil.memFree(pixels);
+            Texture.unbindActiveSlot(GL_TEXTURE_2D);
+        }
+    }
+    
+    /**
+     * Resolves the output file for the suffix without writing anything.
+     * If overwrite is false, a numbered file name is chosen when the file exists.
+     */
+    public Path outputFile(String suffix, boolean overwrite) throws Exception {
+        External projectFolder = new External(outputDirectory);
+        projectFolder.createDirectories();
+        String rootName = outputName + suffix;
+        External out = new External(projectFolder.path().resolve(rootName + extension));
+        if (!overwrite) {
+            int numerator = 1;
+            while (out.exist()) {
+                String filename = rootName + "_" + numerator;
+                out.set(projectFolder.path().resolve(filename + extension));
+                numerator++;
+            }
+        }
+        return out.path();
+    }
+    
+    /** @param encoder null to write with stb_image_write */
+    public void setEncoder(PngEncoder encoder) {
+        this.encoder = encoder;
+    }
+    
+    public PngEncoder encoder() {
+        return encoder;
+    }
     
     public String outputName() {
         return outputName;
@@ -316,6 +382,31 @@ public class PngExporter {
         this.outputDirectory = outputDirectory;
     }
     
+    private void write(Path file, int width, int height, int channels, ByteBuffer pixels) throws Exception {
+        if (encoder == null) {
+            stbi_flip_vertically_on_write(true);
+            if (!stbi_write_png(file.toString(),width,height,channels,pixels,width * channels)) {
+                throw new IOException("unable to write: " + file);
+            }
+        } else encoder.write(file,pixels,width,height,channels,true);
+        WrittenFiles.record(file);
+    }
+    
+    private void exportPacked(Path file, Texture... planes) throws Exception {
+        int width = planes[0].width();
+        int height = planes[0].height();
+        int texels = width * height;
+        ByteBuffer pixels = MemoryUtil.memAlloc(texels * planes.length);
+        try { for (int c = 0; c < planes.length; c++) {
+                planes[c].bindToActiveSlot();
+                planes[c].get(pixels.slice(c * texels,texels));
+            } write(file,width,height,planes.length,PackedMaps.interleave(pixels,texels,planes.length));
+        } finally {
+            MemoryUtil.memFree(pixels);
+            Texture.unbindActiveSlot(GL_TEXTURE_2D);
+        }
+    }
+    
     private void validateName() {
         if (outputName == null) {
             outputName = "untitled";
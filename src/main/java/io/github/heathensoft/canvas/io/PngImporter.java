@@ -19,6 +19,7 @@ import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
 /**
  * The PngImporter is reusable after disposal (unlike most other disposables)
  * Png files only
+ * The channels can be imported from a packed material map (PackedMaps). Separate channel images take precedence.
  * @author Frederik Dahl
  * 17/01/2023
  */
@@ -33,6 +34,7 @@ public class PngImporter implements Disposable {
     private Image diffuse_image;
     private Image specular_image;
     private Image emissive_image;
+    private Image material_image;
     private ImportStatus status;
     private Path import_path;
     private String name;
@@ -108,6 +110,20 @@ public class PngImporter implements Disposable {
         status = validate();
     }
     
+    /** details, volume, specular and emissive in one RGBA image (PackedMaps) */
+    public void importMaterialImage(Path path) throws Exception {
+        ByteBuffer buffer = new Resources().toBufferExternal(path);
+        Image image = new Image(buffer,true);
+        MemoryUtil.memFree(buffer);
+        if (image.format().channels != 4) {
+            image.dispose();
+            throw new Exception("material image is not RGBA: " + path);
+        } if (material_image != null) {
+            material_image.dispose();
+        } material_image = image;
+        status = validate();
+    }
+    
     private ImportStatus validate() {
         if (diffuse_image == null) {
             return ImportStatus.INCOMPLETE;
@@ -130,6 +146,10 @@ public class PngImporter implements Disposable {
             if (emissive_image.width() == width && emissive_image.height() == height) {
                 num_loaded++;
             } else return ImportStatus.SIZES_NOT_MATCHING;
+        } if (material_image != null) {
+            if (material_image.width() == width && material_image.height() == height) {
+                num_loaded = 5;
+            } else return ImportStatus.SIZES_NOT_MATCHING;
         } if (num_loaded == 5) return ImportStatus.COMPLETE_READY;
         return ImportStatus.INCOMPLETE_READY;
     }
@@ -164,7 +184,18 @@ public class PngImporter implements Disposable {
             color_source.uploadData(diffuse_image.data());
             
             
-            if (details_image == null) {
+            byte[][] material = new byte[Channel.SIZE][];
+            if (material_image != null) {
+                for (Channel channel : Channel.ALL) {
+                    material[channel.id] = PackedMaps.component(material_image.data(),WIDTH * HEIGHT,4,channel.id);
+                }
+            }
+            
+            if (details_image == null && material_image != null) {
+                front_buffer_details = r8Texture(material[Channel.DETAILS.id],WIDTH,HEIGHT);
+                back_buffer_details = r8Texture(material[Channel.DETAILS.id],WIDTH,HEIGHT);
+                
+            } else if (details_image == null) {
                 DepthMap8 depthMap = new DepthMap8(diffuse_image);
                 ByteBuffer buffer = MemoryUtil.memAlloc(depthMap.size());
                 buffer.put(depthMap.get()).flip();
@@ -215,7 +246,11 @@ public class PngImporter implements Disposable {
                 back_buffer_details.uploadData(details_image.data());
             }
     
-            if (volume_image == null) {
+            if (volume_image == null && material_image != null) {
+                front_buffer_volume = r8Texture(material[Channel.VOLUME.id],WIDTH,HEIGHT);
+                back_buffer_volume = r8Texture(material[Channel.VOLUME.id],WIDTH,HEIGHT);
+                
+            } else if (volume_image == null) {
                 int size = WIDTH * HEIGHT;
                 ByteBuffer buffer = MemoryUtil.memAlloc(size);
                 for (int i = 0; i < size; i++) buffer.put(DEFAULT_VOLUME);
@@ -266,7 +301,11 @@ public class PngImporter implements Disposable {
                 back_buffer_volume.uploadData(volume_image.data());
             }
             
-            if (specular_image == null) {
+            if (specular_image == null && material_image != null) {
+                front_buffer_specular = r8Texture(material[Channel.SPECULAR.id],WIDTH,HEIGHT);
+                back_buffer_specular = r8Texture(material[Channel.SPECULAR.id],WIDTH,HEIGHT);
+                
+            } else if (specular_image == null) {
                 int size = WIDTH * HEIGHT;
                 ByteBuffer buffer = MemoryUtil.memAlloc(size);
                 for (int i = 0; i < size; i++) buffer.put(DEFAULT_SPECULAR);
@@ -317,7 +356,11 @@ public class PngImporter implements Disposable {
                 back_buffer_specular.uploadData(specular_image.data());
             }
             
-            if (emissive_image == null) {
+            if (emissive_image == null && material_image != null) {
+                front_buffer_emissive = r8Texture(material[Channel.EMISSIVE.id],WIDTH,HEIGHT);
+                back_buffer_emissive = r8Texture(material[Channel.EMISSIVE.id],WIDTH,HEIGHT);
+                
+            } else if (emissive_image == null) {
                 front_buffer_emissive = Texture.generate2D(WIDTH,HEIGHT);
                 front_buffer_emissive.bindToActiveSlot();
                 front_buffer_emissive.allocate(TextureFormat.R8_UNSIGNED_NORMALIZED,false);
@@ -399,6 +442,10 @@ public class PngImporter implements Disposable {
         return emissive_image;
     }
     
+    public Image material_image() {
+        return material_image;
+    }
+    
     public ImportStatus status() {
         return status;
     }
@@ -416,16 +463,28 @@ public class PngImporter implements Disposable {
                 details_image,
                 volume_image,
                 specular_image,
-                emissive_image);
+                emissive_image,
+                material_image);
         diffuse_image = null;
         details_image = null;
         volume_image = null;
         specular_image = null;
         emissive_image = null;
+        material_image = null;
         status = validate();
         name = "untitled";
     }
     
+    private static Texture r8Texture(byte[] texels, int width, int height) {
+        Texture texture = Texture.generate2D(width,height);
+        texture.bindToActiveSlot();
+        texture.allocate(TextureFormat.R8_UNSIGNED_NORMALIZED,false);
+        texture.filter(GL_NEAREST,GL_NEAREST);
+        texture.clampToEdge();
+        texture.uploadData(texels);
+        return texture;
+    }
+    
     private String resolveName(Path diffusePath) {
         String filename = diffusePath.getFileName().toString();
         return filename.replace(".png","");
@@ -0,0 +1,217 @@
+package io.github.heathensoft.canvas.io;
+
+import io.github.heathensoft.canvas.ENUM;
+import io.github.heathensoft.canvas.Editor;
+import io.github.heathensoft.canvas.PreviewLighting;
+import io.github.heathensoft.canvas.Project;
+import io.github.heathensoft.jlib.common.Disposable;
+import io.github.heathensoft.jlib.lwjgl.graphics.Color;
+import io.github.heathensoft.jlib.lwjgl.graphics.Texture;
+import io.github.heathensoft.jlib.lwjgl.graphics.TextureFormat;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryUtil;
+import org.tinylog.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.lwjgl.opengl.GL11.GL_NEAREST;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
+
+/**
+ * A project stored as a single .canvas file (CanvasFile).
+ * Metadata and lighting are small compressed chunks. The color source and the four channels
+ * (back buffers) are either compressed or raw. Raw chunks are read on load and uploaded
+ * without decoding, so opening is bound by I/O.
+ * Render thread only (texture read back and upload).
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class ProjectFile {
+
+    public static final String META = "META";
+    public static final String LIGHTING = "LGHT";
+    public static final String COLOR = "COLR";
+    public static final String DETAILS = "DETL";
+    public static final String VOLUME = "VOLU";
+    public static final String SPECULAR = "SPEC";
+    public static final String EMISSIVE = "EMIS";
+
+    private static final String[] CHANNEL_TAGS = { DETAILS, VOLUME, SPECULAR, EMISSIVE };
+
+    public static String tag(ENUM.Channel channel) {
+        return CHANNEL_TAGS[channel.id];
+    }
+
+    public static Path resolve(Project project) {
+        return project.outputDirectory().resolve(project.projectName().replace(" ","") + CanvasFile.EXTENSION);
+    }
+
+    /**
+     * @param raw store the textures uncompressed (larger file, faster to open)
+     */
+    public static void save(Editor editor, Project project, Path file, boolean raw) throws Exception {
+        Texture color_source = project.colorSourceTexture();
+        List<ByteBuffer> buffers = new ArrayList<>(5);
+        try {
+            List<CanvasFile.Chunk> chunks = new ArrayList<>(7);
+            chunks.add(CanvasFile.properties(META,metaProperties(editor,project)));
+            chunks.add(CanvasFile.properties(LIGHTING,lightingProperties(editor.lighting())));
+            chunks.add(new CanvasFile.Chunk(COLOR,read(color_source,buffers),!raw));
+            for (ENUM.Channel channel : ENUM.Channel.ALL) {
+                Texture texture = project.backBuffer().texture(channel.id);
+                chunks.add(new CanvasFile.Chunk(tag(channel),read(texture,buffers),!raw));
+            } Texture.unbindActiveSlot(GL_TEXTURE_2D);
+            CanvasFile.write(file,chunks);
+        } finally {
+            for (ByteBuffer buffer : buffers) MemoryUtil.memFree(buffer);
+        }
+    }
+
+    /**
+     * Creates the project textures. The edit journal of the file (if any) is replayed on top.
+     * Applies the stored lighting and depth settings to the editor.
+     * @return the textures, as if imported by the PngImporter
+     */
+    public static PngImporter.Textures load(Editor editor, Path file) throws Exception {
+        CanvasFile canvas = CanvasFile.open(file);
+        List<Texture> textures = new ArrayList<>(9);
+        try {
+            Properties meta = canvas.properties(META);
+            int width = Integer.parseInt(meta.getProperty("width"));
+            int height = Integer.parseInt(meta.getProperty("height"));
+            List<EditJournal.Record> journal = EditJournal.read(file,width,height);
+            if (!journal.isEmpty()) {
+                Logger.info("replaying {} journal records",journal.size());
+                meta = CanvasFile.toProperties(EditJournal.apply(journal,META,canvas.chunk(META),width));
+            } TextureFormat color_format = TextureFormat.valueOf(meta.getProperty("color_format"));
+            String name = meta.getProperty("name","untitled");
+            Texture color_source = upload(chunk(canvas,COLOR,color_format,width,height),color_format,width,height,textures);
+            Texture[] channels = new Texture[8];
+            for (ENUM.Channel channel : ENUM.Channel.ALL) {
+                TextureFormat format = TextureFormat.R8_UNSIGNED_NORMALIZED;
+                ByteBuffer data = chunk(canvas,tag(channel),format,width,height);
+                data = EditJournal.apply(journal,tag(channel),data,width);
+                channels[channel.id] = upload(data,format,width,height,textures); // front
+                channels[channel.id + 4] = upload(data,format,width,height,textures); // back
+            } Texture.unbindActiveSlot(GL_TEXTURE_2D);
+            ByteBuffer lighting = canvas.chunk(LIGHTING);
+            if (lighting != null) lighting = EditJournal.apply(journal,LIGHTING,lighting,width);
+            applyLighting(CanvasFile.toProperties(lighting),editor.lighting());
+            editor.setDepthAmplitude(Float.parseFloat(meta.getProperty("depth_amplitude",
+            Float.toString(Editor.DEPTH_AMPLITUDE_DEFAULT))));
+            editor.setDetailVolumeRatio(Float.parseFloat(meta.getProperty("detail_to_volume_ratio",
+            Float.toString(Editor.DETAIL_TO_VOLUME_RATIO_DEFAULT))));
+            Path directory = file.toAbsolutePath().getParent();
+            return new PngImporter.Textures(name,directory,color_source,
+                    channels[0],channels[1],channels[2],channels[3],
+                    channels[4],channels[5],channels[6],channels[7]);
+        } catch (Exception e) {
+            for (Texture texture : textures) Disposable.dispose(texture);
+            throw e;
+        } finally {
+            canvas.dispose();
+        }
+    }
+
+    public static Properties metaProperties(Editor editor, Project project) {
+        Properties meta = new Properties();
+        meta.setProperty("name",project.projectName());
+        meta.setProperty("width",Integer.toString(project.texturesWidth()));
+        meta.setProperty("height",Integer.toString(project.texturesHeight()));
+        meta.setProperty("color_format",project.colorSourceTexture().format().name());
+        meta.setProperty("depth_amplitude",Float.toString(editor.depthAmplitude()));
+        meta.setProperty("detail_to_volume_ratio",Float.toString(editor.detailVolumeRatio()));
+        return meta;
+    }
+
+    public static Properties lightingProperties(PreviewLighting lighting) {
+        Properties properties = new Properties();
+        Color color = lighting.color();
+        properties.setProperty("position",vector(lighting.position()));
+        properties.setProperty("color",vector(new Vector3f(color.r,color.g,color.b)));
+        properties.setProperty("ambience",Float.toString(lighting.ambience()));
+        properties.setProperty("diffuse",Float.toString(lighting.diffuseStrength()));
+        properties.setProperty("brightness",Integer.toString(lighting.brightnessPreset()));
+        properties.setProperty("point_light",Boolean.toString(lighting.usingPointLight()));
+        List<PreviewLighting.PointLight> lights = lighting.lights();
+        properties.setProperty("lights",Integer.toString(lights.size()));
+        for (int i = 0; i < lights.size(); i++) {
+            PreviewLighting.PointLight light = lights.get(i);
+            String key = "light." + i + ".";
+            properties.setProperty(key + "position",vector(light.position));
+            properties.setProperty(key + "color",vector(new Vector3f(light.color.r,light.color.g,light.color.b)));
+            properties.setProperty(key + "diffuse",Float.toString(light.diffuseStrength()));
+            properties.setProperty(key + "preset",Integer.toString(light.preset()));
+        } return properties;
+    }
+
+    /** Missing keys leave the current values */
+    public static void applyLighting(Properties properties, PreviewLighting lighting) {
+        if (properties.isEmpty()) return;
+        String position = properties.getProperty("position");
+        if (position != null) lighting.setPosition(vector(position));
+        String color = properties.getProperty("color");
+        if (color != null) {
+            Vector3f rgb = vector(color);
+            lighting.setColor(new Color(rgb.x,rgb.y,rgb.z,1.0f));
+        } lighting.setAmbience(Float.parseFloat(properties.getProperty("ambience",Float.toString(lighting.ambience()))));
+        lighting.setDiffuseStrength(Float.parseFloat(properties.getProperty("diffuse",Float.toString(lighting.diffuseStrength()))));
+        lighting.setBrightnessPreset(Integer.parseInt(properties.getProperty("brightness",Integer.toString(lighting.brightnessPreset()))));
+        lighting.setPointLight(Boolean.parseBoolean(properties.getProperty("point_light",Boolean.toString(lighting.usingPointLight()))));
+        int count = Integer.parseInt(properties.getProperty("lights","0"));
+        lighting.clearLights();
+        for (int i = 0; i < count; i++) {
+            String key = "light." + i + ".";
+            Vector3f rgb = vector(properties.getProperty(key + "color"));
+            lighting.addLight(new PreviewLighting.PointLight(
+                    vector(properties.getProperty(key + "position")),
+                    new Color(rgb.x,rgb.y,rgb.z,1.0f),
+                    Float.parseFloat(properties.getProperty(key + "diffuse")),
+                    Integer.parseInt(properties.getProperty(key + "preset"))));
+        }
+    }
+
+    private static ByteBuffer read(Texture texture, List<ByteBuffer> buffers) {
+        int size = texture.width() * texture.height() * texture.format().channels;
+        ByteBuffer pixels = MemoryUtil.memAlloc(size);
+        buffers.add(pixels);
+        texture.bindToActiveSlot();
+        texture.get(pixels);
+        return pixels;
+    }
+
+    private static ByteBuffer chunk(CanvasFile canvas, String tag, TextureFormat format, int width, int height) throws IOException {
+        ByteBuffer data = canvas.chunk(tag);
+        if (data == null) throw new IOException("missing chunk: " + tag);
+        if (data.remaining() != width * height * format.channels) throw new IOException("chunk size mismatch: " + tag);
+        return data;
+    }
+
+    private static Texture upload(ByteBuffer data, TextureFormat format, int width, int height, List<Texture> textures) {
+        Texture texture = Texture.generate2D(width,height);
+        textures.add(texture);
+        texture.bindToActiveSlot();
+        texture.allocate(format,false);
+        texture.filter(GL_NEAREST,GL_NEAREST);
+        texture.clampToEdge();
+        texture.uploadData(data);
+        return texture;
+    }
+
+    private static String vector(Vector3f v) {
+        return v.x + "," + v.y + "," + v.z;
+    }
+
+    private static Vector3f vector(String s) {
+        String[] xyz = s.split(",");
+        return new Vector3f(Float.parseFloat(xyz[0]),Float.parseFloat(xyz[1]),Float.parseFloat(xyz[2]));
+    }
+}
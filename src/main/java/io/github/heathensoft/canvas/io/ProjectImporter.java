@@ -0,0 +1,378 @@
+package io.github.heathensoft.canvas.io;
+
+import io.github.heathensoft.canvas.ENUM;
+import io.github.heathensoft.jlib.common.Disposable;
+import io.github.heathensoft.jlib.common.thread.Task;
+import io.github.heathensoft.jlib.lwjgl.graphics.Texture;
+import io.github.heathensoft.jlib.lwjgl.graphics.TextureFormat;
+import io.github.heathensoft.jlib.lwjgl.graphics.surface.DepthMap8;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.tinylog.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import static org.lwjgl.opengl.GL11.GL_NEAREST;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
+import static org.lwjgl.stb.STBImage.*;
+
+/**
+ * Concurrent alternative to the PngImporter.
+ * The IHDR headers of all the images are read first, so mismatching sizes fail before anything is decoded.
+ * The images are then decoded in parallel (worker thread + fork/join pool) and the channels are reduced
+ * to one byte per texel on the workers. The textures are created in onCompletion (render thread).
+ * Nothing global is touched: vertical flip is set per decoding thread, and whether the color source
+ * is sRGB (converted to linear when sampled) is set per import.
+ * The channels can come from a packed material map (PackedMaps). Channels set separately take precedence.
+ * With a DecodeCache, decoded and reduced texels are stored per source. Reopening an unchanged image
+ * maps the cached texels and uploads them directly, nothing is decoded.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class ProjectImporter implements Task {
+
+    private static final byte DEFAULT_VOLUME = 0x7F;
+    private static final byte DEFAULT_SPECULAR = 0x0F;
+    private static final byte[] PNG_SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+    public record Header(Path path, int width, int height) { }
+
+    /** Time spent in each stage (ms). Upload is spent on the render thread */
+    public record Timing(long start_ms, long headers_ms, long decode_ms, long upload_ms) { }
+
+    private final Path color_path;
+    private final Path[] channel_paths;
+    private Path material_path;
+    private final Consumer<PngImporter.Textures> onImported;
+    private final ForkJoinPool pool;
+    private DecodeCache cache;
+    private boolean srgb = true;
+    private ENUM.ImportStatus status;
+    private ByteBuffer color_data; // stbi or mapped (cache)
+    private boolean color_mapped;
+    private TextureFormat color_format;
+    private ByteBuffer[] channels; // heap or mapped (cache)
+    private int width;
+    private int height;
+    private final long start_ms;
+    private long headers_ms;
+    private long decode_ms;
+    private Timing timing;
+
+    /**
+     * @param color the color source
+     * @param onImported called on the render thread with the textures
+     */
+    public ProjectImporter(Path color, Consumer<PngImporter.Textures> onImported) {
+        this(color,ForkJoinPool.commonPool(),onImported);
+    }
+
+    public ProjectImporter(Path color, ForkJoinPool pool, Consumer<PngImporter.Textures> onImported) {
+        this.color_path = color;
+        this.channel_paths = new Path[ENUM.Channel.SIZE];
+        this.onImported = onImported;
+        this.pool = pool;
+        this.status = ENUM.ImportStatus.INCOMPLETE;
+        this.start_ms = System.currentTimeMillis();
+    }
+
+    /** @param path null to use the default for the channel */
+    public ProjectImporter setChannel(ENUM.Channel channel, Path path) {
+        channel_paths[channel.id] = path;
+        return this;
+    }
+
+    /** @param path packed material map (PackedMaps). null for none */
+    public ProjectImporter setMaterial(Path path) {
+        material_path = path;
+        return this;
+    }
+
+    /** @param srgb the color source is sRGB (default). Sampled as linear */
+    public ProjectImporter setSRGB(boolean srgb) {
+        this.srgb = srgb;
+        return this;
+    }
+
+    /** @param cache decoded image cache. null for none (default) */
+    public ProjectImporter setCache(DecodeCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * Reads the width and height from the IHDR chunk. Nothing is decoded.
+     */
+    public static Header readHeader(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(24);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) throw new IOException("not a png file: " + path);
+            } buffer.flip();
+            byte[] signature = new byte[8];
+            buffer.get(signature);
+            buffer.getInt(); // IHDR length
+            if (!Arrays.equals(signature,PNG_SIGNATURE) || buffer.getInt() != 0x49484452) {
+                throw new IOException("not a png file: " + path);
+            } int width = buffer.getInt();
+            int height = buffer.getInt();
+            if (width <= 0 || height <= 0) throw new IOException("invalid png size: " + path);
+            return new Header(path,width,height);
+        }
+    }
+
+    /** Worker thread. Headers, then decoding. status: ImportStatus ordinal */
+    public int process(long queue_time_ms) throws Exception {
+        long time = System.currentTimeMillis();
+        if (color_path == null) {
+            status = ENUM.ImportStatus.INCOMPLETE;
+            throw new IOException(status.description);
+        } List<Path> paths = new ArrayList<>(channel_paths.length);
+        for (Path path : channel_paths) if (path != null) paths.add(path);
+        boolean complete = material_path != null || paths.size() == channel_paths.length;
+        if (material_path != null) paths.add(material_path);
+        Header color = readHeader(color_path);
+        for (Path path : paths) {
+            Header header = readHeader(path);
+            if (header.width != color.width || header.height != color.height) {
+                status = ENUM.ImportStatus.SIZES_NOT_MATCHING;
+                throw new IOException(status.description + ": " + path.getFileName() + " is "
+                + header.width + "x" + header.height + ", color is " + color.width + "x" + color.height);
+            }
+        } width = color.width;
+        height = color.height;
+        headers_ms = System.currentTimeMillis() - time;
+        time = System.currentTimeMillis();
+        decode();
+        decode_ms = System.currentTimeMillis() - time;
+        status = complete ? ENUM.ImportStatus.COMPLETE_READY : ENUM.ImportStatus.INCOMPLETE_READY;
+        return status.ordinal();
+    }
+
+    /** Render thread. Creates the textures */
+    public void onCompletion(Exception e, int status, long runtime_ms) {
+        if (e != null) {
+            freeColorData();
+            Logger.error(e,"unable to import: {}",color_path);
+            return;
+        } long time = System.currentTimeMillis();
+        PngImporter.Textures textures = generateTextures();
+        timing = new Timing(start_ms,headers_ms,decode_ms,System.currentTimeMillis() - time);
+        Logger.info("imported {} ({}x{}) headers: {} ms, decoding: {} ms, upload: {} ms",
+        color_path.getFileName(),width,height,headers_ms,decode_ms,timing.upload_ms);
+        if (onImported != null) onImported.accept(textures);
+    }
+
+    /** @return null until the import has completed */
+    public Timing timing() {
+        return timing;
+    }
+
+    public ENUM.ImportStatus status() {
+        return status;
+    }
+
+    private void decode() throws Exception {
+        List<Callable<Void>> tasks = new ArrayList<>(1 + channel_paths.length);
+        channels = new ByteBuffer[ENUM.Channel.SIZE];
+        tasks.add(() -> {
+            try (MemoryStack stack = MemoryStack.stackPush()) {
+                IntBuffer c = stack.mallocInt(1);
+                color_data = pixels(color_path,c);
+                color_format = switch (c.get(0)) {
+                    case 1 -> TextureFormat.R8_UNSIGNED_NORMALIZED;
+                    case 2 -> TextureFormat.RG8_UNSIGNED_NORMALIZED;
+                    case 3 -> srgb ? TextureFormat.SRGB8_UNSIGNED_NORMALIZED : TextureFormat.RGB8_UNSIGNED_NORMALIZED;
+                    default -> srgb ? TextureFormat.SRGBA8_UNSIGNED_NORMALIZED : TextureFormat.RGBA8_UNSIGNED_NORMALIZED;
+                };
+                if (channel_paths[ENUM.Channel.DETAILS.id] == null && material_path == null) { // details from the color source
+                    channels[ENUM.Channel.DETAILS.id] = grey(color_path,color_data,c.get(0));
+                }
+            } return null;
+        });
+        for (ENUM.Channel channel : ENUM.Channel.ALL) {
+            Path path = channel_paths[channel.id];
+            if (path != null) tasks.add(() -> {
+                channels[channel.id] = grey(path,null,0);
+                return null;
+            });
+        }
+        if (material_path != null) tasks.add(() -> {
+            try (MemoryStack stack = MemoryStack.stackPush()) {
+                IntBuffer c = stack.mallocInt(1);
+                ByteBuffer data = pixels(material_path,c);
+                try { if (c.get(0) != 4) throw new IOException("material map is not RGBA: " + material_path);
+                    for (ENUM.Channel channel : ENUM.Channel.ALL) {
+                        if (channel_paths[channel.id] == null) {
+                            channels[channel.id] = ByteBuffer.wrap(PackedMaps.component(data,width * height,4,channel.id));
+                        }
+                    }
+                } finally {
+                    if (!data.isReadOnly()) stbi_image_free(data); // else mapped (cache)
+                }
+            } return null;
+        });
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) future.get();
+        } catch (ExecutionException e) {
+            freeColorData();
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    /**
+     * The decoded pixels. From the cache if present, else decoded (and cached).
+     * @return mapped (read only) or stbi
+     */
+    private ByteBuffer pixels(Path path, IntBuffer channels) throws IOException {
+        if (cache == null) return load(path,channels);
+        DecodeCache.Key key = cache.key(path,DecodeCache.PIXELS);
+        DecodeCache.Entry entry = cache.get(key,width,height);
+        if (entry != null) {
+            channels.put(0,entry.channels());
+            if (path == color_path) color_mapped = true;
+            return entry.texels();
+        } ByteBuffer data = load(path,channels);
+        cache.put(key,width,height,channels.get(0),data);
+        return data;
+    }
+
+    /**
+     * The image reduced to one byte per texel. From the cache if present, else reduced (and cached).
+     * @param pixels the decoded image or null to decode it here
+     */
+    private ByteBuffer grey(Path path, ByteBuffer pixels, int pixel_channels) throws IOException {
+        DecodeCache.Key key = null;
+        if (cache != null) {
+            key = cache.key(path,DecodeCache.GREY);
+            DecodeCache.Entry entry = cache.get(key,width,height);
+            if (entry != null && entry.channels() == 1) return entry.texels();
+        } byte[] texels;
+        if (pixels != null) texels = reduce(pixels,pixel_channels);
+        else try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer c = stack.mallocInt(1);
+            ByteBuffer data = load(path,c);
+            try { texels = reduce(data,c.get(0));
+            } finally {
+                stbi_image_free(data);
+            }
+        } if (key != null) cache.put(key,width,height,1,texels);
+        return ByteBuffer.wrap(texels);
+    }
+
+    private byte[] reduce(ByteBuffer pixels, int pixel_channels) {
+        if (pixel_channels == 1) {
+            byte[] texels = new byte[width * height];
+            pixels.get(0,texels);
+            return texels;
+        } return new DepthMap8(width,height,pixel_channels,pixels).get();
+    }
+
+    private ByteBuffer load(Path path, IntBuffer channels) throws IOException {
+        return decode(path,width,height,channels);
+    }
+
+    /**
+     * Decodes a png on any thread. Flipped vertically (texture space).
+     * @param channels receives the number of channels in the file
+     * @return the pixels. Free with stbi_image_free
+     */
+    public static ByteBuffer decode(Path path, int width, int height, IntBuffer channels) throws IOException {
+        ByteBuffer file;
+        try (FileChannel channel = FileChannel.open(path,StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("file too large: " + path);
+            file = MemoryUtil.memAlloc((int) size);
+            try {
+                while (file.hasRemaining()) {
+                    if (channel.read(file) < 0) throw new IOException("unexpected end of file: " + path);
+                }
+            } catch (IOException e) {
+                MemoryUtil.memFree(file);
+                throw e;
+            }
+        } try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer w = stack.mallocInt(1);
+            IntBuffer h = stack.mallocInt(1);
+            stbi_set_flip_vertically_on_load_thread(1);
+            ByteBuffer data = stbi_load_from_memory(file.flip(),w,h,channels,0);
+            if (data == null) throw new IOException("unable to decode " + path + ": " + stbi_failure_reason());
+            if (w.get(0) != width || h.get(0) != height) {
+                stbi_image_free(data);
+                throw new IOException(ENUM.ImportStatus.SIZES_NOT_MATCHING.description + ": " + path);
+            } return data;
+        } finally {
+            MemoryUtil.memFree(file);
+        }
+    }
+
+    private PngImporter.Textures generateTextures() {
+        List<Texture> created = new ArrayList<>(9);
+        try {
+            Texture color_source = texture(color_format,created);
+            color_source.uploadData(color_data);
+            Texture[] front = new Texture[ENUM.Channel.SIZE];
+            Texture[] back = new Texture[ENUM.Channel.SIZE];
+            for (ENUM.Channel channel : ENUM.Channel.ALL) {
+                ByteBuffer texels = channels[channel.id];
+                if (texels == null) {
+                    byte[] defaults = new byte[width * height];
+                    if (channel == ENUM.Channel.VOLUME) Arrays.fill(defaults,DEFAULT_VOLUME);
+                    else if (channel == ENUM.Channel.SPECULAR) Arrays.fill(defaults,DEFAULT_SPECULAR);
+                    texels = ByteBuffer.wrap(defaults);
+                } front[channel.id] = texture(TextureFormat.R8_UNSIGNED_NORMALIZED,created);
+                upload(front[channel.id],texels);
+                back[channel.id] = texture(TextureFormat.R8_UNSIGNED_NORMALIZED,created);
+                upload(back[channel.id],texels);
+            } Texture.unbindActiveSlot(GL_TEXTURE_2D);
+            String name = color_path.getFileName().toString().replace(".png","");
+            return new PngImporter.Textures(name,color_path.toAbsolutePath().getParent(),color_source,
+                    front[0],front[1],front[2],front[3],back[0],back[1],back[2],back[3]);
+        } catch (RuntimeException e) {
+            for (Texture texture : created) Disposable.dispose(texture);
+            throw e;
+        } finally {
+            freeColorData();
+            channels = null;
+        }
+    }
+
+    /** heap buffers are copied, direct (mapped) buffers are uploaded as is */
+    private static void upload(Texture texture, ByteBuffer texels) {
+        if (texels.hasArray()) texture.uploadData(texels.array());
+        else texture.uploadData(texels);
+    }
+
+    private Texture texture(TextureFormat format, List<Texture> created) {
+        Texture texture = Texture.generate2D(width,height);
+        created.add(texture);
+        texture.bindToActiveSlot();
+        texture.allocate(format,false);
+        texture.filter(GL_NEAREST,GL_NEAREST);
+        texture.clampToEdge();
+        return texture;
+    }
+
+    private void freeColorData() {
+        if (color_data != null) {
+            if (!color_mapped) stbi_image_free(color_data);
+            color_data = null;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package io.github.heathensoft.canvas.io;
+
+import org.tinylog.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The files the editor wrote itself, with their size and modification time right after the write.
+ * The SourceWatcher skips a changed file that still matches (our own write). Once a file no longer
+ * matches, another program wrote it, and it is forgotten.
+ * Any thread (exports are encoded by the thread pool).
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class WrittenFiles {
+
+    private record Stamp(long size, long modified) { }
+
+    private static final Map<Path,Stamp> written = new ConcurrentHashMap<>();
+
+    /** Call right after the file is written and closed */
+    public static void record(Path file) {
+        Path path = file.toAbsolutePath().normalize();
+        try { written.put(path,stamp(path));
+        } catch (IOException e) {
+            Logger.warn("unable to stamp written file {}: {}",path,e.getMessage());
+            written.remove(path);
+        }
+    }
+
+    /** @return true if the file is as the editor last wrote it */
+    public static boolean isOwn(Path file) {
+        Path path = file.toAbsolutePath().normalize();
+        Stamp stamp = written.get(path);
+        if (stamp == null) return false;
+        try { if (stamp.equals(stamp(path))) return true;
+        } catch (IOException ignored) { }
+        written.remove(path,stamp);
+        return false;
+    }
+
+    private static Stamp stamp(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path,BasicFileAttributes.class);
+        return new Stamp(attributes.size(),attributes.lastModifiedTime().toMillis());
+    }
+}
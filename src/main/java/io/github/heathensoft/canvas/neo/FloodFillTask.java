@@ -117,7 +117,8 @@ public class FloodFillTask implements Task {
                 Texture texture = project.backBuffer().texture(channel.id);
                 texture.bindToActiveSlot();
                 texture.uploadSubData(buffer.flip(),0,w,h,x0,y0);
-            }
+            } project.pipelineCache().backBufferModified(channel,editArea);
+            project.undoRedoManager().commitEdit();
         } else if (e != null) Logger.warn(e,"while flood-filling");
     }
     
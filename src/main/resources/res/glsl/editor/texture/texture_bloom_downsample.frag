@@ -0,0 +1,38 @@
+#version 440
+
+layout (location=0) out vec4 f_color;
+
+uniform sampler2D u_sampler_2d;
+uniform vec2 u_texel_size; // source level
+
+in vec2 uv;
+
+vec3 sampleSource(float x, float y) {
+    return texture(u_sampler_2d, uv + vec2(x,y) * u_texel_size).rgb;
+}
+
+void main() {
+
+    // 13 bilinear taps. 4 overlapping 4x4 boxes around the center (0.5) and one centered box (0.125) each
+
+    vec3 a = sampleSource(-2.0, 2.0);
+    vec3 b = sampleSource( 0.0, 2.0);
+    vec3 c = sampleSource( 2.0, 2.0);
+    vec3 d = sampleSource(-2.0, 0.0);
+    vec3 e = sampleSource( 0.0, 0.0);
+    vec3 f = sampleSource( 2.0, 0.0);
+    vec3 g = sampleSource(-2.0,-2.0);
+    vec3 h = sampleSource( 0.0,-2.0);
+    vec3 i = sampleSource( 2.0,-2.0);
+    vec3 j = sampleSource(-1.0, 1.0);
+    vec3 k = sampleSource( 1.0, 1.0);
+    vec3 l = sampleSource(-1.0,-1.0);
+    vec3 m = sampleSource( 1.0,-1.0);
+
+    vec3 color = e * 0.125;
+    color += (a + c + g + i) * 0.03125;
+    color += (b + d + f + h) * 0.0625;
+    color += (j + k + l + m) * 0.125;
+
+    f_color = vec4(color, 1.0);
+}
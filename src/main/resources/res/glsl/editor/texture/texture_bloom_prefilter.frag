@@ -0,0 +1,28 @@
+#version 440
+
+layout (location=0) out vec4 f_color; // bloom level 0 (full res)
+
+uniform sampler2D[2] u_sampler_array;
+uniform float u_bloom_threshold;
+
+sampler2D previewSampler()      { return u_sampler_array[0]; }
+sampler2D emissiveSampler()     { return u_sampler_array[1]; }
+
+vec4 fetchPreview(ivec2 texel)  { return texelFetch(previewSampler(),texel,0);  }
+vec4 fetchEmissive(ivec2 texel) { return texelFetch(emissiveSampler(),texel,0); }
+
+const vec3 LUMINANCE = vec3(0.2126, 0.7152, 0.0722);
+
+void main() {
+
+    ivec2 texel = ivec2(gl_FragCoord.xy);
+    vec3 color = fetchPreview(texel).rgb; // premultiplied
+    float emissive = fetchEmissive(texel).r;
+    float luminance = dot(color, LUMINANCE);
+    // soft knee threshold
+    float knee = u_bloom_threshold * 0.5;
+    float soft = clamp(luminance - u_bloom_threshold + knee, 0.0, 2.0 * knee);
+    soft = (soft * soft) / (4.0 * knee + 0.00001);
+    float contribution = max(soft, luminance - u_bloom_threshold) / max(luminance, 0.00001);
+    f_color = vec4(color * max(contribution, emissive), 1.0);
+}
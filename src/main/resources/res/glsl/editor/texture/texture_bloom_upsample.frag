@@ -0,0 +1,23 @@
+#version 440
+
+layout (location=0) out vec4 f_color; // added to the next larger level
+
+uniform sampler2D u_sampler_2d;
+uniform vec2 u_texel_size; // source level
+
+in vec2 uv;
+
+vec3 sampleSource(float x, float y) {
+    return texture(u_sampler_2d, uv + vec2(x,y) * u_texel_size).rgb;
+}
+
+void main() {
+
+    // 3x3 tent
+
+    vec3 color = sampleSource(0.0, 0.0) * 4.0;
+    color += (sampleSource(0.0, 1.0) + sampleSource(-1.0, 0.0) + sampleSource(1.0, 0.0) + sampleSource(0.0,-1.0)) * 2.0;
+    color += (sampleSource(-1.0, 1.0) + sampleSource(1.0, 1.0) + sampleSource(-1.0,-1.0) + sampleSource(1.0,-1.0));
+
+    f_color = vec4(color * 0.0625, 1.0);
+}
@@ -0,0 +1,25 @@
+package io.github.heathensoft.canvas;
+
+/**
+ * Assertions for the self-tests (plain main classes, see build.gradle.kts).
+ * A test fails by throwing.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public final class Check {
+
+    private Check() { }
+
+    public static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+
+    public static void near(double actual, double expected, double tolerance, String message) {
+        if (!(Math.abs(actual - expected) <= tolerance)) {
+            throw new AssertionError(message + ": " + actual + ", expected " + expected + " (+-" + tolerance + ")");
+        }
+    }
+}
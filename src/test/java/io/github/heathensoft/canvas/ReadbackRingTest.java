@@ -0,0 +1,59 @@
+package io.github.heathensoft.canvas;
+
+import io.github.heathensoft.jlib.common.utils.Area;
+import org.joml.Vector4f;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+
+import static io.github.heathensoft.canvas.Check.check;
+
+/**
+ * newEdit / commitEdit capture the back buffer asynchronously: the only GL calls are reads into
+ * a pixel pack buffer, fences and the buffer setup. Nothing waits on the gpu or maps a buffer.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class ReadbackRingTest {
+
+    private static final Set<String> ASYNCHRONOUS = Set.of(
+            "genBuffer","bindBuffer","bufferData","readPixels","fenceSync","flush");
+
+    public static void main(String[] args) {
+        RecordingReadbackGL gl = new RecordingReadbackGL();
+        TilePool pool = new TilePool(ByteBuffer::allocateDirect,slab -> { });
+        UndoRedoManager manager = new UndoRedoManager(null,null,new Vector4f(0,0,256,256),256,256,pool,gl);
+
+        manager.newEdit(new Area(10,10,100,40),ENUM.Channel.DETAILS,ENUM.BrushTool.FREE_HAND,ENUM.BrushFunction.SET,null);
+        checkAsynchronous(gl.calls(),1,"newEdit");
+        gl.clear();
+        manager.commitEdit();
+        checkAsynchronous(gl.calls(),1,"commitEdit");
+        gl.clear();
+
+        // two readbacks per edit. Nothing lands (no frames), so the ring fills up
+        for (int i = 1; i < UndoRedoManager.READBACKS_IN_FLIGHT / 2; i++) {
+            manager.newEdit(new Area(i,i,i + 70,i + 70),ENUM.Channel.VOLUME,ENUM.BrushTool.LINE_DRAW,ENUM.BrushFunction.ADD,null);
+            manager.commitEdit();
+            checkAsynchronous(gl.calls(),2,"edit " + i);
+            gl.clear();
+        } check(manager.synchronousWaits() == 0,"waited on the gpu: " + manager.synchronousWaits());
+    }
+
+    private static void checkAsynchronous(List<RecordingReadbackGL.Call> calls, int reads, String what) {
+        int read = 0, fences = 0;
+        for (RecordingReadbackGL.Call call : calls) {
+            check(ASYNCHRONOUS.contains(call.name()),what + " made a synchronous call: " + call);
+            if (call.name().equals("readPixels")) {
+                check(call.buffer() != 0,what + " read into client memory: " + call);
+                read++;
+            } else if (call.name().equals("fenceSync")) fences++;
+        } check(read == reads,what + " reads: " + read + " " + calls);
+        check(fences == reads,what + " fences: " + fences + " " + calls);
+        check(calls.get(calls.size() - 1).name().equals("flush"),what + " fence not flushed: " + calls);
+    }
+}
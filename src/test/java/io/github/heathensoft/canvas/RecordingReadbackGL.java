@@ -0,0 +1,97 @@
+package io.github.heathensoft.canvas;
+
+import io.github.heathensoft.jlib.common.utils.Area;
+import io.github.heathensoft.jlib.lwjgl.graphics.Framebuffer;
+import io.github.heathensoft.jlib.lwjgl.graphics.Texture;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the GL calls of a ReadbackRing instead of making them. Fences are never signaled
+ * unless signal() is called. Reads record the pixel pack buffer bound when they were issued.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class RecordingReadbackGL implements ReadbackGL {
+
+    /** @param buffer the bound pixel pack buffer for reads, else the argument (or 0) */
+    public record Call(String name, long buffer) { }
+
+    private final List<Call> calls = new ArrayList<>();
+    private int bound;
+    private int buffers;
+    private long syncs;
+    private boolean signaled;
+
+    public List<Call> calls() {
+        return calls;
+    }
+
+    public void clear() {
+        calls.clear();
+    }
+
+    /** Every fence is signaled from here on */
+    public void signal() {
+        signaled = true;
+    }
+
+    public int genBuffer() {
+        calls.add(new Call("genBuffer",++buffers));
+        return buffers;
+    }
+
+    public void bindBuffer(int buffer) {
+        calls.add(new Call("bindBuffer",buffer));
+        bound = buffer;
+    }
+
+    public void bufferData(long size) {
+        calls.add(new Call("bufferData",bound));
+    }
+
+    public void deleteBuffer(int buffer) {
+        calls.add(new Call("deleteBuffer",buffer));
+    }
+
+    public void readPixels(Framebuffer framebuffer, int attachment, Area region) {
+        calls.add(new Call("readPixels",bound));
+    }
+
+    public void getTexImage(Texture texture) {
+        calls.add(new Call("getTexImage",bound));
+    }
+
+    public long fenceSync() {
+        calls.add(new Call("fenceSync",0));
+        return ++syncs;
+    }
+
+    public boolean isSignaled(long sync) {
+        calls.add(new Call("isSignaled",0));
+        return signaled;
+    }
+
+    public boolean clientWaitSync(long sync) {
+        calls.add(new Call("clientWaitSync",0));
+        return true;
+    }
+
+    public void deleteSync(long sync) {
+        calls.add(new Call("deleteSync",0));
+    }
+
+    public void flush() {
+        calls.add(new Call("flush",0));
+    }
+
+    public boolean copyBuffer(int size, ByteBuffer dst) {
+        calls.add(new Call("copyBuffer",bound));
+        return false;
+    }
+}
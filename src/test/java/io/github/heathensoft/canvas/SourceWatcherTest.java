@@ -0,0 +1,70 @@
+package io.github.heathensoft.canvas;
+
+import io.github.heathensoft.canvas.io.PngExporter;
+import io.github.heathensoft.canvas.io.WrittenFiles;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static io.github.heathensoft.canvas.Check.check;
+
+/**
+ * Saving must not reload the saved channel. A reload invalidates the undo history of the channel.
+ * The editor's own write is stamped (WrittenFiles) like PngExporter and ExportService do.
+ * A later write by another program must still reload.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class SourceWatcherTest {
+
+    private static final long SETTLE_MS = SourceWatcher.DEBOUNCE_MS * 4;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("source-watcher-test").toAbsolutePath().normalize();
+        List<Path> reloads = new ArrayList<>(); // each reload would wipe the undo history of the channel
+        SourceWatcher watcher = new SourceWatcher(() -> Set.of(directory),reloads::add);
+        try { watcher.update(); // starts watching
+            Path file = directory.resolve("project" + PngExporter.details_suffix + ".png");
+
+            save(file,new byte[64]);
+            poll(watcher);
+            check(reloads.isEmpty(),"own save reloaded (undo history lost): " + reloads);
+
+            save(file,new byte[128]); // saving again
+            poll(watcher);
+            check(reloads.isEmpty(),"second save reloaded (undo history lost): " + reloads);
+
+            Thread.sleep(20);
+            Files.write(file,new byte[100]); // external tool
+            poll(watcher);
+            check(reloads.equals(List.of(file)),"external write not reloaded: " + reloads);
+        } finally {
+            watcher.dispose();
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /** As PngExporter.write: the file is written, then stamped */
+    private static void save(Path file, byte[] png) throws Exception {
+        Files.write(file,png);
+        WrittenFiles.record(file);
+    }
+
+    private static void poll(SourceWatcher watcher) throws InterruptedException {
+        long end = System.currentTimeMillis() + SETTLE_MS;
+        while (System.currentTimeMillis() < end) {
+            watcher.update();
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.heathensoft.canvas;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.github.heathensoft.canvas.Check.check;
+
+/**
+ * The memory held by the pool drops once a large edit is evicted (its tiles released) and the pool is trimmed.
+ * Tiles still in use keep their slab and their content. Freed slab slots are reused.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class TilePoolTest {
+
+    public static void main(String[] args) {
+        int[] slabs_live = new int[1];
+        TilePool pool = new TilePool(size -> {
+            slabs_live[0]++;
+            return ByteBuffer.allocateDirect(size);
+        }, slab -> slabs_live[0]--);
+
+        List<Integer> large_edit = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) large_edit.add(pool.allocate());
+        int small_edit = pool.allocate();
+        pool.buffer(small_edit).put(0,(byte) 42);
+        long held = pool.bytesAllocated();
+        check(held == 16L * TilePool.SLAB_BYTES,"held after the large edit: " + held);
+
+        for (int tile : large_edit) pool.release(tile); // evicted
+        check(pool.bytesAllocated() == held,"slabs freed before trim");
+        long freed = pool.trim();
+        check(pool.bytesAllocated() == TilePool.SLAB_BYTES,"held after trim: " + pool.bytesAllocated());
+        check(freed == held - TilePool.SLAB_BYTES,"bytes freed: " + freed);
+        check(slabs_live[0] == 1,"slabs not deallocated: " + slabs_live[0]);
+        check(pool.tilesInUse() == 1 && pool.buffer(small_edit).get(0) == 42,"tile in use lost");
+        check(pool.trim() == 0,"trimmed twice");
+
+        List<Integer> next_edit = new ArrayList<>();
+        for (int i = 0; i < 200; i++) next_edit.add(pool.allocate());
+        check(pool.bytesAllocated() == 4L * TilePool.SLAB_BYTES,"held after regrowing: " + pool.bytesAllocated());
+        for (int tile : next_edit) {
+            check(tile != small_edit,"tile in use allocated twice");
+            pool.buffer(tile).put(0,(byte) 1);
+        } check(pool.buffer(small_edit).get(0) == 42,"tile in use overwritten");
+
+        for (int tile : next_edit) pool.release(tile);
+        pool.release(small_edit);
+        pool.trim();
+        check(pool.bytesAllocated() == 0 && slabs_live[0] == 0,"empty pool holds memory");
+        pool.allocate();
+        check(pool.bytesAllocated() == TilePool.SLAB_BYTES,"unable to grow after trimming everything");
+        pool.dispose();
+        check(slabs_live[0] == 0,"slab leaked by dispose");
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.heathensoft.canvas.cpu;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static io.github.heathensoft.canvas.Check.check;
+import static io.github.heathensoft.canvas.Check.near;
+
+/**
+ * Horizon angles against brute force: the steepest higher step within MAX_SHADOW_LENGTH, every bin.
+ * A near occluder must not be lost when a higher, older one leaves the window.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class HorizonMapTest {
+
+    private static final float PI_HALF = (float) (Math.PI / 2.0);
+    private static final float QUANTUM = PI_HALF / 255.0f; // one byte
+    private static final float AMPLITUDE = 32.0f;
+
+    public static void main(String[] args) {
+        nearOccluderBehindHigherOne();
+        ByteBuffer depth = ByteBuffer.allocate(160 * 96);
+        Random rnd = new Random(4);
+        for (int i = 0; i < depth.capacity(); i++) depth.put(i,(byte) rnd.nextInt(256));
+        matchesBruteForce(depth,160,96);
+        for (int y = 0; y < 96; y++) { // smooth terrain: long hulls
+            for (int x = 0; x < 160; x++) {
+                double h = 0.5 + 0.25 * Math.sin(x * 0.07) * Math.cos(y * 0.05) + 0.2 * Math.sin(x * 0.013 + y * 0.021);
+                depth.put(y * 160 + x,(byte) (int) Math.round(Math.max(0,Math.min(1,h)) * 255));
+            }
+        } matchesBruteForce(depth,160,96);
+    }
+
+    private static void nearOccluderBehindHigherOne() {
+        int width = 256;
+        ByteBuffer depth = ByteBuffer.allocate(width);
+        depth.put(255,(byte) 255);
+        depth.put(250,(byte) 140);
+        HorizonMap map = new HorizonMap(width,1);
+        map.update(ForkJoinPool.commonPool(),depth,AMPLITUDE);
+        for (int x = 186; x <= 190; x++) { // 255 is out of reach, 250 is not
+            float expected = bruteForce(depth,new SweepLines(width,1,1,0),0,255 - x,AMPLITUDE);
+            check(expected > 0.5f,"test setup: " + expected);
+            near(map.horizon(x,0,0),expected,QUANTUM,"occluder at 250 lost at x = " + x);
+        } check(!map.update(ForkJoinPool.commonPool(),depth,AMPLITUDE),"rebuilt without changes");
+        depth.put(250,(byte) 0);
+        map.invalidate();
+        check(map.update(ForkJoinPool.commonPool(),depth,AMPLITUDE),"not rebuilt when invalidated");
+        near(map.horizon(188,0,0),0,QUANTUM,"stale horizon after rebuild");
+    }
+
+    private static void matchesBruteForce(ByteBuffer depth, int width, int height) {
+        HorizonMap map = new HorizonMap(width,height);
+        map.update(ForkJoinPool.commonPool(),depth,AMPLITUDE);
+        for (int bin = 0; bin < map.bins(); bin++) {
+            double azimuth = 2.0 * Math.PI * bin / map.bins();
+            SweepLines lines = new SweepLines(width,height,(float) Math.cos(azimuth),(float) Math.sin(azimuth));
+            float sample_azimuth = (float) (2.0 * Math.PI * (bin + 0.001) / map.bins()); // on the bin
+            for (int line = 0; line < lines.numLines(); line++) {
+                for (int k = 0; k < lines.lineLength(); k++) {
+                    int index = lines.index(line,k);
+                    if (index < 0) continue;
+                    float expected = bruteForce(depth,lines,line,k,AMPLITUDE);
+                    float actual = map.horizon(index % width,index / width,sample_azimuth);
+                    near(actual,expected,2 * QUANTUM,"bin " + bin + ", texel " + index);
+                }
+            }
+        }
+    }
+
+    private static float bruteForce(ByteBuffer depth, SweepLines lines, int line, int k, float amplitude) {
+        float step_length = lines.stepLength();
+        int window = (int) (ShadowMappingPass.MAX_SHADOW_LENGTH / step_length);
+        float z = z(depth,lines.index(line,k),amplitude);
+        float max = 0.0f;
+        for (int j = Math.max(0,k - window); j < k; j++) {
+            int index = lines.index(line,j);
+            if (index < 0) continue;
+            float rise = z(depth,index,amplitude) - z;
+            if (rise > 0) max = Math.max(max,(float) Math.atan(rise / ((k - j) * step_length)));
+        } return max;
+    }
+
+    private static float z(ByteBuffer depth, int index, float amplitude) {
+        return ((depth.get(index) & 0xFF) / 255f * 2.0f - 1.0f) * amplitude;
+    }
+}
@@ -0,0 +1,59 @@
+package io.github.heathensoft.canvas.io;
+
+import java.util.List;
+import java.util.Random;
+
+import static io.github.heathensoft.canvas.Check.check;
+
+/**
+ * Packed rectangles keep their size, stay inside the sheet and do not overlap (padding included).
+ * Sheets are powers of two. Too large input does not fit. Sprite names in the index are unique.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class AtlasPackerTest {
+
+    public static void main(String[] args) {
+        Random rnd = new Random(18);
+        for (int run = 0; run < 50; run++) {
+            int count = 1 + rnd.nextInt(40);
+            int[] widths = new int[count];
+            int[] heights = new int[count];
+            for (int i = 0; i < count; i++) {
+                widths[i] = 1 + rnd.nextInt(rnd.nextBoolean() ? 32 : 200);
+                heights[i] = 1 + rnd.nextInt(rnd.nextBoolean() ? 32 : 200);
+            } int padding = rnd.nextInt(4);
+            AtlasPacker.Layout layout = AtlasPacker.pack(widths,heights,padding,AtlasExporter.MAX_SIZE);
+            check(layout != null,"run " + run + " did not fit");
+            checkLayout(layout,widths,heights,padding,"run " + run);
+        } check(AtlasPacker.pack(new int[] { 100 },new int[] { 100 },2,64) == null,"oversized sprite packed");
+        check(AtlasPacker.pack(new int[] { 40, 40, 40, 40, 40 },new int[] { 40, 40, 40, 40, 40 },0,64) == null,
+                "more area than the sheet packed");
+        AtlasPacker.Layout exact = AtlasPacker.pack(new int[] { 32, 32, 32, 32 },new int[] { 32, 32, 32, 32 },0,64);
+        check(exact != null && exact.width() == 64 && exact.height() == 64,"four quarters do not fill 64x64");
+
+        List<String> names = AtlasExporter.uniqueNames(List.of("rock","tree","rock","rock_2","rock"));
+        check(names.equals(List.of("rock","tree","rock_2","rock_2_2","rock_3")),"names not unique: " + names);
+    }
+
+    private static void checkLayout(AtlasPacker.Layout layout, int[] widths, int[] heights, int padding, String what) {
+        check(Integer.bitCount(layout.width()) == 1 && Integer.bitCount(layout.height()) == 1,what + ": not a power of two");
+        AtlasPacker.Rect[] rects = layout.rects();
+        check(rects.length == widths.length,what + ": rect count");
+        for (int i = 0; i < rects.length; i++) {
+            AtlasPacker.Rect a = rects[i];
+            check(a.w() == widths[i] && a.h() == heights[i],what + ": size of " + i);
+            check(a.x() >= 0 && a.y() >= 0 && a.x() + a.w() + padding <= layout.width()
+                    && a.y() + a.h() + padding <= layout.height(),what + ": " + i + " outside the sheet");
+            for (int j = i + 1; j < rects.length; j++) {
+                AtlasPacker.Rect b = rects[j];
+                boolean overlap = a.x() < b.x() + b.w() + padding && b.x() < a.x() + a.w() + padding
+                        && a.y() < b.y() + b.h() + padding && b.y() < a.y() + a.h() + padding;
+                check(!overlap,what + ": " + i + " and " + j + " overlap");
+            }
+        }
+    }
+}
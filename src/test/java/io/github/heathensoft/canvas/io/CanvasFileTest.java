@@ -0,0 +1,97 @@
+package io.github.heathensoft.canvas.io;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import static io.github.heathensoft.canvas.Check.check;
+
+/**
+ * Open, compact and reopen a file with raw chunks. Chunk records of tags the base lacks are kept.
+ * Chunks must be owned buffers, not mappings of the file compaction replaces (fails on Windows).
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class CanvasFileTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 32;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("canvas-file-test");
+        try { rawChunksAreOwned(directory.resolve("owned.canvas"));
+            compactRawChunks(directory.resolve("compact.canvas"));
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private static void rawChunksAreOwned(Path file) throws Exception {
+        writeBase(file,(byte) 7);
+        CanvasFile canvas = CanvasFile.open(file);
+        ByteBuffer data;
+        try { data = canvas.chunk("CHNL");
+        } finally {
+            canvas.dispose();
+        } check(data.isDirect() && !data.isReadOnly(),"raw chunk is not an owned direct buffer");
+        check(data.remaining() == WIDTH * HEIGHT,"raw chunk size");
+        try (FileChannel channel = FileChannel.open(file,StandardOpenOption.WRITE)) {
+            // overwrite in place (same file). A mapping would see the change
+            ByteBuffer overwrite = ByteBuffer.allocate((int) channel.size() - 20);
+            while (overwrite.hasRemaining()) overwrite.put((byte) 9);
+            channel.write(overwrite.flip(),20);
+        } check(data.get(0) == 7 && data.get(WIDTH * HEIGHT - 1) == 7,"raw chunk is a mapping of the file");
+        writeBase(file,(byte) 9); // replace the file while the chunk is in use
+        check(data.get(0) == 7 && data.get(WIDTH * HEIGHT - 1) == 7,"raw chunk changed with the file");
+    }
+
+    private static void compactRawChunks(Path file) throws Exception {
+        writeBase(file,(byte) 0);
+        EditJournal journal = EditJournal.open(file,WIDTH,HEIGHT);
+        ByteBuffer texels = ByteBuffer.allocate(4 * 2);
+        for (int i = 0; i < texels.capacity(); i++) texels.put(i,(byte) (i + 1));
+        journal.appendEdit("CHNL",10,5,4,2,texels);
+        journal.compact();
+        journal.appendEdit("CHNL",0,0,1,1,ByteBuffer.wrap(new byte[] { 42 }));
+        journal.appendChunk("LGHT",ByteBuffer.wrap(new byte[] { 1, 2, 3 })); // not in the base
+        journal.dispose(); // compacts again in the background. read waits for it
+        check(EditJournal.read(file,WIDTH,HEIGHT).isEmpty(),"journal not folded into the base");
+        CanvasFile canvas = CanvasFile.open(file);
+        try { ByteBuffer data = canvas.chunk("CHNL");
+            check(data.remaining() == WIDTH * HEIGHT,"compacted chunk size");
+            check(data.get(0) == 42,"second edit lost");
+            for (int r = 0; r < 2; r++) {
+                for (int c = 0; c < 4; c++) {
+                    int texel = (5 + r) * WIDTH + 10 + c;
+                    check(data.get(texel) == r * 4 + c + 1,"first edit lost at " + texel);
+                }
+            } check(data.get(WIDTH) == 0,"texel outside the edits changed");
+            check(!canvas.entry("CHNL").compressed(),"raw chunk compressed by compaction");
+            check("test".equals(canvas.properties("META").getProperty("name")),"metadata lost");
+            check(canvas.contains("LGHT"),"chunk not in the base dropped by compaction");
+            ByteBuffer added = canvas.chunk("LGHT");
+            check(added.remaining() == 3 && added.get(added.position() + 2) == 3,"added chunk content");
+        } finally {
+            canvas.dispose();
+        }
+    }
+
+    private static void writeBase(Path file, byte value) throws Exception {
+        Properties meta = new Properties();
+        meta.setProperty("name","test");
+        ByteBuffer channel = ByteBuffer.allocate(WIDTH * HEIGHT);
+        for (int i = 0; i < channel.capacity(); i++) channel.put(i,value);
+        CanvasFile.write(file,List.of(CanvasFile.properties("META",meta),new CanvasFile.Chunk("CHNL",channel,false)));
+    }
+}
@@ -0,0 +1,79 @@
+package io.github.heathensoft.canvas.io;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static io.github.heathensoft.canvas.Check.check;
+
+/**
+ * The encoded delta of two states turns the before state into the after state and back.
+ * Untouched areas cost next to nothing. Edge cases: empty, all zero, all one value, runs at the ends,
+ * odd lengths (the 8 byte xor loop), literals next to short runs.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class DeltaCodecTest {
+
+    public static void main(String[] args) {
+        Random rnd = new Random(22);
+        roundTrip(new byte[0],new byte[0],"empty");
+        roundTrip(new byte[1000],new byte[1000],"unchanged");
+        byte[] flat = new byte[1003];
+        Arrays.fill(flat,(byte) 5);
+        roundTrip(new byte[1003],flat,"fill");
+        byte[] before = random(rnd,4099);
+        roundTrip(before,random(rnd,4099),"noise");
+        for (int run = 0; run < 200; run++) {
+            int length = 1 + rnd.nextInt(3000);
+            byte[] a = random(rnd,length);
+            byte[] b = a.clone();
+            int strokes = rnd.nextInt(6);
+            for (int s = 0; s < strokes; s++) { // strokes: flat fills and noise over parts of the state
+                int from = rnd.nextInt(length);
+                int to = Math.min(length,from + 1 + rnd.nextInt(300));
+                byte value = (byte) rnd.nextInt(256);
+                for (int i = from; i < to; i++) b[i] = rnd.nextBoolean() ? value : (byte) rnd.nextInt(4);
+            } roundTrip(a,b,"run " + run);
+        } byte[] large = random(rnd,1 << 20); // a fill over a flat area of a noisy state
+        Arrays.fill(large,5000,5200,(byte) 7);
+        byte[] edited = large.clone();
+        Arrays.fill(edited,5000,5200,(byte) 1);
+        byte[] encoded = encode(large,edited);
+        check(encoded.length < 16,"small fill of 1 MB encoded to " + encoded.length + " bytes");
+    }
+
+    private static void roundTrip(byte[] before, byte[] after, String what) {
+        byte[] encoded = encode(before,after);
+        ByteBuffer target = ByteBuffer.allocateDirect(before.length).put(before).flip();
+        DeltaCodec.apply(encoded,target);
+        check(equal(target,after),what + ": before -> after");
+        DeltaCodec.apply(encoded,target);
+        check(equal(target,before),what + ": after -> before");
+        check(encoded.length <= before.length + before.length / 64 + 16,what + ": encoded larger than the state");
+    }
+
+    private static byte[] encode(byte[] before, byte[] after) {
+        ByteBuffer delta = ByteBuffer.allocateDirect(before.length).put(before).flip();
+        DeltaCodec.xor(delta,ByteBuffer.wrap(after),before.length);
+        byte[] encoded = DeltaCodec.encode(delta,before.length);
+        for (int i = 0; i < before.length; i++) {
+            check(delta.get(i) == (byte) (before[i] ^ after[i]),"xor at " + i);
+        } return encoded;
+    }
+
+    private static boolean equal(ByteBuffer buffer, byte[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.get(i) != expected[i]) return false;
+        } return true;
+    }
+
+    private static byte[] random(Random rnd, int length) {
+        byte[] bytes = new byte[length];
+        rnd.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,57 @@
+package io.github.heathensoft.canvas.io;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static io.github.heathensoft.canvas.Check.check;
+
+/**
+ * Records read back as written, across segments. A segment is reused once all its records are
+ * released, so the file does not grow with history that was discarded.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class HistoryFileTest {
+
+    private static final int SEGMENT = HistoryFile.SEGMENT_SIZE;
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(24);
+        HistoryFile history = HistoryFile.create("history test");
+        try { byte[] small = bytes(random,100);
+            byte[] large = bytes(random,SEGMENT - 50);
+            HistoryFile.Record a = history.write(small);
+            HistoryFile.Record b = history.write(large); // does not fit behind a
+            check(a.segment() != b.segment(),"record overflows its segment");
+            check(Arrays.equals(history.read(a),small),"first record read back");
+            check(Arrays.equals(history.read(b),large),"second record read back");
+            check(history.fileSize() == 2L * SEGMENT,"file size after two segments: " + history.fileSize());
+            check(history.liveBytes() == small.length + large.length,"live bytes");
+
+            history.release(a);
+            history.release(b);
+            check(history.liveBytes() == 0,"live bytes after release");
+            byte[] full = bytes(random,SEGMENT);
+            HistoryFile.Record c = history.write(full); // reuses a released segment
+            check(Arrays.equals(history.read(c),full),"reused segment read back");
+            check(history.fileSize() == 2L * SEGMENT,"file grew with released segments: " + history.fileSize());
+
+            byte[] huge = bytes(random,SEGMENT + 1); // larger than a segment, gets its own
+            HistoryFile.Record d = history.write(huge);
+            check(Arrays.equals(history.read(d),huge),"oversized record read back");
+            check(Arrays.equals(history.read(c),full),"earlier record overwritten");
+            check(history.fileSize() == 3L * SEGMENT + 1,"file size after oversized record: " + history.fileSize());
+        } finally {
+            history.dispose();
+        }
+    }
+
+    private static byte[] bytes(Random random, int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,97 @@
+package io.github.heathensoft.canvas.io;
+
+import java.nio.ByteBuffer;
+
+import static io.github.heathensoft.canvas.Check.check;
+
+/**
+ * Octahedral normals round-trip over the whole sphere (both hemispheres, the axes and the fold seams).
+ * Interleaving planes and extracting a component are inverse.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class PackedMapsTest {
+
+    private static final double MAX_ERROR = Math.toRadians(3.0); // two 8-bit quantizations
+
+    public static void main(String[] args) {
+        octahedralRoundTrip();
+        interleave();
+    }
+
+    private static void octahedralRoundTrip() {
+        int spiral = 4096;
+        float[][] normals = new float[spiral + 10][];
+        for (int i = 0; i < spiral; i++) { // fibonacci sphere
+            double z = 1.0 - 2.0 * (i + 0.5) / spiral;
+            double r = Math.sqrt(1.0 - z * z);
+            double phi = i * Math.PI * (3.0 - Math.sqrt(5.0));
+            normals[i] = new float[] { (float) (r * Math.cos(phi)), (float) (r * Math.sin(phi)), (float) z };
+        } normals[spiral] = new float[] { 0, 0.5f, -0.87f }; // on an axis, lower hemisphere
+        normals[spiral + 1] = new float[] { 0.5f, 0, -0.87f };
+        normals[spiral + 2] = new float[] { 0, -0.5f, -0.87f };
+        normals[spiral + 3] = new float[] { -0.5f, 0, -0.87f };
+        normals[spiral + 4] = new float[] { 0, 0, -1 };
+        normals[spiral + 5] = new float[] { 0, 0, 1 };
+        normals[spiral + 6] = new float[] { 1, 0, 0 };
+        normals[spiral + 7] = new float[] { 0, -1, 0 };
+        normals[spiral + 8] = new float[] { 0.7f, 0.7f, -0.14f };
+        normals[spiral + 9] = new float[] { -0.7f, 0.1f, -0.7f };
+        int texels = normals.length;
+        ByteBuffer exact = ByteBuffer.allocate(texels * 2); // unquantized input (axes stay exact)
+        ByteBuffer rgb = ByteBuffer.allocate(texels * 3);
+        for (int i = 0; i < texels; i++) {
+            float[] n = normalize(normals[i]);
+            PackedMaps.encodeOctahedral(n[0],n[1],n[2],exact,i * 2);
+            for (int c = 0; c < 3; c++) {
+                rgb.put(i * 3 + c,(byte) Math.round((n[c] * 0.5f + 0.5f) * 255f));
+            }
+        } compare(normals,PackedMaps.decodeOctahedral(exact,texels),"exact");
+        float[][] quantized = new float[texels][];
+        for (int i = 0; i < texels; i++) quantized[i] = unorm(rgb,i);
+        compare(quantized,PackedMaps.decodeOctahedral(PackedMaps.encodeOctahedral(rgb,texels),texels),"rgb8");
+    }
+
+    private static void compare(float[][] normals, ByteBuffer decoded, String what) {
+        for (int i = 0; i < normals.length; i++) {
+            float[] expected = normalize(normals[i]);
+            float[] actual = unorm(decoded,i);
+            double dot = expected[0] * actual[0] + expected[1] * actual[1] + expected[2] * actual[2];
+            double error = Math.acos(Math.max(-1.0,Math.min(1.0,dot)));
+            check(error <= MAX_ERROR,what + " normal " + i + " (" + expected[0] + ", " + expected[1] + ", "
+                    + expected[2] + ") decoded as (" + actual[0] + ", " + actual[1] + ", " + actual[2] + ")");
+        }
+    }
+
+    private static void interleave() {
+        int texels = 5;
+        ByteBuffer a = ByteBuffer.allocate(texels);
+        ByteBuffer b = ByteBuffer.allocate(texels);
+        for (int i = 0; i < texels; i++) {
+            a.put(i,(byte) i);
+            b.put(i,(byte) (200 + i));
+        } ByteBuffer packed = PackedMaps.interleave(texels,a,null,b);
+        check(packed.remaining() == texels * 3,"packed size");
+        byte[] component = PackedMaps.component(packed,texels,3,2);
+        for (int i = 0; i < texels; i++) {
+            check(packed.get(i * 3) == a.get(i),"component 0 at " + i);
+            check(packed.get(i * 3 + 1) == 0,"null plane not 0 at " + i);
+            check(component[i] == b.get(i),"component 2 at " + i);
+        } ByteBuffer planar = ByteBuffer.allocate(texels * 2).put(a.duplicate()).put(b.duplicate()).flip();
+        check(PackedMaps.interleave(planar,texels,2).equals(PackedMaps.interleave(texels,a,b)),"planar interleave");
+    }
+
+    private static float[] unorm(ByteBuffer rgb, int i) {
+        float[] n = new float[3];
+        for (int c = 0; c < 3; c++) n[c] = (rgb.get(i * 3 + c) & 0xFF) / 127.5f - 1f;
+        return normalize(n);
+    }
+
+    private static float[] normalize(float[] n) {
+        float length = (float) Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+        return new float[] { n[0] / length, n[1] / length, n[2] / length };
+    }
+}
@@ -0,0 +1,107 @@
+package io.github.heathensoft.canvas.io;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+
+import static io.github.heathensoft.canvas.Check.check;
+
+/**
+ * Encode, then decode with ImageIO and compare every sample. All channel counts and presets,
+ * flipped and not, large enough for several parallel deflate chunks (their concatenation must
+ * stay one zlib stream with a valid adler checksum).
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class PngEncoderTest {
+
+    public static void main(String[] args) throws Exception {
+        Random rnd = new Random(12);
+        for (PngEncoder.Preset preset : PngEncoder.Preset.values()) {
+            PngEncoder encoder = new PngEncoder(preset);
+            for (int channels = 1; channels <= 4; channels++) {
+                roundTrip(encoder,image(rnd,37,11,channels),37,11,channels,false);
+                roundTrip(encoder,image(rnd,37,11,channels),37,11,channels,true);
+            } roundTrip(encoder,image(rnd,320,300,4),320,300,4,true); // ~ 5 deflate chunks
+        }
+    }
+
+    private static void roundTrip(PngEncoder encoder, ByteBuffer pixels, int width, int height, int channels, boolean flip) throws Exception {
+        String what = encoder.preset() + ", " + channels + " channels, " + width + "x" + height + (flip ? ", flipped" : "");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(out,pixels,width,height,channels,flip);
+        byte[] png = out.toByteArray();
+        check(pixels.position() == 0,"pixels modified: " + what);
+        checkStream(png,(width * channels + 1) * height,what);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        check(image != null,"not decodable: " + what);
+        check(image.getWidth() == width && image.getHeight() == height,"size: " + what);
+        Raster raster = image.getRaster();
+        check(raster.getNumBands() == channels,"bands: " + what);
+        int[] samples = new int[channels];
+        for (int y = 0; y < height; y++) {
+            int row = flip ? height - 1 - y : y;
+            for (int x = 0; x < width; x++) {
+                raster.getPixel(x,y,samples);
+                for (int c = 0; c < channels; c++) {
+                    int expected = pixels.get((row * width + x) * channels + c) & 0xFF;
+                    check(samples[c] == expected,"sample " + x + "," + y + "," + c + ": " + what);
+                }
+            }
+        }
+    }
+
+    /** Chunk crcs, and the IDAT chunks inflate (zlib, adler checked) to the filtered size */
+    private static void checkStream(byte[] png, int filtered_size, String what) throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(png);
+        buffer.position(8);
+        ByteArrayOutputStream idat = new ByteArrayOutputStream();
+        while (buffer.hasRemaining()) {
+            int length = buffer.getInt();
+            byte[] type = new byte[4];
+            buffer.get(type);
+            byte[] data = new byte[length];
+            buffer.get(data);
+            CRC32 crc = new CRC32();
+            crc.update(type);
+            crc.update(data);
+            check((int) crc.getValue() == buffer.getInt(),"chunk crc: " + what);
+            if (new String(type,StandardCharsets.US_ASCII).equals("IDAT")) idat.write(data);
+        } Inflater inflater = new Inflater();
+        try { inflater.setInput(idat.toByteArray());
+            byte[] filtered = new byte[filtered_size + 1];
+            int n = 0;
+            while (!inflater.finished() && n < filtered.length) {
+                int read = inflater.inflate(filtered,n,filtered.length - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                n += read;
+            } check(inflater.finished(),"zlib stream not finished: " + what);
+            check(n == filtered_size,"filtered size " + n + ": " + what);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Noise over gradients: both compressible and not */
+    private static ByteBuffer image(Random rnd, int width, int height, int channels) {
+        ByteBuffer pixels = ByteBuffer.allocate(width * height * channels);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int c = 0; c < channels; c++) {
+                    int value = (x * (c + 1) + y * 3) + (rnd.nextInt(8) == 0 ? rnd.nextInt(256) : 0);
+                    pixels.put((y * width + x) * channels + c,(byte) value);
+                }
+            }
+        } return pixels;
+    }
+}
@@ -0,0 +1,114 @@
+package io.github.heathensoft.canvas.cpu;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+
+/**
+ * texture_normal_mapping.frag using the Vector API (jdk.incubator.vector).
+ * Do not reference this class directly unless NormalMappingPass.VECTOR_API is true.
+ *
+ * Rows are converted to world z once, padded by one texel on each side (clamp to edge).
+ * Then hl - hr, hd - hu and the normalization runs SPECIES.length() texels at a time.
+ * Output is identical to the scalar pass.
+ *
+ * @author Frederik Dahl
+ * 18/10/2026
+ */
+
+
+public class NormalMappingVector {
+
+    private static final VectorSpecies<Float> F_SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> I_SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final FloatVector ONE = FloatVector.broadcast(F_SPECIES,1.0f);
+
+    public static void process(CpuProject project, PipelineSettings settings, int x0, int y0, int x1, int y1) {
+        ByteBuffer color = project.colorSource();
+        ByteBuffer depth = project.depth();
+        ByteBuffer normals = project.normals();
+        int width = project.width();
+        int height = project.height();
+        int cols = x1 - x0;
+        float[] lut = depthToWorldZ(settings.depth_amplitude);
+        float[] down = new float[cols + 2];
+        float[] center = new float[cols + 2];
+        float[] up = new float[cols + 2];
+        int[] out_r = new int[cols];
+        int[] out_g = new int[cols];
+        int[] out_b = new int[cols];
+        byte[] row_out = new byte[cols * 3];
+        byte[] row_in = new byte[cols * 4];
+        loadRow(depth,lut,down,row_in,width,x0,x1,Math.max(y0 - 1,0));
+        loadRow(depth,lut,center,row_in,width,x0,x1,y0);
+        for (int y = y0; y < y1; y++) {
+            loadRow(depth,lut,up,row_in,width,x0,x1,Math.min(y + 1,height - 1));
+            int bound = F_SPECIES.loopBound(cols);
+            int x = 0;
+            for (; x < bound; x += F_SPECIES.length()) {
+                FloatVector hl = FloatVector.fromArray(F_SPECIES,center,x);
+                FloatVector hr = FloatVector.fromArray(F_SPECIES,center,x + 2);
+                FloatVector hd = FloatVector.fromArray(F_SPECIES,down,x + 1);
+                FloatVector hu = FloatVector.fromArray(F_SPECIES,up,x + 1);
+                FloatVector nx = hl.sub(hr);
+                FloatVector ny = hd.sub(hu);
+                FloatVector inv = ONE.div(nx.mul(nx).add(ny.mul(ny)).add(4.0f).sqrt());
+                unorm(nx.mul(inv).mul(0.5f).add(0.5f)).intoArray(out_r,x);
+                unorm(ny.mul(inv).mul(0.5f).add(0.5f)).intoArray(out_g,x);
+                unorm(inv.add(0.5f)).intoArray(out_b,x);
+            }
+            for (; x < cols; x++) {
+                float nx = center[x] - center[x + 2];
+                float ny = down[x + 1] - up[x + 1];
+                float inv = 1.0f / (float) Math.sqrt(nx * nx + ny * ny + 4.0f);
+                out_r[x] = CpuProject.unorm(nx * inv * 0.5f + 0.5f) & 0xFF;
+                out_g[x] = CpuProject.unorm(ny * inv * 0.5f + 0.5f) & 0xFF;
+                out_b[x] = CpuProject.unorm(2.0f * inv * 0.5f + 0.5f) & 0xFF;
+            }
+            int row = y * width;
+            color.get((row + x0) * 4,row_in,0,cols * 4);
+            for (int i = 0; i < cols; i++) {
+                int o = i * 3;
+                if (row_in[i * 4 + 3] != 0) {
+                    row_out[o] = (byte) out_r[i];
+                    row_out[o + 1] = (byte) out_g[i];
+                    row_out[o + 2] = (byte) out_b[i];
+                } else {
+                    row_out[o] = (byte) 0x80;
+                    row_out[o + 1] = (byte) 0x80;
+                    row_out[o + 2] = (byte) 0xFF;
+                }
+            } normals.put((row + x0) * 3,row_out);
+            float[] tmp = down;
+            down = center;
+            center = up;
+            up = tmp;
+        }
+    }
+
+    private static IntVector unorm(FloatVector v) {
+        FloatVector clamped = v.max(0.0f).min(1.0f).mul(255.0f).add(0.5f);
+        return (IntVector) clamped.convertShape(VectorOperators.F2I,I_SPECIES,0);
+    }
+
+    /** Padded: dst[0] is x0 - 1 and dst[cols + 1] is x1 (clamped to edge) */
+    private static void loadRow(ByteBuffer depth, float[] lut, float[] dst, byte[] tmp, int width, int x0, int x1, int y) {
+        int row = y * width;
+        int cols = x1 - x0;
+        depth.get(row + x0,tmp,0,cols);
+        for (int i = 0; i < cols; i++) {
+            dst[i + 1] = lut[tmp[i] & 0xFF];
+        } dst[0] = lut[depth.get(row + Math.max(x0 - 1,0)) & 0xFF];
+        dst[x1 - x0 + 1] = lut[depth.get(row + Math.min(x1,width - 1)) & 0xFF];
+    }
+
+    private static float[] depthToWorldZ(float amp) {
+        float[] lut = new float[256];
+        for (int i = 0; i < 256; i++) {
+            lut[i] = (2.0f * (i / 255f) - 1.0f) * amp;
+        } return lut;
+    }
+}